@@ -0,0 +1,145 @@
+package au.gov.digitalhealth.bench;
+
+import java.util.Arrays;
+
+/**
+ * Times operations in the manner of a JMH average time benchmark, without needing JMH itself.<p/>
+ *
+ * Each operation is first run repeatedly for a warm up period, so the JIT has compiled it and any caches are
+ * populated, and then for a number of measured iterations of a fixed duration. The time of every measured call is
+ * recorded to report percentiles as well as the mean and throughput. The result of every call is folded into a
+ * {@link #sink}, as JMH's <code>Blackhole</code> does, so the JIT cannot eliminate the call as dead code.
+ */
+public class BenchmarkRunner {
+
+    /**
+     * An operation to benchmark.
+     */
+    public interface Operation {
+
+        /**
+         * @param invocation int the number of previous calls, eg. to cycle through a set of inputs
+         * @return Object the result of the operation, consumed by the runner
+         */
+        Object run(int invocation);
+    }
+
+    private static final int MAX_SAMPLES = 1 << 20;
+
+    private final long warmupMillis;
+    private final int iterations;
+    private final long iterationMillis;
+
+    private volatile int sink;
+
+    /**
+     * @param warmupMillis long time to run each operation before measuring
+     * @param iterations int number of measured iterations
+     * @param iterationMillis long duration of each measured iteration
+     */
+    public BenchmarkRunner(long warmupMillis, int iterations, long iterationMillis) {
+        this.warmupMillis = warmupMillis;
+        this.iterations = iterations;
+        this.iterationMillis = iterationMillis;
+    }
+
+    /**
+     * Warm up then measure the <code>operation</code>.
+     *
+     * @param name String shown in the results
+     * @param operation Operation
+     * @return Result
+     */
+    public Result run(String name, Operation operation) {
+        int invocation = 0;
+        long warmupEnd = System.nanoTime() + warmupMillis * 1000000L;
+        while (System.nanoTime() < warmupEnd) {
+            consume(operation.run(invocation++));
+        }
+
+        long[] samples = new long[1024];
+        int sampleCount = 0;
+        long calls = 0;
+        long totalNanos = 0;
+        for (int i = 0; i < iterations; i++) {
+            long iterationEnd = System.nanoTime() + iterationMillis * 1000000L;
+            long now = System.nanoTime();
+            while (now < iterationEnd) {
+                long start = now;
+                consume(operation.run(invocation++));
+                now = System.nanoTime();
+                totalNanos += now - start;
+                calls++;
+                if (sampleCount < MAX_SAMPLES) {
+                    if (sampleCount == samples.length) {
+                        samples = Arrays.copyOf(samples, sampleCount * 2);
+                    }
+                    samples[sampleCount++] = now - start;
+                }
+            }
+        }
+        Arrays.sort(samples, 0, sampleCount);
+        return new Result(name, calls, totalNanos, samples, sampleCount);
+    }
+
+    private void consume(Object result) {
+        sink += result == null ? 0 : System.identityHashCode(result);
+    }
+
+    /**
+     * @return String the header line matching {@link Result#toString()}
+     */
+    public static String getHeader() {
+        return String.format("%-36s %10s %12s %12s %12s %12s", "Benchmark", "Calls", "Ops/s", "Mean us",
+                "p50 us", "p99 us");
+    }
+
+    /**
+     * The measurements of one operation.
+     */
+    public static class Result {
+        private final String name;
+        private final long calls;
+        private final double meanMicros;
+        private final double p50Micros;
+        private final double p99Micros;
+
+        Result(String name, long calls, long totalNanos, long[] sortedSamples, int sampleCount) {
+            this.name = name;
+            this.calls = calls;
+            this.meanMicros = calls == 0 ? 0 : totalNanos / 1000.0 / calls;
+            this.p50Micros = percentile(sortedSamples, sampleCount, 0.50);
+            this.p99Micros = percentile(sortedSamples, sampleCount, 0.99);
+        }
+
+        private static double percentile(long[] sortedSamples, int sampleCount, double fraction) {
+            if (sampleCount == 0) {
+                return 0;
+            }
+            return sortedSamples[(int) Math.min(sampleCount - 1, Math.floor(sampleCount * fraction))] / 1000.0;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public double getMeanMicros() {
+            return meanMicros;
+        }
+
+        public double getP50Micros() {
+            return p50Micros;
+        }
+
+        public double getP99Micros() {
+            return p99Micros;
+        }
+
+        @Override
+        public String toString() {
+            double opsPerSecond = meanMicros == 0 ? 0 : 1000000.0 / meanMicros;
+            return String.format("%-36s %10d %12.1f %12.3f %12.3f %12.3f", name, calls, opsPerSecond, meanMicros,
+                    p50Micros, p99Micros);
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package au.gov.digitalhealth.bench;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import au.gov.digitalhealth.db.ConceptFinder;
+import au.gov.digitalhealth.db.FetchPlan;
+import au.gov.digitalhealth.db.RefsetMemberIterator;
+import au.gov.digitalhealth.model.Concept;
+
+/**
+ * Benchmarks the {@link ConceptFinder} operations against a {@link SyntheticRf2Fixture}, run by the
+ * <i>benchmark</i> Ant target.<p/>
+ *
+ * With the rf2 backend (the default) the fixture is written to a temporary directory and loaded into memory, so no
+ * database is needed. To benchmark the jdbc backend, write the fixture with the <i>benchmarkFixture</i> target, load
+ * it with <i>ant db</i> (pointing <i>rf2.source.dir</i> at the fixture) and run with
+ * <code>-Dbenchmark.backend=jdbc</code>. The fixture is generated from a fixed seed, so both backends answer the same
+ * queries with the same results.<p/>
+ *
+ * The following system properties are optional:<ul>
+ * <li>benchmark.backend - jdbc or rf2 (default rf2)
+ * <li>benchmark.concepts - the number of concepts in the fixture (default 20000)
+ * <li>benchmark.warmup.ms - warm up time for each operation (default 2000)
+ * <li>benchmark.iterations - measured iterations of each operation (default 5)
+ * <li>benchmark.iteration.ms - duration of each measured iteration (default 1000)
+ * </ul>
+ * All other configuration is read from <i>config.file</i> (default application.properties) as by the application.
+ */
+public class ConceptFinderBenchmark {
+
+    private static final String SHORT_TERM = "card";
+    private static final String NO_MATCH_TERM = "zzqxj";
+
+    /** Heap retained by a fully fetched concept, excluding the term strings, that the model should stay within */
+    static final long FOOTPRINT_TARGET_BYTES = 160;
+
+    public static void main(String... args) throws IOException {
+        String backend = System.getProperty("benchmark.backend", "rf2");
+        final SyntheticRf2Fixture fixture = new SyntheticRf2Fixture(
+                Integer.parseInt(System.getProperty("benchmark.concepts", "20000")));
+        BenchmarkRunner runner = new BenchmarkRunner(
+                Long.parseLong(System.getProperty("benchmark.warmup.ms", "2000")),
+                Integer.parseInt(System.getProperty("benchmark.iterations", "5")),
+                Long.parseLong(System.getProperty("benchmark.iteration.ms", "1000")));
+
+        // The configuration file takes precedence over system properties, so the backend is selected by writing a
+        // copy of the configuration before the ConceptFinder is first used
+        Properties config = new Properties();
+        File configFile = new File(System.getProperty("config.file", "application.properties"));
+        if (configFile.exists()) {
+            Reader reader = new FileReader(configFile);
+            try {
+                config.load(reader);
+            } finally {
+                reader.close();
+            }
+        }
+        config.setProperty("db.backend", backend);
+        if ("rf2".equals(backend)) {
+            File fixtureDir = createTempDir();
+            fixture.write(fixtureDir);
+            config.setProperty("rf2.source.dir", fixtureDir.getAbsolutePath());
+        }
+        File benchmarkConfig = File.createTempFile("benchmark", ".properties");
+        benchmarkConfig.deleteOnExit();
+        Writer writer = new FileWriter(benchmarkConfig);
+        try {
+            config.store(writer, "Benchmark configuration");
+        } finally {
+            writer.close();
+        }
+        System.setProperty("config.file", benchmarkConfig.getAbsolutePath());
+
+        System.out.println("Benchmarking the " + backend + " backend with " + fixture.getConceptCount()
+                + " concepts");
+        final int conceptCount = fixture.getConceptCount();
+        final String longTerm = fixture.getPreferredTerm(conceptCount / 2);
+        final List<Concept> concepts = new ArrayList<Concept>();
+        for (int i = 0; concepts.size() < Math.min(1000, conceptCount) && i < conceptCount; i++) {
+            Concept concept = ConceptFinder.findById(fixture.getConceptId(i));
+            if (concept != null) {
+                concepts.add(concept);
+            }
+        }
+
+        List<BenchmarkRunner.Result> results = new ArrayList<BenchmarkRunner.Result>();
+        results.add(runner.run("findById", new BenchmarkRunner.Operation() {
+            public Object run(int invocation) {
+                return ConceptFinder.findById(fixture.getConceptId(invocation % conceptCount));
+            }
+        }));
+        results.add(runner.run("findByTerm short '" + SHORT_TERM + "'", new BenchmarkRunner.Operation() {
+            public Object run(int invocation) {
+                return ConceptFinder.findByTerm(SHORT_TERM);
+            }
+        }));
+        results.add(runner.run("findByTerm short, preferred term only", new BenchmarkRunner.Operation() {
+            public Object run(int invocation) {
+                return ConceptFinder.findByTerm(SHORT_TERM, FetchPlan.PREFERRED_TERM);
+            }
+        }));
+        results.add(runner.run("findByTerm long", new BenchmarkRunner.Operation() {
+            public Object run(int invocation) {
+                return ConceptFinder.findByTerm(longTerm);
+            }
+        }));
+        results.add(runner.run("findByTerm no match", new BenchmarkRunner.Operation() {
+            public Object run(int invocation) {
+                return ConceptFinder.findByTerm(NO_MATCH_TERM);
+            }
+        }));
+        results.add(runner.run("findRefsetMembers small", new BenchmarkRunner.Operation() {
+            public Object run(int invocation) {
+                return ConceptFinder.findRefsetMembers(SyntheticRf2Fixture.SMALL_REFSET_ID);
+            }
+        }));
+        results.add(runner.run("findRefsetMembers large (limited)", new BenchmarkRunner.Operation() {
+            public Object run(int invocation) {
+                return ConceptFinder.findRefsetMembers(SyntheticRf2Fixture.LARGE_REFSET_ID);
+            }
+        }));
+        results.add(runner.run("iterateRefsetMembers large (all)", new BenchmarkRunner.Operation() {
+            public Object run(int invocation) {
+                RefsetMemberIterator members = ConceptFinder.iterateRefsetMembers(
+                        SyntheticRf2Fixture.LARGE_REFSET_ID);
+                Concept last = null;
+                while (members.hasNext()) {
+                    last = members.next();
+                }
+                return last;
+            }
+        }));
+        results.add(runner.run("iterateRefsetMembers large (ids only)", new BenchmarkRunner.Operation() {
+            public Object run(int invocation) {
+                RefsetMemberIterator members = ConceptFinder.iterateRefsetMembers(
+                        SyntheticRf2Fixture.LARGE_REFSET_ID, 0, ConceptFinder.getResultLimit(), FetchPlan.ID);
+                Concept last = null;
+                while (members.hasNext()) {
+                    last = members.next();
+                }
+                return last;
+            }
+        }));
+        results.add(runner.run("Concept.toString", new BenchmarkRunner.Operation() {
+            public Object run(int invocation) {
+                return concepts.get(invocation % concepts.size()).toString();
+            }
+        }));
+        results.add(runner.run("Concept.getPreferredTerm", new BenchmarkRunner.Operation() {
+            public Object run(int invocation) {
+                return concepts.get(invocation % concepts.size()).getPreferredTerm();
+            }
+        }));
+
+        System.out.println();
+        System.out.println(BenchmarkRunner.getHeader());
+        for (BenchmarkRunner.Result result : results) {
+            System.out.println(result);
+        }
+
+        List<Long> conceptIds = new ArrayList<Long>(conceptCount);
+        for (int i = 0; i < conceptCount; i++) {
+            conceptIds.add(fixture.getConceptId(i));
+        }
+        System.out.println();
+        long footprint = measureFootprint(conceptIds, FetchPlan.FULL);
+        System.out.println("Concept footprint, full: " + footprint + " bytes per concept, target "
+                + FOOTPRINT_TARGET_BYTES + (footprint > FOOTPRINT_TARGET_BYTES ? " - OVER TARGET" : ""));
+        System.out.println("Concept footprint, preferred term only: "
+                + measureFootprint(conceptIds, FetchPlan.PREFERRED_TERM) + " bytes per concept");
+        System.exit(0);
+    }
+
+    /**
+     * Measures the heap retained by each concept found with the <code>fetchPlan</code>, averaged over all the
+     * <code>conceptIds</code>. With the rf2 backend the term strings are shared with the backend, so this is the cost
+     * of the {@link Concept} representation itself.
+     *
+     * @return long bytes per concept
+     */
+    private static long measureFootprint(List<Long> conceptIds, FetchPlan fetchPlan) {
+        // Hydrate once first so the reference set concepts are already cached
+        ConceptFinder.findByIds(conceptIds, fetchPlan);
+        long before = usedHeap();
+        Object[] retained = retain(conceptIds, fetchPlan);
+        long after = usedHeap();
+        if (retained.length == 0) {
+            throw new IllegalStateException("No concepts found");
+        }
+        return (after - before - retained.length * 4L) / retained.length;
+    }
+
+    /**
+     * Find the concepts in a method of its own, so the map they are returned in is garbage before the heap is
+     * measured again.
+     */
+    private static Object[] retain(List<Long> conceptIds, FetchPlan fetchPlan) {
+        return ConceptFinder.findByIds(conceptIds, fetchPlan).values().toArray();
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+
+    private static File createTempDir() throws IOException {
+        File dir = File.createTempFile("rf2-fixture", "");
+        if (!dir.delete() || !dir.mkdir()) {
+            throw new IOException("Unable to create fixture directory " + dir.getAbsolutePath());
+        }
+        deleteOnExit(dir);
+        return dir;
+    }
+
+    private static void deleteOnExit(final File dir) {
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            public void run() {
+                delete(dir);
+            }
+        });
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,260 @@
+package au.gov.digitalhealth.bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+
+/**
+ * Writes a synthetic SCT-AU RF2 snapshot bundle for benchmarking.<p/>
+ *
+ * The content is generated from a fixed seed, so the same number of concepts always produces the same bundle and
+ * the same SCT IDs, terms and reference set members. A bundle written once and loaded into the database with
+ * <i>ant db</i> can therefore be benchmarked with the jdbc backend and compared with the rf2 backend loading the
+ * same files.<p/>
+ *
+ * Each concept has a fully specified name, a preferred synonym and an acceptable synonym made up of words from a
+ * small clinical vocabulary, and an is-a relationship to an earlier concept. Every concept is a member of the
+ * large reference set, every {@link #SMALL_REFSET_SPACING}th of the small one.
+ */
+public class SyntheticRf2Fixture {
+
+    private static final String EFFECTIVE_TIME = "20240131";
+    private static final String HEADER_SUFFIX = "\r\n";
+
+    static final long MODULE_ID = 32506021000036107L;
+    static final long PRIMITIVE_ID = 900000000000074008L;
+    static final long FSN_TYPE_ID = 900000000000003001L;
+    static final long SYNONYM_TYPE_ID = 900000000000013009L;
+    static final long CASE_INSENSITIVE_ID = 900000000000448009L;
+    static final long IS_A_ID = 116680003L;
+    static final long INFERRED_ID = 900000000000011006L;
+    static final long EXISTENTIAL_ID = 900000000000451002L;
+    static final long PREFERRED_ID = 900000000000548007L;
+    static final long ACCEPTABLE_ID = 900000000000549004L;
+    static final long EN_AU_REFSET_ID = 32570271000036106L;
+
+    /** Reference set with a member for every concept */
+    public static final long LARGE_REFSET_ID = 32570071000036102L;
+
+    /** Reference set with a member for every {@link #SMALL_REFSET_SPACING}th concept */
+    public static final long SMALL_REFSET_ID = 32570331000036102L;
+
+    static final int SMALL_REFSET_SPACING = 1000;
+
+    /** The metadata concepts, also given descriptions so that reference set concepts can be displayed */
+    private static final long[] METADATA_IDS = {MODULE_ID, PRIMITIVE_ID, FSN_TYPE_ID, SYNONYM_TYPE_ID,
+        CASE_INSENSITIVE_ID, IS_A_ID, INFERRED_ID, EXISTENTIAL_ID, PREFERRED_ID, ACCEPTABLE_ID, EN_AU_REFSET_ID,
+        LARGE_REFSET_ID, SMALL_REFSET_ID};
+
+    private static final String[] WORDS = {
+        "acute", "chronic", "cardiac", "heart", "valve", "structure", "disorder", "fracture", "femur", "tibia",
+        "renal", "kidney", "hepatic", "liver", "pulmonary", "lung", "artery", "vein", "infection", "bacterial",
+        "viral", "injury", "left", "right", "upper", "lower", "abscess", "allergy", "penicillin", "asthma",
+        "diabetes", "mellitus", "type", "neoplasm", "benign", "malignant", "skin", "lesion", "ulcer", "foot",
+        "hand", "wrist", "ankle", "knee", "hip", "spine", "lumbar", "cervical", "thoracic", "abdominal",
+        "pain", "syndrome", "congenital", "anomaly", "procedure", "excision", "repair", "biopsy", "implant",
+        "catheter", "insertion", "removal", "metatarsal", "fifth", "bone", "joint", "muscle", "tendon", "nerve",
+        "gastric", "ulcerative", "colitis", "bowel", "obstruction", "hernia", "inguinal", "eye", "retina", "ear"
+    };
+
+    private final int conceptCount;
+
+    /**
+     * @param conceptCount The number of (non metadata) concepts to generate
+     */
+    public SyntheticRf2Fixture(int conceptCount) {
+        this.conceptCount = conceptCount;
+    }
+
+    /**
+     * @return The SCT ID of the generated concept <code>index</code>, 0 based
+     */
+    public long getConceptId(int index) {
+        return sctId(index, "00");
+    }
+
+    public int getConceptCount() {
+        return conceptCount;
+    }
+
+    /**
+     * @return The preferred term of the generated concept <code>index</code>
+     */
+    public String getPreferredTerm(int index) {
+        return terms(index)[1];
+    }
+
+    /**
+     * @return The number of members of the {@link #SMALL_REFSET_ID}
+     */
+    public int getSmallRefsetSize() {
+        return (conceptCount + SMALL_REFSET_SPACING - 1) / SMALL_REFSET_SPACING;
+    }
+
+    /**
+     * Write the bundle's Snapshot directory below <code>dir</code>.
+     *
+     * @param dir File, created if necessary
+     * @throws RuntimeException IOException file errors.
+     */
+    public void write(File dir) throws RuntimeException {
+        File terminology = new File(dir, "Snapshot/Terminology");
+        File language = new File(dir, "Snapshot/Refset/Language");
+        File content = new File(dir, "Snapshot/Refset/Content");
+        terminology.mkdirs();
+        language.mkdirs();
+        content.mkdirs();
+
+        Writer concepts = null;
+        Writer descriptions = null;
+        Writer relationships = null;
+        Writer languageRefset = null;
+        Writer simpleRefset = null;
+        try {
+            concepts = open(new File(terminology, "sct2_Concept_Snapshot_AU1000036_" + EFFECTIVE_TIME + ".txt"),
+                    "id\teffectiveTime\tactive\tmoduleId\tdefinitionStatusId");
+            descriptions = open(new File(terminology, "sct2_Description_Snapshot-en-AU_AU1000036_" + EFFECTIVE_TIME
+                    + ".txt"), "id\teffectiveTime\tactive\tmoduleId\tconceptId\tlanguageCode\ttypeId\tterm"
+                    + "\tcaseSignificanceId");
+            relationships = open(new File(terminology, "sct2_Relationship_Snapshot_AU1000036_" + EFFECTIVE_TIME
+                    + ".txt"), "id\teffectiveTime\tactive\tmoduleId\tsourceId\tdestinationId\trelationshipGroup"
+                    + "\ttypeId\tcharacteristicTypeId\tmodifierId");
+            languageRefset = open(new File(language, "der2_cRefset_LanguageSnapshot-en-AU_AU1000036_"
+                    + EFFECTIVE_TIME + ".txt"), "id\teffectiveTime\tactive\tmoduleId\trefsetId"
+                    + "\treferencedComponentId\tacceptabilityId");
+            simpleRefset = open(new File(content, "der2_Refset_SimpleSnapshot_AU1000036_" + EFFECTIVE_TIME
+                    + ".txt"), "id\teffectiveTime\tactive\tmoduleId\trefsetId\treferencedComponentId");
+
+            long descriptionCount = 0;
+            long memberCount = 0;
+            for (int m = 0; m < METADATA_IDS.length; m++) {
+                long id = METADATA_IDS[m];
+                row(concepts, id, 1, MODULE_ID, PRIMITIVE_ID);
+                String term = "Metadata concept " + id;
+                descriptionCount = description(descriptions, languageRefset, descriptionCount, id, term,
+                        SYNONYM_TYPE_ID, PREFERRED_ID);
+            }
+
+            for (int i = 0; i < conceptCount; i++) {
+                long id = getConceptId(i);
+                // Every hundredth concept is inactive, as retired content is in every release
+                row(concepts, id, i % 100 == 99 ? 0 : 1, MODULE_ID, PRIMITIVE_ID);
+
+                String[] terms = terms(i);
+                descriptionCount = description(descriptions, languageRefset, descriptionCount, id,
+                        terms[0] + " (disorder)", FSN_TYPE_ID, PREFERRED_ID);
+                descriptionCount = description(descriptions, languageRefset, descriptionCount, id, terms[1],
+                        SYNONYM_TYPE_ID, PREFERRED_ID);
+                descriptionCount = description(descriptions, languageRefset, descriptionCount, id, terms[2],
+                        SYNONYM_TYPE_ID, ACCEPTABLE_ID);
+
+                if (i > 0) {
+                    long parent = getConceptId(new Random(i).nextInt(i));
+                    row(relationships, sctId(i, "20"), 1, MODULE_ID, id, parent, 0, IS_A_ID, INFERRED_ID,
+                            EXISTENTIAL_ID);
+                }
+
+                simpleRefset.write(memberId(memberCount++) + "\t" + EFFECTIVE_TIME + "\t1\t" + MODULE_ID + "\t"
+                        + LARGE_REFSET_ID + "\t" + id + "\r\n");
+                if (i % SMALL_REFSET_SPACING == 0) {
+                    simpleRefset.write(memberId(memberCount++) + "\t" + EFFECTIVE_TIME + "\t1\t" + MODULE_ID + "\t"
+                            + SMALL_REFSET_ID + "\t" + id + "\r\n");
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to write fixture to " + dir.getAbsolutePath(), e);
+        } finally {
+            close(concepts);
+            close(descriptions);
+            close(relationships);
+            close(languageRefset);
+            close(simpleRefset);
+        }
+    }
+
+    /**
+     * @return The fully specified name (without semantic tag), preferred term and acceptable synonym of concept
+     *         <code>index</code>
+     */
+    private String[] terms(int index) {
+        Random random = new Random(31L * index + 7);
+        StringBuilder fsn = new StringBuilder();
+        int words = 2 + random.nextInt(3);
+        for (int w = 0; w < words; w++) {
+            if (w > 0) {
+                fsn.append(' ');
+            }
+            fsn.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        fsn.append(' ').append(index);
+        String name = Character.toUpperCase(fsn.charAt(0)) + fsn.substring(1);
+        String synonym = Character.toUpperCase(WORDS[random.nextInt(WORDS.length)].charAt(0))
+                + WORDS[random.nextInt(WORDS.length)].substring(1) + " " + fsn.substring(0, fsn.indexOf(" "));
+        return new String[] {name, name, synonym + " " + index};
+    }
+
+    private long description(Writer descriptions, Writer languageRefset, long count, long conceptId, String term,
+            long typeId, long acceptabilityId) throws IOException {
+        long id = sctId(count, "10");
+        row(descriptions, id, 1, MODULE_ID, conceptId, "en", typeId, term, CASE_INSENSITIVE_ID);
+        languageRefset.write(memberId(count) + "\t" + EFFECTIVE_TIME + "\t1\t" + MODULE_ID + "\t" + EN_AU_REFSET_ID
+                + "\t" + id + "\t" + acceptabilityId + "\r\n");
+        return count + 1;
+    }
+
+    /**
+     * @return An SCT ID with the item identifier <code>item</code> and the <code>partition</code> identifier, the
+     *         check digit is not calculated
+     */
+    private static long sctId(long item, String partition) {
+        return Long.parseLong((1000000 + item) + partition + "0");
+    }
+
+    /** @return A reference set member UUID */
+    private static String memberId(long member) {
+        String hex = Long.toHexString(member);
+        return "00000000-0000-0000-0000-" + "000000000000".substring(hex.length()) + hex;
+    }
+
+    private static Writer open(File file, String header) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), 1 << 16);
+        writer.write(header + HEADER_SUFFIX);
+        return writer;
+    }
+
+    private static void row(Writer writer, Object... values) throws IOException {
+        writer.write(String.valueOf(values[0]));
+        writer.write('\t');
+        writer.write(EFFECTIVE_TIME);
+        for (int i = 1; i < values.length; i++) {
+            writer.write('\t');
+            writer.write(String.valueOf(values[i]));
+        }
+        writer.write("\r\n");
+    }
+
+    private static void close(Writer writer) {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                System.err.println("Unable to close fixture file!");
+            }
+        }
+    }
+
+    /**
+     * Write a fixture bundle to the directory given as the first argument, with the number of concepts given as the
+     * second.
+     */
+    public static void main(String... args) {
+        File dir = new File(args[0]);
+        SyntheticRf2Fixture fixture = new SyntheticRf2Fixture(Integer.parseInt(args[1]));
+        fixture.write(dir);
+        System.out.println("Wrote " + fixture.getConceptCount() + " concept fixture to " + dir.getAbsolutePath());
+    }
+}
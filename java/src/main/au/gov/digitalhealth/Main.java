@@ -5,6 +5,8 @@ import java.util.InputMismatchException;
 import java.util.Scanner;
 
 import au.gov.digitalhealth.db.ConceptFinder;
+import au.gov.digitalhealth.db.RefsetMemberIterator;
+import au.gov.digitalhealth.index.Suggestions;
 import au.gov.digitalhealth.model.Concept;
 import au.gov.digitalhealth.Main;
 
@@ -17,6 +19,8 @@ public class Main {
 
     private Scanner input = new Scanner(System.in);
 
+    private Suggestions suggestions = new Suggestions(10);
+
     public Main() {
         input.useDelimiter(System.getProperty("line.separator"));
     }
@@ -29,6 +33,8 @@ public class Main {
         System.out.println("\t1. Find concept by SCT ID");
         System.out.println("\t2. Find concept by term");
         System.out.println("\t3. List all members of a refset");
+        System.out.println("\t4. Suggest concepts for a word prefix");
+        System.out.println("\tM. Show query metrics");
         System.out.println("\tQ. Quit");
         System.out.println("\n\nEnter selection:");
     }
@@ -69,8 +75,18 @@ public class Main {
         try {
 
             long sctId = input.nextLong();
-            Collection<Concept> concepts = ConceptFinder.findRefsetMembers(sctId);
-            printConcepts(concepts);
+            // Walk the members a page at a time so large reference sets are listed in full
+            RefsetMemberIterator members = ConceptFinder.iterateRefsetMembers(sctId);
+            int conceptNumber = 0;
+            while (members.hasNext()) {
+                System.out.println("Concept " + (++conceptNumber));
+                System.out.println(members.next());
+            }
+            if (conceptNumber == 0) {
+                System.out.println("No suitable concepts found!");
+            } else {
+                System.out.println(conceptNumber + " members listed");
+            }
 
         } catch (InputMismatchException e) {
             System.out.println("Invalid SCT ID!");
@@ -78,6 +94,20 @@ public class Main {
         }
     }
 
+    private void suggestConcepts() {
+        System.out.println("\nSuggesting concepts...");
+        System.out.println("\nEnter start of a word:");
+        String prefix = input.next();
+
+        ConceptFinder.suggest(prefix, suggestions);
+        if (suggestions.size() == 0) {
+            System.out.println("No suitable concepts found!");
+        }
+        for (int i = 0; i < suggestions.size(); i++) {
+            System.out.println("\t" + suggestions.getConceptId(i) + "\t" + suggestions.getPreferredTerm(i));
+        }
+    }
+
     private void printConcepts(Collection<Concept> concepts) {
         if (concepts == null || concepts.size() == 0) {
             System.out.println("No suitable concepts found!");
@@ -127,6 +157,16 @@ public class Main {
                     break;
                 }
 
+                case '4' : {
+                    suggestConcepts();
+                    break;
+                }
+
+                case 'M' : case 'm' : {
+                    System.out.println(ConceptFinder.getQueryMetrics().getSnapshot());
+                    break;
+                }
+
                 case 'Q' : case 'q' : {
                     System.exit(0);
                     break;
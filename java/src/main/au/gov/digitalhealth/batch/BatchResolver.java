@@ -0,0 +1,258 @@
+package au.gov.digitalhealth.batch;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import au.gov.digitalhealth.db.ConceptFinder;
+import au.gov.digitalhealth.db.DataSource;
+import au.gov.digitalhealth.model.Concept;
+
+/**
+ * Resolves a file of SCT IDs, one per line, to their preferred terms and reference set memberships without user
+ * interaction, eg. for nightly jobs over order and problem lists.<p/>
+ *
+ * The input is read in chunks of <i>batch.chunk.size</i> lines, each chunk resolved with
+ * {@link ConceptFinder#findByIds(java.util.Collection)} on one of <i>batch.threads</i> threads. The results are
+ * written as tab separated lines, with a header, in the same order as the input:<ul>
+ * <li>sctId - the input line, trimmed
+ * <li>status - <code>found</code>, <code>not_found</code> if there is no active concept with the SCT ID, or
+ * <code>invalid</code> if the line is not an SCT ID
+ * <li>preferredTerm - the en-AU preferred term of the concept
+ * <li>refsetIds - the reference sets the concept is a member of, comma separated
+ * </ul>
+ * Blank lines are skipped. At most two chunks per thread are read ahead of the one being written, so the memory used
+ * does not grow with the size of the file. With the jdbc backend set <i>db.pool.max.size</i> to at least
+ * <i>batch.threads</i>, see {@link DataSource}.
+ */
+public class BatchResolver {
+
+    static final String HEADER = "sctId\tstatus\tpreferredTerm\trefsetIds";
+
+    private final int threads;
+    private final int chunkSize;
+
+    private long lineCount;
+    private long foundCount;
+    private long notFoundCount;
+    private long invalidCount;
+
+    /**
+     * The resolved lines of one chunk of the input, ready to write.
+     */
+    private static class ResolvedChunk {
+        final StringBuilder lines = new StringBuilder();
+        int lineCount;
+        int foundCount;
+        int notFoundCount;
+        int invalidCount;
+    }
+
+    /**
+     * @param threads int chunks resolved at once
+     * @param chunkSize int SCT IDs resolved together
+     */
+    public BatchResolver(int threads, int chunkSize) {
+        this.threads = threads;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Resolve each line of the <code>input</code>, writing the results to the <code>output</code> in input order.
+     * Neither is closed.
+     *
+     * @param input BufferedReader of SCT IDs, one per line
+     * @param output Writer receiving the header and a line per SCT ID
+     * @throws IOException reading or writing
+     * @throws RuntimeException SQLException database errors.
+     */
+    public void resolve(BufferedReader input, Writer output) throws IOException, RuntimeException {
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        LinkedList<Future<ResolvedChunk>> pending = new LinkedList<Future<ResolvedChunk>>();
+        try {
+            output.write(HEADER);
+            output.write('\n');
+
+            List<String> chunk = new ArrayList<String>(chunkSize);
+            String line;
+            while ((line = input.readLine()) != null) {
+                line = line.trim();
+                if (line.length() == 0) {
+                    continue;
+                }
+                chunk.add(line);
+                if (chunk.size() == chunkSize) {
+                    pending.add(workers.submit(resolver(chunk)));
+                    chunk = new ArrayList<String>(chunkSize);
+                    // Wait for the oldest chunk before reading further so only a few chunks are held at once
+                    while (pending.size() >= threads * 2) {
+                        write(pending.removeFirst(), output);
+                    }
+                }
+            }
+            if (!chunk.isEmpty()) {
+                pending.add(workers.submit(resolver(chunk)));
+            }
+            while (!pending.isEmpty()) {
+                write(pending.removeFirst(), output);
+            }
+            output.flush();
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private Callable<ResolvedChunk> resolver(final List<String> chunk) {
+        return new Callable<ResolvedChunk>() {
+            public ResolvedChunk call() {
+                return resolve(chunk);
+            }
+        };
+    }
+
+    /**
+     * Resolve all the SCT IDs of a chunk with one call to {@link ConceptFinder#findByIds(java.util.Collection)}.
+     */
+    static ResolvedChunk resolve(List<String> chunk) {
+        Long[] sctIds = new Long[chunk.size()];
+        List<Long> validIds = new ArrayList<Long>(chunk.size());
+        for (int i = 0; i < sctIds.length; i++) {
+            sctIds[i] = parseId(chunk.get(i));
+            if (sctIds[i] != null) {
+                validIds.add(sctIds[i]);
+            }
+        }
+        Map<Long, Concept> concepts = ConceptFinder.findByIds(validIds);
+
+        ResolvedChunk resolved = new ResolvedChunk();
+        for (int i = 0; i < sctIds.length; i++) {
+            StringBuilder lines = resolved.lines.append(chunk.get(i)).append('\t');
+            Concept concept = sctIds[i] == null ? null : concepts.get(sctIds[i]);
+            if (sctIds[i] == null) {
+                lines.append("invalid\t\t");
+                resolved.invalidCount++;
+            } else if (concept == null) {
+                lines.append("not_found\t\t");
+                resolved.notFoundCount++;
+            } else {
+                lines.append("found\t").append(concept.getPreferredTerm()).append('\t');
+                appendRefsetIds(lines, concept);
+                resolved.foundCount++;
+            }
+            lines.append('\n');
+            resolved.lineCount++;
+        }
+        return resolved;
+    }
+
+    private static void appendRefsetIds(StringBuilder lines, Concept concept) {
+        long[] refsetIds = concept.getRefsetIds();
+        Arrays.sort(refsetIds);
+        for (int i = 0; i < refsetIds.length; i++) {
+            if (i > 0) {
+                lines.append(',');
+            }
+            lines.append(refsetIds[i]);
+        }
+    }
+
+    /**
+     * @return Long the SCT ID on the line, <code>null</code> if it is not one
+     */
+    static Long parseId(String line) {
+        if (line.length() < 6 || line.length() > 18) {
+            return null;
+        }
+        for (int i = 0; i < line.length(); i++) {
+            if (line.charAt(i) < '0' || line.charAt(i) > '9') {
+                return null;
+            }
+        }
+        return Long.valueOf(line);
+    }
+
+    private void write(Future<ResolvedChunk> future, Writer output) throws IOException {
+        ResolvedChunk resolved;
+        try {
+            resolved = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted resolving SCT IDs", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Unable to resolve SCT IDs", e.getCause());
+        }
+        output.append(resolved.lines);
+        lineCount += resolved.lineCount;
+        foundCount += resolved.foundCount;
+        notFoundCount += resolved.notFoundCount;
+        invalidCount += resolved.invalidCount;
+    }
+
+    public long getLineCount() {
+        return lineCount;
+    }
+
+    public long getFoundCount() {
+        return foundCount;
+    }
+
+    public long getNotFoundCount() {
+        return notFoundCount;
+    }
+
+    public long getInvalidCount() {
+        return invalidCount;
+    }
+
+    /**
+     * Resolve the SCT IDs in the file named by the first argument, writing the results to the file named by the
+     * second.
+     */
+    public static void main(String... args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: BatchResolver <input file of SCT IDs> <output file>");
+            System.exit(1);
+        }
+        DataSource dataSource = new DataSource();
+        BatchResolver resolver = new BatchResolver(dataSource.getBatchThreads(), dataSource.getBatchChunkSize());
+
+        File inputFile = new File(args[0]);
+        File outputFile = new File(args[1]);
+        System.out.println("Resolving SCT IDs in " + inputFile.getAbsolutePath());
+        long start = System.currentTimeMillis();
+
+        BufferedReader input = new BufferedReader(new InputStreamReader(new FileInputStream(inputFile), "UTF-8"));
+        try {
+            Writer output = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputFile), "UTF-8"));
+            try {
+                resolver.resolve(input, output);
+            } finally {
+                output.close();
+            }
+        } finally {
+            input.close();
+        }
+
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        System.out.println("Resolved " + resolver.getLineCount() + " SCT IDs in " + elapsed + "ms ("
+                + (resolver.getLineCount() * 1000 / elapsed) + "/s): " + resolver.getFoundCount() + " found, "
+                + resolver.getNotFoundCount() + " not found, " + resolver.getInvalidCount() + " invalid");
+        System.out.println("Results written to " + outputFile.getAbsolutePath());
+    }
+}
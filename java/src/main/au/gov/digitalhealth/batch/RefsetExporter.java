@@ -0,0 +1,259 @@
+package au.gov.digitalhealth.batch;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import au.gov.digitalhealth.db.ConceptFinder;
+import au.gov.digitalhealth.db.MemberDescriptionHandler;
+import au.gov.digitalhealth.model.Metadata.LanguageAcceptability;
+import au.gov.digitalhealth.server.ConceptJson;
+
+/**
+ * Exports the members of reference sets, with their preferred terms and acceptability-tagged descriptions, as flat
+ * files for downstream systems.<p/>
+ *
+ * Each reference set is read with one call to
+ * {@link ConceptFinder#exportRefsetMembers(long, MemberDescriptionHandler)}, which streams the descriptions of the
+ * members rather than hydrating them, and written as the descriptions arrive. Only the descriptions of the member
+ * being written are held, so the memory used does not grow with the size of the reference set. Members are written in
+ * SCT ID order, in one of the {@link Format}s:<ul>
+ * <li>CSV - a header, then a line per description of each member with the columns refsetId, conceptId,
+ * preferredTerm, term and acceptability, quoted as RFC 4180
+ * <li>NDJSON - a JSON object per member, written as the {@link au.gov.digitalhealth.server.LookupServer} writes
+ * concepts: <code>{"refsetId":"...","sctId":"...","preferredTerm":"...",
+ * "descriptions":[{"term":"...","acceptability":"PREFERRED"}, ...]}</code>
+ * </ul>
+ * Members without active descriptions are not written.
+ */
+public class RefsetExporter implements MemberDescriptionHandler {
+
+    static final String CSV_HEADER = "refsetId,conceptId,preferredTerm,term,acceptability";
+
+    /**
+     * The file formats the members can be written in, see the class description.
+     */
+    public enum Format {
+        CSV, NDJSON
+    }
+
+    private final Format format;
+    private final Writer output;
+    private final StringBuilder lines = new StringBuilder();
+
+    private long refsetSctId;
+
+    /** The member whose descriptions are being received */
+    private long conceptSctid;
+    private final List<String> terms = new ArrayList<String>();
+    private final List<LanguageAcceptability> acceptabilities = new ArrayList<LanguageAcceptability>();
+
+    private long refsetCount;
+    private long memberCount;
+    private long descriptionCount;
+
+    /**
+     * @param format Format to write the members in
+     * @param output Writer receiving the members, buffered by the caller
+     * @throws IOException writing the CSV header
+     */
+    public RefsetExporter(Format format, Writer output) throws IOException {
+        this.format = format;
+        this.output = output;
+        if (format == Format.CSV) {
+            output.write(CSV_HEADER);
+            output.write('\n');
+        }
+    }
+
+    /**
+     * Write the members of the reference set <code>refsetSctId</code>. The output is flushed but not closed.
+     *
+     * @param refsetSctId long reference set id
+     * @return long number of members written
+     * @throws IOException writing
+     * @throws RuntimeException SQLException database errors.
+     */
+    public long export(long refsetSctId) throws IOException, RuntimeException {
+        this.refsetSctId = refsetSctId;
+        long firstMember = memberCount;
+        try {
+            ConceptFinder.exportRefsetMembers(refsetSctId, this);
+            writeMember();
+        } catch (UncheckedWriteException e) {
+            throw e.getCause();
+        } finally {
+            terms.clear();
+            acceptabilities.clear();
+        }
+        output.flush();
+        refsetCount++;
+        return memberCount - firstMember;
+    }
+
+    public void processDescription(long conceptSctid, String term, LanguageAcceptability acceptability) {
+        if (conceptSctid != this.conceptSctid && !terms.isEmpty()) {
+            try {
+                writeMember();
+            } catch (IOException e) {
+                throw new UncheckedWriteException(e);
+            }
+        }
+        this.conceptSctid = conceptSctid;
+        // A repeated term keeps its place with the latest acceptability, as Concept.addDescription does
+        int index = terms.indexOf(term);
+        if (index < 0) {
+            terms.add(term);
+            acceptabilities.add(acceptability);
+        } else {
+            acceptabilities.set(index, acceptability);
+        }
+    }
+
+    /**
+     * Write the member whose descriptions have been received, if there is one.
+     */
+    private void writeMember() throws IOException {
+        if (terms.isEmpty()) {
+            return;
+        }
+        int preferred = acceptabilities.indexOf(LanguageAcceptability.PREFERRED);
+        String preferredTerm = terms.get(preferred < 0 ? 0 : preferred);
+
+        lines.setLength(0);
+        if (format == Format.CSV) {
+            for (int i = 0; i < terms.size(); i++) {
+                lines.append(refsetSctId).append(',').append(conceptSctid).append(',');
+                appendCsv(lines, preferredTerm);
+                lines.append(',');
+                appendCsv(lines, terms.get(i));
+                lines.append(',').append(acceptabilities.get(i).name()).append('\n');
+            }
+        } else {
+            lines.append("{\"refsetId\":");
+            ConceptJson.appendId(lines, refsetSctId);
+            lines.append(",\"sctId\":");
+            ConceptJson.appendId(lines, conceptSctid);
+            lines.append(",\"preferredTerm\":");
+            ConceptJson.appendString(lines, preferredTerm);
+            lines.append(",\"descriptions\":[");
+            for (int i = 0; i < terms.size(); i++) {
+                if (i > 0) {
+                    lines.append(',');
+                }
+                lines.append("{\"term\":");
+                ConceptJson.appendString(lines, terms.get(i));
+                lines.append(",\"acceptability\":");
+                ConceptJson.appendString(lines, acceptabilities.get(i).name());
+                lines.append('}');
+            }
+            lines.append("]}\n");
+        }
+        output.append(lines);
+
+        memberCount++;
+        descriptionCount += terms.size();
+        terms.clear();
+        acceptabilities.clear();
+    }
+
+    /**
+     * Append the <code>value</code> as a CSV field, quoted if it contains a comma, quote or line break.
+     */
+    static void appendCsv(StringBuilder out, String value) {
+        boolean quoted = false;
+        for (int i = 0; i < value.length() && !quoted; i++) {
+            char c = value.charAt(i);
+            quoted = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quoted) {
+            out.append(value);
+            return;
+        }
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                out.append('"');
+            }
+            out.append(c);
+        }
+        out.append('"');
+    }
+
+    public long getRefsetCount() {
+        return refsetCount;
+    }
+
+    public long getMemberCount() {
+        return memberCount;
+    }
+
+    public long getDescriptionCount() {
+        return descriptionCount;
+    }
+
+    /**
+     * Carries an IOException out of {@link #processDescription(long, String, LanguageAcceptability)}, which the
+     * backend calls, back to {@link #export(long)}.
+     */
+    private static class UncheckedWriteException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        UncheckedWriteException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+
+    /**
+     * Export the reference sets whose ids follow the first two arguments, space or comma separated, in the format
+     * named by the first argument to the file named by the second.
+     */
+    public static void main(String... args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: RefsetExporter <csv|ndjson> <output file> <refset id>...");
+            System.exit(1);
+        }
+        Format format = Format.valueOf(args[0].toUpperCase(Locale.ROOT));
+        File outputFile = new File(args[1]);
+        List<Long> refsetIds = new ArrayList<Long>();
+        for (int i = 2; i < args.length; i++) {
+            for (String refsetId : args[i].split(",")) {
+                if (refsetId.trim().length() > 0) {
+                    refsetIds.add(Long.valueOf(refsetId.trim()));
+                }
+            }
+        }
+
+        long start = System.currentTimeMillis();
+        Writer output = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputFile), "UTF-8"),
+                1 << 16);
+        RefsetExporter exporter;
+        try {
+            exporter = new RefsetExporter(format, output);
+            for (Long refsetId : refsetIds) {
+                long members = exporter.export(refsetId);
+                System.out.println("Exported " + members + " members of reference set " + refsetId);
+            }
+        } finally {
+            output.close();
+        }
+
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        System.out.println("Exported " + exporter.getMemberCount() + " members (" + exporter.getDescriptionCount()
+                + " descriptions) of " + exporter.getRefsetCount() + " reference sets in " + elapsed + "ms ("
+                + (exporter.getMemberCount() * 1000 / elapsed) + "/s)");
+        System.out.println(format + " written to " + outputFile.getAbsolutePath());
+    }
+}
@@ -0,0 +1,266 @@
+package au.gov.digitalhealth.db;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import au.gov.digitalhealth.model.Concept;
+
+/**
+ * Runs the {@link ConceptFinder} find operations on an {@link Executor}, so callers are not blocked while they are
+ * answered. Each returns a {@link LookupFuture} that can be waited on or given a callback.<p/>
+ *
+ * Lookups by SCT ID are combined:<ul>
+ * <li>a lookup for an SCT ID already being looked up shares its result rather than querying again
+ * <li>lookups arriving within <code>batchWindowMillis</code> of the first of a batch are answered together with one
+ * {@link ConceptFinder#findByIds(Collection)}, up to <code>maxBatchSize</code> SCT IDs at a time
+ * </ul>
+ * So a burst of lookups costs a few set based queries rather than one per SCT ID, at the cost of up to
+ * <code>batchWindowMillis</code> more latency for a lone lookup. A window of 0 sends each lookup straight to the
+ * executor, still combining those for the same SCT ID.<p/>
+ *
+ * With the jdbc backend the executor should have no more threads than <i>db.pool.max.size</i> connections, see
+ * {@link DataSource}. Safe to call from multiple threads.
+ */
+public class AsyncConceptFinder {
+
+    private final Executor executor;
+    private final long batchWindowMillis;
+    private final int maxBatchSize;
+
+    /** Starts the batch window, <code>null</code> if batching is off */
+    private final ScheduledExecutorService timer;
+
+    /** The result of each SCT ID being looked up, shared by every caller asking for it in the meantime */
+    private final ConcurrentMap<Long, LookupFuture<Concept>> inFlight =
+            new ConcurrentHashMap<Long, LookupFuture<Concept>>();
+
+    /** SCT IDs waiting for the batch window to close, guarded by this */
+    private List<Long> batch = new ArrayList<Long>();
+
+    private final AtomicLong lookupCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong batchCount = new AtomicLong();
+
+    /**
+     * @param executor Executor that runs the find operations
+     * @param batchWindowMillis long to wait for more lookups to batch with the first, 0 to not wait
+     * @param maxBatchSize int largest batch of SCT IDs looked up together
+     */
+    public AsyncConceptFinder(Executor executor, long batchWindowMillis, int maxBatchSize) {
+        this.executor = executor;
+        this.batchWindowMillis = batchWindowMillis;
+        this.maxBatchSize = maxBatchSize;
+        if (batchWindowMillis > 0) {
+            timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable task) {
+                    Thread thread = new Thread(task, "concept-batch-window");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        } else {
+            timer = null;
+        }
+    }
+
+    /**
+     * Finds the matching active concept for the <code>conceptSctid</code>, see {@link ConceptFinder#findById(long)}.
+     *
+     * @param conceptSctid long
+     * @return LookupFuture of the Concept, completed with <code>null</code> if no concept found
+     */
+    public LookupFuture<Concept> findById(long conceptSctid) {
+        LookupFuture<Concept> result = new LookupFuture<Concept>();
+        LookupFuture<Concept> existing = inFlight.putIfAbsent(conceptSctid, result);
+        if (existing != null) {
+            coalescedCount.incrementAndGet();
+            return existing;
+        }
+        lookupCount.incrementAndGet();
+
+        if (timer == null) {
+            List<Long> single = new ArrayList<Long>(1);
+            single.add(conceptSctid);
+            submit(single);
+            return result;
+        }
+
+        List<Long> full = null;
+        synchronized (this) {
+            batch.add(conceptSctid);
+            if (batch.size() >= maxBatchSize) {
+                full = batch;
+                batch = new ArrayList<Long>();
+            } else if (batch.size() == 1) {
+                final List<Long> opened = batch;
+                try {
+                    timer.schedule(new Runnable() {
+                        public void run() {
+                            closeWindow(opened);
+                        }
+                    }, batchWindowMillis, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    // Shut down, look up straight away
+                    full = batch;
+                    batch = new ArrayList<Long>();
+                }
+            }
+        }
+        if (full != null) {
+            submit(full);
+        }
+        return result;
+    }
+
+    /**
+     * Finds the matching active concepts for the partial <code>term</code>, see
+     * {@link ConceptFinder#findByTerm(String)}.
+     *
+     * @param term String full or partial concept term
+     * @return LookupFuture of the Collection of Concept
+     */
+    public LookupFuture<Collection<Concept>> findByTerm(final String term) {
+        final LookupFuture<Collection<Concept>> result = new LookupFuture<Collection<Concept>>();
+        execute(result, new Runnable() {
+            public void run() {
+                result.complete(ConceptFinder.findByTerm(term));
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Finds a page of the members of a reference set, see {@link ConceptFinder#findRefsetMembers(long, long, int)}.
+     *
+     * @param refsetSctId long reference set id
+     * @param afterConceptSctid long SCT ID of the last member of the previous page, 0 for the first page
+     * @param pageSize int maximum number of concepts to return
+     * @return LookupFuture of the List of Concept
+     */
+    public LookupFuture<List<Concept>> findRefsetMembers(final long refsetSctId, final long afterConceptSctid,
+            final int pageSize) {
+        final LookupFuture<List<Concept>> result = new LookupFuture<List<Concept>>();
+        execute(result, new Runnable() {
+            public void run() {
+                result.complete(ConceptFinder.findRefsetMembers(refsetSctId, afterConceptSctid, pageSize));
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Submit the batch whose window has closed, unless it has already been submitted on filling up.
+     */
+    private void closeWindow(List<Long> opened) {
+        synchronized (this) {
+            if (batch != opened) {
+                return;
+            }
+            batch = new ArrayList<Long>();
+        }
+        submit(opened);
+    }
+
+    /**
+     * Look up a batch of SCT IDs on the executor, completing and then forgetting the result of each.
+     */
+    private void submit(final List<Long> conceptSctids) {
+        batchCount.incrementAndGet();
+        Runnable lookup = new Runnable() {
+            public void run() {
+                try {
+                    Map<Long, Concept> concepts = ConceptFinder.findByIds(conceptSctids);
+                    for (Long conceptSctid : conceptSctids) {
+                        inFlight.remove(conceptSctid).complete(concepts.get(conceptSctid));
+                    }
+                } catch (Throwable e) {
+                    failAll(conceptSctids, e);
+                }
+            }
+        };
+        try {
+            executor.execute(lookup);
+        } catch (RuntimeException e) {
+            // eg. RejectedExecutionException from a saturated or shut down executor
+            failAll(conceptSctids, e);
+        }
+    }
+
+    private void failAll(List<Long> conceptSctids, Throwable cause) {
+        for (Long conceptSctid : conceptSctids) {
+            LookupFuture<Concept> result = inFlight.remove(conceptSctid);
+            if (result != null) {
+                result.fail(cause);
+            }
+        }
+    }
+
+    private <V> void execute(final LookupFuture<V> result, final Runnable find) {
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        find.run();
+                    } catch (Throwable e) {
+                        result.fail(e);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            result.fail(e);
+        }
+    }
+
+    /**
+     * Stop the batch window timer. Lookups waiting for their window to close are failed.
+     */
+    public void shutdown() {
+        if (timer != null) {
+            timer.shutdownNow();
+            List<Long> waiting;
+            synchronized (this) {
+                waiting = batch;
+                batch = new ArrayList<Long>();
+            }
+            failAll(waiting, new IllegalStateException("AsyncConceptFinder shut down"));
+        }
+    }
+
+    /**
+     * @return long SCT IDs looked up, not counting those sharing another caller's lookup
+     */
+    public long getLookupCount() {
+        return lookupCount.get();
+    }
+
+    /**
+     * @return long lookups by SCT ID answered by sharing another caller's lookup
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    /**
+     * @return long batches of SCT IDs looked up
+     */
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "AsyncConceptFinder[lookups=" + getLookupCount() + ", coalesced=" + getCoalescedCount()
+                + ", batches=" + getBatchCount() + "]";
+    }
+}
@@ -1,28 +1,60 @@
 package au.gov.digitalhealth.db;
 
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.sql.Statement;
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
+import au.gov.digitalhealth.index.RefsetExpression;
+import au.gov.digitalhealth.index.RefsetMembershipIndex;
+import au.gov.digitalhealth.index.SubsumptionIndex;
+import au.gov.digitalhealth.index.Suggestions;
 import au.gov.digitalhealth.model.Concept;
-import au.gov.digitalhealth.model.Metadata;
+import au.gov.digitalhealth.rf2.Rf2Files;
+import au.gov.digitalhealth.rf2.Rf2SnapshotBackend;
+import au.gov.digitalhealth.rf2.SnapshotImage;
+import au.gov.digitalhealth.rf2.SnapshotImageBackend;
 import au.gov.digitalhealth.db.DataSource;
 
 /**
- * Find concepts using the {@link DataSource} for given search parameters.
+ * Find concepts using the configured {@link TerminologyBackend} for given search parameters.
+ *
+ * Each find operation fetches the whole of every concept it returns, or the parts given by a {@link FetchPlan}.
+ * The find operations are safe to call from multiple threads. With the jdbc backend each query holds a pooled
+ * connection only while it runs, so the number of concurrent queries is bounded by the connection pool size.
  */
 public class ConceptFinder {
 
     /**
-     * Underlying data store to retrieve terminology from.
+     * Configuration of the underlying data store.
      */
     private static DataSource dataSource = new DataSource();
 
+    /**
+     * Time and statement counts of every operation, see {@link QueryMetrics}.
+     */
+    private static QueryMetrics queryMetrics = createQueryMetrics();
+
+    /**
+     * Underlying data store to retrieve terminology from.
+     */
+    private static TerminologyBackend backend = createBackend();
+
+    /**
+     * Reference set concepts already hydrated for the currently loaded release.
+     */
+    private static RefsetConceptCache refsetConceptCache = new RefsetConceptCache(dataSource.getRefsetCacheSize());
+
+    /**
+     * Reference set memberships of the currently loaded release, built on first use.
+     */
+    private static volatile RefsetMembershipIndex refsetMembershipIndex;
+
+    private static volatile SubsumptionIndex subsumptionIndex;
+
     /**
      * Finds the matching active concept for the <code>conceptSctid</code>.
      *
@@ -31,21 +63,106 @@ public class ConceptFinder {
      * @throws RuntimeException SQLException database errors.
      */
     public static Concept findById(long conceptSctid) throws RuntimeException {
-        Concept concept = null;
+        return findById(conceptSctid, FetchPlan.FULL);
+    }
 
-        ResultSet resultSet = runSql("select concept.id"
-                + " from concepts concept"
-                + " where concept.id = " + conceptSctid
-                + " and concept.active = " + Metadata.ACTIVE_STATUS_VALUE, dataSource.getMaxRows());
+    /**
+     * Finds the matching active concept for the <code>conceptSctid</code>, fetching the parts of it in the
+     * <code>fetchPlan</code>.
+     *
+     * @param conceptSctid Long
+     * @param fetchPlan FetchPlan the parts of the concept to fetch, the rest are loaded on first access
+     * @return Concept matching the <code>conceptSctid</code>. <code>null</code> is returned if no concept found
+     * @throws RuntimeException SQLException database errors.
+     */
+    public static Concept findById(long conceptSctid, FetchPlan fetchPlan) throws RuntimeException {
+        queryMetrics.begin("findById");
         try {
-            if (resultSet != null && resultSet.next()) {
-                concept = getConceptDetails(resultSet.getLong(1));
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
+            return backend.findById(conceptSctid, fetchPlan);
+        } finally {
+            queryMetrics.end();
+        }
+    }
+
+    /**
+     * Finds the matching active concepts for all the <code>conceptSctids</code> at once. This is much cheaper than
+     * calling {@link #findById(long)} for each id, the jdbc backend hydrating up to 500 concepts with three queries.
+     *
+     * @param conceptSctids Collection of concept ids, which may repeat and include ids with no active concept
+     * @return Map of Concept keyed by concept id, without the ids that have no active concept
+     * @throws RuntimeException SQLException database errors.
+     */
+    public static Map<Long, Concept> findByIds(Collection<Long> conceptSctids) throws RuntimeException {
+        return findByIds(conceptSctids, FetchPlan.FULL);
+    }
+
+    /**
+     * Finds the matching active concepts for all the <code>conceptSctids</code> at once, fetching the parts of each
+     * in the <code>fetchPlan</code>, see {@link #findByIds(Collection)}.
+     *
+     * @param conceptSctids Collection of concept ids, which may repeat and include ids with no active concept
+     * @param fetchPlan FetchPlan the parts of each concept to fetch, the rest are loaded on first access
+     * @return Map of Concept keyed by concept id, without the ids that have no active concept
+     * @throws RuntimeException SQLException database errors.
+     */
+    public static Map<Long, Concept> findByIds(Collection<Long> conceptSctids, FetchPlan fetchPlan)
+            throws RuntimeException {
+        queryMetrics.begin("findByIds");
+        try {
+            return backend.findByIds(conceptSctids, fetchPlan);
+        } finally {
+            queryMetrics.end();
+        }
+    }
+
+    /**
+     * Finds the en-AU preferred term of the active concept <code>conceptSctid</code> for display, eg. as the name of a
+     * reference set. The term is read from where the backend stored it on loading, rather than hydrating the concept.
+     *
+     * @param conceptSctid long
+     * @return String the preferred term, <code>null</code> if no concept found
+     * @throws RuntimeException SQLException database errors.
+     */
+    public static String findPreferredTerm(long conceptSctid) throws RuntimeException {
+        return findPreferredTerms(Collections.singletonList(conceptSctid)).get(conceptSctid);
+    }
+
+    /**
+     * Finds the en-AU preferred terms of all the <code>conceptSctids</code> at once, see
+     * {@link #findPreferredTerm(long)}.
+     *
+     * @param conceptSctids Collection of concept ids, which may repeat and include ids with no active concept
+     * @return Map of preferred term keyed by concept id, without the ids that have no active concept
+     * @throws RuntimeException SQLException database errors.
+     */
+    public static Map<Long, String> findPreferredTerms(Collection<Long> conceptSctids) throws RuntimeException {
+        queryMetrics.begin("findPreferredTerms");
+        try {
+            return backend.findPreferredTerms(conceptSctids);
+        } finally {
+            queryMetrics.end();
         }
+    }
 
-        return concept;
+    /**
+     * Finds the active reference set concept for the <code>refsetSctId</code>, answering from the
+     * {@link RefsetConceptCache} where possible so each reference set concept is only hydrated once. Only the
+     * preferred term is fetched, as that is all a reference set membership displays, which the jdbc backend reads
+     * from the <code>concept_preferred_term</code> table.
+     *
+     * @param refsetSctId long reference set id
+     * @return Concept matching the <code>refsetSctId</code>. <code>null</code> is returned if no concept found
+     * @throws RuntimeException SQLException database errors.
+     */
+    public static Concept findRefsetConcept(long refsetSctId) throws RuntimeException {
+        Concept refsetConcept = refsetConceptCache.get(refsetSctId);
+        if (refsetConcept == null) {
+            refsetConcept = findById(refsetSctId, FetchPlan.PREFERRED_TERM);
+            if (refsetConcept != null) {
+                refsetConceptCache.put(refsetConcept);
+            }
+        }
+        return refsetConcept;
     }
 
     /**
@@ -58,173 +175,461 @@ public class ConceptFinder {
      * @throws RuntimeException SQLException database errors.
      */
     public static Collection<Concept> findByTerm(String term) throws RuntimeException {
-        Collection<Concept> concepts = new ArrayList<Concept>();
-
-        ResultSet resultSet = runSql("select distinct concept.id"
-            + " from concepts concept"
-            + " join descriptions description on description.conceptid = concept.id"
-            + " where description.term like '%" + term + "%'"
-            + " and description.active = " + Metadata.ACTIVE_STATUS_VALUE
-            + " and concept.active = " + Metadata.ACTIVE_STATUS_VALUE
-            + " order by concept.id, description.effectivetime DESC", dataSource.getMaxRows());
+        return findByTerm(term, FetchPlan.FULL);
+    }
+
+    /**
+     * Finds the matching active concepts with an active description/s that match the partial <code>term</code>,
+     * fetching the parts of each in the <code>fetchPlan</code>, see {@link #findByTerm(String)}.
+     *
+     * @param term String full or partial concept term
+     * @param fetchPlan FetchPlan the parts of each concept to fetch, the rest are loaded on first access
+     * @return Collection of Concept
+     * @throws RuntimeException SQLException database errors.
+     */
+    public static Collection<Concept> findByTerm(String term, FetchPlan fetchPlan) throws RuntimeException {
+        queryMetrics.begin("findByTerm");
         try {
-            while (resultSet != null && resultSet.next()) {
-                concepts.add(getConceptDetails(resultSet.getLong(1)));
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
+            return backend.findByTerm(term, dataSource.getMaxRows(), fetchPlan);
+        } finally {
+            queryMetrics.end();
         }
-
-        return concepts;
     }
 
     /**
-     * Finds all the active members for a reference set <code>refsetSctId</code>
+     * Finds the active concepts with an active description/s that match the partial <code>term</code>, ranked by how
+     * well they match: a description that is the whole term first, then one starting with it, then one with a word
+     * starting with it, preferring en-AU preferred then acceptable descriptions, then shorter descriptions. See
+     * {@link au.gov.digitalhealth.index.RankedMatches}.<p/>
      *
-     * @param refsetSctId long reference set id
-     * @return Collection of Concept
+     * Unlike {@link #findByTerm(String)}, which returns the first matches by SCT ID, every match is scored, and only
+     * the best concepts, up to the maximum number of rows configured in {@link DataSource#getMaxRows()}, are
+     * hydrated.
+     *
+     * @param term String full or partial concept term
+     * @return List of Concept, best match first
      * @throws RuntimeException SQLException database errors.
      */
-    public static Collection<Concept> findRefsetMembers(long refsetSctId) throws RuntimeException {
-        Collection<Concept> concepts = new ArrayList<Concept>();
+    public static List<Concept> findByTermRanked(String term) throws RuntimeException {
+        return findByTermRanked(term, FetchPlan.FULL);
+    }
 
-        ResultSet resultSet = runSql("select concept.id"
-                + " from concepts concept"
-                + " join concept_refset clinical on clinical.referencedconceptid = concept.id"
-                + " where clinical.refsetid = " + refsetSctId
-                + " order by concept.id", getResultLimit());
+    /**
+     * Finds the active concepts best matching the partial <code>term</code>, fetching the parts of each in the
+     * <code>fetchPlan</code>, see {@link #findByTermRanked(String)}.
+     *
+     * @param term String full or partial concept term
+     * @param fetchPlan FetchPlan the parts of each concept to fetch, the rest are loaded on first access
+     * @return List of Concept, best match first
+     * @throws RuntimeException SQLException database errors.
+     */
+    public static List<Concept> findByTermRanked(String term, FetchPlan fetchPlan) throws RuntimeException {
+        queryMetrics.begin("findByTermRanked");
+        try {
+            return backend.findByTermRanked(term, dataSource.getMaxRows(), fetchPlan);
+        } finally {
+            queryMetrics.end();
+        }
+    }
 
+    /**
+     * Suggests the active concepts with an active description containing a word that starts with the
+     * <code>prefix</code>, for search-as-you-type. Concepts with a matching en-AU preferred term are suggested first.
+     * <p/>
+     * Only the SCT ID and preferred term of each concept are returned, into the reused <code>suggestions</code>, so
+     * each keystroke can be answered from the in-memory index without allocating or querying the database. The jdbc
+     * backend needs <i>db.term.index</i> set for this.
+     *
+     * @param prefix String the start of a word typed so far
+     * @param suggestions Suggestions receives up to {@link Suggestions#capacity()} concepts, best first
+     * @throws RuntimeException if the backend has no term index.
+     */
+    public static void suggest(String prefix, Suggestions suggestions) throws RuntimeException {
+        queryMetrics.begin("suggest");
         try {
-            while (resultSet != null && resultSet.next()) {
-                concepts.add(getConceptDetails(resultSet.getLong(1)));
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
+            backend.suggest(prefix, suggestions);
+        } finally {
+            queryMetrics.end();
         }
+    }
 
-        return concepts;
+    /**
+     * Checks whether the concept <code>conceptSctid</code> is an active member of the reference set
+     * <code>refsetSctId</code>, using the {@link RefsetMembershipIndex} rather than querying the database.
+     *
+     * @param conceptSctid long
+     * @param refsetSctId long reference set id
+     * @return boolean
+     * @throws RuntimeException SQLException database errors building the index on first use.
+     */
+    public static boolean isMember(long conceptSctid, long refsetSctId) throws RuntimeException {
+        return getRefsetMembershipIndex().isMember(conceptSctid, refsetSctId);
     }
 
     /**
-     * finds all the reference sets the concepts has an active membership with.
+     * Finds the reference sets the concept <code>conceptSctid</code> is an active member of, using the
+     * {@link RefsetMembershipIndex} rather than querying the database.
      *
      * @param conceptSctid long
-     * @return Map of reference set value <code>Long</code> keyed by reference set id <code>Long</code>
-     * @throws RuntimeException SQLException database errors.
+     * @return The reference set ids, sorted, empty if the concept is not a member of any reference set
+     * @throws RuntimeException SQLException database errors building the index on first use.
      */
-    private static HashSet<Long> findConceptRefsets(long conceptSctid) throws RuntimeException {
-        HashSet<Long> refsetIds = new HashSet<Long>();
-        ResultSet resultSet = runSql("select clinical.refsetid"
-                + " from concepts concept"
-                + " join concept_refset clinical on  clinical.referencedconceptid = concept.id"
-                + " where concept.id = " + conceptSctid
-                + " and concept.active = " + Metadata.ACTIVE_STATUS_VALUE
-                + " order by concept.id DESC");
+    public static long[] refsetsOf(long conceptSctid) throws RuntimeException {
+        return getRefsetMembershipIndex().refsetsOf(conceptSctid);
+    }
 
-        try {
-            if(resultSet != null){
-                while (resultSet.next()) {
-                    refsetIds.add(resultSet.getLong(1));
+    /**
+     * Get the index of reference set memberships, building it from the backend on first use.
+     *
+     * @throws RuntimeException SQLException database errors.
+     */
+    public static RefsetMembershipIndex getRefsetMembershipIndex() throws RuntimeException {
+        RefsetMembershipIndex index = refsetMembershipIndex;
+        if (index == null) {
+            synchronized (ConceptFinder.class) {
+                index = refsetMembershipIndex;
+                if (index == null) {
+                    long start = System.currentTimeMillis();
+                    queryMetrics.begin("buildRefsetMembershipIndex");
+                    try {
+                        index = backend.buildRefsetMembershipIndex();
+                    } finally {
+                        queryMetrics.end();
+                    }
+                    System.out.println("Built " + index + " in " + (System.currentTimeMillis() - start) + "ms");
+                    refsetMembershipIndex = index;
                 }
             }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
         }
-
-        return refsetIds;
+        return index;
     }
 
     /**
-     * Finds all the active descriptions for the <code>conceptSctid</code>.
+     * Checks whether the concept <code>conceptSctid</code> is a descendant of the concept <code>ancestorSctid</code>,
+     * through any number of active is-a relationships, using the {@link SubsumptionIndex} rather than walking the
+     * hierarchy in the database.
      *
      * @param conceptSctid long
-     * @return Map of ADRS language type <code>Long</code> keyed by the description term <code>String</code>
-     * @throws RuntimeException SQLException database errors.
+     * @param ancestorSctid long
+     * @return boolean <code>false</code> if the concepts are the same
+     * @throws RuntimeException SQLException database errors building the index on first use.
      */
-    private static Map<String, Long> findConceptDescriptions(long conceptSctid) throws RuntimeException {
-        Map<String, Long> refsetIds = new HashMap<String, Long>();
-        ResultSet resultSet = runSql("select description.term, adrs.valueid"
-                + " from concepts concept"
-                + " join descriptions description on description.conceptid = concept.id"
-                + " left join description_refset adrs on  adrs.referenceddescriptionid = description.id"
-                + " where concept.id = " + conceptSctid
-                + " and description.active = " + Metadata.ACTIVE_STATUS_VALUE
-                + " and concept.active = " + Metadata.ACTIVE_STATUS_VALUE
-                + " order by description.term, description.effectivetime DESC");
+    public static boolean isDescendant(long conceptSctid, long ancestorSctid) throws RuntimeException {
+        return getSubsumptionIndex().isDescendant(conceptSctid, ancestorSctid);
+    }
 
-        try {
-            if(resultSet != null){
-                while (resultSet.next()) {
-                    refsetIds.put(resultSet.getString(1), resultSet.getLong(2));
+    /**
+     * Finds all the descendants of the concept <code>ancestorSctid</code>, using the {@link SubsumptionIndex}.
+     *
+     * @param ancestorSctid long
+     * @return The SCT IDs of the descendants, sorted, empty if the concept has none
+     * @throws RuntimeException SQLException database errors building the index on first use.
+     */
+    public static long[] findDescendants(long ancestorSctid) throws RuntimeException {
+        return getSubsumptionIndex().descendantsOf(ancestorSctid);
+    }
+
+    /**
+     * Finds the descendants of the concept <code>ancestorSctid</code> that are active members of the reference set
+     * <code>refsetSctId</code>, using the {@link SubsumptionIndex} and the {@link RefsetMembershipIndex}.
+     *
+     * @param ancestorSctid long
+     * @param refsetSctId long reference set id
+     * @return The SCT IDs of the descendants in the reference set, sorted
+     * @throws RuntimeException SQLException database errors building the indexes on first use.
+     */
+    public static long[] findDescendantsInRefset(long ancestorSctid, long refsetSctId) throws RuntimeException {
+        RefsetMembershipIndex membershipIndex = getRefsetMembershipIndex();
+        long[] descendants = getSubsumptionIndex().descendantsOf(ancestorSctid);
+        int count = 0;
+        for (long descendant : descendants) {
+            if (membershipIndex.isMember(descendant, refsetSctId)) {
+                descendants[count++] = descendant;
+            }
+        }
+        return Arrays.copyOf(descendants, count);
+    }
+
+    /**
+     * Get the transitive closure of the is-a relationships, building it from the backend on first use.
+     *
+     * @throws RuntimeException SQLException database errors.
+     */
+    public static SubsumptionIndex getSubsumptionIndex() throws RuntimeException {
+        SubsumptionIndex index = subsumptionIndex;
+        if (index == null) {
+            synchronized (ConceptFinder.class) {
+                index = subsumptionIndex;
+                if (index == null) {
+                    long start = System.currentTimeMillis();
+                    queryMetrics.begin("buildSubsumptionIndex");
+                    try {
+                        index = backend.buildSubsumptionIndex();
+                    } finally {
+                        queryMetrics.end();
+                    }
+                    System.out.println("Built " + index + " in " + (System.currentTimeMillis() - start) + "ms");
+                    subsumptionIndex = index;
                 }
             }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
         }
+        return index;
+    }
 
-        return refsetIds;
+    /**
+     * Finds all the active members for a reference set <code>refsetSctId</code>
+     *
+     * A maximum number of rows is returned as configured in @see {@link DataSource.getMaxRows()}, use
+     * {@link #iterateRefsetMembers(long)} to walk all the members of a large reference set.
+     *
+     * @param refsetSctId long reference set id
+     * @return Collection of Concept
+     * @throws RuntimeException SQLException database errors.
+     */
+    public static Collection<Concept> findRefsetMembers(long refsetSctId) throws RuntimeException {
+        return findRefsetMembers(refsetSctId, 0, getResultLimit());
     }
 
     /**
-     * Executes the <code>sql</code> with no limit on the number of returned rows
+     * Finds a page of the members, in SCT ID order, of a reference set <code>refsetSctId</code>: those with an SCT
+     * ID greater than <code>afterConceptSctid</code>. Pass the SCT ID of the last concept of a page to get the next
+     * page. A page smaller than <code>pageSize</code> is the last.
      *
-     * @param sql String
-     * @return ResultSet
+     * @param refsetSctId long reference set id
+     * @param afterConceptSctid long SCT ID of the last member of the previous page, 0 for the first page
+     * @param pageSize int maximum number of concepts to return
+     * @return List of Concept
      * @throws RuntimeException SQLException database errors.
      */
-	private static ResultSet runSql(String sql) throws RuntimeException {
-        return runSql(sql, 0);
+    public static List<Concept> findRefsetMembers(long refsetSctId, long afterConceptSctid, int pageSize)
+            throws RuntimeException {
+        return findRefsetMembers(refsetSctId, afterConceptSctid, pageSize, FetchPlan.FULL);
     }
 
     /**
-     * Executes the <code>sql</code> and limits the number of returned rows
+     * Finds a page of the members of a reference set <code>refsetSctId</code>, fetching the parts of each in the
+     * <code>fetchPlan</code>, see {@link #findRefsetMembers(long, long, int)}.
      *
-     * @param sql String
-     * @param maxRows int
-     * @return ResultSet
+     * @param refsetSctId long reference set id
+     * @param afterConceptSctid long SCT ID of the last member of the previous page, 0 for the first page
+     * @param pageSize int maximum number of concepts to return
+     * @param fetchPlan FetchPlan the parts of each concept to fetch, the rest are loaded on first access
+     * @return List of Concept
      * @throws RuntimeException SQLException database errors.
      */
-    private static ResultSet runSql(String sql, int maxRows) throws RuntimeException {
-        ResultSet resultSet = null;
+    public static List<Concept> findRefsetMembers(long refsetSctId, long afterConceptSctid, int pageSize,
+            FetchPlan fetchPlan) throws RuntimeException {
+        queryMetrics.begin("findRefsetMembers");
+        try {
+            return backend.findRefsetMembers(refsetSctId, afterConceptSctid, pageSize, fetchPlan);
+        } finally {
+            queryMetrics.end();
+        }
+    }
 
-        Statement statement;
+    /**
+     * Finds a page of the concepts that satisfy a set <code>expression</code> over reference sets, eg. the members of
+     * reference set A that are also in B but not in C, in SCT ID order: those with an SCT ID greater than
+     * <code>afterConceptSctid</code>. The expression is evaluated on the {@link RefsetMembershipIndex} and only the
+     * concepts of the page are hydrated, with one call to the backend. The index holds the same memberships as
+     * {@link #findRefsetMembers(long, long, int, FetchPlan)} pages through, see {@link TerminologyBackend}, so the
+     * expression of a single reference set finds the same members.
+     *
+     * @param expression RefsetExpression, see {@link RefsetExpression#parse(String)}
+     * @param afterConceptSctid long SCT ID of the last concept of the previous page, 0 for the first page
+     * @param pageSize int maximum number of concepts to return
+     * @param fetchPlan FetchPlan the parts of each concept to fetch, the rest are loaded on first access
+     * @return List of Concept
+     * @throws RuntimeException SQLException database errors.
+     */
+    public static List<Concept> findRefsetMembers(RefsetExpression expression, long afterConceptSctid, int pageSize,
+            FetchPlan fetchPlan) throws RuntimeException {
+        queryMetrics.begin("findRefsetExpressionMembers");
         try {
-            statement = dataSource.getConnection().createStatement();
-            statement.setMaxRows(maxRows);
-            if (statement.execute(sql)) {
-                resultSet = statement.getResultSet();
+            long[] memberIds = getRefsetMembershipIndex().findMembers(expression, afterConceptSctid, pageSize);
+            List<Long> ids = new ArrayList<Long>(memberIds.length);
+            for (long memberId : memberIds) {
+                ids.add(memberId);
+            }
+            Map<Long, Concept> concepts = backend.findByIds(ids, fetchPlan);
+            List<Concept> members = new ArrayList<Concept>(ids.size());
+            for (Long id : ids) {
+                Concept concept = concepts.get(id);
+                if (concept != null) {
+                    members.add(concept);
+                }
             }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
+            return members;
+        } finally {
+            queryMetrics.end();
         }
+    }
+
+    /**
+     * Finds a page of the concepts that satisfy a set <code>expression</code> over reference sets, see
+     * {@link #findRefsetMembers(RefsetExpression, long, int, FetchPlan)}.
+     *
+     * @param expression RefsetExpression
+     * @param afterConceptSctid long SCT ID of the last concept of the previous page, 0 for the first page
+     * @param pageSize int maximum number of concepts to return
+     * @return List of Concept
+     * @throws RuntimeException SQLException database errors.
+     */
+    public static List<Concept> findRefsetMembers(RefsetExpression expression, long afterConceptSctid, int pageSize)
+            throws RuntimeException {
+        return findRefsetMembers(expression, afterConceptSctid, pageSize, FetchPlan.FULL);
+    }
 
-        return resultSet;
+    /**
+     * Counts the concepts that satisfy a set <code>expression</code> over reference sets, without hydrating them.
+     *
+     * @param expression RefsetExpression
+     * @return int
+     * @throws RuntimeException SQLException database errors building the index on first use.
+     */
+    public static int countRefsetMembers(RefsetExpression expression) throws RuntimeException {
+        return getRefsetMembershipIndex().getMemberCount(expression);
     }
 
     /**
-     * Creates a {@link Concept} object from the <code>conceptId</code> and finds the descriptions and reference sets
+     * Iterates over all the members of a reference set <code>refsetSctId</code> in SCT ID order, hydrating them in
+     * pages of @see {@link DataSource.getMaxRows()} concepts.
      *
-     * @param conceptId long
-     * @return Concept
-     * @throws SQLException
+     * @param refsetSctId long reference set id
+     * @return RefsetMemberIterator
      */
-    private static Concept getConceptDetails(long conceptId) throws SQLException {
-        Map<String, Long> descriptionAdrsMap;
+    public static RefsetMemberIterator iterateRefsetMembers(long refsetSctId) {
+        return iterateRefsetMembers(refsetSctId, 0, getResultLimit());
+    }
 
-        Concept concept = new Concept();
-        concept.setSctId(conceptId);
+    /**
+     * Iterates over the members of a reference set <code>refsetSctId</code> with an SCT ID greater than
+     * <code>afterConceptSctid</code> in SCT ID order, hydrating them in pages of <code>pageSize</code> concepts.
+     *
+     * @param refsetSctId long reference set id
+     * @param afterConceptSctid long SCT ID to resume after, see {@link RefsetMemberIterator#getAfterConceptSctid()},
+     *            0 to start at the first member
+     * @param pageSize int number of concepts hydrated at a time
+     * @return RefsetMemberIterator
+     */
+    public static RefsetMemberIterator iterateRefsetMembers(long refsetSctId, long afterConceptSctid, int pageSize) {
+        return iterateRefsetMembers(refsetSctId, afterConceptSctid, pageSize, FetchPlan.FULL);
+    }
+
+    /**
+     * Iterates over the members of a reference set <code>refsetSctId</code>, fetching the parts of each in the
+     * <code>fetchPlan</code>, see {@link #iterateRefsetMembers(long, long, int)}.
+     *
+     * @param refsetSctId long reference set id
+     * @param afterConceptSctid long SCT ID to resume after, 0 to start at the first member
+     * @param pageSize int number of concepts hydrated at a time
+     * @param fetchPlan FetchPlan the parts of each concept to fetch, the rest are loaded on first access
+     * @return RefsetMemberIterator
+     */
+    public static RefsetMemberIterator iterateRefsetMembers(long refsetSctId, long afterConceptSctid, int pageSize,
+            FetchPlan fetchPlan) {
+        return new RefsetMemberIterator(refsetSctId, afterConceptSctid, pageSize, fetchPlan);
+    }
+
+    /**
+     * Streams the active descriptions of every active member of the reference set <code>refsetSctId</code> to the
+     * <code>handler</code>, eg. to export the whole reference set. Unlike {@link #iterateRefsetMembers(long)} the
+     * members are not hydrated: the jdbc backend reads them with a single query whose rows are streamed rather than
+     * held in memory, holding a pooled connection until the last row has been handled. The <code>handler</code> must
+     * not call back into the ConceptFinder, see {@link MemberDescriptionHandler}.
+     *
+     * @param refsetSctId long reference set id
+     * @param handler MemberDescriptionHandler
+     * @throws RuntimeException SQLException database errors.
+     */
+    public static void exportRefsetMembers(long refsetSctId, MemberDescriptionHandler handler)
+            throws RuntimeException {
+        queryMetrics.begin("exportRefsetMembers");
+        try {
+            backend.exportRefsetMembers(refsetSctId, handler);
+        } finally {
+            queryMetrics.end();
+        }
+    }
 
-        descriptionAdrsMap = findConceptDescriptions(concept.getSctId());
-        for (String term : descriptionAdrsMap.keySet()) {
-            concept.addDescription(term, descriptionAdrsMap.get(term));
+    /**
+     * Creates the backend named by the <i>db.backend</i> property, see {@link TerminologyBackend}.
+     */
+    private static TerminologyBackend createBackend() {
+        String name = dataSource.getBackend();
+        if ("jdbc".equals(name)) {
+            return new JdbcTerminologyBackend(dataSource, queryMetrics);
+        }
+        if ("rf2".equals(name)) {
+            File sourceDir = new File(dataSource.getRf2SourceDir());
+            System.out.println("Loading RF2 snapshot from " + sourceDir.getAbsolutePath());
+            long start = System.currentTimeMillis();
+            Rf2SnapshotBackend rf2Backend = new Rf2SnapshotBackend(Rf2Files.locate(sourceDir));
+            System.out.println("Loaded RF2 snapshot in " + (System.currentTimeMillis() - start) + "ms");
+            return rf2Backend;
         }
+        if ("image".equals(name)) {
+            return createImageBackend();
+        }
+        throw new RuntimeException("Unknown backend '" + name + "', expected 'jdbc', 'rf2' or 'image'");
+    }
 
-        HashSet<Long> refsetIds = findConceptRefsets(concept.getSctId());
-        for (Long refsetId : refsetIds) {
-            concept.addRefsetMembership(refsetId);
+    /**
+     * Maps the terminology image named by the <i>image.file</i> property. If <i>rf2.source.dir</i> holds a release
+     * the image must have been written from that release, so a stale image is never served.
+     *
+     * @throws RuntimeException if the image cannot be read or is of another release.
+     */
+    private static TerminologyBackend createImageBackend() {
+        File imageFile = new File(dataSource.getImageFile());
+        long start = System.currentTimeMillis();
+        SnapshotImage image = SnapshotImage.open(imageFile);
+        String sourceDir = System.getProperty("rf2.source.dir");
+        if (sourceDir != null && new File(sourceDir).isDirectory()) {
+            String effectiveTime = Rf2Files.locate(new File(sourceDir)).getEffectiveTime();
+            if (!effectiveTime.equals(image.getEffectiveTime())) {
+                throw new RuntimeException("Terminology image " + imageFile.getAbsolutePath() + " is of release "
+                        + image.getEffectiveTime() + " but rf2.source.dir holds release " + effectiveTime
+                        + ". Rebuild it with the ant image target.");
+            }
         }
+        System.out.println("Mapped " + image + " in " + (System.currentTimeMillis() - start) + "ms");
+        return new SnapshotImageBackend(image);
+    }
 
-        return concept;
+    /**
+     * Creates the {@link QueryMetrics} with the configured statement budget and registers them with JMX.
+     */
+    private static QueryMetrics createQueryMetrics() {
+        QueryMetrics metrics = new QueryMetrics(dataSource.getStatementBudget());
+        metrics.register();
+        return metrics;
+    }
+
+    /**
+     * Get the time and statement counts recorded for each find operation, eg. to print a snapshot.
+     */
+    public static QueryMetrics getQueryMetrics() {
+        return queryMetrics;
+    }
+
+    /**
+     * Get the cache of reference set concepts, eg. to inspect its hit and miss counts.
+     */
+    public static RefsetConceptCache getRefsetConceptCache() {
+        return refsetConceptCache;
+    }
+
+    /**
+     * Discard everything cached from the database. This must be called after the database has been reloaded
+     * with a new release. The backend reloads what it holds too, see {@link TerminologyBackend#reload()}, which
+     * with the jdbc backend and <i>db.term.index</i> set rebuilds the term indexes before returning.
+     */
+    public static void invalidateCaches() {
+        backend.reload();
+        refsetConceptCache.invalidate();
+        refsetMembershipIndex = null;
+        subsumptionIndex = null;
     }
 
     /**
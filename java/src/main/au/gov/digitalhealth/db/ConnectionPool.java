@@ -0,0 +1,219 @@
+package au.gov.digitalhealth.db;
+
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * A bounded pool of database connections so that concurrent callers do not have to share one connection.<p/>
+ *
+ * Connections are opened on demand up to the maximum size, and callers wait up to the acquire timeout for a
+ * connection to be released once the maximum is reached. Idle connections are handed out most recently used first,
+ * optionally validated before being handed out, and closed once they have been idle for longer than the idle
+ * timeout (never shrinking the pool below its minimum size).
+ */
+public class ConnectionPool {
+
+    private final String url;
+    private final String username;
+    private final String password;
+    private final int minSize;
+    private final int maxSize;
+    private final long acquireTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final boolean validateOnAcquire;
+    private final int validationTimeoutSeconds;
+    private final int statementCacheSize;
+
+    /** Idle connections, most recently released first */
+    private final LinkedList<PooledConnection> idle = new LinkedList<PooledConnection>();
+
+    /** The number of connections open, both idle and in use */
+    private int openCount;
+
+    private boolean closed;
+
+    private Timer evictionTimer;
+
+    /**
+     * Create the pool and open the minimum number of connections.
+     *
+     * @throws SQLException if the initial connections cannot be opened
+     */
+    public ConnectionPool(String url, String username, String password, int minSize, int maxSize,
+            long acquireTimeoutMillis, long idleTimeoutMillis, boolean validateOnAcquire,
+            int validationTimeoutSeconds, int statementCacheSize) throws SQLException {
+
+        if (maxSize < 1 || minSize < 0 || minSize > maxSize) {
+            throw new IllegalArgumentException(
+                "Invalid connection pool size, min " + minSize + " max " + maxSize);
+        }
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.validateOnAcquire = validateOnAcquire;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        this.statementCacheSize = statementCacheSize;
+
+        for (int i = 0; i < minSize; i++) {
+            idle.add(open());
+            openCount++;
+        }
+
+        if (idleTimeoutMillis > 0) {
+            evictionTimer = new Timer("connection-pool-eviction", true);
+            evictionTimer.schedule(new TimerTask() {
+                public void run() {
+                    evictIdle();
+                }
+            }, idleTimeoutMillis, idleTimeoutMillis);
+        }
+    }
+
+    /**
+     * Obtain a connection from the pool, opening a new one if none are idle and the pool is not at its maximum size.
+     * The connection must be handed back with {@link #release(PooledConnection)}.
+     *
+     * @return PooledConnection
+     * @throws SQLException if no connection became available within the acquire timeout, or a new connection
+     *         could not be opened.
+     */
+    public PooledConnection acquire() throws SQLException {
+        long deadline = System.currentTimeMillis() + acquireTimeoutMillis;
+
+        while (true) {
+            PooledConnection connection = null;
+
+            synchronized (this) {
+                while (!closed && idle.isEmpty() && openCount >= maxSize) {
+                    long wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0) {
+                        throw new SQLException("Timed out after " + acquireTimeoutMillis
+                                + "ms waiting for one of " + maxSize + " database connections");
+                    }
+                    try {
+                        wait(wait);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Interrupted waiting for a database connection");
+                    }
+                }
+                if (closed) {
+                    throw new SQLException("Connection pool is closed");
+                }
+                if (!idle.isEmpty()) {
+                    connection = idle.removeFirst();
+                } else {
+                    openCount++;
+                }
+            }
+
+            if (connection == null) {
+                try {
+                    return open();
+                } catch (SQLException e) {
+                    discarded();
+                    throw e;
+                }
+            }
+
+            if (!validateOnAcquire || connection.isValid(validationTimeoutSeconds)) {
+                return connection;
+            }
+            connection.close();
+            discarded();
+        }
+    }
+
+    /**
+     * Hand a connection obtained from {@link #acquire()} back to the pool.
+     *
+     * @param connection PooledConnection
+     */
+    public void release(PooledConnection connection) {
+        synchronized (this) {
+            if (!closed) {
+                connection.setLastReleased(System.currentTimeMillis());
+                idle.addFirst(connection);
+                notifyAll();
+                return;
+            }
+            openCount--;
+        }
+        connection.close();
+    }
+
+    /**
+     * Close all idle connections. Connections currently in use are closed as they are released.
+     */
+    public void close() {
+        LinkedList<PooledConnection> toClose;
+        synchronized (this) {
+            closed = true;
+            if (evictionTimer != null) {
+                evictionTimer.cancel();
+            }
+            toClose = new LinkedList<PooledConnection>(idle);
+            openCount -= idle.size();
+            idle.clear();
+            notifyAll();
+        }
+        for (PooledConnection connection : toClose) {
+            connection.close();
+        }
+    }
+
+    /**
+     * @return The number of open connections, both idle and in use
+     */
+    public synchronized int getOpenCount() {
+        return openCount;
+    }
+
+    /**
+     * @return The number of open connections not currently in use
+     */
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    private PooledConnection open() throws SQLException {
+        return new PooledConnection(DriverManager.getConnection(url, username, password), statementCacheSize);
+    }
+
+    private synchronized void discarded() {
+        openCount--;
+        notifyAll();
+    }
+
+    /**
+     * Close connections that have been idle for longer than the idle timeout, least recently used first, while
+     * the pool is above its minimum size.
+     */
+    private void evictIdle() {
+        LinkedList<PooledConnection> toClose = new LinkedList<PooledConnection>();
+        synchronized (this) {
+            long cutoff = System.currentTimeMillis() - idleTimeoutMillis;
+            Iterator<PooledConnection> iterator = idle.descendingIterator();
+            while (iterator.hasNext() && openCount > minSize) {
+                PooledConnection connection = iterator.next();
+                if (connection.getLastReleased() > cutoff) {
+                    break;
+                }
+                iterator.remove();
+                openCount--;
+                toClose.add(connection);
+            }
+        }
+        for (PooledConnection connection : toClose) {
+            connection.close();
+        }
+    }
+}
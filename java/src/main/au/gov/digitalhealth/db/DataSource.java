@@ -11,7 +11,7 @@ import java.util.Properties;
 import au.gov.digitalhealth.db.DataSource;
 
 /**
- * Maintains the single connection to the database.<p/>
+ * Maintains the pool of connections to the database.<p/>
  * 
  * The configuration to establish the connection may be declared in the properties file <i>application.properties</i>.
  * Alternatively a different file may be specified by setting the system property <i>config.file</i><p/> 
@@ -27,11 +27,44 @@ import au.gov.digitalhealth.db.DataSource;
  * <li>db.connection.url (eg. jdbc:mysql://${db.server.name}/${db.schema.name})* 
  * <li>db.max.rows
  * </ul>
- * * Note in-line property substitution supported on the db.connection.url value.
+ * * Note in-line property substitution supported on the db.connection.url value.<p/>
+ *
+ * The following system properties are optional:<ul>
+ * <li>db.backend - jdbc, rf2 or image, see {@link TerminologyBackend} (default jdbc)
+ * <li>rf2.source.dir - the extracted SCT-AU terminology bundle, required by the rf2 backend and the <i>ant image</i>
+ * target
+ * <li>image.file - the terminology image written by the <i>ant image</i> target and read by the image backend, see
+ * {@link au.gov.digitalhealth.rf2.SnapshotImage} (default terminology.img)
+ * <li>rf2.delta.dir - the extracted SCT-AU terminology bundle whose delta files the <i>ant applyDelta</i> target
+ * applies to the database
+ * <li>db.load.threads - tables the <i>ant db</i> target loads at once, each on a connection of its own, see
+ * {@link au.gov.digitalhealth.rf2.Rf2DatabaseLoader} (default 4)
+ * <li>db.term.index - search terms with an in-memory trigram index rather than SQL with the jdbc backend
+ * (default false)
+ * <li>db.cache.refset.size (default 256)
+ * <li>db.metrics.statement.budget - SQL statements a single find operation may execute before it is reported as a
+ * likely N+1 query, see {@link QueryMetrics}, 0 to never report (default 20)
+ * <li>db.cache.statement.size (default 64)
+ * <li>db.pool.min.size - connections kept open even when idle (default 1)
+ * <li>db.pool.max.size - connections open at most, ie. concurrent queries (default 1)
+ * <li>db.pool.acquire.timeout - milliseconds to wait for a connection when all are in use (default 30000)
+ * <li>db.pool.idle.timeout - milliseconds before an idle connection above the minimum is closed, 0 to never close
+ * (default 600000)
+ * <li>db.pool.validate - check a connection is still alive before handing it out (default true)
+ * <li>db.pool.validation.timeout - seconds to wait for the validation check (default 5)
+ * <li>http.port - port the lookup server listens on (default 8080)
+ * <li>http.threads - threads the lookup server answers requests with (default 16)
+ * <li>http.max.concurrent - requests the lookup server accepts at once, running or waiting for a thread, before
+ * answering 503 Service Unavailable (default 128)
+ * <li>batch.threads - chunks of SCT IDs the batch resolver resolves at once (default 4)
+ * <li>batch.chunk.size - SCT IDs the batch resolver resolves together (default 500)
+ * </ul>
+ * The default pool sizes give a single connection, as used by the console application. Increase
+ * db.pool.max.size when sharing the {@link ConceptFinder} between threads.
  */
 public class DataSource {
 
-    private static Connection connection;
+    private static ConnectionPool pool;
     
     private String dbServer;
     private String dbSchema;
@@ -40,6 +73,23 @@ public class DataSource {
     private String password;
     private String driverClassname;
     private int maxRows;
+    private String backend;
+    private boolean termIndexEnabled;
+    private int refsetCacheSize;
+    private int statementBudget;
+    private int statementCacheSize;
+    private int poolMinSize;
+    private int poolMaxSize;
+    private long poolAcquireTimeout;
+    private long poolIdleTimeout;
+    private boolean poolValidate;
+    private int poolValidationTimeout;
+    private int httpPort;
+    private int httpThreads;
+    private int httpMaxConcurrent;
+    private int batchThreads;
+    private int batchChunkSize;
+    private int loadThreads;
     
     public DataSource() {
         loadConfig();
@@ -53,8 +103,25 @@ public class DataSource {
                         .replace("${db.schema.name}", dbSchema);
         
         maxRows = Integer.valueOf(getSystemProperty("db.max.rows"));
+        backend = getSystemProperty("db.backend", "jdbc");
+        termIndexEnabled = Boolean.valueOf(getSystemProperty("db.term.index", "false"));
+        refsetCacheSize = Integer.valueOf(getSystemProperty("db.cache.refset.size", "256"));
+        statementBudget = Integer.valueOf(getSystemProperty("db.metrics.statement.budget", "20"));
+        statementCacheSize = Integer.valueOf(getSystemProperty("db.cache.statement.size", "64"));
+        poolMinSize = Integer.valueOf(getSystemProperty("db.pool.min.size", "1"));
+        poolMaxSize = Integer.valueOf(getSystemProperty("db.pool.max.size", "1"));
+        poolAcquireTimeout = Long.valueOf(getSystemProperty("db.pool.acquire.timeout", "30000"));
+        poolIdleTimeout = Long.valueOf(getSystemProperty("db.pool.idle.timeout", "600000"));
+        poolValidate = Boolean.valueOf(getSystemProperty("db.pool.validate", "true"));
+        poolValidationTimeout = Integer.valueOf(getSystemProperty("db.pool.validation.timeout", "5"));
+        httpPort = Integer.valueOf(getSystemProperty("http.port", "8080"));
+        httpThreads = Integer.valueOf(getSystemProperty("http.threads", "16"));
+        httpMaxConcurrent = Integer.valueOf(getSystemProperty("http.max.concurrent", "128"));
+        batchThreads = Integer.valueOf(getSystemProperty("batch.threads", "4"));
+        batchChunkSize = Integer.valueOf(getSystemProperty("batch.chunk.size", "500"));
+        loadThreads = Integer.valueOf(getSystemProperty("db.load.threads", "4"));
 
-        // Add hook to automatically close the connection (if it is open) when the application completes.
+        // Add hook to automatically close the connections (if any are open) when the application completes.
         Runtime.getRuntime().addShutdownHook(new Thread(){
             public void run() {
                 DataSource.close();
@@ -82,44 +149,81 @@ public class DataSource {
         }
         return result;
     }
+
+    protected String getSystemProperty(String key, String defaultValue) {
+        String result = System.getProperty(key);
+        if (result == null || result.length() == 0) {
+            return defaultValue;
+        }
+        return result;
+    }
     
     /**
-     * Obtain the single connection to the database. 
-     * The first time this method is called the connection will be established. 
+     * Obtain a connection from the pool. The first time this method is called the pool will be established. 
+     * The connection must be handed back with {@link #release(PooledConnection)} when no longer needed.
      * 
-     * @return The connection to the database
+     * @return A connection to the database
+     * @throws SQLException if no connection became available within the acquire timeout
      */
-    public Connection getConnection() {
-        
-        if (connection == null) {
-            System.out.println("Connecting to database " + url + " as user '" + username + "'");
+    public PooledConnection acquire() throws SQLException {
+        return getPool().acquire();
+    }
 
-            try {
-                
-                Class.forName(driverClassname);
-                connection = DriverManager.getConnection(url, username, password);
-                
-            } catch (ClassNotFoundException e) {
-                throw new RuntimeException("Unknown database driver class: " + driverClassname);
-            } catch (SQLException e) {
-                throw new RuntimeException("Unable to create database connection!", e);
+    /**
+     * Hand a connection obtained from {@link #acquire()} back to the pool.
+     *
+     * @param connection PooledConnection
+     */
+    public void release(PooledConnection connection) {
+        getPool().release(connection);
+    }
+
+    /**
+     * Open a connection to the database outside the pool, for work such as bulk loading that holds a connection of
+     * its own for a long time. The caller must close it.
+     *
+     * @return A connection to the database
+     * @throws SQLException if the connection cannot be opened
+     */
+    public Connection openConnection() throws SQLException {
+        try {
+            Class.forName(driverClassname);
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException("Unknown database driver class: " + driverClassname);
+        }
+        return DriverManager.getConnection(url, username, password);
+    }
+
+    private ConnectionPool getPool() {
+        synchronized (DataSource.class) {
+            if (pool == null) {
+                System.out.println("Connecting to database " + url + " as user '" + username + "'");
+
+                try {
+
+                    Class.forName(driverClassname);
+                    pool = new ConnectionPool(url, username, password, poolMinSize, poolMaxSize,
+                            poolAcquireTimeout, poolIdleTimeout, poolValidate, poolValidationTimeout,
+                            statementCacheSize);
+
+                } catch (ClassNotFoundException e) {
+                    throw new RuntimeException("Unknown database driver class: " + driverClassname);
+                } catch (SQLException e) {
+                    throw new RuntimeException("Unable to create database connection!", e);
+                }
             }
+            return pool;
         }
-        
-        return connection;
-        
     }
-    
+
     /**
-     * Close the connection to the database;
+     * Close the connections to the database;
      */
     public static void close() {
-        if (connection != null) {
-            try {
-                connection.close();
-                connection = null;
-            } catch (SQLException e) {
-                System.err.println("Unable to close database connection!");
+        synchronized (DataSource.class) {
+            if (pool != null) {
+                pool.close();
+                pool = null;
             }
         }
     }
@@ -130,5 +234,99 @@ public class DataSource {
     public int getMaxRows() {
         return maxRows;
     }
+
+    /**
+     * Get the name of the {@link TerminologyBackend} to query, as defined in the application properties.
+     */
+    public String getBackend() {
+        return backend;
+    }
+
+    /**
+     * Whether the jdbc backend should search terms with an in-memory index, as defined in the application properties.
+     */
+    public boolean isTermIndexEnabled() {
+        return termIndexEnabled;
+    }
+
+    /**
+     * Get the location of the extracted SCT-AU terminology bundle, as defined in the application properties.
+     */
+    public String getRf2SourceDir() {
+        return getSystemProperty("rf2.source.dir");
+    }
+
+    /**
+     * Get the location of the terminology image, as defined in the application properties.
+     */
+    public String getImageFile() {
+        return getSystemProperty("image.file", "terminology.img");
+    }
+
+    /**
+     * Get the directory of the terminology bundle holding the RF2 delta to apply, as defined in the application
+     * properties.
+     */
+    public String getRf2DeltaDir() {
+        return getSystemProperty("rf2.delta.dir");
+    }
+
+    /**
+     * Get the maximum number of reference set concepts to cache, as defined in the application properties.
+     */
+    public int getRefsetCacheSize() {
+        return refsetCacheSize;
+    }
+
+    /**
+     * Get the most SQL statements a find operation may execute before being reported, as defined in the application
+     * properties.
+     */
+    public int getStatementBudget() {
+        return statementBudget;
+    }
+
+    /**
+     * Get the port the lookup server listens on, as defined in the application properties.
+     */
+    public int getHttpPort() {
+        return httpPort;
+    }
+
+    /**
+     * Get the number of threads the lookup server answers requests with, as defined in the application properties.
+     */
+    public int getHttpThreads() {
+        return httpThreads;
+    }
+
+    /**
+     * Get the number of requests the lookup server accepts at once, as defined in the application properties.
+     */
+    public int getHttpMaxConcurrent() {
+        return httpMaxConcurrent;
+    }
+
+    /**
+     * Get the number of chunks of SCT IDs the batch resolver resolves at once, as defined in the application
+     * properties.
+     */
+    public int getBatchThreads() {
+        return batchThreads;
+    }
+
+    /**
+     * Get the number of SCT IDs the batch resolver resolves together, as defined in the application properties.
+     */
+    public int getBatchChunkSize() {
+        return batchChunkSize;
+    }
+
+    /**
+     * Get the number of tables loaded at once by the database loader, as defined in the application properties.
+     */
+    public int getLoadThreads() {
+        return loadThreads;
+    }
     
 }
@@ -0,0 +1,28 @@
+package au.gov.digitalhealth.db;
+
+import au.gov.digitalhealth.model.Concept;
+
+/**
+ * How much of each {@link Concept} a find operation fetches up front. Whatever is not fetched is loaded the first
+ * time it is accessed, so every plan gives the same answers and only differs in when, and how often, the backend is
+ * queried. Fetch only what most of the results will be used for: a plan that fetches too little costs a query per
+ * concept touched later.
+ */
+public enum FetchPlan {
+
+    /**
+     * Only the SCT ID, eg. to count or collect the ids of the results.
+     */
+    ID,
+
+    /**
+     * The SCT ID and en-AU preferred term, eg. to display a list of results. Descriptions and reference set
+     * memberships are loaded on first access.
+     */
+    PREFERRED_TERM,
+
+    /**
+     * The SCT ID, every active description and every reference set membership.
+     */
+    FULL
+}
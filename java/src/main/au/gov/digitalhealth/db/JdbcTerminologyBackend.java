@@ -0,0 +1,814 @@
+package au.gov.digitalhealth.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import au.gov.digitalhealth.index.PrefixIndex;
+import au.gov.digitalhealth.index.RankedMatches;
+import au.gov.digitalhealth.index.RefsetMembershipIndex;
+import au.gov.digitalhealth.index.SubsumptionIndex;
+import au.gov.digitalhealth.index.Suggestions;
+import au.gov.digitalhealth.index.TrigramIndex;
+import au.gov.digitalhealth.model.Concept;
+import au.gov.digitalhealth.model.ConceptLoader;
+import au.gov.digitalhealth.model.Metadata;
+import au.gov.digitalhealth.model.Metadata.LanguageAcceptability;
+import au.gov.digitalhealth.model.PreferredTermChooser;
+
+/**
+ * A {@link TerminologyBackend} that queries the terminology loaded into the database by the <i>ant db</i> target.<p/>
+ *
+ * When the <i>db.term.index</i> property is set, the active description terms are read from the database once, when
+ * the backend is created (and again on {@link #reload()}), into a {@link TrigramIndex}. {@link #findByTerm(String, int)} then finds the matching
+ * concepts from the index and only queries the database to hydrate them, instead of running a
+ * <code>like '%term%'</code> query that has to scan every description. A {@link PrefixIndex} is built from the same
+ * terms for {@link #suggest(String, Suggestions)}, which is only available when the index is enabled.<p/>
+ *
+ * Concepts are hydrated in batches as described by {@link #getConceptDetails(Collection, FetchPlan)}. The parts left
+ * out by the {@link FetchPlan} are each loaded with a single query when first accessed.<p/>
+ *
+ * Preferred terms are read from the <code>concept_preferred_term</code> table built by the <i>ant db</i> target, so
+ * finding a concept with {@link FetchPlan#PREFERRED_TERM} is a single primary key read. A database loaded before the
+ * table existed falls back to working the preferred term out from all the descriptions of each concept. Whether the
+ * table exists is checked when the backend is created and on {@link #reload()}.
+ */
+public class JdbcTerminologyBackend implements TerminologyBackend {
+
+    private final DataSource dataSource;
+
+    /** Records the time and rows of every statement executed */
+    private final QueryMetrics metrics;
+
+    /** The indexes over the active description terms, <code>null</code> if not enabled */
+    private volatile TermIndexes termIndexes;
+
+    /** Whether the database has the <code>concept_preferred_term</code> table */
+    private volatile boolean preferredTermTable;
+
+    /**
+     * Maximum number of concept ids placed in a single <code>in (...)</code> clause when hydrating concepts.
+     */
+    private static final int HYDRATION_BATCH_SIZE = 500;
+
+    /**
+     * The number of parameters an <code>in (...)</code> clause is padded out to. Padding keeps the number of
+     * distinct statement texts (and so cached prepared statements) small whatever the size of each batch.
+     */
+    private static final int[] IN_CLAUSE_SIZES = {1, 8, 32, 128, HYDRATION_BATCH_SIZE};
+
+    /** The number of rows fetched at a time when streaming a result from a database other than MySQL */
+    private static final int STREAM_FETCH_SIZE = 1000;
+
+    /**
+     * The indexes built from the active description terms, replaced together on {@link #reload()}.
+     */
+    private static final class TermIndexes {
+        /** Substring index over the terms */
+        final TrigramIndex termIndex;
+
+        /** The SCTIDs of the owners in the {@link #termIndex} */
+        final long[] conceptIds;
+
+        /** Word prefix index over the terms */
+        final PrefixIndex prefixIndex;
+
+        TermIndexes(TrigramIndex termIndex, long[] conceptIds, PrefixIndex prefixIndex) {
+            this.termIndex = termIndex;
+            this.conceptIds = conceptIds;
+            this.prefixIndex = prefixIndex;
+        }
+    }
+
+    /**
+     * Processes each row of a query result. The result set is closed once all rows have been processed so
+     * implementations must not run further queries.
+     */
+    private interface RowHandler {
+        void processRow(ResultSet row) throws SQLException;
+    }
+
+    /**
+     * Loads the descriptions and reference sets of a concept hydrated without them.
+     */
+    private final ConceptLoader conceptLoader = new ConceptLoader() {
+        // A concept loads its parts whenever they are first accessed, often after the find operation that returned
+        // it has ended, so each load is an operation of its own unless it runs within another
+        public void loadDescriptions(Concept concept) {
+            metrics.begin("loadDescriptions");
+            try {
+                List<Long> conceptIds = Collections.singletonList(concept.getSctId());
+                Map<Long, String> preferredTerms = new HashMap<Long, String>();
+                addDescriptions(concept, findConceptDescriptions(conceptIds, preferredTerms).get(concept.getSctId()));
+                concept.setPreferredTerm(preferredTerms.get(concept.getSctId()));
+            } finally {
+                metrics.end();
+            }
+        }
+
+        public void loadRefsetMemberships(Concept concept) {
+            metrics.begin("loadRefsetMemberships");
+            try {
+                List<Long> conceptIds = Collections.singletonList(concept.getSctId());
+                addRefsetMemberships(concept, findConceptRefsets(conceptIds).get(concept.getSctId()));
+            } finally {
+                metrics.end();
+            }
+        }
+    };
+
+    public JdbcTerminologyBackend(DataSource dataSource, QueryMetrics metrics) {
+        this.dataSource = dataSource;
+        this.metrics = metrics;
+        reload();
+    }
+
+    /**
+     * Checks again for the <code>concept_preferred_term</code> table and, when <i>db.term.index</i> is set, rebuilds
+     * the term indexes from the reloaded descriptions. Searches carry on against the previous indexes until the new
+     * ones are built.
+     */
+    public void reload() throws RuntimeException {
+        preferredTermTable = hasTable("concept_preferred_term");
+        if (!preferredTermTable) {
+            System.out.println("No concept_preferred_term table, run the ant db target to build it. Preferred terms"
+                    + " will be worked out from the descriptions.");
+        }
+        if (dataSource.isTermIndexEnabled()) {
+            termIndexes = buildTermIndexes();
+        }
+    }
+
+    public Concept findById(long conceptSctid, FetchPlan fetchPlan) throws RuntimeException {
+        Concept concept = null;
+
+        if (fetchPlan == FetchPlan.PREFERRED_TERM && preferredTermTable) {
+            // The table only holds active concepts, so this one read also checks the concept is active
+            String preferredTerm = findPreferredTermBatch(Collections.singletonList(conceptSctid)).get(conceptSctid);
+            return preferredTerm == null ? null : preferredTermConcept(conceptSctid, preferredTerm);
+        }
+
+        List<Long> conceptIds = findIds("findById", "select concept.id"
+                + " from concepts concept"
+                + " where concept.id = ?"
+                + " and concept.active = " + Metadata.ACTIVE_STATUS_VALUE, 1, conceptSctid);
+        if (!conceptIds.isEmpty()) {
+            concept = getConceptDetails(conceptIds, fetchPlan).get(0);
+        }
+
+        return concept;
+    }
+
+    public Map<Long, Concept> findByIds(Collection<Long> conceptSctids, FetchPlan fetchPlan)
+            throws RuntimeException {
+        Map<Long, Concept> concepts = new HashMap<Long, Concept>();
+        List<Long> batch = new ArrayList<Long>();
+
+        // Each batch costs one query for the active ids and up to two to hydrate them, see getConceptDetails
+        for (Iterator<Long> iterator = new LinkedHashSet<Long>(conceptSctids).iterator(); iterator.hasNext();) {
+            batch.add(iterator.next());
+            if (batch.size() == HYDRATION_BATCH_SIZE || !iterator.hasNext()) {
+                if (fetchPlan == FetchPlan.PREFERRED_TERM && preferredTermTable) {
+                    for (Map.Entry<Long, String> preferredTerm : findPreferredTermBatch(batch).entrySet()) {
+                        concepts.put(preferredTerm.getKey(),
+                                preferredTermConcept(preferredTerm.getKey(), preferredTerm.getValue()));
+                    }
+                    batch.clear();
+                    continue;
+                }
+                List<Long> parameters = padInClause(batch);
+                List<Long> activeIds = findIds("findByIds", "select concept.id"
+                        + " from concepts concept"
+                        + " where concept.id in (" + placeholders(parameters.size()) + ")"
+                        + " and concept.active = " + Metadata.ACTIVE_STATUS_VALUE, 0, parameters.toArray());
+                // Padding repeats the last id so it may be found more than once
+                activeIds = new ArrayList<Long>(new LinkedHashSet<Long>(activeIds));
+                if (!activeIds.isEmpty()) {
+                    for (Concept concept : hydrateBatch(activeIds, fetchPlan)) {
+                        concepts.put(concept.getSctId(), concept);
+                    }
+                }
+                batch.clear();
+            }
+        }
+
+        return concepts;
+    }
+
+    public Map<Long, String> findPreferredTerms(Collection<Long> conceptSctids) throws RuntimeException {
+        Map<Long, String> preferredTerms = new HashMap<Long, String>();
+        List<Long> batch = new ArrayList<Long>();
+
+        for (Iterator<Long> iterator = new LinkedHashSet<Long>(conceptSctids).iterator(); iterator.hasNext();) {
+            batch.add(iterator.next());
+            if (batch.size() == HYDRATION_BATCH_SIZE || !iterator.hasNext()) {
+                preferredTerms.putAll(findPreferredTermBatch(batch));
+                batch.clear();
+            }
+        }
+
+        return preferredTerms;
+    }
+
+    public Collection<Concept> findByTerm(String term, int maxRows, FetchPlan fetchPlan) throws RuntimeException {
+        Collection<Concept> concepts = new ArrayList<Concept>();
+
+        TermIndexes indexes = termIndexes;
+        if (indexes != null) {
+            List<Long> conceptIds = new ArrayList<Long>();
+            for (int owner : indexes.termIndex.search(term, maxRows)) {
+                conceptIds.add(indexes.conceptIds[owner]);
+            }
+            concepts.addAll(getConceptDetails(conceptIds, fetchPlan));
+            return concepts;
+        }
+
+        List<Long> conceptIds = findIds("findByTerm", "select distinct concept.id"
+            + " from concepts concept"
+            + " join descriptions description on description.conceptid = concept.id"
+            + " where description.term like ?"
+            + " and description.active = " + Metadata.ACTIVE_STATUS_VALUE
+            + " and concept.active = " + Metadata.ACTIVE_STATUS_VALUE
+            + " order by concept.id, description.effectivetime DESC", maxRows, "%" + term + "%");
+        concepts.addAll(getConceptDetails(conceptIds, fetchPlan));
+
+        return concepts;
+    }
+
+    public List<Concept> findByTermRanked(String term, int maxRows, FetchPlan fetchPlan) throws RuntimeException {
+        List<Long> conceptIds = new ArrayList<Long>();
+
+        TermIndexes indexes = termIndexes;
+        if (indexes != null) {
+            for (int owner : indexes.termIndex.searchRanked(term, maxRows)) {
+                conceptIds.add(indexes.conceptIds[owner]);
+            }
+            return getConceptDetails(conceptIds, fetchPlan);
+        }
+
+        // Every matching description is streamed and scored, grouped by concept, but only the best are hydrated
+        final RankedMatches matches = new RankedMatches(TrigramIndex.normalise(term), maxRows);
+        streamSql("findByTermRanked", "select description.conceptid, description.term, adrs.valueid"
+                + " from descriptions description"
+                + " join concepts concept on concept.id = description.conceptid"
+                + " left join description_refset adrs on adrs.referenceddescriptionid = description.id"
+                + " where description.term like ?"
+                + " and description.active = " + Metadata.ACTIVE_STATUS_VALUE
+                + " and concept.active = " + Metadata.ACTIVE_STATUS_VALUE
+                + " order by description.conceptid", new RowHandler() {
+                    public void processRow(ResultSet row) throws SQLException {
+                        matches.offer(row.getLong(1), TrigramIndex.normalise(row.getString(2)),
+                                (byte) LanguageAcceptability.forSctId(row.getLong(3)).ordinal());
+                    }
+                }, "%" + term + "%");
+        for (long conceptId : matches.toArray()) {
+            conceptIds.add(conceptId);
+        }
+        return getConceptDetails(conceptIds, fetchPlan);
+    }
+
+    public void suggest(String prefix, Suggestions suggestions) throws RuntimeException {
+        TermIndexes indexes = termIndexes;
+        if (indexes == null) {
+            throw new RuntimeException("Suggestions need the description term index, set db.term.index=true");
+        }
+        indexes.prefixIndex.search(prefix, suggestions);
+    }
+
+    public List<Concept> findRefsetMembers(long refsetSctId, long afterConceptSctid, int maxRows,
+            FetchPlan fetchPlan) throws RuntimeException {
+        // Seeks to the page through the concept_refset_refset_id_idx index rather than skipping earlier rows
+        List<Long> conceptIds = findIds("findRefsetMembers", "select distinct concept.id"
+                + " from concepts concept"
+                + " join concept_refset clinical on clinical.referencedconceptid = concept.id"
+                + " where clinical.refsetid = ?"
+                + " and clinical.referencedconceptid > ?"
+                + " and clinical.active = " + Metadata.ACTIVE_STATUS_VALUE
+                + " and concept.active = " + Metadata.ACTIVE_STATUS_VALUE
+                + " order by concept.id", maxRows, refsetSctId, afterConceptSctid);
+
+        return getConceptDetails(conceptIds, fetchPlan);
+    }
+
+    public void exportRefsetMembers(long refsetSctId, final MemberDescriptionHandler handler)
+            throws RuntimeException {
+        // Members are found once each, however many member rows they have, before joining to their descriptions
+        streamSql("exportRefsetMembers", "select member.referencedconceptid, description.term, adrs.valueid"
+                + " from (select distinct clinical.referencedconceptid"
+                + "     from concept_refset clinical"
+                + "     where clinical.refsetid = ?"
+                + "     and clinical.active = " + Metadata.ACTIVE_STATUS_VALUE + ") member"
+                + " join concepts concept on concept.id = member.referencedconceptid"
+                + " join descriptions description on description.conceptid = concept.id"
+                + " left join description_refset adrs on adrs.referenceddescriptionid = description.id"
+                + " where concept.active = " + Metadata.ACTIVE_STATUS_VALUE
+                + " and description.active = " + Metadata.ACTIVE_STATUS_VALUE
+                + " order by member.referencedconceptid, description.term", new RowHandler() {
+                    public void processRow(ResultSet row) throws SQLException {
+                        handler.processDescription(row.getLong(1), row.getString(2),
+                                LanguageAcceptability.forSctId(row.getLong(3)));
+                    }
+                }, refsetSctId);
+    }
+
+    /**
+     * Reads the active descriptions of active concepts, ordered by concept, into a {@link TrigramIndex} and a
+     * {@link PrefixIndex}. The rows are streamed from the database rather than read into memory as one result.
+     *
+     * @return TermIndexes
+     * @throws RuntimeException SQLException database errors.
+     */
+    private TermIndexes buildTermIndexes() throws RuntimeException {
+        System.out.println("Building description term index");
+        long start = System.currentTimeMillis();
+
+        final List<Long> conceptIds = new ArrayList<Long>();
+        final List<Integer> ownerOffsets = new ArrayList<Integer>();
+        final List<String> terms = new ArrayList<String>();
+        final List<String> searchTerms = new ArrayList<String>();
+        final List<Long> acceptabilities = new ArrayList<Long>();
+
+        streamSql("buildTermIndex", "select description.conceptid, description.term, adrs.valueid"
+                + " from descriptions description"
+                + " join concepts concept on concept.id = description.conceptid"
+                + " left join description_refset adrs on adrs.referenceddescriptionid = description.id"
+                + " where description.active = " + Metadata.ACTIVE_STATUS_VALUE
+                + " and concept.active = " + Metadata.ACTIVE_STATUS_VALUE
+                + " order by description.conceptid", new RowHandler() {
+                    public void processRow(ResultSet row) throws SQLException {
+                        long conceptId = row.getLong(1);
+                        if (conceptIds.isEmpty() || conceptIds.get(conceptIds.size() - 1) != conceptId) {
+                            conceptIds.add(conceptId);
+                            ownerOffsets.add(terms.size());
+                        }
+                        terms.add(row.getString(2));
+                        searchTerms.add(TrigramIndex.normalise(row.getString(2)));
+                        acceptabilities.add(row.getLong(3));
+                    }
+                });
+
+        long[] termIndexConceptIds = new long[conceptIds.size()];
+        int[] offsets = new int[conceptIds.size() + 1];
+        for (int i = 0; i < conceptIds.size(); i++) {
+            termIndexConceptIds[i] = conceptIds.get(i);
+            offsets[i] = ownerOffsets.get(i);
+        }
+        offsets[conceptIds.size()] = terms.size();
+        String[] searchTermArray = searchTerms.toArray(new String[searchTerms.size()]);
+        byte[] acceptabilityOrdinals = new byte[acceptabilities.size()];
+        for (int i = 0; i < acceptabilityOrdinals.length; i++) {
+            acceptabilityOrdinals[i] = (byte) LanguageAcceptability.forSctId(acceptabilities.get(i)).ordinal();
+        }
+        TrigramIndex termIndex = new TrigramIndex(searchTermArray, offsets, acceptabilityOrdinals);
+
+        String[] termArray = terms.toArray(new String[terms.size()]);
+        PrefixIndex prefixIndex = new PrefixIndex(searchTermArray, offsets, acceptabilityOrdinals, termIndexConceptIds,
+                PrefixIndex.preferredTerms(termArray, offsets, acceptabilityOrdinals));
+
+        System.out.println("Indexed " + terms.size() + " terms in " + (System.currentTimeMillis() - start) + "ms");
+        return new TermIndexes(termIndex, termIndexConceptIds, prefixIndex);
+    }
+
+    /**
+     * Reads the active reference set memberships of active concepts into a {@link RefsetMembershipIndex}. The rows
+     * are streamed from the database rather than read into memory as one result.
+     *
+     * @throws RuntimeException SQLException database errors.
+     */
+    public RefsetMembershipIndex buildRefsetMembershipIndex() throws RuntimeException {
+        final RefsetMembershipIndex.Builder builder = new RefsetMembershipIndex.Builder();
+        streamSql("buildRefsetMembershipIndex", "select clinical.refsetid, clinical.referencedconceptid"
+                + " from concept_refset clinical"
+                + " join concepts concept on concept.id = clinical.referencedconceptid"
+                + " where clinical.active = " + Metadata.ACTIVE_STATUS_VALUE
+                + " and concept.active = " + Metadata.ACTIVE_STATUS_VALUE, new RowHandler() {
+                    public void processRow(ResultSet row) throws SQLException {
+                        builder.add(row.getLong(1), row.getLong(2));
+                    }
+                });
+        return builder.build();
+    }
+
+    public SubsumptionIndex buildSubsumptionIndex() throws RuntimeException {
+        final SubsumptionIndex.Builder builder = new SubsumptionIndex.Builder();
+        streamSql("buildSubsumptionIndex", "select relationship.sourceid, relationship.destinationid"
+                + " from relationships relationship"
+                + " join concepts source on source.id = relationship.sourceid"
+                + " join concepts destination on destination.id = relationship.destinationid"
+                + " where relationship.active = " + Metadata.ACTIVE_STATUS_VALUE
+                + " and relationship.typeid = " + Metadata.IS_A
+                + " and source.active = " + Metadata.ACTIVE_STATUS_VALUE
+                + " and destination.active = " + Metadata.ACTIVE_STATUS_VALUE, new RowHandler() {
+                    public void processRow(ResultSet row) throws SQLException {
+                        builder.add(row.getLong(1), row.getLong(2));
+                    }
+                });
+        return builder.build();
+    }
+
+    /**
+     * Finds all the reference sets each of the <code>conceptSctids</code> has an active membership with, using a
+     * single query.
+     *
+     * @param conceptSctids Collection of concept ids
+     * @return Set of reference set ids <code>Long</code> keyed by concept id <code>Long</code>
+     * @throws RuntimeException SQLException database errors.
+     */
+    private Map<Long, HashSet<Long>> findConceptRefsets(Collection<Long> conceptSctids) throws RuntimeException {
+        final Map<Long, HashSet<Long>> refsetIds = new HashMap<Long, HashSet<Long>>();
+        List<Long> parameters = padInClause(conceptSctids);
+        runSql("findConceptRefsets", "select concept.id, clinical.refsetid"
+                + " from concepts concept"
+                + " join concept_refset clinical on  clinical.referencedconceptid = concept.id"
+                + " where concept.id in (" + placeholders(parameters.size()) + ")"
+                + " and clinical.active = " + Metadata.ACTIVE_STATUS_VALUE
+                + " and concept.active = " + Metadata.ACTIVE_STATUS_VALUE
+                + " order by concept.id DESC", 0, new RowHandler() {
+                    public void processRow(ResultSet row) throws SQLException {
+                        Long conceptId = row.getLong(1);
+                        HashSet<Long> conceptRefsetIds = refsetIds.get(conceptId);
+                        if (conceptRefsetIds == null) {
+                            conceptRefsetIds = new HashSet<Long>();
+                            refsetIds.put(conceptId, conceptRefsetIds);
+                        }
+                        conceptRefsetIds.add(row.getLong(2));
+                    }
+                }, parameters.toArray());
+
+        return refsetIds;
+    }
+
+    /**
+     * Finds all the active descriptions for each of the <code>conceptSctids</code>, using a single query, and
+     * chooses the preferred term of each from them with a {@link PreferredTermChooser}.
+     *
+     * @param conceptSctids Collection of concept ids
+     * @param preferredTerms Map receiving the preferred term of each concept, keyed by concept id
+     * @return Map of ADRS language type <code>Long</code> keyed by the description term <code>String</code>,
+     *         keyed by concept id <code>Long</code>
+     * @throws RuntimeException SQLException database errors.
+     */
+    private Map<Long, Map<String, Long>> findConceptDescriptions(Collection<Long> conceptSctids,
+            final Map<Long, String> preferredTerms) throws RuntimeException {
+        final Map<Long, Map<String, Long>> descriptions = new HashMap<Long, Map<String, Long>>();
+        final PreferredTermChooser chooser = new PreferredTermChooser();
+        List<Long> parameters = padInClause(conceptSctids);
+        runSql("findConceptDescriptions", "select concept.id, description.term, adrs.valueid, description.typeid"
+                + " from concepts concept"
+                + " join descriptions description on description.conceptid = concept.id"
+                + " left join description_refset adrs on adrs.referenceddescriptionid = description.id"
+                + "     and adrs.active = " + Metadata.ACTIVE_STATUS_VALUE
+                + " where concept.id in (" + placeholders(parameters.size()) + ")"
+                + " and description.active = " + Metadata.ACTIVE_STATUS_VALUE
+                + " and concept.active = " + Metadata.ACTIVE_STATUS_VALUE
+                + " order by concept.id, description.term, description.effectivetime DESC", 0, new RowHandler() {
+                    public void processRow(ResultSet row) throws SQLException {
+                        Long conceptId = row.getLong(1);
+                        Map<String, Long> conceptDescriptions = descriptions.get(conceptId);
+                        if (conceptDescriptions == null) {
+                            conceptDescriptions = new LinkedHashMap<String, Long>();
+                            descriptions.put(conceptId, conceptDescriptions);
+                            // Rows are ordered by concept, so the previous concept's descriptions are all offered
+                            chooser.clear();
+                        }
+                        conceptDescriptions.put(row.getString(2), row.getLong(3));
+                        chooser.offer(row.getString(2), row.getLong(4), LanguageAcceptability.forSctId(row.getLong(3)));
+                        preferredTerms.put(conceptId, chooser.getTerm());
+                    }
+                }, parameters.toArray());
+
+        return descriptions;
+    }
+
+    /**
+     * Finds the en-AU preferred term of each of the active <code>conceptSctids</code> with a single query, from the
+     * <code>concept_preferred_term</code> table if there is one, otherwise from the descriptions.
+     *
+     * @param conceptSctids Collection of concept ids, no more than {@link #HYDRATION_BATCH_SIZE}
+     * @return Map of preferred term keyed by concept id, without the ids that have no active concept
+     * @throws RuntimeException SQLException database errors.
+     */
+    private Map<Long, String> findPreferredTermBatch(Collection<Long> conceptSctids) throws RuntimeException {
+        final Map<Long, String> preferredTerms = new HashMap<Long, String>();
+        if (!preferredTermTable) {
+            findConceptDescriptions(conceptSctids, preferredTerms);
+            return preferredTerms;
+        }
+
+        List<Long> parameters = padInClause(conceptSctids);
+        runSql("findPreferredTerms", "select preferred.conceptid, preferred.term"
+                + " from concept_preferred_term preferred"
+                + " where preferred.conceptid in (" + placeholders(parameters.size()) + ")", 0, new RowHandler() {
+                    public void processRow(ResultSet row) throws SQLException {
+                        preferredTerms.put(row.getLong(1), row.getString(2));
+                    }
+                }, parameters.toArray());
+
+        return preferredTerms;
+    }
+
+    /**
+     * @param table String name of a table
+     * @return boolean whether the database has the <code>table</code>
+     * @throws RuntimeException SQLException database errors.
+     */
+    private boolean hasTable(String table) throws RuntimeException {
+        PooledConnection connection = null;
+        try {
+            connection = dataSource.acquire();
+            ResultSet tables = connection.getConnection().getMetaData().getTables(null, null, table,
+                    new String[] {"TABLE"});
+            try {
+                return tables.next();
+            } finally {
+                tables.close();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (connection != null) {
+                dataSource.release(connection);
+            }
+        }
+    }
+
+    /**
+     * Pads the <code>ids</code> out to the next size in {@link #IN_CLAUSE_SIZES} by repeating the last id, which
+     * does not change the result of an <code>in (...)</code> clause.
+     *
+     * @param ids Collection of Long, no more than {@link #HYDRATION_BATCH_SIZE}
+     * @return List of Long
+     */
+    private List<Long> padInClause(Collection<Long> ids) {
+        int size = IN_CLAUSE_SIZES[IN_CLAUSE_SIZES.length - 1];
+        for (int candidate : IN_CLAUSE_SIZES) {
+            if (candidate >= ids.size()) {
+                size = candidate;
+                break;
+            }
+        }
+        List<Long> result = new ArrayList<Long>(size);
+        result.addAll(ids);
+        Long last = result.get(result.size() - 1);
+        while (result.size() < size) {
+            result.add(last);
+        }
+        return result;
+    }
+
+    /**
+     * @param count int
+     * @return String of <code>count</code> comma separated parameter placeholders
+     */
+    private String placeholders(int count) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                result.append(',');
+            }
+            result.append('?');
+        }
+        return result.toString();
+    }
+
+    /**
+     * Executes the <code>sql</code> and returns the value of the first column of each row as a concept id.
+     *
+     * @param query String name of the query recorded in the {@link QueryMetrics}
+     * @param sql String
+     * @param maxRows int, 0 for no limit
+     * @param parameters values bound to the statement parameters in order
+     * @return List of Long
+     * @throws RuntimeException SQLException database errors.
+     */
+    private List<Long> findIds(String query, String sql, int maxRows, Object... parameters)
+            throws RuntimeException {
+        final List<Long> ids = new ArrayList<Long>();
+        runSql(query, sql, maxRows, new RowHandler() {
+            public void processRow(ResultSet row) throws SQLException {
+                ids.add(row.getLong(1));
+            }
+        }, parameters);
+        return ids;
+    }
+
+    /**
+     * Executes the <code>sql</code>, streaming the rows to the <code>handler</code> rather than reading the whole
+     * result into memory. The statement is not cached as these are one off queries over whole tables.<p/>
+     *
+     * The pooled connection is held until the last row has been handled, so the <code>handler</code> must not
+     * re-enter the {@link ConceptFinder}: MySQL runs no other statement on a connection while it streams a result,
+     * and with every pooled connection held a nested find would wait for one forever.
+     *
+     * @param query String name of the query recorded in the {@link QueryMetrics}
+     * @param sql String
+     * @param handler RowHandler
+     * @param parameters values bound to the statement parameters in order
+     * @throws RuntimeException SQLException database errors.
+     */
+    private void streamSql(String query, String sql, RowHandler handler, Object... parameters)
+            throws RuntimeException {
+        PooledConnection connection = null;
+        PreparedStatement statement = null;
+        long start = System.nanoTime();
+        int rows = 0;
+        try {
+            connection = dataSource.acquire();
+            statement = connection.getConnection().prepareStatement(sql,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(streamingFetchSize(connection.getConnection()));
+            for (int i = 0; i < parameters.length; i++) {
+                statement.setObject(i + 1, parameters[i]);
+            }
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                handler.processRow(resultSet);
+                rows++;
+            }
+            resultSet.close();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (statement != null) {
+                try {
+                    statement.close();
+                } catch (SQLException e) {
+                    System.err.println("Unable to close statement!");
+                }
+            }
+            if (connection != null) {
+                dataSource.release(connection);
+            }
+            metrics.recordStatement(query, System.nanoTime() - start, rows);
+        }
+    }
+
+    /**
+     * @return The fetch size that streams a result on the <code>connection</code>: MySQL Connector/J only streams
+     *         rows, rather than reading the whole result, with <code>Integer.MIN_VALUE</code>, which other drivers
+     *         reject, so they fetch {@link #STREAM_FETCH_SIZE} rows at a time
+     */
+    private static int streamingFetchSize(Connection connection) throws SQLException {
+        return "MySQL".equalsIgnoreCase(connection.getMetaData().getDatabaseProductName()) ? Integer.MIN_VALUE
+                : STREAM_FETCH_SIZE;
+    }
+
+    /**
+     * Executes the <code>sql</code> using a cached prepared statement, limits the number of returned rows and
+     * passes each row to the <code>handler</code>. A connection is taken from the pool for the duration of the
+     * query only. The result set is always closed and the connection released before returning, the statement
+     * remains open in the connection's {@link StatementCache} for reuse. The time taken, including waiting for a
+     * connection, and the rows fetched are recorded in the {@link QueryMetrics}.
+     *
+     * @param query String name of the query recorded in the {@link QueryMetrics}
+     * @param sql String
+     * @param maxRows int, 0 for no limit
+     * @param handler RowHandler
+     * @param parameters values bound to the statement parameters in order
+     * @throws RuntimeException SQLException database errors.
+     */
+    private void runSql(String query, String sql, int maxRows, RowHandler handler, Object... parameters)
+            throws RuntimeException {
+        PooledConnection connection = null;
+        ResultSet resultSet = null;
+        long start = System.nanoTime();
+        int rows = 0;
+        try {
+            connection = dataSource.acquire();
+            PreparedStatement statement = connection.prepareStatement(sql);
+            statement.setMaxRows(maxRows);
+            for (int i = 0; i < parameters.length; i++) {
+                statement.setObject(i + 1, parameters[i]);
+            }
+            resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                handler.processRow(resultSet);
+                rows++;
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (resultSet != null) {
+                try {
+                    resultSet.close();
+                } catch (SQLException e) {
+                    System.err.println("Unable to close result set!");
+                }
+            }
+            if (connection != null) {
+                dataSource.release(connection);
+            }
+            metrics.recordStatement(query, System.nanoTime() - start, rows);
+        }
+    }
+
+    /**
+     * Creates a {@link Concept} object for each of the <code>conceptIds</code> and finds the parts of them in the
+     * <code>fetchPlan</code>. The ids are hydrated in batches of {@link #HYDRATION_BATCH_SIZE}, each batch costing
+     * one query for the descriptions, or just the preferred terms, and one for the reference sets, as needed, rather
+     * than queries per concept.
+     *
+     * @param conceptIds Collection of concept ids
+     * @param fetchPlan FetchPlan
+     * @return List of Concept in the same order as <code>conceptIds</code>
+     * @throws RuntimeException SQLException database errors.
+     */
+    private List<Concept> getConceptDetails(Collection<Long> conceptIds, FetchPlan fetchPlan)
+            throws RuntimeException {
+        List<Concept> concepts = new ArrayList<Concept>(conceptIds.size());
+        List<Long> batch = new ArrayList<Long>();
+
+        for (Iterator<Long> iterator = conceptIds.iterator(); iterator.hasNext();) {
+            batch.add(iterator.next());
+            if (batch.size() == HYDRATION_BATCH_SIZE || !iterator.hasNext()) {
+                concepts.addAll(hydrateBatch(batch, fetchPlan));
+                batch.clear();
+            }
+        }
+
+        return concepts;
+    }
+
+    /**
+     * Hydrates a single batch of concept ids, see {@link #getConceptDetails(Collection, FetchPlan)}.
+     *
+     * @param conceptIds List of concept ids, no more than {@link #HYDRATION_BATCH_SIZE}
+     * @param fetchPlan FetchPlan
+     * @return List of Concept in the same order as <code>conceptIds</code>
+     * @throws RuntimeException SQLException database errors.
+     */
+    private List<Concept> hydrateBatch(List<Long> conceptIds, FetchPlan fetchPlan) throws RuntimeException {
+        Map<Long, Map<String, Long>> descriptions = null;
+        Map<Long, String> preferredTerms = null;
+        if (fetchPlan == FetchPlan.FULL) {
+            preferredTerms = new HashMap<Long, String>();
+            descriptions = findConceptDescriptions(conceptIds, preferredTerms);
+        }
+        if (fetchPlan == FetchPlan.PREFERRED_TERM) {
+            preferredTerms = findPreferredTermBatch(conceptIds);
+        }
+        Map<Long, HashSet<Long>> refsets = null;
+        if (fetchPlan == FetchPlan.FULL) {
+            refsets = findConceptRefsets(conceptIds);
+        }
+
+        List<Concept> concepts = new ArrayList<Concept>(conceptIds.size());
+        for (Long conceptId : conceptIds) {
+            Concept concept = new Concept();
+            concept.setSctId(conceptId);
+
+            if (fetchPlan == FetchPlan.FULL) {
+                addDescriptions(concept, descriptions.get(conceptId));
+                concept.setPreferredTerm(preferredTerms.get(conceptId));
+                addRefsetMemberships(concept, refsets.get(conceptId));
+            } else {
+                if (fetchPlan == FetchPlan.PREFERRED_TERM) {
+                    concept.setPreferredTerm(preferredTerms.get(conceptId));
+                }
+                concept.setLoader(conceptLoader);
+            }
+
+            concepts.add(concept);
+        }
+
+        return concepts;
+    }
+
+    /**
+     * @return Concept with just its <code>preferredTerm</code>, the rest left to the {@link #conceptLoader}
+     */
+    private Concept preferredTermConcept(long conceptSctid, String preferredTerm) {
+        Concept concept = new Concept();
+        concept.setSctId(conceptSctid);
+        concept.setPreferredTerm(preferredTerm);
+        concept.setLoader(conceptLoader);
+        return concept;
+    }
+
+    private static void addDescriptions(Concept concept, Map<String, Long> descriptionAdrsMap) {
+        if (descriptionAdrsMap != null) {
+            for (String term : descriptionAdrsMap.keySet()) {
+                concept.addDescription(term, descriptionAdrsMap.get(term));
+            }
+        }
+    }
+
+    private static void addRefsetMemberships(Concept concept, HashSet<Long> refsetIds) {
+        if (refsetIds != null) {
+            for (Long refsetId : refsetIds) {
+                concept.addRefsetMembership(refsetId);
+            }
+        }
+    }
+}
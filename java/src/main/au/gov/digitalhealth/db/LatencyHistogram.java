@@ -0,0 +1,75 @@
+package au.gov.digitalhealth.db;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of durations with power of two microsecond buckets, so percentiles are accurate to within a
+ * factor of two at a fixed cost of a few atomic increments per recording.<p/>
+ *
+ * Bucket 0 counts durations under 1 microsecond and bucket <code>b</code> those from 2<sup>b-1</sup> up to
+ * 2<sup>b</sup> microseconds. Safe to record into from multiple threads.
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS = 40;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * @param nanos long duration to record
+     */
+    public void record(long nanos) {
+        long micros = nanos / 1000;
+        int bucket = micros == 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return double mean duration in milliseconds, 0 if nothing recorded
+     */
+    public double getMeanMillis() {
+        long n = count.get();
+        return n == 0 ? 0 : totalNanos.get() / 1000000.0 / n;
+    }
+
+    /**
+     * @return double longest duration in milliseconds
+     */
+    public double getMaxMillis() {
+        return maxNanos.get() / 1000000.0;
+    }
+
+    /**
+     * @param fraction double between 0 and 1, eg. 0.99 for the 99th percentile
+     * @return double the upper bound in milliseconds of the bucket holding the percentile, 0 if nothing recorded
+     */
+    public double getPercentileMillis(double fraction) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(n * fraction);
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += buckets.get(b);
+            if (seen >= rank) {
+                return Math.min((1L << b) / 1000.0, getMaxMillis());
+            }
+        }
+        return getMaxMillis();
+    }
+}
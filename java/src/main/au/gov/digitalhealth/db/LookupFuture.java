@@ -0,0 +1,126 @@
+package au.gov.digitalhealth.db;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The pending result of an {@link AsyncConceptFinder} lookup.<p/>
+ *
+ * It may be waited on like any {@link Future}, or a {@link Callback} added to be told of the result without holding a
+ * thread while it is looked up. Lookups cannot be cancelled, as one may be shared by several callers.
+ *
+ * @param <V> the type of the result
+ */
+public class LookupFuture<V> implements Future<V> {
+
+    /**
+     * Told of the result of a lookup. Called on the thread that completed the lookup, so implementations should not
+     * block.
+     *
+     * @param <V> the type of the result
+     */
+    public interface Callback<V> {
+
+        void completed(V result);
+
+        void failed(Throwable cause);
+    }
+
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    /** Guarded by this */
+    private List<Callback<? super V>> callbacks = new ArrayList<Callback<? super V>>();
+
+    private volatile V result;
+    private volatile Throwable failure;
+
+    /**
+     * Call the <code>callback</code> with the result once it is available, or straight away if it already is.
+     *
+     * @param callback Callback
+     */
+    public void addCallback(Callback<? super V> callback) {
+        synchronized (this) {
+            if (callbacks != null) {
+                callbacks.add(callback);
+                return;
+            }
+        }
+        notify(callback);
+    }
+
+    void complete(V value) {
+        result = value;
+        finish();
+    }
+
+    void fail(Throwable cause) {
+        failure = cause;
+        finish();
+    }
+
+    private void finish() {
+        List<Callback<? super V>> waiting;
+        synchronized (this) {
+            waiting = callbacks;
+            callbacks = null;
+        }
+        done.countDown();
+        for (Callback<? super V> callback : waiting) {
+            notify(callback);
+        }
+    }
+
+    private void notify(Callback<? super V> callback) {
+        try {
+            if (failure != null) {
+                callback.failed(failure);
+            } else {
+                callback.completed(result);
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Lookup callback failed: " + e);
+        }
+    }
+
+    /**
+     * Lookups cannot be cancelled.
+     *
+     * @return false
+     */
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    public boolean isCancelled() {
+        return false;
+    }
+
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    public V get() throws InterruptedException, ExecutionException {
+        done.await();
+        return getResult();
+    }
+
+    public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!done.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return getResult();
+    }
+
+    private V getResult() throws ExecutionException {
+        if (failure != null) {
+            throw new ExecutionException(failure);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,23 @@
+package au.gov.digitalhealth.db;
+
+import au.gov.digitalhealth.model.Metadata.LanguageAcceptability;
+
+/**
+ * Receives the active descriptions of the members of a reference set as they are streamed by
+ * {@link ConceptFinder#exportRefsetMembers(long, MemberDescriptionHandler)}, without the members being hydrated.<p/>
+ *
+ * The descriptions arrive grouped by member, the members in SCT ID order and the descriptions of each in the order
+ * {@link au.gov.digitalhealth.model.Concept#getDescriptions()} has them. With the jdbc backend the descriptions are
+ * read from an open result set on a pooled connection held until the last one has been handled, so implementations
+ * must not use the {@link ConceptFinder}: a find would need another connection, and wait forever for one once the
+ * pool is exhausted.
+ */
+public interface MemberDescriptionHandler {
+
+    /**
+     * @param conceptSctid long SCT ID of the member
+     * @param term String description term
+     * @param acceptability LanguageAcceptability en-AU acceptability of the description
+     */
+    void processDescription(long conceptSctid, String term, LanguageAcceptability acceptability);
+}
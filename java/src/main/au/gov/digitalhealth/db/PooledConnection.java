@@ -0,0 +1,71 @@
+package au.gov.digitalhealth.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * A database connection managed by a {@link ConnectionPool}, together with its {@link StatementCache}.<p/>
+ *
+ * A pooled connection must only be used by the thread that acquired it, and must be handed back to the pool with
+ * {@link ConnectionPool#release(PooledConnection)} once the thread has finished with it.
+ */
+public class PooledConnection {
+
+    private final Connection connection;
+
+    private final StatementCache statementCache;
+
+    /** The time this connection was last returned to the pool, in milliseconds */
+    private long lastReleased;
+
+    PooledConnection(Connection connection, int statementCacheSize) {
+        this.connection = connection;
+        this.statementCache = new StatementCache(connection, statementCacheSize);
+        this.lastReleased = System.currentTimeMillis();
+    }
+
+    /**
+     * Obtain a prepared statement for the <code>sql</code> on this connection. Statements are cached and reused, so
+     * callers must close any result set but not the statement itself.
+     *
+     * @param sql String
+     * @return PreparedStatement
+     * @throws SQLException database errors.
+     */
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        return statementCache.prepare(sql);
+    }
+
+    /**
+     * @return The underlying connection, which must not be closed by the caller
+     */
+    public Connection getConnection() {
+        return connection;
+    }
+
+    boolean isValid(int timeoutSeconds) {
+        try {
+            return connection.isValid(timeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    long getLastReleased() {
+        return lastReleased;
+    }
+
+    void setLastReleased(long lastReleased) {
+        this.lastReleased = lastReleased;
+    }
+
+    void close() {
+        statementCache.close();
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            System.err.println("Unable to close database connection!");
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package au.gov.digitalhealth.db;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Records how long each top level {@link ConceptFinder} operation and each SQL query takes, how many rows each query
+ * fetches and how many statements each operation executes.<p/>
+ *
+ * An operation is the outermost {@link #begin(String)} / {@link #end()} pair on a thread. Find operations nested
+ * within it, such as hydrating the reference set concepts of a result, are counted as part of it, so an operation
+ * that issues a statement per result row (an N+1 query pattern) shows up as a high statements per operation count.
+ * An operation executing more statements than the <i>db.metrics.statement.budget</i> is reported on the error
+ * stream and counted.<p/>
+ *
+ * The metrics are available from {@link #getSnapshot()}, and through JMX (eg. jconsole) once {@link #register()}
+ * has been called. Safe to use from multiple threads.
+ */
+public class QueryMetrics implements QueryMetricsMBean {
+
+    /** The JMX name the metrics are registered under */
+    public static final String OBJECT_NAME = "au.gov.digitalhealth:type=QueryMetrics";
+
+    private final ConcurrentMap<String, OperationStats> operations = new ConcurrentHashMap<String, OperationStats>();
+    private final ConcurrentMap<String, QueryStats> queries = new ConcurrentHashMap<String, QueryStats>();
+
+    private final AtomicLong operationCount = new AtomicLong();
+    private final AtomicLong statementCount = new AtomicLong();
+    private final AtomicLong rowCount = new AtomicLong();
+    private final AtomicLong overBudgetCount = new AtomicLong();
+
+    private volatile int statementBudget;
+
+    /** The operation in progress on each thread, reused between operations */
+    private final ThreadLocal<Scope> scopes = new ThreadLocal<Scope>() {
+        @Override
+        protected Scope initialValue() {
+            return new Scope();
+        }
+    };
+
+    /**
+     * @param statementBudget int the most statements an operation may execute before it is reported
+     */
+    public QueryMetrics(int statementBudget) {
+        this.statementBudget = statementBudget;
+    }
+
+    /**
+     * Start an operation on the current thread, or a nested step of the operation already in progress. Must be
+     * followed by {@link #end()} in a <code>finally</code> block.
+     *
+     * @param operation String name of the operation, eg. findByTerm
+     */
+    public void begin(String operation) {
+        Scope scope = scopes.get();
+        if (scope.depth++ == 0) {
+            scope.operation = operation;
+            scope.statements = 0;
+            scope.startNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * End the operation started by the matching {@link #begin(String)}.
+     */
+    public void end() {
+        Scope scope = scopes.get();
+        if (--scope.depth > 0) {
+            return;
+        }
+        long nanos = System.nanoTime() - scope.startNanos;
+        OperationStats stats = getOperationStats(scope.operation);
+        stats.latency.record(nanos);
+        stats.statements.addAndGet(scope.statements);
+        long max = stats.maxStatements.get();
+        while (scope.statements > max && !stats.maxStatements.compareAndSet(max, scope.statements)) {
+            max = stats.maxStatements.get();
+        }
+        operationCount.incrementAndGet();
+
+        int budget = statementBudget;
+        if (budget > 0 && scope.statements > budget) {
+            stats.overBudget.incrementAndGet();
+            overBudgetCount.incrementAndGet();
+            System.err.println("Operation " + scope.operation + " executed " + scope.statements
+                    + " SQL statements, over the budget of " + budget);
+        }
+    }
+
+    /**
+     * Record an executed SQL statement against the operation in progress on the current thread.
+     *
+     * @param query String name of the logical query, eg. findConceptDescriptions
+     * @param nanos long time to execute the statement and fetch its rows
+     * @param rows int number of rows fetched
+     */
+    public void recordStatement(String query, long nanos, int rows) {
+        QueryStats stats = queries.get(query);
+        if (stats == null) {
+            queries.putIfAbsent(query, new QueryStats());
+            stats = queries.get(query);
+        }
+        stats.latency.record(nanos);
+        stats.rows.addAndGet(rows);
+        statementCount.incrementAndGet();
+        rowCount.addAndGet(rows);
+
+        Scope scope = scopes.get();
+        if (scope.depth > 0) {
+            scope.statements++;
+        }
+    }
+
+    private OperationStats getOperationStats(String operation) {
+        OperationStats stats = operations.get(operation);
+        if (stats == null) {
+            operations.putIfAbsent(operation, new OperationStats());
+            stats = operations.get(operation);
+        }
+        return stats;
+    }
+
+    /**
+     * Register these metrics with the platform MBean server as {@link #OBJECT_NAME}.
+     *
+     * @throws RuntimeException JMException if the metrics cannot be registered.
+     */
+    public void register() throws RuntimeException {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException e) {
+            System.err.println("Query metrics already registered as " + OBJECT_NAME);
+        } catch (JMException e) {
+            throw new RuntimeException("Unable to register query metrics", e);
+        }
+    }
+
+    public long getOperationCount() {
+        return operationCount.get();
+    }
+
+    public long getStatementCount() {
+        return statementCount.get();
+    }
+
+    public long getRowCount() {
+        return rowCount.get();
+    }
+
+    public long getOverBudgetCount() {
+        return overBudgetCount.get();
+    }
+
+    public int getStatementBudget() {
+        return statementBudget;
+    }
+
+    public void setStatementBudget(int statementBudget) {
+        this.statementBudget = statementBudget;
+    }
+
+    /**
+     * @return The number of times the <code>operation</code> has completed
+     */
+    public long getOperationCount(String operation) {
+        OperationStats stats = operations.get(operation);
+        return stats == null ? 0 : stats.latency.getCount();
+    }
+
+    /**
+     * @return The most statements executed by a single <code>operation</code>
+     */
+    public long getMaxStatements(String operation) {
+        OperationStats stats = operations.get(operation);
+        return stats == null ? 0 : stats.maxStatements.get();
+    }
+
+    public String getSnapshot() {
+        StringBuilder snapshot = new StringBuilder();
+        snapshot.append(String.format("%-28s %10s %10s %10s %10s %12s %10s %11s%n", "Operation", "Count", "Mean ms",
+                "p50 ms", "p99 ms", "Stmts/op", "Max stmts", "Over budget"));
+        for (Map.Entry<String, OperationStats> entry : new TreeMap<String, OperationStats>(operations).entrySet()) {
+            OperationStats stats = entry.getValue();
+            long count = stats.latency.getCount();
+            snapshot.append(String.format("%-28s %10d %10.3f %10.3f %10.3f %12.2f %10d %11d%n", entry.getKey(),
+                    count, stats.latency.getMeanMillis(), stats.latency.getPercentileMillis(0.5),
+                    stats.latency.getPercentileMillis(0.99),
+                    count == 0 ? 0.0 : (double) stats.statements.get() / count, stats.maxStatements.get(),
+                    stats.overBudget.get()));
+        }
+        snapshot.append(String.format("%n%-28s %10s %10s %10s %10s %12s%n", "Query", "Count", "Mean ms", "p50 ms",
+                "p99 ms", "Rows"));
+        for (Map.Entry<String, QueryStats> entry : new TreeMap<String, QueryStats>(queries).entrySet()) {
+            QueryStats stats = entry.getValue();
+            snapshot.append(String.format("%-28s %10d %10.3f %10.3f %10.3f %12d%n", entry.getKey(),
+                    stats.latency.getCount(), stats.latency.getMeanMillis(), stats.latency.getPercentileMillis(0.5),
+                    stats.latency.getPercentileMillis(0.99), stats.rows.get()));
+        }
+        snapshot.append(String.format("%nStatement budget %d, %d operations over budget%n", statementBudget,
+                overBudgetCount.get()));
+        return snapshot.toString();
+    }
+
+    public void reset() {
+        operations.clear();
+        queries.clear();
+        operationCount.set(0);
+        statementCount.set(0);
+        rowCount.set(0);
+        overBudgetCount.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "QueryMetrics[operations=" + operationCount + ", statements=" + statementCount + ", rows=" + rowCount
+                + ", overBudget=" + overBudgetCount + "]";
+    }
+
+    /**
+     * The operation in progress on a thread.
+     */
+    private static class Scope {
+        String operation;
+        int depth;
+        int statements;
+        long startNanos;
+    }
+
+    private static class OperationStats {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong statements = new AtomicLong();
+        final AtomicLong maxStatements = new AtomicLong();
+        final AtomicLong overBudget = new AtomicLong();
+    }
+
+    private static class QueryStats {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong rows = new AtomicLong();
+    }
+}
@@ -0,0 +1,30 @@
+package au.gov.digitalhealth.db;
+
+/**
+ * The JMX management interface of {@link QueryMetrics}, registered as <i>au.gov.digitalhealth:type=QueryMetrics</i>.
+ */
+public interface QueryMetricsMBean {
+
+    /** @return The number of top level find operations completed */
+    long getOperationCount();
+
+    /** @return The number of SQL statements executed */
+    long getStatementCount();
+
+    /** @return The number of rows fetched by all SQL statements */
+    long getRowCount();
+
+    /** @return The number of operations that executed more statements than the statement budget */
+    long getOverBudgetCount();
+
+    /** @return The most statements a single operation may execute before it is reported */
+    int getStatementBudget();
+
+    void setStatementBudget(int statementBudget);
+
+    /** @return A text table of the metrics of each operation and query */
+    String getSnapshot();
+
+    /** Discard all the metrics recorded so far */
+    void reset();
+}
@@ -0,0 +1,102 @@
+package au.gov.digitalhealth.db;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import au.gov.digitalhealth.model.Concept;
+
+/**
+ * A bounded, least recently used cache of reference set concepts.<p/>
+ *
+ * Every refset membership of a concept refers to a reference set concept, and the same handful of reference sets
+ * are referred to by almost every result. Caching them avoids finding the same reference set concept again for each
+ * membership.<p/>
+ *
+ * The cached concepts are only valid for the release currently loaded in the database, so {@link #invalidate()}
+ * must be called whenever the database is reloaded.
+ */
+public class RefsetConceptCache {
+
+    private final int maxSize;
+
+    private final Map<Long, Concept> concepts;
+
+    private long hitCount;
+
+    private long missCount;
+
+    /**
+     * @param maxSize The maximum number of reference set concepts to hold. The least recently used concept is
+     *                evicted once this is exceeded.
+     */
+    public RefsetConceptCache(final int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Refset concept cache size must be at least 1, was " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.concepts = new LinkedHashMap<Long, Concept>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Concept> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @param refsetSctId The SCTID of the reference set concept
+     * @return The cached reference set concept, or <code>null</code> if it is not cached
+     */
+    public synchronized Concept get(long refsetSctId) {
+        Concept concept = concepts.get(refsetSctId);
+        if (concept == null) {
+            missCount++;
+        } else {
+            hitCount++;
+        }
+        return concept;
+    }
+
+    /**
+     * Add a reference set concept to the cache. It need not be fully hydrated: {@link ConceptFinder} finds reference
+     * set concepts with {@link FetchPlan#PREFERRED_TERM}, and the parts left out are loaded by the concept's
+     * {@link au.gov.digitalhealth.model.ConceptLoader} on first access and then held with it in the cache.
+     *
+     * @param refsetConcept Concept
+     */
+    public synchronized void put(Concept refsetConcept) {
+        concepts.put(refsetConcept.getSctId(), refsetConcept);
+    }
+
+    /**
+     * Discard all cached concepts and reset the hit/miss counters, eg. after a new release has been loaded.
+     */
+    public synchronized void invalidate() {
+        concepts.clear();
+        hitCount = 0;
+        missCount = 0;
+    }
+
+    public synchronized int size() {
+        return concepts.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "RefsetConceptCache[size=" + concepts.size() + "/" + maxSize
+                + ", hits=" + hitCount + ", misses=" + missCount + "]";
+    }
+}
@@ -0,0 +1,90 @@
+package au.gov.digitalhealth.db;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import au.gov.digitalhealth.model.Concept;
+
+/**
+ * Iterates over all the members of a reference set, in SCT ID order, hydrating them a page at a time so that only
+ * one page of concepts is held in memory however large the reference set is.<p/>
+ *
+ * Pages are found by keyset pagination: each page is the members with an SCT ID greater than the last member of the
+ * previous page, so a page is found directly rather than by skipping the earlier members. The SCT ID of the last
+ * member returned, {@link #getAfterConceptSctid()}, can be passed to
+ * {@link ConceptFinder#iterateRefsetMembers(long, long, int, FetchPlan)} to resume the iteration later.<p/>
+ *
+ * An iterator must only be used by one thread at a time.
+ */
+public class RefsetMemberIterator implements Iterator<Concept> {
+
+    private final long refsetSctId;
+    private final int pageSize;
+    private final FetchPlan fetchPlan;
+
+    private List<Concept> page;
+    private int pageIndex;
+    private long afterConceptSctid;
+    private boolean lastPage;
+
+    RefsetMemberIterator(long refsetSctId, long afterConceptSctid, int pageSize, FetchPlan fetchPlan) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be at least 1, not " + pageSize);
+        }
+        this.refsetSctId = refsetSctId;
+        this.afterConceptSctid = afterConceptSctid;
+        this.pageSize = pageSize;
+        this.fetchPlan = fetchPlan;
+    }
+
+    /**
+     * @throws RuntimeException SQLException database errors.
+     */
+    public boolean hasNext() throws RuntimeException {
+        if (page != null && pageIndex < page.size()) {
+            return true;
+        }
+        if (lastPage) {
+            return false;
+        }
+        page = ConceptFinder.findRefsetMembers(refsetSctId, afterConceptSctid, pageSize, fetchPlan);
+        pageIndex = 0;
+        lastPage = page.size() < pageSize;
+        return !page.isEmpty();
+    }
+
+    /**
+     * @throws RuntimeException SQLException database errors.
+     */
+    public Concept next() throws RuntimeException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Concept concept = page.get(pageIndex);
+        // Release the concept so the garbage collector can reclaim it before the page is finished
+        page.set(pageIndex++, null);
+        afterConceptSctid = concept.getSctId();
+        return concept;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException("Reference set members are read only");
+    }
+
+    /**
+     * Get the SCT ID of the last member returned, the token to resume the iteration from.
+     *
+     * @return long SCT ID, or the SCT ID the iteration started after if no member has been returned yet
+     */
+    public long getAfterConceptSctid() {
+        return afterConceptSctid;
+    }
+
+    /**
+     * Get the number of members hydrated in each page.
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+}
@@ -0,0 +1,83 @@
+package au.gov.digitalhealth.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Holds the prepared statements of a single database connection, keyed by their SQL text.<p/>
+ *
+ * Reusing a prepared statement saves the driver (and, with server side prepared statements enabled, the server)
+ * from parsing the same query again. The cache is bounded; the least recently used statement is closed and
+ * discarded once the maximum size is exceeded. All statements are closed along with the cache.
+ */
+public class StatementCache {
+
+    private final Connection connection;
+
+    private final Map<String, PreparedStatement> statements;
+
+    /**
+     * @param connection The connection the statements are prepared on
+     * @param maxSize The maximum number of statements to keep open
+     */
+    public StatementCache(Connection connection, final int maxSize) {
+        this.connection = connection;
+        this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > maxSize) {
+                    closeStatement(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Obtain a prepared statement for the <code>sql</code>, preparing it the first time it is requested.
+     *
+     * @param sql String
+     * @return PreparedStatement
+     * @throws SQLException database errors.
+     */
+    public synchronized PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement statement = statements.get(sql);
+        if (statement == null) {
+            statement = connection.prepareStatement(sql);
+            statements.put(sql, statement);
+        }
+        return statement;
+    }
+
+    /**
+     * @return The number of statements currently held open
+     */
+    public synchronized int size() {
+        return statements.size();
+    }
+
+    /**
+     * Close all the cached statements.
+     */
+    public synchronized void close() {
+        for (Iterator<PreparedStatement> iterator = statements.values().iterator(); iterator.hasNext();) {
+            closeStatement(iterator.next());
+            iterator.remove();
+        }
+    }
+
+    private static void closeStatement(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            System.err.println("Unable to close prepared statement!");
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package au.gov.digitalhealth.db;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import au.gov.digitalhealth.index.RefsetMembershipIndex;
+import au.gov.digitalhealth.index.SubsumptionIndex;
+import au.gov.digitalhealth.index.Suggestions;
+import au.gov.digitalhealth.model.Concept;
+
+/**
+ * A source of terminology content that the {@link ConceptFinder} answers its queries from.<p/>
+ *
+ * The backend is selected by the system property <i>db.backend</i>:<ul>
+ * <li>jdbc - the database loaded by the <i>ant db</i> target, see {@link JdbcTerminologyBackend} (default)
+ * <li>rf2 - the RF2 snapshot files loaded into memory, see {@link au.gov.digitalhealth.rf2.Rf2SnapshotBackend}
+ * <li>image - the terminology image written by the <i>ant image</i> target, memory-mapped, see
+ * {@link au.gov.digitalhealth.rf2.SnapshotImageBackend}
+ * </ul>
+ * A concept is a member of a reference set when the concept is active and has an active row in the reference set.
+ * Every operation that answers with reference set memberships uses this one definition, so the memberships of a
+ * hydrated concept, a page of {@link #findRefsetMembers(long, long, int, FetchPlan)} and the
+ * {@link #buildRefsetMembershipIndex()} always agree.<p/>
+ *
+ * Implementations must be safe to call from multiple threads.
+ */
+public interface TerminologyBackend {
+
+    /**
+     * Finds the matching active concept for the <code>conceptSctid</code>.
+     *
+     * @param conceptSctid long
+     * @param fetchPlan FetchPlan the parts of the concept to fetch, the rest are loaded on first access
+     * @return Concept matching the <code>conceptSctid</code>. <code>null</code> is returned if no concept found
+     */
+    Concept findById(long conceptSctid, FetchPlan fetchPlan);
+
+    /**
+     * Finds the matching active concepts for all the <code>conceptSctids</code> at once, with a few set based queries
+     * rather than a query per id.
+     *
+     * @param conceptSctids Collection of concept ids, which may repeat and include ids with no active concept
+     * @param fetchPlan FetchPlan the parts of each concept to fetch, the rest are loaded on first access
+     * @return Map of Concept keyed by concept id, without the ids that have no active concept
+     */
+    Map<Long, Concept> findByIds(Collection<Long> conceptSctids, FetchPlan fetchPlan);
+
+    /**
+     * Finds the en-AU preferred term of each active concept in <code>conceptSctids</code>, without hydrating the
+     * concepts. The preferred terms are worked out once when the terminology is loaded.
+     *
+     * @param conceptSctids Collection of concept ids, which may repeat and include ids with no active concept
+     * @return Map of preferred term keyed by concept id, without the ids that have no active concept
+     */
+    Map<Long, String> findPreferredTerms(Collection<Long> conceptSctids);
+
+    /**
+     * Finds the active concepts, ordered by SCT ID, with an active description containing the <code>term</code>.
+     *
+     * @param term String full or partial concept term
+     * @param maxRows int maximum number of concepts to return
+     * @param fetchPlan FetchPlan the parts of each concept to fetch, the rest are loaded on first access
+     * @return Collection of Concept
+     */
+    Collection<Concept> findByTerm(String term, int maxRows, FetchPlan fetchPlan);
+
+    /**
+     * Finds the active concepts with an active description containing the <code>term</code> that match it best,
+     * best first, see {@link au.gov.digitalhealth.index.RankedMatches}. Only the concepts returned are hydrated.
+     *
+     * @param term String full or partial concept term
+     * @param maxRows int maximum number of concepts to return
+     * @param fetchPlan FetchPlan the parts of each concept to fetch, the rest are loaded on first access
+     * @return List of Concept
+     */
+    List<Concept> findByTermRanked(String term, int maxRows, FetchPlan fetchPlan);
+
+    /**
+     * Suggests the active concepts with an active description containing a word that starts with the
+     * <code>prefix</code>, best first, see {@link au.gov.digitalhealth.index.PrefixIndex}.
+     *
+     * @param prefix String the start of a word typed so far
+     * @param suggestions Suggestions receives the concepts and their preferred terms
+     */
+    void suggest(String prefix, Suggestions suggestions);
+
+    /**
+     * Finds a page of the members, ordered by SCT ID, of the reference set <code>refsetSctId</code>: those with an
+     * SCT ID greater than <code>afterConceptSctid</code>. The next page starts after the last concept returned.
+     *
+     * @param refsetSctId long reference set id
+     * @param afterConceptSctid long SCT ID of the last member of the previous page, 0 for the first page
+     * @param maxRows int maximum number of concepts to return
+     * @param fetchPlan FetchPlan the parts of each concept to fetch, the rest are loaded on first access
+     * @return List of Concept
+     */
+    List<Concept> findRefsetMembers(long refsetSctId, long afterConceptSctid, int maxRows, FetchPlan fetchPlan);
+
+    /**
+     * Streams the active descriptions of every active member of the reference set <code>refsetSctId</code> to the
+     * <code>handler</code>, in one pass and without hydrating the members, see {@link MemberDescriptionHandler}.
+     *
+     * @param refsetSctId long reference set id
+     * @param handler MemberDescriptionHandler
+     */
+    void exportRefsetMembers(long refsetSctId, MemberDescriptionHandler handler);
+
+    /**
+     * Builds an index of the active reference set memberships of active concepts.
+     *
+     * @return RefsetMembershipIndex
+     */
+    RefsetMembershipIndex buildRefsetMembershipIndex();
+
+    /**
+     * Builds the transitive closure of the active is-a relationships between active concepts.
+     *
+     * @return SubsumptionIndex
+     */
+    SubsumptionIndex buildSubsumptionIndex();
+
+    /**
+     * Discards anything the backend has read from its source and reads it again, after the source has been reloaded
+     * with a new release.
+     */
+    void reload();
+}
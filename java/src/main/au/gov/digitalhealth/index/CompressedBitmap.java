@@ -0,0 +1,262 @@
+package au.gov.digitalhealth.index;
+
+import java.util.Arrays;
+
+/**
+ * An immutable compressed set of non-negative ints, laid out like a Roaring bitmap.<p/>
+ *
+ * The values are split into chunks of 65536 by their high 16 bits. Each chunk that holds any values is stored either
+ * as a sorted array of the low 16 bits of its values, when it holds few, or as a 65536 bit bitmap, when it holds
+ * more than {@link #ARRAY_MAX} and the bitmap is smaller. Finding a value is a binary search over the chunks then a
+ * binary search or a bit test within the chunk. Bitmaps are combined chunk by chunk, see
+ * {@link #combine(CompressedBitmap, CompressedBitmap, RefsetExpression.Operator)}.
+ */
+class CompressedBitmap {
+
+    /** The most values held in an array chunk, at which it is the same size as a bitmap chunk (8KB) */
+    static final int ARRAY_MAX = 4096;
+
+    private static final int BITMAP_WORDS = 1 << 10;
+
+    static final CompressedBitmap EMPTY = new CompressedBitmap(new int[0], 0, 0);
+
+    /** The high 16 bits of each chunk, ascending */
+    private final char[] keys;
+
+    /** The low 16 bits of the values of each array chunk, <code>null</code> for a bitmap chunk */
+    private final char[][] arrays;
+
+    /** The bits of each bitmap chunk, <code>null</code> for an array chunk */
+    private final long[][] bitmaps;
+
+    private final int cardinality;
+
+    /**
+     * @param values The values, sorted ascending without duplicates
+     * @param from The index of the first value
+     * @param to The index after the last value
+     */
+    CompressedBitmap(int[] values, int from, int to) {
+        int chunkCount = 0;
+        for (int i = from; i < to; i++) {
+            if (i == from || (values[i] >>> 16) != (values[i - 1] >>> 16)) {
+                chunkCount++;
+            }
+        }
+
+        keys = new char[chunkCount];
+        arrays = new char[chunkCount][];
+        bitmaps = new long[chunkCount][];
+        int chunk = 0;
+        for (int start = from; start < to; chunk++) {
+            int key = values[start] >>> 16;
+            int end = start;
+            while (end < to && (values[end] >>> 16) == key) {
+                end++;
+            }
+
+            keys[chunk] = (char) key;
+            if (end - start <= ARRAY_MAX) {
+                char[] array = new char[end - start];
+                for (int i = start; i < end; i++) {
+                    array[i - start] = (char) values[i];
+                }
+                arrays[chunk] = array;
+            } else {
+                long[] bitmap = new long[BITMAP_WORDS];
+                for (int i = start; i < end; i++) {
+                    int low = values[i] & 0xFFFF;
+                    bitmap[low >>> 6] |= 1L << low;
+                }
+                bitmaps[chunk] = bitmap;
+            }
+            start = end;
+        }
+        cardinality = to - from;
+    }
+
+    private CompressedBitmap(char[] keys, char[][] arrays, long[][] bitmaps, int cardinality) {
+        this.keys = keys;
+        this.arrays = arrays;
+        this.bitmaps = bitmaps;
+        this.cardinality = cardinality;
+    }
+
+    /**
+     * Combine two bitmaps with a set operation. Chunks held by only one bitmap are shared with the result when the
+     * operation keeps them, chunks held by both are combined a word at a time.
+     *
+     * @return CompressedBitmap the values in <code>a</code> and <code>b</code> for {@link RefsetExpression.Operator#AND},
+     *         in either for {@link RefsetExpression.Operator#OR}, or in <code>a</code> and not <code>b</code> for
+     *         {@link RefsetExpression.Operator#AND_NOT}
+     */
+    static CompressedBitmap combine(CompressedBitmap a, CompressedBitmap b, RefsetExpression.Operator operator) {
+        int capacity = operator == RefsetExpression.Operator.OR ? a.keys.length + b.keys.length : a.keys.length;
+        char[] keys = new char[capacity];
+        char[][] arrays = new char[capacity][];
+        long[][] bitmaps = new long[capacity][];
+        int count = 0;
+        int cardinality = 0;
+
+        int i = 0;
+        int j = 0;
+        while (i < a.keys.length || j < b.keys.length) {
+            int keyA = i < a.keys.length ? a.keys[i] : Integer.MAX_VALUE;
+            int keyB = j < b.keys.length ? b.keys[j] : Integer.MAX_VALUE;
+            if (keyA < keyB) {
+                if (operator != RefsetExpression.Operator.AND) {
+                    keys[count] = a.keys[i];
+                    arrays[count] = a.arrays[i];
+                    bitmaps[count] = a.bitmaps[i];
+                    cardinality += a.chunkCardinality(i);
+                    count++;
+                }
+                i++;
+            } else if (keyB < keyA) {
+                if (operator == RefsetExpression.Operator.OR) {
+                    keys[count] = b.keys[j];
+                    arrays[count] = b.arrays[j];
+                    bitmaps[count] = b.bitmaps[j];
+                    cardinality += b.chunkCardinality(j);
+                    count++;
+                }
+                j++;
+            } else {
+                long[] words = a.words(i);
+                long[] wordsB = b.words(j);
+                int bits = 0;
+                for (int w = 0; w < BITMAP_WORDS; w++) {
+                    switch (operator) {
+                        case AND :
+                            words[w] &= wordsB[w];
+                            break;
+                        case OR :
+                            words[w] |= wordsB[w];
+                            break;
+                        default :
+                            words[w] &= ~wordsB[w];
+                    }
+                    bits += Long.bitCount(words[w]);
+                }
+                if (bits > 0) {
+                    keys[count] = a.keys[i];
+                    if (bits <= ARRAY_MAX) {
+                        arrays[count] = toArray(words, bits);
+                    } else {
+                        bitmaps[count] = words;
+                    }
+                    cardinality += bits;
+                    count++;
+                }
+                i++;
+                j++;
+            }
+        }
+
+        return new CompressedBitmap(Arrays.copyOf(keys, count), Arrays.copyOf(arrays, count),
+                Arrays.copyOf(bitmaps, count), cardinality);
+    }
+
+    /**
+     * @return long[] a new bitmap of the values of the chunk
+     */
+    private long[] words(int chunk) {
+        if (bitmaps[chunk] != null) {
+            return bitmaps[chunk].clone();
+        }
+        long[] words = new long[BITMAP_WORDS];
+        for (char low : arrays[chunk]) {
+            words[low >>> 6] |= 1L << low;
+        }
+        return words;
+    }
+
+    private int chunkCardinality(int chunk) {
+        if (arrays[chunk] != null) {
+            return arrays[chunk].length;
+        }
+        int bits = 0;
+        for (long word : bitmaps[chunk]) {
+            bits += Long.bitCount(word);
+        }
+        return bits;
+    }
+
+    private static char[] toArray(long[] words, int bits) {
+        char[] array = new char[bits];
+        int size = 0;
+        for (int w = 0; w < BITMAP_WORDS; w++) {
+            long word = words[w];
+            while (word != 0) {
+                array[size++] = (char) (w * 64 + Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+        return array;
+    }
+
+    /**
+     * @param from int the least value to return
+     * @param maxCount int the most values to return
+     * @return int[] the values of at least <code>from</code>, ascending, at most <code>maxCount</code> of them
+     */
+    int[] values(int from, int maxCount) {
+        int[] values = new int[Math.min(maxCount, cardinality)];
+        int size = 0;
+        int chunk = Arrays.binarySearch(keys, (char) (from >>> 16));
+        if (chunk < 0) {
+            chunk = -chunk - 1;
+            from = 0;
+        } else {
+            from &= 0xFFFF;
+        }
+        for (; chunk < keys.length && size < values.length; chunk++) {
+            int high = keys[chunk] << 16;
+            if (arrays[chunk] != null) {
+                char[] array = arrays[chunk];
+                int start = Arrays.binarySearch(array, (char) from);
+                for (int i = start < 0 ? -start - 1 : start; i < array.length && size < values.length; i++) {
+                    values[size++] = high | array[i];
+                }
+            } else {
+                long[] bitmap = bitmaps[chunk];
+                for (int w = from >>> 6; w < BITMAP_WORDS && size < values.length; w++) {
+                    long word = w == from >>> 6 ? bitmap[w] & (-1L << from) : bitmap[w];
+                    while (word != 0 && size < values.length) {
+                        values[size++] = high | (w * 64 + Long.numberOfTrailingZeros(word));
+                        word &= word - 1;
+                    }
+                }
+            }
+            from = 0;
+        }
+        return size == values.length ? values : Arrays.copyOf(values, size);
+    }
+
+    boolean contains(int value) {
+        int chunk = Arrays.binarySearch(keys, (char) (value >>> 16));
+        if (chunk < 0) {
+            return false;
+        }
+        char low = (char) value;
+        if (arrays[chunk] != null) {
+            return Arrays.binarySearch(arrays[chunk], low) >= 0;
+        }
+        return (bitmaps[chunk][low >>> 6] & (1L << low)) != 0;
+    }
+
+    int getCardinality() {
+        return cardinality;
+    }
+
+    /**
+     * @return The approximate number of bytes used by the chunks, ignoring object headers
+     */
+    long getSizeInBytes() {
+        long size = keys.length * 2L;
+        for (int chunk = 0; chunk < keys.length; chunk++) {
+            size += arrays[chunk] != null ? arrays[chunk].length * 2L : BITMAP_WORDS * 8L;
+        }
+        return size;
+    }
+}
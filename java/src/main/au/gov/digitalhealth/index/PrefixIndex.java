@@ -0,0 +1,358 @@
+package au.gov.digitalhealth.index;
+
+import au.gov.digitalhealth.model.Metadata.LanguageAcceptability;
+
+/**
+ * A search-as-you-type index over the word starts of description terms.<p/>
+ *
+ * Every position in a term where a word starts is an entry, and the entries are sorted by the text from that
+ * position to the end of the term. The entries matching a prefix are then a single contiguous range, found by
+ * binary search. Each entry also has a score, and a tree of the best scoring entry in each range lets the best
+ * entries in the matched range be taken in score order without visiting the rest of the range.<p/>
+ *
+ * Entries score higher for en-AU {@link LanguageAcceptability#PREFERRED} terms, then acceptable terms, then for a
+ * match on the first word of the term, then for shorter terms.<p/>
+ *
+ * Searches write into a reusable {@link Suggestions} and allocate nothing. The index is immutable once built and
+ * safe to search from multiple threads.
+ */
+public class PrefixIndex {
+
+    /** The terms in lower case */
+    private final String[] terms;
+
+    /** The owner of each term */
+    private final int[] termOwners;
+
+    private final long[] ownerIds;
+    private final String[] preferredTerms;
+
+    /** Entries sorted by the text from their word start, each packed as term index (high) and offset (low) */
+    private final long[] entries;
+
+    /** Tree of the position of the best scoring entry in each range, leaves from <code>leafCount</code> */
+    private final int[] bestInRange;
+    private final int[] scores;
+    private final int leafCount;
+
+    /**
+     * Build the index.
+     *
+     * @param searchTerms The terms, already in lower case (see {@link TrigramIndex#normalise(String)}), grouped by
+     *                    owner
+     * @param ownerOffsets The start of each owner's terms, with a final entry holding the number of terms
+     * @param acceptabilities The {@link LanguageAcceptability} ordinal of each term
+     * @param ownerIds The SCT ID of each owner
+     * @param preferredTerms The en-AU preferred term of each owner
+     */
+    public PrefixIndex(String[] searchTerms, int[] ownerOffsets, byte[] acceptabilities, long[] ownerIds,
+            String[] preferredTerms) {
+        this.terms = searchTerms;
+        this.ownerIds = ownerIds;
+        this.preferredTerms = preferredTerms;
+        this.termOwners = new int[searchTerms.length];
+        for (int o = 0; o + 1 < ownerOffsets.length; o++) {
+            for (int t = ownerOffsets[o]; t < ownerOffsets[o + 1]; t++) {
+                termOwners[t] = o;
+            }
+        }
+
+        int count = 0;
+        for (String term : terms) {
+            for (int i = 0; i < term.length(); i++) {
+                if (isWordStart(term, i)) {
+                    count++;
+                }
+            }
+        }
+        entries = new long[count];
+        count = 0;
+        for (int t = 0; t < terms.length; t++) {
+            for (int i = 0; i < terms[t].length(); i++) {
+                if (isWordStart(terms[t], i)) {
+                    entries[count++] = ((long) t << 32) | i;
+                }
+            }
+        }
+        sort(entries, new long[entries.length], 0, entries.length);
+
+        scores = new int[entries.length];
+        for (int e = 0; e < entries.length; e++) {
+            int term = term(entries[e]);
+            scores[e] = score(acceptabilities[term], offset(entries[e]) == 0, terms[term].length());
+        }
+
+        int leaves = 1;
+        while (leaves < Math.max(1, entries.length)) {
+            leaves <<= 1;
+        }
+        leafCount = leaves;
+        bestInRange = new int[leaves * 2];
+        for (int i = 0; i < leaves; i++) {
+            bestInRange[leaves + i] = i < entries.length ? i : -1;
+        }
+        for (int i = leaves - 1; i > 0; i--) {
+            bestInRange[i] = better(bestInRange[2 * i], bestInRange[2 * i + 1]);
+        }
+    }
+
+    /**
+     * Find the best concepts with a term containing a word that starts with the <code>prefix</code>.
+     *
+     * @param prefix The text typed so far, matched case insensitively
+     * @param suggestions Receives up to {@link Suggestions#capacity()} concepts, best first
+     */
+    public void search(CharSequence prefix, Suggestions suggestions) {
+        suggestions.clear();
+        if (prefix.length() == 0 || entries.length == 0) {
+            return;
+        }
+
+        int start = lowerBound(prefix);
+        int end = upperBound(prefix, start);
+        if (start >= end) {
+            return;
+        }
+
+        // Max-heap of ranges keyed by the score of their best entry. Taking the best entry of a range splits the
+        // rest of the range into two, which replace it in the heap.
+        int[] positions = suggestions.heapPositions;
+        int[] starts = suggestions.heapStarts;
+        int[] ends = suggestions.heapEnds;
+        int heapSize = 0;
+        heapSize = push(positions, starts, ends, heapSize, best(start, end), start, end);
+
+        for (int candidates = 0; heapSize > 0 && !suggestions.isFull() && candidates < suggestions.maxCandidates;
+                candidates++) {
+            int position = positions[0];
+            int rangeStart = starts[0];
+            int rangeEnd = ends[0];
+            heapSize = pop(positions, starts, ends, heapSize);
+
+            int owner = termOwners[term(entries[position])];
+            if (!suggestions.contains(ownerIds[owner])) {
+                suggestions.add(ownerIds[owner], preferredTerms[owner]);
+            }
+            if (rangeStart < position) {
+                heapSize = push(positions, starts, ends, heapSize, best(rangeStart, position), rangeStart, position);
+            }
+            if (position + 1 < rangeEnd) {
+                heapSize = push(positions, starts, ends, heapSize, best(position + 1, rangeEnd), position + 1,
+                        rangeEnd);
+            }
+        }
+    }
+
+    /**
+     * Choose the term to display for each owner: its first en-AU preferred term, else its first acceptable term,
+     * else its first term.
+     *
+     * @param terms The terms, grouped by owner
+     * @param ownerOffsets The start of each owner's terms, with a final entry holding the number of terms
+     * @param acceptabilities The {@link LanguageAcceptability} ordinal of each term
+     * @return The display term of each owner, <code>null</code> for an owner without terms
+     */
+    public static String[] preferredTerms(String[] terms, int[] ownerOffsets, byte[] acceptabilities) {
+        String[] preferredTerms = new String[ownerOffsets.length - 1];
+        for (int o = 0; o < preferredTerms.length; o++) {
+            int best = -1;
+            for (int t = ownerOffsets[o]; t < ownerOffsets[o + 1]; t++) {
+                if (best < 0 || rank(acceptabilities[t]) > rank(acceptabilities[best])) {
+                    best = t;
+                }
+            }
+            preferredTerms[o] = best < 0 ? null : terms[best];
+        }
+        return preferredTerms;
+    }
+
+    /**
+     * @return The number of word start entries in the index
+     */
+    public int getEntryCount() {
+        return entries.length;
+    }
+
+    static boolean isWordStart(String term, int i) {
+        return Character.isLetterOrDigit(term.charAt(i)) && (i == 0 || !Character.isLetterOrDigit(term.charAt(i - 1)));
+    }
+
+    static int rank(byte acceptability) {
+        if (acceptability == LanguageAcceptability.PREFERRED.ordinal()) {
+            return 2;
+        }
+        if (acceptability == LanguageAcceptability.ACCEPTABLE.ordinal()) {
+            return 1;
+        }
+        return 0;
+    }
+
+    private static int score(byte acceptability, boolean firstWord, int length) {
+        return (rank(acceptability) << 17) | ((firstWord ? 1 : 0) << 16) | (0xFFFF - Math.min(length, 0xFFFF));
+    }
+
+    private static int term(long entry) {
+        return (int) (entry >>> 32);
+    }
+
+    private static int offset(long entry) {
+        return (int) entry;
+    }
+
+    /** @return The better scoring of two entry positions, the earlier on a tie, ignoring -1 */
+    private int better(int a, int b) {
+        if (a < 0) {
+            return b;
+        }
+        if (b < 0) {
+            return a;
+        }
+        return scores[b] > scores[a] ? b : a;
+    }
+
+    /** @return The position of the best scoring entry from <code>start</code> up to (excluding) <code>end</code> */
+    private int best(int start, int end) {
+        int result = -1;
+        for (int low = start + leafCount, high = end + leafCount; low < high; low >>= 1, high >>= 1) {
+            if ((low & 1) == 1) {
+                result = better(result, bestInRange[low++]);
+            }
+            if ((high & 1) == 1) {
+                result = better(result, bestInRange[--high]);
+            }
+        }
+        return result;
+    }
+
+    private int push(int[] positions, int[] starts, int[] ends, int size, int position, int start, int end) {
+        if (size == positions.length) {
+            return size;
+        }
+        int i = size;
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (scores[positions[parent]] >= scores[position]) {
+                break;
+            }
+            positions[i] = positions[parent];
+            starts[i] = starts[parent];
+            ends[i] = ends[parent];
+            i = parent;
+        }
+        positions[i] = position;
+        starts[i] = start;
+        ends[i] = end;
+        return size + 1;
+    }
+
+    private int pop(int[] positions, int[] starts, int[] ends, int size) {
+        size--;
+        int position = positions[size];
+        int start = starts[size];
+        int end = ends[size];
+        int i = 0;
+        while (2 * i + 1 < size) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && scores[positions[child + 1]] > scores[positions[child]]) {
+                child++;
+            }
+            if (scores[positions[child]] <= scores[position]) {
+                break;
+            }
+            positions[i] = positions[child];
+            starts[i] = starts[child];
+            ends[i] = ends[child];
+            i = child;
+        }
+        positions[i] = position;
+        starts[i] = start;
+        ends[i] = end;
+        return size;
+    }
+
+    /** @return The first entry position whose text is not less than the <code>prefix</code> */
+    private int lowerBound(CharSequence prefix) {
+        int low = 0;
+        int high = entries.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (comparePrefix(entries[mid], prefix) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /** @return The first entry position from <code>from</code> whose text does not start with the <code>prefix</code> */
+    private int upperBound(CharSequence prefix, int from) {
+        int low = from;
+        int high = entries.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (comparePrefix(entries[mid], prefix) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Compare the text of an entry, truncated to the length of the prefix, to the prefix.
+     */
+    private int comparePrefix(long entry, CharSequence prefix) {
+        String term = terms[term(entry)];
+        int offset = offset(entry);
+        int length = Math.min(term.length() - offset, prefix.length());
+        for (int i = 0; i < length; i++) {
+            char a = term.charAt(offset + i);
+            char b = Character.toLowerCase(prefix.charAt(i));
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return length < prefix.length() ? -1 : 0;
+    }
+
+    private int compareEntries(long a, long b) {
+        String termA = terms[term(a)];
+        String termB = terms[term(b)];
+        int offsetA = offset(a);
+        int offsetB = offset(b);
+        int length = Math.min(termA.length() - offsetA, termB.length() - offsetB);
+        for (int i = 0; i < length; i++) {
+            char charA = termA.charAt(offsetA + i);
+            char charB = termB.charAt(offsetB + i);
+            if (charA != charB) {
+                return charA - charB;
+            }
+        }
+        return (termA.length() - offsetA) - (termB.length() - offsetB);
+    }
+
+    /** Merge sort of the entries by their text */
+    private void sort(long[] values, long[] buffer, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        sort(values, buffer, from, mid);
+        sort(values, buffer, mid, to);
+        if (compareEntries(values[mid - 1], values[mid]) <= 0) {
+            return;
+        }
+        System.arraycopy(values, from, buffer, from, to - from);
+        int left = from;
+        int right = mid;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < mid && compareEntries(buffer[left], buffer[right]) <= 0)) {
+                values[i] = buffer[left++];
+            } else {
+                values[i] = buffer[right++];
+            }
+        }
+    }
+}
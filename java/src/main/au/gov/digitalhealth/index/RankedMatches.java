@@ -0,0 +1,162 @@
+package au.gov.digitalhealth.index;
+
+import au.gov.digitalhealth.model.Metadata.LanguageAcceptability;
+
+/**
+ * Keeps the best scoring owners (concepts) of the terms matching a search, for relevance ranked term search.<p/>
+ *
+ * Each matching term is scored, best first, by:<ul>
+ * <li>how it matches: the whole term, then the start of the term, then the start of a later word, then elsewhere
+ * <li>its en-AU {@link LanguageAcceptability}: preferred, then acceptable, then neither
+ * <li>its length, shorter first
+ * </ul>
+ * An owner scores as its best matching term, and owners with the same score are ranked by the order they were
+ * offered in. Only the best <code>maxResults</code> owners are kept, in a bounded heap, so any number of matching
+ * terms can be offered while only the best owners are ever hydrated.<p/>
+ *
+ * The terms of an owner must be offered together, one after another. An instance is for a single search and is not
+ * safe to use from multiple threads.
+ */
+public class RankedMatches {
+
+    private static final int WHOLE_TERM = 3;
+    private static final int TERM_START = 2;
+    private static final int WORD_START = 1;
+
+    private final String searchTerm;
+
+    /** Min-heap of the owners kept, the worst at the root */
+    private final long[] owners;
+    private final int[] scores;
+    private final int[] arrivals;
+    private int size;
+
+    /** The owner whose terms are being offered, its best score so far and the order it arrived in */
+    private long owner;
+    private int ownerScore = -1;
+    private int ownerArrival = -1;
+
+    /**
+     * @param searchTerm String the text searched for, already in lower case, see
+     *                   {@link TrigramIndex#normalise(String)}
+     * @param maxResults int maximum number of owners to keep
+     */
+    public RankedMatches(String searchTerm, int maxResults) {
+        this.searchTerm = searchTerm;
+        int capacity = Math.max(0, maxResults);
+        this.owners = new long[capacity];
+        this.scores = new int[capacity];
+        this.arrivals = new int[capacity];
+    }
+
+    /**
+     * Offer a term matching the search.
+     *
+     * @param termOwner long the owner of the term
+     * @param term String the term, already in lower case
+     * @param acceptability byte the {@link LanguageAcceptability} ordinal of the term
+     */
+    public void offer(long termOwner, String term, byte acceptability) {
+        if (ownerArrival < 0 || termOwner != owner) {
+            flush();
+            owner = termOwner;
+            ownerScore = -1;
+            ownerArrival++;
+        }
+        ownerScore = Math.max(ownerScore, score(term, acceptability));
+    }
+
+    /**
+     * Take the owners kept, which empties this.
+     *
+     * @return The owners kept, best first
+     */
+    public long[] toArray() {
+        flush();
+        long[] ranked = new long[size];
+        // Taking the worst from the root each time fills the result from the end
+        while (size > 0) {
+            ranked[size - 1] = owners[0];
+            size--;
+            if (size > 0) {
+                siftDown(owners[size], scores[size], arrivals[size]);
+            }
+        }
+        return ranked;
+    }
+
+    /**
+     * Score a <code>term</code> containing the search term, higher is better.
+     */
+    int score(String term, byte acceptability) {
+        int match = 0;
+        if (term.equals(searchTerm)) {
+            match = WHOLE_TERM;
+        } else if (term.startsWith(searchTerm)) {
+            match = TERM_START;
+        } else {
+            for (int i = term.indexOf(searchTerm); i > 0; i = term.indexOf(searchTerm, i + 1)) {
+                if (PrefixIndex.isWordStart(term, i)) {
+                    match = WORD_START;
+                    break;
+                }
+            }
+        }
+        return (match << 18) | (PrefixIndex.rank(acceptability) << 16) | (0xFFFF - Math.min(term.length(), 0xFFFF));
+    }
+
+    /**
+     * Keep the owner whose terms have been offered if it is better than the worst kept.
+     */
+    private void flush() {
+        if (ownerScore < 0 || owners.length == 0) {
+            return;
+        }
+        if (size < owners.length) {
+            // Sift up from the new leaf
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (!worse(ownerScore, ownerArrival, scores[parent], arrivals[parent])) {
+                    break;
+                }
+                set(i, owners[parent], scores[parent], arrivals[parent]);
+                i = parent;
+            }
+            set(i, owner, ownerScore, ownerArrival);
+        } else if (worse(scores[0], arrivals[0], ownerScore, ownerArrival)) {
+            siftDown(owner, ownerScore, ownerArrival);
+        }
+        ownerScore = -1;
+    }
+
+    /**
+     * Replace the root with the entry and restore the heap.
+     */
+    private void siftDown(long entryOwner, int entryScore, int entryArrival) {
+        int i = 0;
+        while (2 * i + 1 < size) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && worse(scores[child + 1], arrivals[child + 1], scores[child], arrivals[child])) {
+                child++;
+            }
+            if (!worse(scores[child], arrivals[child], entryScore, entryArrival)) {
+                break;
+            }
+            set(i, owners[child], scores[child], arrivals[child]);
+            i = child;
+        }
+        set(i, entryOwner, entryScore, entryArrival);
+    }
+
+    private void set(int i, long entryOwner, int entryScore, int entryArrival) {
+        owners[i] = entryOwner;
+        scores[i] = entryScore;
+        arrivals[i] = entryArrival;
+    }
+
+    /** @return Whether the first entry ranks below the second: a lower score, or the same score arriving later */
+    private static boolean worse(int score, int arrival, int otherScore, int otherArrival) {
+        return score < otherScore || (score == otherScore && arrival > otherArrival);
+    }
+}
@@ -0,0 +1,175 @@
+package au.gov.digitalhealth.index;
+
+/**
+ * A set expression over reference sets, such as the members of reference set A that are also in B but not in C,
+ * evaluated by the {@link RefsetMembershipIndex} on the members' ordinals before any concept is hydrated.<p/>
+ *
+ * Expressions are built from {@link #refset(long)} with {@link #and(RefsetExpression)},
+ * {@link #or(RefsetExpression)} and {@link #andNot(RefsetExpression)}, or parsed from text, see
+ * {@link #parse(String)}. Expressions are immutable.
+ */
+public class RefsetExpression {
+
+    /**
+     * The set operations, with the character that stands for each in the text of an expression.
+     */
+    enum Operator {
+        AND('&'), OR('|'), AND_NOT('-');
+
+        final char symbol;
+
+        private Operator(char symbol) {
+            this.symbol = symbol;
+        }
+    }
+
+    /** The operator combining the operands, <code>null</code> for a single reference set */
+    final Operator operator;
+    final RefsetExpression left;
+    final RefsetExpression right;
+    final long refsetSctId;
+
+    private RefsetExpression(Operator operator, RefsetExpression left, RefsetExpression right, long refsetSctId) {
+        this.operator = operator;
+        this.left = left;
+        this.right = right;
+        this.refsetSctId = refsetSctId;
+    }
+
+    /**
+     * @param refsetSctId long reference set id
+     * @return RefsetExpression the members of the reference set
+     */
+    public static RefsetExpression refset(long refsetSctId) {
+        return new RefsetExpression(null, null, null, refsetSctId);
+    }
+
+    /**
+     * @return RefsetExpression the members of both this and the <code>other</code>
+     */
+    public RefsetExpression and(RefsetExpression other) {
+        return new RefsetExpression(Operator.AND, this, other, 0);
+    }
+
+    /**
+     * @return RefsetExpression the members of either this or the <code>other</code>
+     */
+    public RefsetExpression or(RefsetExpression other) {
+        return new RefsetExpression(Operator.OR, this, other, 0);
+    }
+
+    /**
+     * @return RefsetExpression the members of this that are not members of the <code>other</code>
+     */
+    public RefsetExpression andNot(RefsetExpression other) {
+        return new RefsetExpression(Operator.AND_NOT, this, other, 0);
+    }
+
+    /**
+     * Parse the text of an expression: reference set ids combined with <code>&amp;</code> (intersection),
+     * <code>|</code> (union) and <code>-</code> (difference), and grouped with parentheses. <code>&amp;</code> binds
+     * more tightly than <code>|</code> and <code>-</code>, which are applied left to right, so
+     * <code>A &amp; B - C</code> is the members of A that are also in B but not in C. Spaces are ignored.
+     *
+     * @param text String
+     * @return RefsetExpression
+     * @throws IllegalArgumentException if the text is not an expression.
+     */
+    public static RefsetExpression parse(String text) throws IllegalArgumentException {
+        Parser parser = new Parser(text);
+        RefsetExpression expression = parser.parseExpression();
+        if (parser.peek() != 0) {
+            throw parser.error("Unexpected '" + parser.peek() + "'");
+        }
+        return expression;
+    }
+
+    @Override
+    public String toString() {
+        if (operator == null) {
+            return Long.toString(refsetSctId);
+        }
+        return "(" + left + " " + operator.symbol + " " + right + ")";
+    }
+
+    /**
+     * Recursive descent parser of the text of an expression.
+     */
+    private static class Parser {
+
+        /** Deepest nesting of parentheses accepted, so a malformed expression cannot exhaust the stack */
+        private static final int MAX_DEPTH = 64;
+
+        private final String text;
+        private int position;
+        private int depth;
+
+        Parser(String text) {
+            this.text = text;
+        }
+
+        RefsetExpression parseExpression() {
+            RefsetExpression expression = parseTerm();
+            while (true) {
+                char c = peek();
+                if (c == Operator.OR.symbol) {
+                    position++;
+                    expression = expression.or(parseTerm());
+                } else if (c == Operator.AND_NOT.symbol) {
+                    position++;
+                    expression = expression.andNot(parseTerm());
+                } else {
+                    return expression;
+                }
+            }
+        }
+
+        private RefsetExpression parseTerm() {
+            RefsetExpression expression = parseOperand();
+            while (peek() == Operator.AND.symbol) {
+                position++;
+                expression = expression.and(parseOperand());
+            }
+            return expression;
+        }
+
+        private RefsetExpression parseOperand() {
+            char c = peek();
+            if (c == '(') {
+                if (++depth > MAX_DEPTH) {
+                    throw error("Parentheses nested too deeply");
+                }
+                position++;
+                RefsetExpression expression = parseExpression();
+                if (peek() != ')') {
+                    throw error("Expected ')'");
+                }
+                position++;
+                depth--;
+                return expression;
+            }
+            int start = position;
+            while (position < text.length() && text.charAt(position) >= '0' && text.charAt(position) <= '9') {
+                position++;
+            }
+            if (position == start || position - start > 18) {
+                throw error("Expected a reference set id");
+            }
+            return refset(Long.parseLong(text.substring(start, position)));
+        }
+
+        /**
+         * @return char the next character that is not a space, 0 at the end of the text
+         */
+        char peek() {
+            while (position < text.length() && text.charAt(position) == ' ') {
+                position++;
+            }
+            return position < text.length() ? text.charAt(position) : 0;
+        }
+
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position " + position + " of expression " + text);
+        }
+    }
+}
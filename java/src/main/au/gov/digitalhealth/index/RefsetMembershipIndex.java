@@ -0,0 +1,222 @@
+package au.gov.digitalhealth.index;
+
+import java.util.Arrays;
+
+import au.gov.digitalhealth.rf2.LongIntHashMap;
+
+/**
+ * An in-memory index of which concepts are members of which reference sets, for membership checks that do not touch
+ * the database.<p/>
+ *
+ * Every concept that is a member of any reference set is given a dense ordinal, its position in SCT ID order, and the
+ * members of each reference set are held as a {@link CompressedBitmap} of ordinals. A membership check is a hash
+ * lookup of the concept's ordinal then a lookup in one bitmap, and a {@link RefsetExpression} is evaluated by
+ * combining the bitmaps of its reference sets.<p/>
+ *
+ * The index is built with a {@link Builder}, is immutable once built and is safe to use from multiple threads.
+ */
+public class RefsetMembershipIndex {
+
+    private static final long[] NO_REFSETS = new long[0];
+
+    /** The SCT IDs of the member concepts, sorted. The index of a concept is its ordinal. */
+    private final long[] conceptIds;
+    private final LongIntHashMap conceptOrdinals;
+
+    /** The SCT IDs of the reference sets, sorted */
+    private final long[] refsetIds;
+    private final LongIntHashMap refsetIndexes;
+
+    /** The member ordinals of each reference set, in the order of <code>refsetIds</code> */
+    private final CompressedBitmap[] members;
+
+    private RefsetMembershipIndex(long[] membershipRefsetIds, long[] membershipConceptIds, int count) {
+        conceptIds = sortedDistinct(membershipConceptIds, count);
+        conceptOrdinals = new LongIntHashMap(conceptIds.length);
+        for (int i = 0; i < conceptIds.length; i++) {
+            conceptOrdinals.put(conceptIds[i], i);
+        }
+        refsetIds = sortedDistinct(membershipRefsetIds, count);
+        refsetIndexes = new LongIntHashMap(refsetIds.length);
+        for (int i = 0; i < refsetIds.length; i++) {
+            refsetIndexes.put(refsetIds[i], i);
+        }
+
+        // Counting sort of the member ordinals by reference set
+        int[] offsets = new int[refsetIds.length + 1];
+        for (int i = 0; i < count; i++) {
+            offsets[refsetIndexes.get(membershipRefsetIds[i]) + 1]++;
+        }
+        for (int r = 0; r < refsetIds.length; r++) {
+            offsets[r + 1] += offsets[r];
+        }
+        int[] positions = Arrays.copyOf(offsets, refsetIds.length);
+        int[] ordinals = new int[count];
+        for (int i = 0; i < count; i++) {
+            ordinals[positions[refsetIndexes.get(membershipRefsetIds[i])]++] = conceptOrdinals.get(
+                    membershipConceptIds[i]);
+        }
+
+        members = new CompressedBitmap[refsetIds.length];
+        for (int r = 0; r < refsetIds.length; r++) {
+            Arrays.sort(ordinals, offsets[r], offsets[r + 1]);
+            // Remove duplicate memberships in place
+            int end = offsets[r];
+            for (int i = offsets[r]; i < offsets[r + 1]; i++) {
+                if (i == offsets[r] || ordinals[i] != ordinals[i - 1]) {
+                    ordinals[end++] = ordinals[i];
+                }
+            }
+            members[r] = new CompressedBitmap(ordinals, offsets[r], end);
+        }
+    }
+
+    /**
+     * Is the concept <code>conceptSctid</code> a member of the reference set <code>refsetSctId</code>.
+     *
+     * @param conceptSctid long
+     * @param refsetSctId long reference set id
+     * @return boolean <code>false</code> for an unknown concept or reference set
+     */
+    public boolean isMember(long conceptSctid, long refsetSctId) {
+        int ordinal = conceptOrdinals.get(conceptSctid);
+        int refset = refsetIndexes.get(refsetSctId);
+        return ordinal != LongIntHashMap.NOT_FOUND && refset != LongIntHashMap.NOT_FOUND
+                && members[refset].contains(ordinal);
+    }
+
+    /**
+     * Finds the reference sets that the concept <code>conceptSctid</code> is a member of.
+     *
+     * @param conceptSctid long
+     * @return The reference set ids, sorted, empty if the concept is not a member of any reference set
+     */
+    public long[] refsetsOf(long conceptSctid) {
+        int ordinal = conceptOrdinals.get(conceptSctid);
+        if (ordinal == LongIntHashMap.NOT_FOUND) {
+            return NO_REFSETS;
+        }
+        int count = 0;
+        for (int r = 0; r < members.length; r++) {
+            if (members[r].contains(ordinal)) {
+                count++;
+            }
+        }
+        long[] result = new long[count];
+        count = 0;
+        for (int r = 0; r < members.length; r++) {
+            if (members[r].contains(ordinal)) {
+                result[count++] = refsetIds[r];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Finds a page of the concepts that satisfy the <code>expression</code>, in SCT ID order: those with an SCT ID
+     * greater than <code>afterConceptSctid</code>.
+     *
+     * @param expression RefsetExpression
+     * @param afterConceptSctid long SCT ID of the last concept of the previous page, 0 for the first page
+     * @param maxRows int maximum number of concepts to return
+     * @return The SCT IDs of the concepts, sorted, unknown reference sets having no members
+     */
+    public long[] findMembers(RefsetExpression expression, long afterConceptSctid, int maxRows) {
+        int from = Arrays.binarySearch(conceptIds, afterConceptSctid);
+        from = from < 0 ? -from - 1 : from + 1;
+        int[] ordinals = evaluate(expression).values(from, maxRows);
+        long[] members = new long[ordinals.length];
+        for (int i = 0; i < ordinals.length; i++) {
+            members[i] = conceptIds[ordinals[i]];
+        }
+        return members;
+    }
+
+    /**
+     * @return The number of concepts that satisfy the <code>expression</code>
+     */
+    public int getMemberCount(RefsetExpression expression) {
+        return evaluate(expression).getCardinality();
+    }
+
+    private CompressedBitmap evaluate(RefsetExpression expression) {
+        if (expression.operator == null) {
+            int refset = refsetIndexes.get(expression.refsetSctId);
+            return refset == LongIntHashMap.NOT_FOUND ? CompressedBitmap.EMPTY : members[refset];
+        }
+        return CompressedBitmap.combine(evaluate(expression.left), evaluate(expression.right), expression.operator);
+    }
+
+    /**
+     * @return The number of members of the reference set <code>refsetSctId</code>, 0 for an unknown reference set
+     */
+    public int getMemberCount(long refsetSctId) {
+        int refset = refsetIndexes.get(refsetSctId);
+        return refset == LongIntHashMap.NOT_FOUND ? 0 : members[refset].getCardinality();
+    }
+
+    /**
+     * @return The number of reference sets in the index
+     */
+    public int getRefsetCount() {
+        return refsetIds.length;
+    }
+
+    /**
+     * @return The approximate number of bytes used by the member bitmaps
+     */
+    public long getBitmapSizeInBytes() {
+        long size = 0;
+        for (CompressedBitmap bitmap : members) {
+            size += bitmap.getSizeInBytes();
+        }
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "RefsetMembershipIndex[refsets=" + refsetIds.length + ", concepts=" + conceptIds.length
+                + ", bitmapBytes=" + getBitmapSizeInBytes() + "]";
+    }
+
+    private static long[] sortedDistinct(long[] values, int count) {
+        long[] sorted = Arrays.copyOf(values, count);
+        Arrays.sort(sorted);
+        int size = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (size == 0 || sorted[i] != sorted[size - 1]) {
+                sorted[size++] = sorted[i];
+            }
+        }
+        return Arrays.copyOf(sorted, size);
+    }
+
+    /**
+     * Collects reference set memberships, in any order and with duplicates, to build a
+     * {@link RefsetMembershipIndex}.
+     */
+    public static class Builder {
+
+        private long[] refsetIds = new long[1024];
+        private long[] conceptIds = new long[1024];
+        private int count;
+
+        /**
+         * Add the membership of the concept <code>conceptSctid</code> in the reference set <code>refsetSctId</code>.
+         */
+        public Builder add(long refsetSctId, long conceptSctid) {
+            if (count == refsetIds.length) {
+                refsetIds = Arrays.copyOf(refsetIds, count * 2);
+                conceptIds = Arrays.copyOf(conceptIds, count * 2);
+            }
+            refsetIds[count] = refsetSctId;
+            conceptIds[count] = conceptSctid;
+            count++;
+            return this;
+        }
+
+        public RefsetMembershipIndex build() {
+            return new RefsetMembershipIndex(refsetIds, conceptIds, count);
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package au.gov.digitalhealth.index;
+
+import java.util.Arrays;
+
+import au.gov.digitalhealth.rf2.LongIntHashMap;
+
+/**
+ * An in-memory transitive closure of the active is-a relationships, for subsumption checks that do not walk the
+ * hierarchy in the database.<p/>
+ *
+ * The closure is held with interval labelling. The hierarchy is walked depth first from its roots, numbering each
+ * concept in post-order, so the concepts reached first through a concept are numbered consecutively, up to and
+ * including the concept itself. As a concept can have several parents, the descendants reached through its other
+ * parents are added as further intervals, merged with the concept's own. Each concept is then labelled with a few
+ * sorted, disjoint intervals of post-order numbers covering itself and all its descendants. A subsumption check is a
+ * hash lookup of each concept's ordinal then a binary search of the intervals. For the SNOMED CT hierarchy most
+ * concepts need a single interval, so the index is far smaller than a table of every ancestor of every concept.<p/>
+ *
+ * Relationships that would close a cycle are ignored. The index is built with a {@link Builder}, is immutable once
+ * built and is safe to use from multiple threads.
+ */
+public class SubsumptionIndex {
+
+    private static final long[] NO_CONCEPTS = new long[0];
+
+    private static final int UNVISITED = 0;
+    private static final int VISITING = 1;
+
+    /** The SCT IDs of the concepts in the hierarchy, sorted. The index of a concept is its ordinal. */
+    private final long[] conceptIds;
+    private final LongIntHashMap conceptOrdinals;
+
+    /** The post-order number of each concept, by ordinal */
+    private final int[] postOrder;
+
+    /** The SCT ID of each concept, by post-order number */
+    private final long[] postOrderConceptIds;
+
+    /**
+     * The intervals of concept <code>c</code> are the start and end (inclusive) post-order number pairs from
+     * <code>intervalOffsets[c]</code> up to (excluding) <code>intervalOffsets[c + 1]</code> in <code>intervals</code>
+     */
+    private final int[] intervalOffsets;
+    private final int[] intervals;
+
+    private SubsumptionIndex(long[] childIds, long[] parentIds, int count) {
+        long[] ids = Arrays.copyOf(childIds, count * 2);
+        System.arraycopy(parentIds, 0, ids, count, count);
+        Arrays.sort(ids);
+        int size = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (size == 0 || ids[i] != ids[size - 1]) {
+                ids[size++] = ids[i];
+            }
+        }
+        conceptIds = Arrays.copyOf(ids, size);
+        conceptOrdinals = new LongIntHashMap(size);
+        for (int i = 0; i < size; i++) {
+            conceptOrdinals.put(conceptIds[i], i);
+        }
+
+        // Counting sort of the children by parent
+        int[] childOffsets = new int[size + 1];
+        boolean[] hasParent = new boolean[size];
+        for (int i = 0; i < count; i++) {
+            childOffsets[conceptOrdinals.get(parentIds[i]) + 1]++;
+        }
+        for (int c = 0; c < size; c++) {
+            childOffsets[c + 1] += childOffsets[c];
+        }
+        int[] positions = Arrays.copyOf(childOffsets, size);
+        int[] children = new int[count];
+        for (int i = 0; i < count; i++) {
+            int child = conceptOrdinals.get(childIds[i]);
+            children[positions[conceptOrdinals.get(parentIds[i])]++] = child;
+            hasParent[child] = true;
+        }
+
+        // Number the concepts in post-order, walking from the roots then from any concept only reachable in a cycle
+        postOrder = new int[size];
+        postOrderConceptIds = new long[size];
+        int[] firstPostOrder = new int[size];
+        int[] state = new int[size];
+        int[] stack = new int[size];
+        int[] nextChild = new int[size];
+        int next = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            for (int root = 0; root < size; root++) {
+                if (state[root] != UNVISITED || (pass == 0 && hasParent[root])) {
+                    continue;
+                }
+                int depth = 0;
+                stack[depth++] = root;
+                state[root] = VISITING;
+                firstPostOrder[root] = next;
+                nextChild[root] = childOffsets[root];
+                while (depth > 0) {
+                    int concept = stack[depth - 1];
+                    if (nextChild[concept] < childOffsets[concept + 1]) {
+                        int child = children[nextChild[concept]++];
+                        if (state[child] == UNVISITED) {
+                            stack[depth++] = child;
+                            state[child] = VISITING;
+                            firstPostOrder[child] = next;
+                            nextChild[child] = childOffsets[child];
+                        }
+                    } else {
+                        depth--;
+                        postOrder[concept] = next;
+                        postOrderConceptIds[next] = conceptIds[concept];
+                        next++;
+                    }
+                }
+            }
+        }
+
+        // Label the concepts in post-order, so each child is labelled before its parents. The concepts first reached
+        // through a concept are its first interval, the labels of its children add the descendants reached otherwise.
+        int[][] labels = new int[size][];
+        int labelCount = 0;
+        int[] merged = new int[16];
+        for (int p = 0; p < size; p++) {
+            int concept = conceptOrdinals.get(postOrderConceptIds[p]);
+            int mergedCount = 0;
+            merged[mergedCount++] = firstPostOrder[concept];
+            merged[mergedCount++] = p;
+            for (int i = childOffsets[concept]; i < childOffsets[concept + 1]; i++) {
+                int child = children[i];
+                // Skip a child closing a cycle, numbered after the concept
+                if (postOrder[child] < p) {
+                    int[] childLabel = labels[child];
+                    if (mergedCount + childLabel.length > merged.length) {
+                        merged = Arrays.copyOf(merged, Math.max(merged.length * 2, mergedCount + childLabel.length));
+                    }
+                    System.arraycopy(childLabel, 0, merged, mergedCount, childLabel.length);
+                    mergedCount += childLabel.length;
+                }
+            }
+            labels[concept] = merge(merged, mergedCount);
+            labelCount += labels[concept].length;
+        }
+
+        intervalOffsets = new int[size + 1];
+        intervals = new int[labelCount];
+        for (int c = 0; c < size; c++) {
+            System.arraycopy(labels[c], 0, intervals, intervalOffsets[c], labels[c].length);
+            intervalOffsets[c + 1] = intervalOffsets[c] + labels[c].length;
+        }
+    }
+
+    /**
+     * Sort the intervals, start and end pairs, and merge those that overlap or are adjacent.
+     */
+    private static int[] merge(int[] pairs, int length) {
+        int count = length / 2;
+        if (count == 1) {
+            return new int[] {pairs[0], pairs[1]};
+        }
+        // Sort the pairs by start, packed into longs so the ends move with them
+        long[] packed = new long[count];
+        for (int i = 0; i < count; i++) {
+            packed[i] = ((long) pairs[i * 2] << 32) | pairs[i * 2 + 1];
+        }
+        Arrays.sort(packed);
+        int[] result = new int[length];
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            int start = (int) (packed[i] >>> 32);
+            int end = (int) packed[i];
+            if (size > 0 && start <= result[size - 1] + 1) {
+                result[size - 1] = Math.max(result[size - 1], end);
+            } else {
+                result[size++] = start;
+                result[size++] = end;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Is the concept <code>conceptSctid</code> a descendant of the concept <code>ancestorSctid</code>, directly or
+     * through any number of is-a relationships.
+     *
+     * @param conceptSctid long
+     * @param ancestorSctid long
+     * @return boolean <code>false</code> for an unknown concept, or if the concepts are the same
+     */
+    public boolean isDescendant(long conceptSctid, long ancestorSctid) {
+        int concept = conceptOrdinals.get(conceptSctid);
+        int ancestor = conceptOrdinals.get(ancestorSctid);
+        if (concept == LongIntHashMap.NOT_FOUND || ancestor == LongIntHashMap.NOT_FOUND || concept == ancestor) {
+            return false;
+        }
+        int p = postOrder[concept];
+        int low = intervalOffsets[ancestor] / 2;
+        int high = intervalOffsets[ancestor + 1] / 2 - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (intervals[middle * 2 + 1] < p) {
+                low = middle + 1;
+            } else if (intervals[middle * 2] > p) {
+                high = middle - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds all the descendants of the concept <code>ancestorSctid</code>.
+     *
+     * @param ancestorSctid long
+     * @return The SCT IDs of the descendants, sorted, empty for an unknown concept or one without children
+     */
+    public long[] descendantsOf(long ancestorSctid) {
+        int ancestor = conceptOrdinals.get(ancestorSctid);
+        if (ancestor == LongIntHashMap.NOT_FOUND) {
+            return NO_CONCEPTS;
+        }
+        long[] descendants = new long[getDescendantCount(ancestorSctid)];
+        int count = 0;
+        for (int i = intervalOffsets[ancestor]; i < intervalOffsets[ancestor + 1]; i += 2) {
+            for (int p = intervals[i]; p <= intervals[i + 1]; p++) {
+                if (p != postOrder[ancestor]) {
+                    descendants[count++] = postOrderConceptIds[p];
+                }
+            }
+        }
+        Arrays.sort(descendants);
+        return descendants;
+    }
+
+    /**
+     * @return The number of descendants of the concept <code>ancestorSctid</code>, 0 for an unknown concept
+     */
+    public int getDescendantCount(long ancestorSctid) {
+        int ancestor = conceptOrdinals.get(ancestorSctid);
+        if (ancestor == LongIntHashMap.NOT_FOUND) {
+            return 0;
+        }
+        int count = -1;
+        for (int i = intervalOffsets[ancestor]; i < intervalOffsets[ancestor + 1]; i += 2) {
+            count += intervals[i + 1] - intervals[i] + 1;
+        }
+        return count;
+    }
+
+    /**
+     * @return The number of concepts in the hierarchy
+     */
+    public int getConceptCount() {
+        return conceptIds.length;
+    }
+
+    /**
+     * @return The approximate number of bytes used by the index, excluding the concept ordinal hash
+     */
+    public long getSizeInBytes() {
+        return conceptIds.length * 8L * 2 + (postOrder.length + intervalOffsets.length + intervals.length) * 4L;
+    }
+
+    @Override
+    public String toString() {
+        return "SubsumptionIndex[concepts=" + conceptIds.length + ", intervals=" + intervals.length / 2
+                + ", bytes=" + getSizeInBytes() + "]";
+    }
+
+    /**
+     * Collects is-a relationships, in any order and with duplicates, to build a {@link SubsumptionIndex}.
+     */
+    public static class Builder {
+
+        private long[] childIds = new long[1024];
+        private long[] parentIds = new long[1024];
+        private int count;
+
+        /**
+         * Add the is-a relationship of the concept <code>conceptSctid</code> to its parent <code>parentSctid</code>.
+         */
+        public Builder add(long conceptSctid, long parentSctid) {
+            if (count == childIds.length) {
+                childIds = Arrays.copyOf(childIds, count * 2);
+                parentIds = Arrays.copyOf(parentIds, count * 2);
+            }
+            childIds[count] = conceptSctid;
+            parentIds[count] = parentSctid;
+            count++;
+            return this;
+        }
+
+        public SubsumptionIndex build() {
+            return new SubsumptionIndex(childIds, parentIds, count);
+        }
+    }
+}
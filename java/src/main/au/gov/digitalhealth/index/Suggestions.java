@@ -0,0 +1,95 @@
+package au.gov.digitalhealth.index;
+
+/**
+ * A reusable holder for the concepts suggested by a {@link PrefixIndex} search, such as one per search-as-you-type
+ * session.<p/>
+ *
+ * It holds both the results and the working space for the search, so repeated searches into the same holder do not
+ * allocate. A holder must only be used by one thread at a time.
+ */
+public class Suggestions {
+
+    private final long[] conceptIds;
+    private final String[] preferredTerms;
+    private int size;
+
+    // Working space for PrefixIndex, a max-heap of candidate ranges
+    final int[] heapPositions;
+    final int[] heapStarts;
+    final int[] heapEnds;
+    final int maxCandidates;
+
+    /**
+     * @param maxSuggestions The maximum number of concepts to suggest for each search
+     */
+    public Suggestions(int maxSuggestions) {
+        conceptIds = new long[maxSuggestions];
+        preferredTerms = new String[maxSuggestions];
+        // Each candidate visited adds at most one range to the heap
+        maxCandidates = maxSuggestions * 16;
+        heapPositions = new int[maxCandidates + 2];
+        heapStarts = new int[maxCandidates + 2];
+        heapEnds = new int[maxCandidates + 2];
+    }
+
+    /**
+     * @return The number of concepts suggested by the last search
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The maximum number of concepts suggested for each search
+     */
+    public int capacity() {
+        return conceptIds.length;
+    }
+
+    /**
+     * @param index zero based, less than {@link #size()}, best suggestion first
+     * @return The SCT ID of the suggested concept
+     */
+    public long getConceptId(int index) {
+        checkIndex(index);
+        return conceptIds[index];
+    }
+
+    /**
+     * @param index zero based, less than {@link #size()}, best suggestion first
+     * @return The en-AU preferred term of the suggested concept
+     */
+    public String getPreferredTerm(int index) {
+        checkIndex(index);
+        return preferredTerms[index];
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    boolean isFull() {
+        return size == conceptIds.length;
+    }
+
+    boolean contains(long conceptId) {
+        for (int i = 0; i < size; i++) {
+            if (conceptIds[i] == conceptId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void add(long conceptId, String preferredTerm) {
+        conceptIds[size] = conceptId;
+        preferredTerms[size] = preferredTerm;
+        size++;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Suggestion " + index + " of " + size);
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package au.gov.digitalhealth.index;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import au.gov.digitalhealth.rf2.LongIntHashMap;
+
+/**
+ * A substring index over description terms, built from the trigrams (three character sequences) of each term.<p/>
+ *
+ * Every term containing a search string must also contain every trigram of the search string, so the candidate
+ * terms are found by intersecting the posting lists (the sorted term indexes) of the search string's trigrams. Each
+ * candidate is then checked with a real substring match, which is only needed because a term can contain all the
+ * trigrams without containing them in sequence. Search strings shorter than a trigram fall back to a scan.<p/>
+ *
+ * Terms belong to an owner (a concept ordinal) and are grouped by owner: the terms of owner <code>o</code> are
+ * those from <code>ownerOffsets[o]</code> up to (excluding) <code>ownerOffsets[o + 1]</code>. Intersecting in term
+ * order therefore finds owners in order, and a search stops as soon as it has found enough owners.<p/>
+ *
+ * {@link #searchRanked(String, int)} instead visits every matching term and keeps the best matching owners, see
+ * {@link RankedMatches}.<p/>
+ *
+ * Terms are matched case insensitively. The index is immutable once built and safe to search from multiple threads.
+ */
+public class TrigramIndex {
+
+    private static final int GRAM = 3;
+
+    /** The terms in lower case */
+    private final String[] terms;
+
+    /** The owner of each term */
+    private final int[] owners;
+
+    /** The {@link au.gov.digitalhealth.model.Metadata.LanguageAcceptability} ordinal of each term, for ranking */
+    private final byte[] acceptabilities;
+
+    private final LongIntHashMap trigramIds;
+    private final int[] postingOffsets;
+    private final int[] postings;
+
+    /**
+     * Build the index.
+     *
+     * @param searchTerms The terms, already in lower case (see {@link #normalise(String)}), grouped by owner
+     * @param ownerOffsets The start of each owner's terms, with a final entry holding the number of terms
+     */
+    public TrigramIndex(String[] searchTerms, int[] ownerOffsets) {
+        this(searchTerms, ownerOffsets, new byte[searchTerms.length]);
+    }
+
+    /**
+     * Build the index, ranking the terms by their acceptability in {@link #searchRanked(String, int)}.
+     *
+     * @param searchTerms The terms, already in lower case (see {@link #normalise(String)}), grouped by owner
+     * @param ownerOffsets The start of each owner's terms, with a final entry holding the number of terms
+     * @param acceptabilities The {@link au.gov.digitalhealth.model.Metadata.LanguageAcceptability} ordinal of each
+     *                        term
+     */
+    public TrigramIndex(String[] searchTerms, int[] ownerOffsets, byte[] acceptabilities) {
+        this.terms = searchTerms;
+        this.acceptabilities = acceptabilities;
+        this.owners = new int[searchTerms.length];
+        for (int o = 0; o + 1 < ownerOffsets.length; o++) {
+            Arrays.fill(owners, ownerOffsets[o], ownerOffsets[o + 1], o);
+        }
+
+        // First pass counts the terms containing each trigram, the second fills in the posting lists. Terms are
+        // visited in order so each posting list is sorted.
+        trigramIds = new LongIntHashMap(1 << 16);
+        int[] counts = new int[1 << 16];
+        long[] scratch = new long[64];
+        for (int t = 0; t < terms.length; t++) {
+            scratch = ensureCapacity(scratch, terms[t].length());
+            int count = distinctTrigrams(terms[t], scratch);
+            for (int i = 0; i < count; i++) {
+                int id = trigramIds.get(scratch[i]);
+                if (id == LongIntHashMap.NOT_FOUND) {
+                    id = trigramIds.size();
+                    trigramIds.put(scratch[i], id);
+                    if (id == counts.length) {
+                        counts = Arrays.copyOf(counts, id * 2);
+                    }
+                }
+                counts[id]++;
+            }
+        }
+
+        postingOffsets = new int[trigramIds.size() + 1];
+        for (int id = 0; id < trigramIds.size(); id++) {
+            postingOffsets[id + 1] = postingOffsets[id] + counts[id];
+        }
+        postings = new int[postingOffsets[trigramIds.size()]];
+        int[] next = Arrays.copyOf(postingOffsets, trigramIds.size());
+        for (int t = 0; t < terms.length; t++) {
+            int count = distinctTrigrams(terms[t], scratch);
+            for (int i = 0; i < count; i++) {
+                postings[next[trigramIds.get(scratch[i])]++] = t;
+            }
+        }
+    }
+
+    /**
+     * Convert a term to the form held in the index.
+     *
+     * @param term String
+     * @return The term in lower case
+     */
+    public static String normalise(String term) {
+        return term.toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Find the owners of the terms containing the <code>term</code>.
+     *
+     * @param term String full or partial term
+     * @param maxResults int maximum number of owners to return
+     * @return The distinct owners, in ascending order
+     */
+    public int[] search(String term, int maxResults) {
+        String searchTerm = normalise(term);
+        OwnerCollector owners = new OwnerCollector(maxResults);
+
+        if (searchTerm.length() < GRAM) {
+            for (int t = 0; t < terms.length && !owners.isFull(); t++) {
+                if (terms[t].contains(searchTerm)) {
+                    owners.add(this.owners[t]);
+                }
+            }
+            return owners.toArray();
+        }
+
+        long[] trigrams = new long[searchTerm.length()];
+        int count = distinctTrigrams(searchTerm, trigrams);
+        int[] lists = new int[count];
+        for (int i = 0; i < count; i++) {
+            lists[i] = trigramIds.get(trigrams[i]);
+            if (lists[i] == LongIntHashMap.NOT_FOUND) {
+                return owners.toArray();
+            }
+        }
+        sortByLength(lists);
+
+        // Walk the shortest posting list, advancing a cursor through each of the others
+        int[] cursors = new int[count];
+        for (int i = 0; i < count; i++) {
+            cursors[i] = postingOffsets[lists[i]];
+        }
+        int shortestEnd = postingOffsets[lists[0] + 1];
+        candidates:
+        for (int p = cursors[0]; p < shortestEnd && !owners.isFull(); p++) {
+            int candidate = postings[p];
+            if (owners.contains(this.owners[candidate])) {
+                continue;
+            }
+            for (int i = 1; i < count; i++) {
+                cursors[i] = advance(cursors[i], postingOffsets[lists[i] + 1], candidate);
+                if (cursors[i] == postingOffsets[lists[i] + 1]) {
+                    break candidates;
+                }
+                if (postings[cursors[i]] != candidate) {
+                    continue candidates;
+                }
+            }
+            if (terms[candidate].contains(searchTerm)) {
+                owners.add(this.owners[candidate]);
+            }
+        }
+
+        return owners.toArray();
+    }
+
+    /**
+     * Find the owners of the terms containing the <code>term</code> that match it best, see {@link RankedMatches}.
+     * Every matching term is scored, but only the best owners are kept.
+     *
+     * @param term String full or partial term
+     * @param maxResults int maximum number of owners to return
+     * @return The distinct owners, best first
+     */
+    public int[] searchRanked(String term, int maxResults) {
+        String searchTerm = normalise(term);
+        RankedMatches matches = new RankedMatches(searchTerm, maxResults);
+
+        if (searchTerm.length() < GRAM) {
+            for (int t = 0; t < terms.length; t++) {
+                if (terms[t].contains(searchTerm)) {
+                    matches.offer(owners[t], terms[t], acceptabilities[t]);
+                }
+            }
+            return toOwners(matches.toArray());
+        }
+
+        long[] trigrams = new long[searchTerm.length()];
+        int count = distinctTrigrams(searchTerm, trigrams);
+        int[] lists = new int[count];
+        for (int i = 0; i < count; i++) {
+            lists[i] = trigramIds.get(trigrams[i]);
+            if (lists[i] == LongIntHashMap.NOT_FOUND) {
+                return new int[0];
+            }
+        }
+        sortByLength(lists);
+
+        int[] cursors = new int[count];
+        for (int i = 0; i < count; i++) {
+            cursors[i] = postingOffsets[lists[i]];
+        }
+        int shortestEnd = postingOffsets[lists[0] + 1];
+        candidates:
+        for (int p = cursors[0]; p < shortestEnd; p++) {
+            int candidate = postings[p];
+            for (int i = 1; i < count; i++) {
+                cursors[i] = advance(cursors[i], postingOffsets[lists[i] + 1], candidate);
+                if (cursors[i] == postingOffsets[lists[i] + 1]) {
+                    break candidates;
+                }
+                if (postings[cursors[i]] != candidate) {
+                    continue candidates;
+                }
+            }
+            if (terms[candidate].contains(searchTerm)) {
+                matches.offer(owners[candidate], terms[candidate], acceptabilities[candidate]);
+            }
+        }
+
+        return toOwners(matches.toArray());
+    }
+
+    private static int[] toOwners(long[] ranked) {
+        int[] result = new int[ranked.length];
+        for (int i = 0; i < ranked.length; i++) {
+            result[i] = (int) ranked[i];
+        }
+        return result;
+    }
+
+    /**
+     * @return The number of distinct trigrams in the index
+     */
+    public int getTrigramCount() {
+        return trigramIds.size();
+    }
+
+    /**
+     * @return The first position from <code>from</code> in the posting list ending at <code>end</code> holding a
+     *         value not less than <code>target</code>, or <code>end</code>. Gallops then binary searches.
+     */
+    private int advance(int from, int end, int target) {
+        int step = 1;
+        int low = from;
+        int high = from;
+        while (high < end && postings[high] < target) {
+            low = high + 1;
+            high += step;
+            step <<= 1;
+        }
+        high = Math.min(high, end);
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (postings[mid] < target) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void sortByLength(int[] lists) {
+        for (int i = 1; i < lists.length; i++) {
+            int list = lists[i];
+            int length = length(list);
+            int j = i - 1;
+            while (j >= 0 && length(lists[j]) > length) {
+                lists[j + 1] = lists[j];
+                j--;
+            }
+            lists[j + 1] = list;
+        }
+    }
+
+    private int length(int list) {
+        return postingOffsets[list + 1] - postingOffsets[list];
+    }
+
+    /**
+     * Write the distinct trigrams of the <code>term</code>, each packed into a long, to <code>trigrams</code>.
+     *
+     * @return The number of distinct trigrams
+     */
+    private static int distinctTrigrams(String term, long[] trigrams) {
+        int count = 0;
+        for (int i = 0; i + GRAM <= term.length(); i++) {
+            trigrams[count++] = ((long) term.charAt(i) << 32) | ((long) term.charAt(i + 1) << 16) | term.charAt(i + 2);
+        }
+        Arrays.sort(trigrams, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == 0 || trigrams[i] != trigrams[i - 1]) {
+                trigrams[distinct++] = trigrams[i];
+            }
+        }
+        return distinct;
+    }
+
+    private static long[] ensureCapacity(long[] array, int length) {
+        return array.length >= length ? array : new long[Math.max(length, array.length * 2)];
+    }
+
+    /**
+     * Collects distinct owners, which arrive in ascending order.
+     */
+    private static class OwnerCollector {
+        private final int[] owners;
+        private int size;
+
+        OwnerCollector(int maxResults) {
+            owners = new int[Math.max(0, maxResults)];
+        }
+
+        boolean isFull() {
+            return size == owners.length;
+        }
+
+        boolean contains(int owner) {
+            return size > 0 && owners[size - 1] == owner;
+        }
+
+        void add(int owner) {
+            if (!contains(owner)) {
+                owners[size++] = owner;
+            }
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(owners, size);
+        }
+    }
+}
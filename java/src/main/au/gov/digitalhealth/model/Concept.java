@@ -1,15 +1,17 @@
 package au.gov.digitalhealth.model;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
 import au.gov.digitalhealth.db.ConceptFinder;
 import au.gov.digitalhealth.model.Metadata.LanguageAcceptability;
 import au.gov.digitalhealth.model.Concept;
-import au.gov.digitalhealth.model.Metadata;
 import au.gov.digitalhealth.model.RefsetMember;
 
 /**
@@ -20,17 +22,45 @@ import au.gov.digitalhealth.model.RefsetMember;
  * It contains the descriptions for the concept and, for each description, it's acceptability as defined in the 
  * Australian Dialect Reference Set (ADRS). It also contains each reference set membership this concept participates in.
  * 
+ * A concept may be fetched with only some of these, see {@link au.gov.digitalhealth.db.FetchPlan}. The rest are
+ * populated by its {@link ConceptLoader} the first time they are accessed.<p/>
+ *
+ * To keep large result sets and caches small the descriptions are held as an array of terms with a parallel array of
+ * acceptabilities, and the refset memberships as just the refset SCT IDs. A fully populated concept with three
+ * descriptions and one refset takes 128 bytes plus its terms, which are shared with the backend where it holds them.
+ * The {@link RefsetMember} objects are only created when asked for.
  */
 public class Concept {
-    
+
+    private static final LanguageAcceptability[] ACCEPTABILITIES = LanguageAcceptability.values();
+
+    private static final String[] NO_TERMS = new String[0];
+    private static final byte[] NO_ACCEPTABILITIES = new byte[0];
+    private static final long[] NO_REFSET_IDS = new long[0];
+
     /** The SCT ID of this concept */
     long sctId;
     
-    /** Maps a description (concept term) to an en-AU acceptability */
-    private Map<String, LanguageAcceptability> descriptions = new HashMap<String, Metadata.LanguageAcceptability>();
+    /** The description terms, in the order they were added */
+    private String[] terms = NO_TERMS;
+
+    /** The {@link LanguageAcceptability} ordinal of each of the <code>terms</code> */
+    private byte[] acceptabilities = NO_ACCEPTABILITIES;
+
+    /** Index of the first preferred term in <code>terms</code>, -1 if there is none */
+    private int preferredIndex = -1;
+
+    /** The SCT ID of each refset this concept is a member of */
+    private long[] refsetIds = NO_REFSET_IDS;
+
+    /** The en-AU preferred term chosen by the backend, see {@link PreferredTermChooser}, <code>null</code> if not set */
+    private String preferredTerm;
+
+    /** Loads the descriptions on first access, <code>null</code> once they are loaded */
+    private volatile ConceptLoader descriptionsLoader;
 
-    /** Stores all the refset memberships that this concepts participates in */
-    private Collection<RefsetMember> refsetMemberships = new ArrayList<RefsetMember>();
+    /** Loads the refset memberships on first access, <code>null</code> once they are loaded */
+    private volatile ConceptLoader refsetMembershipsLoader;
 
     
     public Concept() {}
@@ -44,6 +74,58 @@ public class Concept {
         this.sctId = sctId;
     }
 
+    /**
+     * Set the preferred term of the concept, as chosen by a {@link PreferredTermChooser}. The backends set it when
+     * fetching the concept with its preferred term or its descriptions, including descriptions loaded later by the
+     * {@link ConceptLoader}.
+     *
+     * @param preferredTerm The en-AU preferred term
+     */
+    public void setPreferredTerm(String preferredTerm) {
+        this.preferredTerm = preferredTerm;
+    }
+
+    /**
+     * Defer populating the descriptions and refset memberships of this concept until they are first accessed, when
+     * they are added by the <code>loader</code>.
+     *
+     * @param loader ConceptLoader
+     */
+    public void setLoader(ConceptLoader loader) {
+        this.descriptionsLoader = loader;
+        this.refsetMembershipsLoader = loader;
+    }
+
+    /**
+     * @return Whether the descriptions and refset memberships are populated, rather than waiting to be loaded on
+     *         first access
+     */
+    public boolean isLoaded() {
+        return descriptionsLoader == null && refsetMembershipsLoader == null;
+    }
+
+    private void ensureDescriptions() {
+        if (descriptionsLoader != null) {
+            synchronized (this) {
+                if (descriptionsLoader != null) {
+                    descriptionsLoader.loadDescriptions(this);
+                    descriptionsLoader = null;
+                }
+            }
+        }
+    }
+
+    private void ensureRefsetMemberships() {
+        if (refsetMembershipsLoader != null) {
+            synchronized (this) {
+                if (refsetMembershipsLoader != null) {
+                    refsetMembershipsLoader.loadRefsetMemberships(this);
+                    refsetMembershipsLoader = null;
+                }
+            }
+        }
+    }
+
     /**
      * Add a new description term for this concept.
      * This is not persisted in the database.
@@ -56,7 +138,32 @@ public class Concept {
      *          Ref to {@link LanguageAcceptability} for values.
      */
     public void addDescription(String term, long acceptabilityConceptId) {
-        descriptions.put(term, LanguageAcceptability.forSctId(acceptabilityConceptId));
+        byte acceptability = (byte) LanguageAcceptability.forSctId(acceptabilityConceptId).ordinal();
+        for (int i = 0; i < terms.length; i++) {
+            if (terms[i].equals(term)) {
+                acceptabilities[i] = acceptability;
+                preferredIndex = indexOf(LanguageAcceptability.PREFERRED);
+                return;
+            }
+        }
+        // Grown one at a time as concepts have only a few, so no space is left unused
+        int index = terms.length;
+        terms = Arrays.copyOf(terms, index + 1);
+        acceptabilities = Arrays.copyOf(acceptabilities, index + 1);
+        terms[index] = term;
+        acceptabilities[index] = acceptability;
+        if (preferredIndex < 0 && acceptability == LanguageAcceptability.PREFERRED.ordinal()) {
+            preferredIndex = index;
+        }
+    }
+
+    private int indexOf(LanguageAcceptability acceptability) {
+        for (int i = 0; i < acceptabilities.length; i++) {
+            if (acceptabilities[i] == acceptability.ordinal()) {
+                return i;
+            }
+        }
+        return -1;
     }
     
     /**
@@ -68,41 +175,117 @@ public class Concept {
      */
     public void addRefsetMembership(long refsetSctId) {
         
-        Concept refsetConcept = ConceptFinder.findById(refsetSctId);
-        
-        if (refsetConcept == null) {
+        if (ConceptFinder.findRefsetConcept(refsetSctId) == null) {
             throw new RuntimeException(
                 "Invalid refset membership. Unknown or inactive refset concept: " + refsetSctId);
         }
         
-        RefsetMember member = new RefsetMember();
-        member.setReferencedConcept(this);
-        member.setRefsetConcept(refsetConcept);
-        
-        refsetMemberships.add(member);
+        for (long refsetId : refsetIds) {
+            if (refsetId == refsetSctId) {
+                return;
+            }
+        }
+        refsetIds = Arrays.copyOf(refsetIds, refsetIds.length + 1);
+        refsetIds[refsetIds.length - 1] = refsetSctId;
     }
-    
+
+    /**
+     * @return The number of description terms of this concept
+     */
+    public int getDescriptionCount() {
+        ensureDescriptions();
+        return terms.length;
+    }
+
+    /**
+     * @param index int from 0 to {@link #getDescriptionCount()} - 1
+     * @return The description term at <code>index</code>, in the order they were added
+     */
+    public String getTerm(int index) {
+        ensureDescriptions();
+        checkIndex(index);
+        return terms[index];
+    }
+
+    /**
+     * @param index int from 0 to {@link #getDescriptionCount()} - 1
+     * @return The en-AU acceptability of the description term at <code>index</code>
+     */
+    public LanguageAcceptability getAcceptability(int index) {
+        ensureDescriptions();
+        checkIndex(index);
+        return ACCEPTABILITIES[acceptabilities[index]];
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= terms.length) {
+            throw new IndexOutOfBoundsException("Description " + index + " of " + terms.length);
+        }
+    }
+
+    /**
+     * @return A unmodifiable map of each description term of this concept to its en-AU acceptability, in the order
+     *         they were added. Built on each call, {@link #getTerm(int)} and {@link #getAcceptability(int)} avoid this.
+     */
+    public Map<String, LanguageAcceptability> getDescriptions() {
+        ensureDescriptions();
+        Map<String, LanguageAcceptability> descriptions = new LinkedHashMap<String, LanguageAcceptability>();
+        for (int i = 0; i < terms.length; i++) {
+            descriptions.put(terms[i], ACCEPTABILITIES[acceptabilities[i]]);
+        }
+        return Collections.unmodifiableMap(descriptions);
+    }
+
+    /**
+     * @return The SCT ID of each refset this concept is a member of, in the order they were added
+     */
+    public long[] getRefsetIds() {
+        ensureRefsetMemberships();
+        return refsetIds.clone();
+    }
+
     /**
-     * @return A unmodifiable collection containing each refset membership this concept participates in
+     * @return A unmodifiable collection containing each refset membership this concept participates in. Built on each
+     *         call from the cached refset concepts, {@link #getRefsetIds()} avoids this. A membership whose refset
+     *         concept can no longer be found, eg. inactivated by a release loaded since, is left out.
      */
     public Collection<RefsetMember> getRefsetMemberships() {
-        return Collections.unmodifiableCollection(this.refsetMemberships);
+        ensureRefsetMemberships();
+        List<RefsetMember> refsetMemberships = new ArrayList<RefsetMember>(refsetIds.length);
+        for (long refsetId : refsetIds) {
+            Concept refsetConcept = ConceptFinder.findRefsetConcept(refsetId);
+            if (refsetConcept == null) {
+                continue;
+            }
+            RefsetMember member = new RefsetMember();
+            member.setReferencedConcept(this);
+            member.setRefsetConcept(refsetConcept);
+            refsetMemberships.add(member);
+        }
+        return Collections.unmodifiableCollection(refsetMemberships);
     }
     
     /**
-     * @return The most preferable description for this concept. This is defined by the Australia Dialect Reference Set (ADRS).
+     * @return The most preferable description for this concept. This is defined by the Australia Dialect Reference Set (ADRS):
+     *         the smallest of the synonyms it marks as preferred, as chosen by {@link PreferredTermChooser}.
      */
     public String getPreferredTerm() {
-        for (String description : descriptions.keySet()) {
-            LanguageAcceptability acceptability = descriptions.get(description);
-            if (LanguageAcceptability.PREFERRED.equals(acceptability)) {
-                return description;
-            }
+        if (preferredTerm != null) {
+            return preferredTerm;
+        }
+        ensureDescriptions();
+        if (preferredTerm != null) {
+            return preferredTerm;
+        }
+        // Only a concept built without a backend, whose description types are not known, gets here: its first
+        // description marked preferred, in the order added, else its first description
+        if (preferredIndex >= 0) {
+            return terms[preferredIndex];
+        }
+        if (terms.length == 0) {
+            throw new NoSuchElementException("Concept " + sctId + " has no descriptions");
         }
-        // If term with preferred acceptability not found then just return the first description
-        // which by the ordering in the db query should give us the latest term
-        // (alternatively we could have continued looking for an ACCEPTABLE term)
-        return descriptions.keySet().iterator().next();
+        return terms[0];
     }
     
     /**
@@ -115,20 +298,25 @@ public class Concept {
      */
     @Override
     public String toString() {
+        ensureDescriptions();
+        ensureRefsetMemberships();
         StringBuffer result = new StringBuffer();
         result.append("SCT ID ").append(sctId).append("\n");
         
-        for (String description : descriptions.keySet()) {
-            result.append("\t").append(description);
-            LanguageAcceptability acceptability = descriptions.get(description);
+        for (int i = 0; i < terms.length; i++) {
+            result.append("\t").append(terms[i]);
+            LanguageAcceptability acceptability = ACCEPTABILITIES[acceptabilities[i]];
             if (!LanguageAcceptability.NONE.equals(acceptability)) {
                 result.append(" [EN-AU ").append(acceptability).append(" TERM]");
             }
             result.append("\n");
         }
         
-        for (RefsetMember membership : refsetMemberships) {
-            result.append("\t\t Is member of refset '").append(membership.getRefsetConcept().getPreferredTerm());
+        for (long refsetId : refsetIds) {
+            // The reference set concept may have gone with a reload of the release, so fall back to its SCT ID
+            Concept refsetConcept = ConceptFinder.findRefsetConcept(refsetId);
+            result.append("\t\t Is member of refset '");
+            result.append(refsetConcept == null ? String.valueOf(refsetId) : refsetConcept.getPreferredTerm());
             result.append("'\n");
         }
         
@@ -0,0 +1,22 @@
+package au.gov.digitalhealth.model;
+
+/**
+ * Populates the parts of a {@link Concept} that were not fetched with it, the first time they are accessed.
+ * See {@link Concept#setLoader(ConceptLoader)}.
+ */
+public interface ConceptLoader {
+
+    /**
+     * Add the descriptions of the <code>concept</code> with {@link Concept#addDescription(String, long)}.
+     *
+     * @param concept Concept
+     */
+    void loadDescriptions(Concept concept);
+
+    /**
+     * Add the reference set memberships of the <code>concept</code> with {@link Concept#addRefsetMembership(long)}.
+     *
+     * @param concept Concept
+     */
+    void loadRefsetMemberships(Concept concept);
+}
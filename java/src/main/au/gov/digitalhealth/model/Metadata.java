@@ -38,6 +38,16 @@ public class Metadata {
         }
     };
     
+    /**
+     * SNOMED CT 'Is a' relationship type
+     */
+    public final static long IS_A = 116680003L;
+
+    /**
+     * SNOMED CT description type 'Synonym', as opposed to the 'Fully specified name'
+     */
+    public final static long SYNONYM = 900000000000013009L;
+
     /** 
      * SNOMED CT RF2 'active' value
      */
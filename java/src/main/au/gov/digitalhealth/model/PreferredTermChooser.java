@@ -0,0 +1,77 @@
+package au.gov.digitalhealth.model;
+
+import au.gov.digitalhealth.model.Metadata.LanguageAcceptability;
+
+/**
+ * Chooses the en-AU preferred term of a concept from its active descriptions, offered in any order.<p/>
+ *
+ * The term chosen is the smallest of the synonyms the ADRS marks as preferred. Only when there is no preferred
+ * synonym is it the smallest of the other preferred descriptions (eg. a fully specified name), then the smallest of
+ * all the descriptions. Terms are compared with {@link String#compareTo(String)} rather than any database
+ * collation, so the <code>concept_preferred_term</code> table built by the <i>ant db</i> target and every backend
+ * give a concept the same preferred term.<p/>
+ *
+ * An instance is for choosing the term of one concept at a time and is not safe to use from multiple threads.
+ */
+public class PreferredTermChooser {
+
+    private static final int PREFERRED_SYNONYM = 2;
+    private static final int PREFERRED = 1;
+    private static final int OTHER = 0;
+
+    private String term;
+    private int rank = -1;
+
+    /**
+     * Offer an active description of the concept.
+     *
+     * @param descriptionTerm String the term of the description
+     * @param typeId long the description type, eg. {@link Metadata#SYNONYM}
+     * @param acceptability LanguageAcceptability of the description in the ADRS
+     */
+    public void offer(String descriptionTerm, long typeId, LanguageAcceptability acceptability) {
+        int descriptionRank = rank(typeId, acceptability);
+        if (isBetter(descriptionTerm, descriptionRank, term, rank)) {
+            term = descriptionTerm;
+            rank = descriptionRank;
+        }
+    }
+
+    /**
+     * @return String the term chosen from those offered, <code>null</code> if none has been
+     */
+    public String getTerm() {
+        return term;
+    }
+
+    /**
+     * Forget the descriptions offered, to choose the term of another concept.
+     */
+    public void clear() {
+        term = null;
+        rank = -1;
+    }
+
+    /**
+     * @param typeId long the description type
+     * @param acceptability LanguageAcceptability of the description in the ADRS
+     * @return int how preferable a description is before its term is compared, higher is better
+     */
+    public static int rank(long typeId, LanguageAcceptability acceptability) {
+        if (acceptability != LanguageAcceptability.PREFERRED) {
+            return OTHER;
+        }
+        return typeId == Metadata.SYNONYM ? PREFERRED_SYNONYM : PREFERRED;
+    }
+
+    /**
+     * @return boolean whether a description with <code>descriptionTerm</code> and <code>descriptionRank</code>, see
+     *         {@link #rank(long, LanguageAcceptability)}, is chosen over the best so far, <code>null</code> if none
+     */
+    public static boolean isBetter(String descriptionTerm, int descriptionRank, String bestTerm, int bestRank) {
+        if (bestTerm == null || descriptionRank != bestRank) {
+            return bestTerm == null || descriptionRank > bestRank;
+        }
+        return descriptionTerm.compareTo(bestTerm) < 0;
+    }
+}
@@ -0,0 +1,60 @@
+package au.gov.digitalhealth.rf2;
+
+import java.util.Arrays;
+
+/**
+ * A growable array of <code>int</code> keys, with a counting sort to group positions by key.
+ */
+class IntList {
+    private int[] values = new int[1024];
+    private int size;
+
+    void add(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = value;
+    }
+
+    void addAll(IntList other) {
+        for (int i = 0; i < other.size; i++) {
+            add(other.values[i]);
+        }
+    }
+
+    int get(int index) {
+        return values[index];
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param keyCount The number of distinct keys, all values must be less than this
+     * @return The start of each key's group in {@link #groupBy(int)}, with a final entry holding the size
+     */
+    int[] offsets(int keyCount) {
+        int[] offsets = new int[keyCount + 1];
+        for (int i = 0; i < size; i++) {
+            offsets[values[i] + 1]++;
+        }
+        for (int k = 0; k < keyCount; k++) {
+            offsets[k + 1] += offsets[k];
+        }
+        return offsets;
+    }
+
+    /**
+     * @param keyCount The number of distinct keys, all values must be less than this
+     * @return The positions of this list ordered by their value (key), stable within each key
+     */
+    int[] groupBy(int keyCount) {
+        int[] next = offsets(keyCount);
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[next[values[i]]++] = i;
+        }
+        return order;
+    }
+}
@@ -0,0 +1,95 @@
+package au.gov.digitalhealth.rf2;
+
+import java.util.Arrays;
+
+/**
+ * An open addressing hash map from primitive <code>long</code> keys (SCTIDs) to primitive <code>int</code> values
+ * (ordinals), avoiding the boxing and per entry objects of a <code>HashMap&lt;Long, Integer&gt;</code>.<p/>
+ *
+ * Not thread safe while being populated, safe for concurrent reads once populated.
+ */
+public class LongIntHashMap {
+
+    /** Returned by {@link #get(long)} for keys not in the map */
+    public static final int NOT_FOUND = -1;
+
+    private long[] keys;
+    private int[] values;
+    private boolean[] used;
+    private int size;
+
+    public LongIntHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        keys = new long[capacity];
+        values = new int[capacity];
+        used = new boolean[capacity];
+    }
+
+    /**
+     * @param key long
+     * @param value int, must not be negative
+     */
+    public void put(long key, int value) {
+        if ((size + 1) * 2 > keys.length) {
+            resize();
+        }
+        int slot = slot(key);
+        if (!used[slot]) {
+            used[slot] = true;
+            keys[slot] = key;
+            size++;
+        }
+        values[slot] = value;
+    }
+
+    /**
+     * @param key long
+     * @return The value for the <code>key</code>, or {@link #NOT_FOUND}
+     */
+    public int get(long key) {
+        int slot = slot(key);
+        return used[slot] ? values[slot] : NOT_FOUND;
+    }
+
+    public boolean containsKey(long key) {
+        return used[slot(key)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    private int slot(long key) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (used[slot] && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        used = new boolean[oldKeys.length * 2];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+}
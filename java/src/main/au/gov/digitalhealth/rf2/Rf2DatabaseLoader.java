@@ -0,0 +1,779 @@
+package au.gov.digitalhealth.rf2;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import au.gov.digitalhealth.db.DataSource;
+import au.gov.digitalhealth.db.PooledConnection;
+import au.gov.digitalhealth.model.Metadata;
+import au.gov.digitalhealth.model.Metadata.LanguageAcceptability;
+import au.gov.digitalhealth.model.PreferredTermChooser;
+
+/**
+ * Loads RF2 files into the database using the {@link Rf2Parser}.<p/>
+ *
+ * Run by the <i>loadDbData</i> Ant target, it creates the tables and loads every RF2 snapshot file below
+ * <i>rf2.source.dir</i> into them, see {@link #load()}, then builds the <i>concept_preferred_term</i> table, see
+ * {@link #buildPreferredTerms()}. Only standard SQL is used (apart from the MySQL table options when loading MySQL), so
+ * any database with a JDBC driver in the lib directory can be loaded, such as an embedded H2 database for local
+ * testing. H2 locks its catalogue while an index is built, so give it a lock timeout when several tables are loaded
+ * at once, e.g. <code>jdbc:h2:./sct;LOCK_TIMEOUT=600000</code>. Looking concepts up with the <i>jdbc</i> backend
+ * still needs MySQL.
+ * <p/>
+ *
+ * Run by the <i>applyDelta</i> Ant target with the argument <code>delta</code>, it instead applies the RF2 delta
+ * files found below <i>rf2.delta.dir</i> to a database already loaded with the previous release. Each delta row
+ * replaces the row with the same component id, or is added if the component is new, so only the changed rows (and
+ * their index entries) are touched rather than every table being truncated and reloaded. Where a delta holds more
+ * than one row for a component the last row in the file wins. Only the derived <i>concept_preferred_term</i> table is
+ * rebuilt, as any description may have changed.
+ */
+public class Rf2DatabaseLoader {
+
+    /** The number of rows sent to the database in each batch */
+    private static final int BATCH_SIZE = 1000;
+
+    /** The number of rows in each multi-row insert statement when loading a table from scratch */
+    static final int ROWS_PER_INSERT = 100;
+
+    /** Report the progress of loading a table every this many rows */
+    private static final int PROGRESS_ROWS = 1000000;
+
+    /** RF2 effective times are dates, with no time zone, so they are stored as midnight UTC */
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    /** Table options used when loading MySQL, matching the character set and collation of the MySQL schema */
+    private static final String MYSQL_TABLE_OPTIONS = " ENGINE=MyISAM DEFAULT CHARSET=utf8 COLLATE=utf8_unicode_ci";
+
+    /**
+     * How an RF2 column is parsed and bound to its database column.
+     */
+    enum ColumnType {
+        LONG, STRING, ACTIVE, EFFECTIVE_TIME
+    }
+
+    /**
+     * The tables loaded from RF2 files, with their column definitions in RF2 file order, primary key and the
+     * secondary indexes supporting the queries executed by the application.
+     */
+    enum Table {
+        CONCEPTS("concepts", "id bigint not null, effectivetime timestamp not null, active int not null,"
+                + " moduleid bigint not null, definitionstatusid bigint not null",
+                "id, effectivetime", new String[] {"concepts_id_active_idx", "id, active"},
+                ColumnType.LONG, ColumnType.EFFECTIVE_TIME, ColumnType.ACTIVE, ColumnType.LONG, ColumnType.LONG),
+        DESCRIPTIONS("descriptions", "id bigint not null, effectivetime timestamp not null, active int not null,"
+                + " moduleid bigint not null, conceptid bigint not null, languagecode varchar(10) not null,"
+                + " typeid bigint not null, term varchar(500) not null, casesignificanceid bigint not null",
+                "id, effectivetime", new String[] {"descriptions_id_active_idx", "id, active",
+                        "descriptions_concept_id_idx", "conceptid, active"},
+                ColumnType.LONG, ColumnType.EFFECTIVE_TIME, ColumnType.ACTIVE, ColumnType.LONG, ColumnType.LONG,
+                ColumnType.STRING, ColumnType.LONG, ColumnType.STRING, ColumnType.LONG),
+        RELATIONSHIPS("relationships", "id bigint not null, effectivetime timestamp not null, active int not null,"
+                + " moduleid bigint not null, sourceid bigint not null, destinationid bigint not null,"
+                + " relationshipgroup bigint not null, typeid bigint not null, characteristictypeid bigint not null,"
+                + " modifierid bigint not null",
+                "id, effectivetime", new String[0],
+                ColumnType.LONG, ColumnType.EFFECTIVE_TIME, ColumnType.ACTIVE, ColumnType.LONG, ColumnType.LONG,
+                ColumnType.LONG, ColumnType.LONG, ColumnType.LONG, ColumnType.LONG, ColumnType.LONG),
+        CONCEPT_REFSET("concept_refset", "id varchar(36) not null, effectivetime timestamp not null,"
+                + " active int not null, moduleid bigint not null, refsetid bigint not null,"
+                + " referencedconceptid bigint not null",
+                "id, effectivetime", new String[] {"concept_refset_referenced_concept_id_idx", "referencedconceptid",
+                        "concept_refset_refset_id_idx", "refsetid, referencedconceptid"},
+                ColumnType.STRING, ColumnType.EFFECTIVE_TIME, ColumnType.ACTIVE, ColumnType.LONG, ColumnType.LONG,
+                ColumnType.LONG),
+        DESCRIPTION_REFSET("description_refset", "id varchar(36) not null, effectivetime timestamp not null,"
+                + " active int not null, moduleid bigint not null, refsetid bigint not null,"
+                + " referenceddescriptionid bigint not null, valueid bigint not null",
+                "id, effectivetime", new String[] {"description_refset_referenced_description_id_idx",
+                        "referenceddescriptionid"},
+                ColumnType.STRING, ColumnType.EFFECTIVE_TIME, ColumnType.ACTIVE, ColumnType.LONG, ColumnType.LONG,
+                ColumnType.LONG, ColumnType.LONG),
+        IDENTIFIERS("identifiers", "alternativeidentifier varchar(36) not null, effectivetime timestamp not null,"
+                + " active int not null, moduleid bigint not null, identifierschemeid bigint not null,"
+                + " referencedcomponentid bigint not null",
+                "identifierschemeid, alternativeidentifier, effectivetime", new String[0],
+                ColumnType.STRING, ColumnType.EFFECTIVE_TIME, ColumnType.ACTIVE, ColumnType.LONG, ColumnType.LONG,
+                ColumnType.LONG);
+
+        final String tableName;
+        final String definition;
+        final String columns;
+        final String primaryKey;
+        /** The secondary indexes, as pairs of the index name and its columns */
+        final String[] indexes;
+        final ColumnType[] types;
+        final int longCount;
+        final int stringCount;
+
+        private Table(String tableName, String definition, String primaryKey, String[] indexes,
+                ColumnType... types) {
+            this.tableName = tableName;
+            this.definition = definition;
+            this.primaryKey = primaryKey;
+            this.indexes = indexes;
+            this.types = types;
+            StringBuilder names = new StringBuilder();
+            for (String column : definition.split(",")) {
+                String trimmed = column.trim();
+                names.append(names.length() == 0 ? "" : ", ").append(trimmed.substring(0, trimmed.indexOf(' ')));
+            }
+            this.columns = names.toString();
+            int longs = 0;
+            int strings = 0;
+            for (ColumnType type : types) {
+                if (type == ColumnType.LONG) {
+                    longs++;
+                } else if (type == ColumnType.STRING) {
+                    strings++;
+                }
+            }
+            this.longCount = longs;
+            this.stringCount = strings;
+        }
+
+        String insertSql() {
+            return insertSql(1);
+        }
+
+        /**
+         * @return The statement inserting <code>rows</code> rows at once
+         */
+        String insertSql(int rows) {
+            StringBuilder sql = new StringBuilder("insert into ").append(tableName).append(" (").append(columns)
+                    .append(") values ");
+            for (int r = 0; r < rows; r++) {
+                sql.append(r == 0 ? "(" : ", (");
+                for (int i = 0; i < types.length; i++) {
+                    sql.append(i == 0 ? "?" : ", ?");
+                }
+                sql.append(')');
+            }
+            return sql.toString();
+        }
+
+        /**
+         * @param tableOptions String appended to the statement, eg. the storage engine, or empty
+         */
+        String createSql(String tableOptions) {
+            return "create table " + tableName + " (" + definition + ")" + tableOptions;
+        }
+
+        /**
+         * @return The statements adding the primary key then each secondary index
+         */
+        List<String> indexSql() {
+            List<String> sql = new ArrayList<String>();
+            sql.add("alter table " + tableName + " add primary key (" + primaryKey + ")");
+            for (int i = 0; i < indexes.length; i += 2) {
+                sql.add("create index " + indexes[i] + " on " + tableName + " (" + indexes[i + 1] + ")");
+            }
+            return sql;
+        }
+
+        String deleteSql() {
+            return "delete from " + tableName + " where id = ?";
+        }
+    }
+
+    private final DataSource dataSource;
+
+    private final Rf2Files files;
+
+    private final Rf2Parser parser = new Rf2Parser();
+
+    public Rf2DatabaseLoader(DataSource dataSource, Rf2Files files) {
+        this.dataSource = dataSource;
+        this.files = files;
+    }
+
+    /**
+     * Create every table and load it from the snapshot files.<p/>
+     *
+     * The tables are loaded in parallel, <i>db.load.threads</i> at a time and largest first, each by a worker with a
+     * connection of its own. A worker drops and creates its table without any index, streams the rows in with
+     * multi-row inserts sent in batches, committing after each chunk of the files, then adds the primary key and the
+     * secondary indexes, so each index is built once over the loaded rows rather than maintained row by row. The
+     * indexes of one table are built while the other tables are still loading. The rows, time and rate of each table
+     * are reported as it completes.
+     *
+     * @return The number of rows loaded
+     * @throws RuntimeException SQLException database errors.
+     */
+    public long load() throws RuntimeException {
+        List<Table> tables = new ArrayList<Table>(Arrays.asList(Table.values()));
+        Collections.sort(tables, new Comparator<Table>() {
+            public int compare(Table a, Table b) {
+                long difference = getSize(b) - getSize(a);
+                return difference < 0 ? -1 : difference > 0 ? 1 : 0;
+            }
+        });
+
+        int threads = Math.max(1, Math.min(dataSource.getLoadThreads(), tables.size()));
+        // Share the processors between the parsers of the tables loading at once
+        final int parserThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CompletionService<TableLoad> completion = new ExecutorCompletionService<TableLoad>(executor);
+            for (final Table table : tables) {
+                completion.submit(new Callable<TableLoad>() {
+                    public TableLoad call() throws SQLException {
+                        return createAndLoad(table, new Rf2Parser(parserThreads, Rf2Parser.DEFAULT_CHUNK_SIZE));
+                    }
+                });
+            }
+            long rows = 0;
+            for (int i = 0; i < tables.size(); i++) {
+                TableLoad load = completion.take().get();
+                System.out.println(load);
+                rows += load.rows;
+            }
+            return rows;
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause()
+                    : new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return The total size in bytes of the files loaded into the <code>table</code>
+     */
+    private long getSize(Table table) {
+        long size = 0;
+        for (File file : getFiles(table)) {
+            size += file.length();
+        }
+        return size;
+    }
+
+    /**
+     * Create the <code>table</code> on a connection of its own, load it from its files then index it.
+     *
+     * @throws SQLException database errors
+     */
+    private TableLoad createAndLoad(final Table table, Rf2Parser tableParser) throws SQLException {
+        final TableLoad load = new TableLoad(table);
+        final Connection connection = dataSource.openConnection();
+        try {
+            Statement statement = connection.createStatement();
+            try {
+                statement.execute("drop table if exists " + table.tableName);
+                statement.execute(table.createSql(tableOptions(connection)));
+            } finally {
+                statement.close();
+            }
+            connection.setAutoCommit(false);
+
+            long start = System.currentTimeMillis();
+            final PreparedStatement multiRowInsert = connection.prepareStatement(table.insertSql(ROWS_PER_INSERT));
+            final PreparedStatement insert = connection.prepareStatement(table.insertSql());
+            try {
+                tableParser.parse(getFiles(table), new Rf2Parser.ChunkHandler<TableRows>() {
+                    public TableRows newChunk() {
+                        return new TableRows(table);
+                    }
+                    public void processRow(TableRows chunk, Rf2Row row) {
+                        chunk.add(row);
+                    }
+                    public void chunkComplete(TableRows chunk) {
+                        try {
+                            chunk.insertMultiRow(multiRowInsert, insert);
+                            connection.commit();
+                        } catch (SQLException e) {
+                            throw new RuntimeException("Unable to load " + table.tableName, e);
+                        }
+                        long before = load.rows;
+                        load.rows += chunk.size;
+                        if (load.rows / PROGRESS_ROWS > before / PROGRESS_ROWS) {
+                            System.out.println("Loading " + table.tableName + ": " + load.rows + " rows");
+                        }
+                    }
+                });
+            } finally {
+                multiRowInsert.close();
+                insert.close();
+            }
+            load.loadMillis = System.currentTimeMillis() - start;
+
+            start = System.currentTimeMillis();
+            connection.setAutoCommit(true);
+            statement = connection.createStatement();
+            try {
+                for (String sql : table.indexSql()) {
+                    statement.execute(sql);
+                }
+            } finally {
+                statement.close();
+            }
+            load.indexMillis = System.currentTimeMillis() - start;
+            return load;
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * Denormalise the en-AU preferred term of every active concept into one row per concept of the
+     * <i>concept_preferred_term</i> table, so displaying a concept (eg. the name of a reference set) is a single primary
+     * key read rather than a join over all its descriptions.<p/>
+     *
+     * The term is chosen from the active descriptions and their active ADRS rows by {@link PreferredTermChooser}, as the
+     * backends do. The descriptions are read in concept order and the terms compared in Java rather than with
+     * <code>min(term)</code>, as a case insensitive collation such as MySQL's <code>utf8_unicode_ci</code> would
+     * choose a different term. Run once the tables are loaded and indexed, and again whenever the descriptions or ADRS
+     * change.
+     *
+     * @return The number of concepts with a preferred term
+     * @throws RuntimeException SQLException database errors.
+     */
+    public int buildPreferredTerms() throws RuntimeException {
+        long start = System.currentTimeMillis();
+        try {
+            Connection connection = dataSource.openConnection();
+            try {
+                Statement statement = connection.createStatement();
+                try {
+                    statement.execute("drop table if exists concept_preferred_term");
+                    statement.execute("create table concept_preferred_term (conceptid bigint not null,"
+                            + " term varchar(500) not null, primary key (conceptid))" + tableOptions(connection));
+                } finally {
+                    statement.close();
+                }
+                // The descriptions are streamed on a connection of their own while the terms are inserted on this one
+                Connection descriptionConnection = dataSource.openConnection();
+                try {
+                    return insertPreferredTerms(descriptionConnection, connection, start);
+                } finally {
+                    descriptionConnection.close();
+                }
+            } finally {
+                connection.close();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Unable to build concept_preferred_term", e);
+        }
+    }
+
+    /**
+     * Read the active descriptions of the active concepts in concept order from <code>descriptionConnection</code>
+     * and insert the preferred term of each concept on <code>connection</code>.
+     *
+     * @return The number of concepts with a preferred term
+     * @throws SQLException database errors
+     */
+    private int insertPreferredTerms(Connection descriptionConnection, Connection connection, long start)
+            throws SQLException {
+        Statement query = descriptionConnection.createStatement(ResultSet.TYPE_FORWARD_ONLY,
+                ResultSet.CONCUR_READ_ONLY);
+        // MySQL only streams the rows rather than reading them all into memory with this fetch size
+        query.setFetchSize(isMySql(descriptionConnection) ? Integer.MIN_VALUE : BATCH_SIZE);
+        connection.setAutoCommit(false);
+        PreparedStatement insert = connection.prepareStatement(
+                "insert into concept_preferred_term (conceptid, term) values (?, ?)");
+        try {
+            ResultSet row = query.executeQuery("select description.conceptid, description.term, description.typeid,"
+                    + " adrs.valueid"
+                    + " from descriptions description"
+                    + " join concepts concept on concept.id = description.conceptid"
+                    + " left join description_refset adrs on adrs.referenceddescriptionid = description.id"
+                    + "     and adrs.active = " + Metadata.ACTIVE_STATUS_VALUE
+                    + " where description.active = " + Metadata.ACTIVE_STATUS_VALUE
+                    + " and concept.active = " + Metadata.ACTIVE_STATUS_VALUE
+                    + " order by description.conceptid");
+            PreferredTermChooser chooser = new PreferredTermChooser();
+            long conceptId = 0;
+            int rows = 0;
+            while (row.next()) {
+                if (chooser.getTerm() != null && row.getLong(1) != conceptId) {
+                    addPreferredTerm(insert, conceptId, chooser.getTerm(), ++rows);
+                    chooser.clear();
+                }
+                conceptId = row.getLong(1);
+                chooser.offer(row.getString(2), row.getLong(3), LanguageAcceptability.forSctId(row.getLong(4)));
+            }
+            row.close();
+            if (chooser.getTerm() != null) {
+                addPreferredTerm(insert, conceptId, chooser.getTerm(), ++rows);
+            }
+            insert.executeBatch();
+            connection.commit();
+            System.out.println("Built " + rows + " concept_preferred_term rows in "
+                    + (System.currentTimeMillis() - start) + "ms");
+            return rows;
+        } catch (SQLException e) {
+            rollback(connection, e);
+            throw e;
+        } finally {
+            insert.close();
+            query.close();
+        }
+    }
+
+    /**
+     * Add the <code>term</code> of the concept to the batch of <code>insert</code>, sending the batch when full.
+     *
+     * @param rows int the number of rows added, including this one
+     */
+    private static void addPreferredTerm(PreparedStatement insert, long conceptId, String term, int rows)
+            throws SQLException {
+        insert.setLong(1, conceptId);
+        insert.setString(2, term);
+        insert.addBatch();
+        if (rows % BATCH_SIZE == 0) {
+            insert.executeBatch();
+        }
+    }
+
+    /**
+     * @return Whether the <code>connection</code> is to MySQL
+     */
+    private static boolean isMySql(Connection connection) throws SQLException {
+        return "MySQL".equalsIgnoreCase(connection.getMetaData().getDatabaseProductName());
+    }
+
+    /**
+     * @return The options to create tables with on the <code>connection</code>: the MySQL table options when loading
+     *         MySQL, otherwise none
+     */
+    private static String tableOptions(Connection connection) throws SQLException {
+        return isMySql(connection) ? MYSQL_TABLE_OPTIONS : "";
+    }
+
+    /**
+     * The rows loaded into a table and the time taken.
+     */
+    static class TableLoad {
+        final Table table;
+        long rows;
+        long loadMillis;
+        long indexMillis;
+
+        TableLoad(Table table) {
+            this.table = table;
+        }
+
+        @Override
+        public String toString() {
+            return "Loaded " + rows + " " + table.tableName + " rows in " + loadMillis + "ms ("
+                    + (rows * 1000 / Math.max(1, loadMillis)) + " rows/s), indexed in " + indexMillis + "ms";
+        }
+    }
+
+    /**
+     * Apply the delta files to the <i>concepts</i>, <i>descriptions</i>, <i>relationships</i>, <i>concept_refset</i>
+     * and <i>description_refset</i> tables, replacing each changed component by id.
+     *
+     * @return The number of rows applied
+     * @throws RuntimeException SQLException database errors.
+     */
+    public int applyDelta() throws RuntimeException {
+        int rows = 0;
+        for (Table table : Table.values()) {
+            if (table == Table.IDENTIFIERS) {
+                // Not keyed by a component id, and not read by the application
+                continue;
+            }
+            long start = System.currentTimeMillis();
+            int tableRows = upsertTable(table);
+            System.out.println("Applied " + tableRows + " " + table.tableName + " rows in "
+                    + (System.currentTimeMillis() - start) + "ms");
+            rows += tableRows;
+        }
+        return rows;
+    }
+
+    /**
+     * @return The files loaded into the <code>table</code>
+     */
+    private List<File> getFiles(Table table) {
+        switch (table) {
+            case CONCEPTS:
+                return files.getConceptFiles();
+            case DESCRIPTIONS:
+                return files.getDescriptionFiles();
+            case RELATIONSHIPS:
+                return files.getRelationshipFiles();
+            case CONCEPT_REFSET:
+                return files.getRefsetFiles();
+            case IDENTIFIERS:
+                return files.getIdentifierFiles();
+            default:
+                return files.getLanguageRefsetFiles();
+        }
+    }
+
+    /**
+     * Apply the delta files of the <code>table</code>, replacing the existing rows with the same ids. Each chunk is
+     * deleted and inserted in one transaction, as {@link #createAndLoad} commits each chunk it loads, so a failure
+     * rolls back the chunk in progress rather than leaving its components deleted but not reinserted.
+     *
+     * @param table Table
+     * @return The number of rows applied
+     * @throws RuntimeException SQLException database errors.
+     */
+    private int upsertTable(final Table table) throws RuntimeException {
+        PooledConnection pooledConnection = null;
+        try {
+            pooledConnection = dataSource.acquire();
+            final Connection connection = pooledConnection.getConnection();
+            connection.setAutoCommit(false);
+
+            final PreparedStatement insert = connection.prepareStatement(table.insertSql());
+            final PreparedStatement delete = connection.prepareStatement(table.deleteSql());
+            final int[] rowCount = new int[1];
+            try {
+                parser.parse(getFiles(table), new Rf2Parser.ChunkHandler<TableRows>() {
+                    public TableRows newChunk() {
+                        return new TableRows(table);
+                    }
+                    public void processRow(TableRows chunk, Rf2Row row) {
+                        chunk.add(row);
+                    }
+                    public void chunkComplete(TableRows chunk) {
+                        try {
+                            int rows = chunk.upsert(delete, insert);
+                            connection.commit();
+                            rowCount[0] += rows;
+                        } catch (SQLException e) {
+                            rollback(connection, e);
+                            throw new RuntimeException("Unable to load " + table.tableName, e);
+                        }
+                    }
+                });
+            } finally {
+                insert.close();
+                delete.close();
+                // Pooled, so handed back as it was acquired
+                connection.setAutoCommit(true);
+            }
+            return rowCount[0];
+
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (pooledConnection != null) {
+                dataSource.release(pooledConnection);
+            }
+        }
+    }
+
+    /**
+     * Roll back the transaction in progress after <code>cause</code>, keeping it as the error reported.
+     */
+    private static void rollback(Connection connection, SQLException cause) {
+        try {
+            connection.rollback();
+        } catch (SQLException e) {
+            cause.setNextException(e);
+        }
+    }
+
+    /**
+     * Convert an RF2 effective time (yyyymmdd) to a timestamp at midnight UTC on that date. Bound with a UTC calendar,
+     * see {@link TableRows#bind}, the database holds that date whatever the time zone of the host running the load.
+     */
+    static Timestamp toTimestamp(int effectiveTime) {
+        Calendar calendar = Calendar.getInstance(UTC);
+        calendar.clear();
+        calendar.set(effectiveTime / 10000, (effectiveTime / 100) % 100 - 1, effectiveTime % 100);
+        return new Timestamp(calendar.getTimeInMillis());
+    }
+
+    /**
+     * The rows parsed from one chunk of a table's files. The values of each {@link ColumnType} are held row by row
+     * in a list of that type, so the <code>LONG</code> columns of row <code>r</code> start at
+     * <code>r * table.longCount</code> in <code>longs</code>.
+     */
+    static class TableRows {
+        final Table table;
+        final LongList longs = new LongList();
+        final List<String> strings = new ArrayList<String>();
+        final IntList effectiveTimes = new IntList();
+        final IntList active = new IntList();
+        int size;
+
+        /** The timestamp last bound, and the effective time it was made from */
+        private int lastEffectiveTime = -1;
+        private Timestamp timestamp;
+        /** Calendar the timestamps are bound with, one per instance as a driver may change it while binding */
+        private final Calendar utcCalendar = Calendar.getInstance(UTC);
+
+        TableRows(Table table) {
+            this.table = table;
+        }
+
+        void add(Rf2Row row) {
+            if (row.getColumnCount() < table.types.length) {
+                throw new RuntimeException("Expected " + table.types.length + " columns for " + table.tableName
+                        + " but found " + row.getColumnCount());
+            }
+            for (int c = 0; c < table.types.length; c++) {
+                switch (table.types[c]) {
+                    case LONG:
+                        longs.add(row.getLong(c));
+                        break;
+                    case STRING:
+                        strings.add(row.getString(c));
+                        break;
+                    case ACTIVE:
+                        active.add(row.isActive() ? 1 : 0);
+                        break;
+                    default:
+                        effectiveTimes.add(row.getInt(c));
+                }
+            }
+            size++;
+        }
+
+        /**
+         * Delete the existing rows with the same ids then insert these rows, only the last for each id.
+         */
+        int upsert(PreparedStatement delete, PreparedStatement insert) throws SQLException {
+            boolean[] latest = new boolean[size];
+            Set<String> ids = new HashSet<String>();
+            for (int r = size - 1; r >= 0; r--) {
+                latest[r] = ids.add(getId(r));
+            }
+
+            for (int r = 0, batched = 0; r < size; r++) {
+                if (latest[r]) {
+                    if (table.types[0] == ColumnType.LONG) {
+                        delete.setLong(1, longs.get(r * table.longCount));
+                    } else {
+                        delete.setString(1, strings.get(r * table.stringCount));
+                    }
+                    delete.addBatch();
+                    if (++batched % BATCH_SIZE == 0) {
+                        delete.executeBatch();
+                    }
+                }
+            }
+            delete.executeBatch();
+            return insert(insert, latest);
+        }
+
+        /**
+         * Insert these rows, or only those flagged in <code>included</code> if not <code>null</code>.
+         */
+        int insert(PreparedStatement insert, boolean[] included) throws SQLException {
+            int inserted = 0;
+            for (int r = 0; r < size; r++) {
+                if (included != null && !included[r]) {
+                    continue;
+                }
+                bind(insert, 0, r);
+                insert.addBatch();
+                if (++inserted % BATCH_SIZE == 0) {
+                    insert.executeBatch();
+                }
+            }
+            insert.executeBatch();
+            return inserted;
+        }
+
+        /**
+         * Insert all these rows, {@link Rf2DatabaseLoader#ROWS_PER_INSERT} at a time with <code>multiRowInsert</code>
+         * and the rows left over one at a time with <code>insert</code>.
+         */
+        void insertMultiRow(PreparedStatement multiRowInsert, PreparedStatement insert) throws SQLException {
+            int multiRowEnd = size - size % ROWS_PER_INSERT;
+            int statements = 0;
+            for (int r = 0; r < multiRowEnd; r += ROWS_PER_INSERT) {
+                for (int i = 0; i < ROWS_PER_INSERT; i++) {
+                    bind(multiRowInsert, i * table.types.length, r + i);
+                }
+                multiRowInsert.addBatch();
+                if (++statements % (BATCH_SIZE / ROWS_PER_INSERT) == 0) {
+                    multiRowInsert.executeBatch();
+                }
+            }
+            multiRowInsert.executeBatch();
+            for (int r = multiRowEnd; r < size; r++) {
+                bind(insert, 0, r);
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+
+        /**
+         * Bind the columns of row <code>r</code> to the parameters of the <code>statement</code> following the first
+         * <code>offset</code>.
+         */
+        private void bind(PreparedStatement statement, int offset, int r) throws SQLException {
+            int longIndex = r * table.longCount;
+            int stringIndex = r * table.stringCount;
+            for (int c = 0; c < table.types.length; c++) {
+                int parameter = offset + c + 1;
+                switch (table.types[c]) {
+                    case LONG:
+                        statement.setLong(parameter, longs.get(longIndex++));
+                        break;
+                    case STRING:
+                        statement.setString(parameter, strings.get(stringIndex++));
+                        break;
+                    case ACTIVE:
+                        statement.setInt(parameter, active.get(r));
+                        break;
+                    default:
+                        // Rows of a chunk mostly share an effective time, so the timestamp is only made when it changes
+                        if (effectiveTimes.get(r) != lastEffectiveTime) {
+                            lastEffectiveTime = effectiveTimes.get(r);
+                            timestamp = toTimestamp(lastEffectiveTime);
+                        }
+                        statement.setTimestamp(parameter, timestamp, utcCalendar);
+                }
+            }
+        }
+
+        String getId(int row) {
+            return table.types[0] == ColumnType.LONG ? String.valueOf(longs.get(row * table.longCount))
+                    : strings.get(row * table.stringCount);
+        }
+    }
+
+    public static void main(String... args) {
+        DataSource dataSource = new DataSource();
+        long start = System.currentTimeMillis();
+
+        if (args.length > 0 && "delta".equals(args[0])) {
+            File deltaDir = new File(dataSource.getRf2DeltaDir());
+            Rf2DatabaseLoader loader = new Rf2DatabaseLoader(dataSource, Rf2Files.locateDelta(deltaDir));
+            int rows = loader.applyDelta();
+            loader.buildPreferredTerms();
+            System.out.println("Applied " + rows + " delta rows in " + (System.currentTimeMillis() - start) + "ms");
+        } else {
+            File sourceDir = new File(dataSource.getRf2SourceDir());
+            Rf2DatabaseLoader loader = new Rf2DatabaseLoader(dataSource, Rf2Files.locate(sourceDir));
+            long rows = loader.load();
+            loader.buildPreferredTerms();
+            long elapsed = Math.max(1, System.currentTimeMillis() - start);
+            System.out.println("Loaded " + rows + " rows in " + elapsed + "ms (" + (rows * 1000 / elapsed)
+                    + " rows/s)");
+        }
+        DataSource.close();
+    }
+}
@@ -0,0 +1,171 @@
+package au.gov.digitalhealth.rf2;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Locates the RF2 snapshot or delta files within an extracted SCT-AU terminology bundle.<p/>
+ *
+ * The files are found by the start of their names, since the file names change every release. Only the files within
+ * a directory named for the release type (Snapshot or Delta) are used.
+ */
+public class Rf2Files {
+
+    /** The release type of a full snapshot: the current state of every component */
+    public static final String SNAPSHOT = "Snapshot";
+
+    /** The release type of a delta: only the components changed since the previous release */
+    public static final String DELTA = "Delta";
+
+    private final String releaseType;
+
+    private final List<File> conceptFiles = new ArrayList<File>();
+    private final List<File> descriptionFiles = new ArrayList<File>();
+    private final List<File> relationshipFiles = new ArrayList<File>();
+    private final List<File> languageRefsetFiles = new ArrayList<File>();
+    private final List<File> refsetFiles = new ArrayList<File>();
+    private final List<File> identifierFiles = new ArrayList<File>();
+
+    private Rf2Files(String releaseType) {
+        this.releaseType = releaseType;
+    }
+
+    /**
+     * Find the snapshot files below the <code>sourceDir</code>.
+     *
+     * @param sourceDir The extracted terminology bundle
+     * @return Rf2Files
+     * @throws RuntimeException if the directory, or any of the required files, cannot be found.
+     */
+    public static Rf2Files locate(File sourceDir) {
+        Rf2Files files = locate(sourceDir, SNAPSHOT);
+
+        files.require(files.conceptFiles, "sct2_Concept*");
+        files.require(files.descriptionFiles, "sct2_Description*");
+        files.require(files.languageRefsetFiles, "der2_cRefset_LanguageSnapshot-en-AU*");
+        return files;
+    }
+
+    /**
+     * Find the delta files below the <code>sourceDir</code>. Unlike a snapshot, a delta may leave out the files of
+     * any component type that has not changed.
+     *
+     * @param sourceDir The extracted terminology bundle
+     * @return Rf2Files
+     * @throws RuntimeException if the directory cannot be found.
+     */
+    public static Rf2Files locateDelta(File sourceDir) {
+        return locate(sourceDir, DELTA);
+    }
+
+    private static Rf2Files locate(File sourceDir, String releaseType) {
+        if (!sourceDir.isDirectory()) {
+            throw new RuntimeException("RF2 source directory not found: " + sourceDir.getAbsolutePath());
+        }
+        Rf2Files files = new Rf2Files(releaseType);
+        files.scan(sourceDir, false);
+
+        Collections.sort(files.conceptFiles);
+        Collections.sort(files.descriptionFiles);
+        Collections.sort(files.relationshipFiles);
+        Collections.sort(files.languageRefsetFiles);
+        Collections.sort(files.refsetFiles);
+        Collections.sort(files.identifierFiles);
+        return files;
+    }
+
+    private void scan(File dir, boolean inRelease) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                scan(child, inRelease || releaseType.equals(child.getName()));
+            } else if (inRelease) {
+                String name = child.getName();
+                if (name.startsWith("sct2_Concept")) {
+                    conceptFiles.add(child);
+                } else if (name.startsWith("sct2_Description")) {
+                    descriptionFiles.add(child);
+                } else if (name.startsWith("sct2_Relationship") && !name.startsWith("sct2_RelationshipConcrete")) {
+                    // Concrete value relationships have a value in place of the destination concept
+                    relationshipFiles.add(child);
+                } else if (name.startsWith("der2_cRefset_Language" + releaseType + "-en-AU")) {
+                    languageRefsetFiles.add(child);
+                } else if (name.startsWith("der2_Refset_") && name.endsWith(".txt")) {
+                    refsetFiles.add(child);
+                } else if (name.startsWith("sct2_Identifier")) {
+                    identifierFiles.add(child);
+                }
+            }
+        }
+    }
+
+    private void require(List<File> files, String pattern) {
+        if (files.isEmpty()) {
+            throw new RuntimeException("No RF2 " + releaseType.toLowerCase() + " file matching " + pattern + " found");
+        }
+    }
+
+    /** @return {@link #SNAPSHOT} or {@link #DELTA} */
+    public String getReleaseType() {
+        return releaseType;
+    }
+
+    /** @return The sct2_Concept files */
+    public List<File> getConceptFiles() {
+        return conceptFiles;
+    }
+
+    /** @return The sct2_Description files */
+    public List<File> getDescriptionFiles() {
+        return descriptionFiles;
+    }
+
+    /** @return The sct2_Relationship (inferred relationship) files */
+    public List<File> getRelationshipFiles() {
+        return relationshipFiles;
+    }
+
+    /** @return The Australian Dialect Reference Set (ADRS) files */
+    public List<File> getLanguageRefsetFiles() {
+        return languageRefsetFiles;
+    }
+
+    /** @return The simple (der2_Refset_) reference set files */
+    public List<File> getRefsetFiles() {
+        return refsetFiles;
+    }
+
+    /** @return The sct2_Identifier (alternative identifier) files */
+    public List<File> getIdentifierFiles() {
+        return identifierFiles;
+    }
+
+    /**
+     * Get the effective time of the release, taken from the concept file names which end with it, eg.
+     * sct2_Concept_Snapshot_AU1000036_20240131.txt. The latest is used if the files differ.
+     *
+     * @return String effective time as yyyyMMdd
+     * @throws RuntimeException if no concept file name ends with an effective time.
+     */
+    public String getEffectiveTime() {
+        String effectiveTime = null;
+        for (File file : conceptFiles) {
+            String name = file.getName();
+            int end = name.lastIndexOf('.') < 0 ? name.length() : name.lastIndexOf('.');
+            String candidate = name.substring(name.lastIndexOf('_') + 1, end);
+            if (candidate.matches("\\d{8}") && (effectiveTime == null || candidate.compareTo(effectiveTime) > 0)) {
+                effectiveTime = candidate;
+            }
+        }
+        if (effectiveTime == null) {
+            throw new RuntimeException("No RF2 " + releaseType.toLowerCase()
+                    + " concept file name ends with an effective time");
+        }
+        return effectiveTime;
+    }
+}
@@ -0,0 +1,207 @@
+package au.gov.digitalhealth.rf2;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Parses RF2 release files in parallel.<p/>
+ *
+ * Each file is split into chunks of roughly {@link #DEFAULT_CHUNK_SIZE} bytes, ending on a line boundary, and
+ * each chunk is memory mapped and parsed on a pool of worker threads (one per processor by default). Rows are
+ * presented as an {@link Rf2Row} which parses column values from the mapped bytes on demand.<p/>
+ *
+ * Several files (eg. every der2_Refset_ file) can be parsed as one stream of rows, the header line of each file
+ * is skipped.
+ */
+public class Rf2Parser {
+
+    /** The default target number of bytes in each chunk */
+    public static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+
+    /** Longest line expected in an RF2 file, used when searching for the line boundary at the end of a chunk */
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    /**
+     * Receives the rows of the files being parsed.<p/>
+     *
+     * Rows are collected into a chunk object (eg. a list of the values the handler is interested in) on the worker
+     * threads, so {@link #processRow(Object, Rf2Row)} must only modify the chunk it is given. The completed chunks
+     * are then handed back in file order on the thread that called {@link Rf2Parser#parse(List, ChunkHandler)}.
+     *
+     * @param <T> The type of object rows are collected into
+     */
+    public interface ChunkHandler<T> {
+
+        /** @return A new, empty chunk to collect rows into */
+        T newChunk();
+
+        /** Collect a row into the <code>chunk</code>. Called on a worker thread. */
+        void processRow(T chunk, Rf2Row row);
+
+        /** Receive a chunk once all its rows are processed. Called in file order on the parsing thread. */
+        void chunkComplete(T chunk);
+    }
+
+    private final int threads;
+
+    private final int chunkSize;
+
+    public Rf2Parser() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param threads The number of worker threads to parse with
+     * @param chunkSize The target number of bytes in each chunk
+     */
+    public Rf2Parser(int threads, int chunkSize) {
+        this.threads = Math.max(1, threads);
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    /**
+     * Parse the <code>files</code> as a single stream of rows.
+     *
+     * @param files List of RF2 files
+     * @param handler ChunkHandler
+     * @throws RuntimeException IOException file errors, or any error thrown by the handler.
+     */
+    public <T> void parse(List<File> files, final ChunkHandler<T> handler) throws RuntimeException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<RandomAccessFile> openFiles = new ArrayList<RandomAccessFile>();
+        try {
+            // Bound the chunks in flight so completed chunks waiting to be handed back do not pile up in memory
+            LinkedList<Future<T>> pending = new LinkedList<Future<T>>();
+            for (File file : files) {
+                RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+                openFiles.add(randomAccessFile);
+                final FileChannel channel = randomAccessFile.getChannel();
+
+                long start = 0;
+                boolean first = true;
+                while (start < channel.size()) {
+                    final long chunkStart = start;
+                    final long chunkEnd = nextLineBoundary(channel, Math.min(start + chunkSize, channel.size()));
+                    final boolean skipHeader = first;
+                    pending.add(executor.submit(new Callable<T>() {
+                        public T call() throws IOException {
+                            return parseChunk(channel, chunkStart, chunkEnd, skipHeader, handler);
+                        }
+                    }));
+                    if (pending.size() >= threads * 2) {
+                        handler.chunkComplete(pending.removeFirst().get());
+                    }
+                    start = chunkEnd;
+                    first = false;
+                }
+            }
+            while (!pending.isEmpty()) {
+                handler.chunkComplete(pending.removeFirst().get());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to read RF2 file", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted parsing RF2 files", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException("Unable to parse RF2 file", e.getCause());
+        } finally {
+            executor.shutdownNow();
+            for (RandomAccessFile openFile : openFiles) {
+                try {
+                    openFile.close();
+                } catch (IOException e) {
+                    System.err.println("Unable to close RF2 file!");
+                }
+            }
+        }
+    }
+
+    /**
+     * Convenience for parsing a single file, see {@link #parse(List, ChunkHandler)}.
+     */
+    public <T> void parse(File file, ChunkHandler<T> handler) throws RuntimeException {
+        List<File> files = new ArrayList<File>(1);
+        files.add(file);
+        parse(files, handler);
+    }
+
+    /**
+     * @return The position just after the first line feed at or after <code>position</code>, or the end of file
+     */
+    private static long nextLineBoundary(FileChannel channel, long position) throws IOException {
+        long size = channel.size();
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_LINE_LENGTH);
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    private static <T> T parseChunk(FileChannel channel, long start, long end, boolean skipHeader,
+            ChunkHandler<T> handler) throws IOException {
+
+        T chunk = handler.newChunk();
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        int limit = buffer.limit();
+        Rf2Row row = new Rf2Row();
+
+        int position = 0;
+        if (skipHeader) {
+            while (position < limit && buffer.get(position++) != '\n') {
+                // skip the header line
+            }
+        }
+
+        while (position < limit) {
+            row.reset(buffer);
+            int columnStart = position;
+            int lineEnd = position;
+            while (lineEnd < limit) {
+                byte b = buffer.get(lineEnd);
+                if (b == '\n') {
+                    break;
+                }
+                if (b == '\t') {
+                    row.addColumn(columnStart, lineEnd);
+                    columnStart = lineEnd + 1;
+                }
+                lineEnd++;
+            }
+            int columnEnd = lineEnd;
+            if (columnEnd > columnStart && buffer.get(columnEnd - 1) == '\r') {
+                columnEnd--;
+            }
+            row.addColumn(columnStart, columnEnd);
+
+            if (lineEnd > position && !(lineEnd == position + 1 && buffer.get(position) == '\r')) {
+                handler.processRow(chunk, row);
+            }
+            position = lineEnd + 1;
+        }
+
+        return chunk;
+    }
+}
@@ -0,0 +1,121 @@
+package au.gov.digitalhealth.rf2;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * A cursor over the current row of an RF2 file being parsed by {@link Rf2Parser}.<p/>
+ *
+ * The row only records where each tab separated column starts and ends within the memory mapped file, and the
+ * column values are parsed from the bytes when they are requested. Numeric columns are therefore read without
+ * allocating, and a <code>String</code> is only created for the columns a handler actually asks for as text.<p/>
+ *
+ * A row is reused for every line of a chunk so it must not be retained, or used outside
+ * {@link Rf2Parser.ChunkHandler#processRow(Object, Rf2Row)}.
+ */
+public class Rf2Row {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private ByteBuffer buffer;
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private int columnCount;
+    private byte[] scratch = new byte[256];
+
+    void reset(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.columnCount = 0;
+    }
+
+    void addColumn(int start, int end) {
+        if (columnCount == starts.length) {
+            starts = Arrays.copyOf(starts, columnCount * 2);
+            ends = Arrays.copyOf(ends, columnCount * 2);
+        }
+        starts[columnCount] = start;
+        ends[columnCount] = end;
+        columnCount++;
+    }
+
+    /**
+     * @return The number of columns in the row
+     */
+    public int getColumnCount() {
+        return columnCount;
+    }
+
+    /**
+     * @return <code>true</code> if the RF2 <i>active</i> column (the third column of every RF2 file) is 1
+     */
+    public boolean isActive() {
+        return length(2) == 1 && buffer.get(starts[2]) == '1';
+    }
+
+    /**
+     * Parse a column holding an SCTID or other integer, eg. the <i>id</i> column of a concept file.
+     *
+     * @param column zero based column index
+     * @return long
+     * @throws NumberFormatException if the column is empty or not a decimal integer
+     */
+    public long getLong(int column) throws NumberFormatException {
+        checkColumn(column);
+        int start = starts[column];
+        int end = ends[column];
+        if (start == end) {
+            throw new NumberFormatException("Empty column " + column);
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Invalid number in column " + column + ": " + getString(column));
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Parse a column holding a small integer, eg. the <i>effectiveTime</i> column as yyyymmdd.
+     *
+     * @param column zero based column index
+     * @return int
+     * @throws NumberFormatException if the column is empty or not a decimal integer
+     */
+    public int getInt(int column) throws NumberFormatException {
+        return (int) getLong(column);
+    }
+
+    /**
+     * Decode a text column, eg. the <i>term</i> of a description. This allocates a new String.
+     *
+     * @param column zero based column index
+     * @return String
+     */
+    public String getString(int column) {
+        checkColumn(column);
+        int length = length(column);
+        if (length > scratch.length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        int start = starts[column];
+        for (int i = 0; i < length; i++) {
+            scratch[i] = buffer.get(start + i);
+        }
+        return new String(scratch, 0, length, UTF8);
+    }
+
+    private int length(int column) {
+        return ends[column] - starts[column];
+    }
+
+    private void checkColumn(int column) {
+        if (column >= columnCount) {
+            throw new IllegalArgumentException(
+                "Column " + column + " requested from an RF2 row with " + columnCount + " columns");
+        }
+    }
+}
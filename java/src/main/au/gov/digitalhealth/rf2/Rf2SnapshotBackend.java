@@ -0,0 +1,529 @@
+package au.gov.digitalhealth.rf2;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import au.gov.digitalhealth.db.FetchPlan;
+import au.gov.digitalhealth.db.MemberDescriptionHandler;
+import au.gov.digitalhealth.db.TerminologyBackend;
+import au.gov.digitalhealth.index.PrefixIndex;
+import au.gov.digitalhealth.index.RefsetMembershipIndex;
+import au.gov.digitalhealth.index.SubsumptionIndex;
+import au.gov.digitalhealth.index.Suggestions;
+import au.gov.digitalhealth.index.TrigramIndex;
+import au.gov.digitalhealth.model.Concept;
+import au.gov.digitalhealth.model.ConceptLoader;
+import au.gov.digitalhealth.model.Metadata;
+import au.gov.digitalhealth.model.Metadata.LanguageAcceptability;
+import au.gov.digitalhealth.model.PreferredTermChooser;
+
+/**
+ * A {@link TerminologyBackend} that loads the RF2 snapshot files straight into memory, bypassing the database.<p/>
+ *
+ * Only the content used by the finder is kept: active concepts, their active descriptions with ADRS acceptability,
+ * active memberships of the simple (der2_Refset_) reference sets, and active inferred is-a relationships. Concepts are identified internally by an
+ * ordinal, their position in SCTID order, and everything else is held in primitive arrays indexed by ordinal:
+ * <ul>
+ * <li>the descriptions of concept <code>c</code> are at <code>descriptionOffsets[c]</code> up to (excluding)
+ * <code>descriptionOffsets[c + 1]</code> in <code>terms</code> and <code>acceptabilities</code>, and are
+ * searched through a {@link TrigramIndex}, and a {@link PrefixIndex} for suggestions
+ * <li>the preferred term of concept <code>c</code>, chosen once on loading by a {@link PreferredTermChooser}, is
+ * <code>terms[preferredDescriptions[c]]</code>
+ * <li>the reference sets of concept <code>c</code> are likewise at <code>refsetOffsets[c]</code> in
+ * <code>conceptRefsetIds</code>, sorted
+ * <li>the members of the reference set at index <code>r</code> are at <code>memberOffsets[r]</code> in
+ * <code>memberOrdinals</code>, sorted and so in SCTID order
+ * <li>the is-a relationship <code>i</code> is from the concept <code>isAConcepts[i]</code> to its parent
+ * <code>isAParents[i]</code>, in file order
+ * </ul>
+ * The content is immutable once loaded so the backend is safe to use from multiple threads.
+ */
+public class Rf2SnapshotBackend implements TerminologyBackend {
+
+    private static final LanguageAcceptability[] ACCEPTABILITIES = LanguageAcceptability.values();
+
+    /** Active concept SCTIDs, sorted. The index of a concept is its ordinal. */
+    private final long[] conceptIds;
+    private final LongIntHashMap conceptOrdinals;
+
+    private final int[] descriptionOffsets;
+    private final String[] terms;
+    /** Substring index over the terms */
+    private final TrigramIndex termIndex;
+    /** Word prefix index over the terms */
+    private final PrefixIndex prefixIndex;
+    /** {@link LanguageAcceptability} ordinal of each description */
+    private final byte[] acceptabilities;
+    /** The description with the en-AU preferred term of each concept, -1 for a concept without descriptions */
+    private final int[] preferredDescriptions;
+
+    private final int[] refsetOffsets;
+    private final long[] conceptRefsetIds;
+
+    /** Reference set SCTIDs, sorted. The index of a reference set is its position. */
+    private final long[] refsetIds;
+    private final LongIntHashMap refsetIndexes;
+    private final int[] memberOffsets;
+    private final int[] memberOrdinals;
+
+    private final int[] isAConcepts;
+    private final int[] isAParents;
+
+    /**
+     * Adds the descriptions and reference sets of a concept created without them.
+     */
+    private final ConceptLoader conceptLoader = new ConceptLoader() {
+        public void loadDescriptions(Concept concept) {
+            addDescriptions(concept, conceptOrdinals.get(concept.getSctId()));
+        }
+
+        public void loadRefsetMemberships(Concept concept) {
+            addRefsetMemberships(concept, conceptOrdinals.get(concept.getSctId()));
+        }
+    };
+
+    /**
+     * Load the snapshot files.
+     *
+     * @param files Rf2Files
+     * @throws RuntimeException IOException file errors.
+     */
+    public Rf2SnapshotBackend(Rf2Files files) throws RuntimeException {
+        Rf2Parser parser = new Rf2Parser();
+
+        // Concepts
+        final LongList activeIds = new LongList();
+        parser.parse(files.getConceptFiles(), new Rf2Parser.ChunkHandler<LongList>() {
+            public LongList newChunk() {
+                return new LongList();
+            }
+            public void processRow(LongList chunk, Rf2Row row) {
+                if (row.isActive()) {
+                    chunk.add(row.getLong(0));
+                }
+            }
+            public void chunkComplete(LongList chunk) {
+                activeIds.addAll(chunk);
+            }
+        });
+        conceptIds = activeIds.toSortedDistinctArray();
+        conceptOrdinals = new LongIntHashMap(conceptIds.length);
+        for (int i = 0; i < conceptIds.length; i++) {
+            conceptOrdinals.put(conceptIds[i], i);
+        }
+
+        // Descriptions, in file order until grouped by concept
+        final LongIntHashMap descriptionIndexes = new LongIntHashMap(conceptIds.length * 3);
+        final IntList descriptionConcepts = new IntList();
+        final List<String> descriptionTerms = new ArrayList<String>(conceptIds.length * 3);
+        final LongList descriptionTypes = new LongList();
+        parser.parse(files.getDescriptionFiles(), new Rf2Parser.ChunkHandler<DescriptionChunk>() {
+            public DescriptionChunk newChunk() {
+                return new DescriptionChunk();
+            }
+            public void processRow(DescriptionChunk chunk, Rf2Row row) {
+                if (row.isActive()) {
+                    int ordinal = conceptOrdinals.get(row.getLong(4));
+                    if (ordinal != LongIntHashMap.NOT_FOUND) {
+                        chunk.ids.add(row.getLong(0));
+                        chunk.concepts.add(ordinal);
+                        chunk.types.add(row.getLong(6));
+                        chunk.terms.add(row.getString(7));
+                    }
+                }
+            }
+            public void chunkComplete(DescriptionChunk chunk) {
+                for (int i = 0; i < chunk.ids.size(); i++) {
+                    descriptionIndexes.put(chunk.ids.get(i), descriptionTerms.size());
+                    descriptionConcepts.add(chunk.concepts.get(i));
+                    descriptionTerms.add(chunk.terms.get(i));
+                    descriptionTypes.add(chunk.types.get(i));
+                }
+            }
+        });
+
+        final byte[] descriptionAcceptabilities = new byte[descriptionTerms.size()];
+        parser.parse(files.getLanguageRefsetFiles(), new Rf2Parser.ChunkHandler<IntList>() {
+            public IntList newChunk() {
+                return new IntList();
+            }
+            public void processRow(IntList chunk, Rf2Row row) {
+                if (row.isActive()) {
+                    int index = descriptionIndexes.get(row.getLong(5));
+                    if (index != LongIntHashMap.NOT_FOUND) {
+                        chunk.add(index);
+                        chunk.add(LanguageAcceptability.forSctId(row.getLong(6)).ordinal());
+                    }
+                }
+            }
+            public void chunkComplete(IntList chunk) {
+                for (int i = 0; i < chunk.size(); i += 2) {
+                    descriptionAcceptabilities[chunk.get(i)] = (byte) chunk.get(i + 1);
+                }
+            }
+        });
+
+        int[] descriptionOrder = descriptionConcepts.groupBy(conceptIds.length);
+        descriptionOffsets = descriptionConcepts.offsets(conceptIds.length);
+        terms = new String[descriptionOrder.length];
+        String[] searchTerms = new String[descriptionOrder.length];
+        acceptabilities = new byte[descriptionOrder.length];
+        long[] types = new long[descriptionOrder.length];
+        for (int i = 0; i < descriptionOrder.length; i++) {
+            int index = descriptionOrder[i];
+            terms[i] = descriptionTerms.get(index);
+            searchTerms[i] = TrigramIndex.normalise(terms[i]);
+            acceptabilities[i] = descriptionAcceptabilities[index];
+            types[i] = descriptionTypes.get(index);
+        }
+        preferredDescriptions = new int[conceptIds.length];
+        for (int c = 0; c < conceptIds.length; c++) {
+            preferredDescriptions[c] = preferredDescription(c, types);
+        }
+        termIndex = new TrigramIndex(searchTerms, descriptionOffsets, acceptabilities);
+        prefixIndex = new PrefixIndex(searchTerms, descriptionOffsets, acceptabilities, conceptIds,
+                PrefixIndex.preferredTerms(terms, descriptionOffsets, acceptabilities));
+
+        // Reference set memberships, all the der2_Refset_ files are parsed as one stream
+        final LongList membershipRefsets = new LongList();
+        final IntList membershipConcepts = new IntList();
+        parser.parse(files.getRefsetFiles(), new Rf2Parser.ChunkHandler<MembershipChunk>() {
+            public MembershipChunk newChunk() {
+                return new MembershipChunk();
+            }
+            public void processRow(MembershipChunk chunk, Rf2Row row) {
+                if (row.isActive()) {
+                    int ordinal = conceptOrdinals.get(row.getLong(5));
+                    if (ordinal != LongIntHashMap.NOT_FOUND) {
+                        chunk.refsets.add(row.getLong(4));
+                        chunk.concepts.add(ordinal);
+                    }
+                }
+            }
+            public void chunkComplete(MembershipChunk chunk) {
+                membershipRefsets.addAll(chunk.refsets);
+                membershipConcepts.addAll(chunk.concepts);
+            }
+        });
+
+        int[] membershipOrder = membershipConcepts.groupBy(conceptIds.length);
+        refsetOffsets = membershipConcepts.offsets(conceptIds.length);
+        conceptRefsetIds = new long[membershipOrder.length];
+        for (int i = 0; i < membershipOrder.length; i++) {
+            conceptRefsetIds[i] = membershipRefsets.get(membershipOrder[i]);
+        }
+        for (int c = 0; c < conceptIds.length; c++) {
+            Arrays.sort(conceptRefsetIds, refsetOffsets[c], refsetOffsets[c + 1]);
+        }
+
+        refsetIds = membershipRefsets.toSortedDistinctArray();
+        refsetIndexes = new LongIntHashMap(refsetIds.length);
+        for (int i = 0; i < refsetIds.length; i++) {
+            refsetIndexes.put(refsetIds[i], i);
+        }
+        IntList membershipRefsetIndexes = new IntList();
+        for (int i = 0; i < membershipRefsets.size(); i++) {
+            membershipRefsetIndexes.add(refsetIndexes.get(membershipRefsets.get(i)));
+        }
+        int[] memberOrder = membershipRefsetIndexes.groupBy(refsetIds.length);
+        memberOffsets = membershipRefsetIndexes.offsets(refsetIds.length);
+        memberOrdinals = new int[memberOrder.length];
+        for (int i = 0; i < memberOrder.length; i++) {
+            memberOrdinals[i] = membershipConcepts.get(memberOrder[i]);
+        }
+        for (int r = 0; r < refsetIds.length; r++) {
+            Arrays.sort(memberOrdinals, memberOffsets[r], memberOffsets[r + 1]);
+        }
+
+        // Is-a relationships between active concepts, as concept and parent ordinal pairs
+        final IntList isAPairs = new IntList();
+        parser.parse(files.getRelationshipFiles(), new Rf2Parser.ChunkHandler<IntList>() {
+            public IntList newChunk() {
+                return new IntList();
+            }
+            public void processRow(IntList chunk, Rf2Row row) {
+                if (row.isActive() && row.getLong(7) == Metadata.IS_A) {
+                    int concept = conceptOrdinals.get(row.getLong(4));
+                    int parent = conceptOrdinals.get(row.getLong(5));
+                    if (concept != LongIntHashMap.NOT_FOUND && parent != LongIntHashMap.NOT_FOUND) {
+                        chunk.add(concept);
+                        chunk.add(parent);
+                    }
+                }
+            }
+            public void chunkComplete(IntList chunk) {
+                isAPairs.addAll(chunk);
+            }
+        });
+        isAConcepts = new int[isAPairs.size() / 2];
+        isAParents = new int[isAConcepts.length];
+        for (int i = 0; i < isAConcepts.length; i++) {
+            isAConcepts[i] = isAPairs.get(i * 2);
+            isAParents[i] = isAPairs.get(i * 2 + 1);
+        }
+    }
+
+    public Concept findById(long conceptSctid, FetchPlan fetchPlan) {
+        int ordinal = conceptOrdinals.get(conceptSctid);
+        return ordinal == LongIntHashMap.NOT_FOUND ? null : toConcept(ordinal, fetchPlan);
+    }
+
+    public Map<Long, Concept> findByIds(Collection<Long> conceptSctids, FetchPlan fetchPlan) {
+        Map<Long, Concept> concepts = new HashMap<Long, Concept>();
+
+        for (Long conceptSctid : conceptSctids) {
+            int ordinal = conceptOrdinals.get(conceptSctid);
+            if (ordinal != LongIntHashMap.NOT_FOUND && !concepts.containsKey(conceptSctid)) {
+                concepts.put(conceptSctid, toConcept(ordinal, fetchPlan));
+            }
+        }
+
+        return concepts;
+    }
+
+    public Map<Long, String> findPreferredTerms(Collection<Long> conceptSctids) {
+        Map<Long, String> preferredTermsById = new HashMap<Long, String>();
+
+        for (Long conceptSctid : conceptSctids) {
+            int ordinal = conceptOrdinals.get(conceptSctid);
+            if (ordinal != LongIntHashMap.NOT_FOUND && preferredDescriptions[ordinal] >= 0) {
+                preferredTermsById.put(conceptSctid, terms[preferredDescriptions[ordinal]]);
+            }
+        }
+
+        return preferredTermsById;
+    }
+
+    public Collection<Concept> findByTerm(String term, int maxRows, FetchPlan fetchPlan) {
+        Collection<Concept> concepts = new ArrayList<Concept>();
+
+        for (int ordinal : termIndex.search(term, maxRows)) {
+            concepts.add(toConcept(ordinal, fetchPlan));
+        }
+
+        return concepts;
+    }
+
+    public List<Concept> findByTermRanked(String term, int maxRows, FetchPlan fetchPlan) {
+        List<Concept> concepts = new ArrayList<Concept>();
+
+        for (int ordinal : termIndex.searchRanked(term, maxRows)) {
+            concepts.add(toConcept(ordinal, fetchPlan));
+        }
+
+        return concepts;
+    }
+
+    public void suggest(String prefix, Suggestions suggestions) {
+        prefixIndex.search(prefix, suggestions);
+    }
+
+    public List<Concept> findRefsetMembers(long refsetSctId, long afterConceptSctid, int maxRows,
+            FetchPlan fetchPlan) {
+        List<Concept> concepts = new ArrayList<Concept>();
+
+        int refset = refsetIndexes.get(refsetSctId);
+        if (refset != LongIntHashMap.NOT_FOUND) {
+            // Ordinals are in SCTID order, so the page starts at the first member ordinal past the last one returned
+            int firstOrdinal = Arrays.binarySearch(conceptIds, afterConceptSctid);
+            firstOrdinal = firstOrdinal < 0 ? -firstOrdinal - 1 : firstOrdinal + 1;
+            int start = Arrays.binarySearch(memberOrdinals, memberOffsets[refset], memberOffsets[refset + 1],
+                    firstOrdinal);
+            if (start < 0) {
+                start = -start - 1;
+            } else {
+                while (start > memberOffsets[refset] && memberOrdinals[start - 1] == firstOrdinal) {
+                    start--;
+                }
+            }
+
+            int previous = -1;
+            for (int m = start; m < memberOffsets[refset + 1] && concepts.size() < maxRows; m++) {
+                if (memberOrdinals[m] != previous) {
+                    previous = memberOrdinals[m];
+                    concepts.add(toConcept(previous, fetchPlan));
+                }
+            }
+        }
+
+        return concepts;
+    }
+
+    public void exportRefsetMembers(long refsetSctId, MemberDescriptionHandler handler) {
+        int refset = refsetIndexes.get(refsetSctId);
+        if (refset != LongIntHashMap.NOT_FOUND) {
+            for (int m = memberOffsets[refset]; m < memberOffsets[refset + 1]; m++) {
+                int ordinal = memberOrdinals[m];
+                if (m == memberOffsets[refset] || ordinal != memberOrdinals[m - 1]) {
+                    for (int d = descriptionOffsets[ordinal]; d < descriptionOffsets[ordinal + 1]; d++) {
+                        handler.processDescription(conceptIds[ordinal], terms[d], ACCEPTABILITIES[acceptabilities[d]]);
+                    }
+                }
+            }
+        }
+    }
+
+    public SubsumptionIndex buildSubsumptionIndex() {
+        SubsumptionIndex.Builder builder = new SubsumptionIndex.Builder();
+        for (int i = 0; i < isAConcepts.length; i++) {
+            builder.add(conceptIds[isAConcepts[i]], conceptIds[isAParents[i]]);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Does nothing, as the RF2 files are only read when the backend is created: a new release needs a restart.
+     */
+    public void reload() {
+    }
+
+    public RefsetMembershipIndex buildRefsetMembershipIndex() {
+        RefsetMembershipIndex.Builder builder = new RefsetMembershipIndex.Builder();
+        for (int c = 0; c < conceptIds.length; c++) {
+            for (int r = refsetOffsets[c]; r < refsetOffsets[c + 1]; r++) {
+                builder.add(conceptRefsetIds[r], conceptIds[c]);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Creates a {@link Concept} object for the concept <code>ordinal</code> with the parts in the
+     * <code>fetchPlan</code>, leaving the rest to the {@link #conceptLoader}
+     */
+    private Concept toConcept(int ordinal, FetchPlan fetchPlan) {
+        Concept concept = new Concept();
+        concept.setSctId(conceptIds[ordinal]);
+
+        if (fetchPlan == FetchPlan.FULL) {
+            addDescriptions(concept, ordinal);
+            addRefsetMemberships(concept, ordinal);
+        } else {
+            if (fetchPlan == FetchPlan.PREFERRED_TERM) {
+                concept.setPreferredTerm(preferredTerm(ordinal));
+            }
+            concept.setLoader(conceptLoader);
+        }
+
+        return concept;
+    }
+
+    /**
+     * @return String the en-AU preferred term of the concept <code>ordinal</code>, <code>null</code> if it has no
+     *         descriptions
+     */
+    private String preferredTerm(int ordinal) {
+        int d = preferredDescriptions[ordinal];
+        return d < 0 ? null : terms[d];
+    }
+
+    /**
+     * @param types long[] the type of each description, only kept while loading
+     * @return int the description with the en-AU preferred term of the concept <code>ordinal</code>, as chosen by
+     *         {@link PreferredTermChooser}, -1 if it has none
+     */
+    private int preferredDescription(int ordinal, long[] types) {
+        int preferred = -1;
+        int preferredRank = -1;
+        for (int d = descriptionOffsets[ordinal]; d < descriptionOffsets[ordinal + 1]; d++) {
+            int rank = PreferredTermChooser.rank(types[d], ACCEPTABILITIES[acceptabilities[d]]);
+            if (PreferredTermChooser.isBetter(terms[d], rank, preferred < 0 ? null : terms[preferred], preferredRank)) {
+                preferred = d;
+                preferredRank = rank;
+            }
+        }
+        return preferred;
+    }
+
+    /**
+     * Write the loaded content in the layout described by {@link SnapshotImage}.
+     *
+     * @param output DataOutputStream
+     * @param effectiveTime String effective time of the release, yyyyMMdd
+     * @throws IOException file errors.
+     */
+    void writeImage(DataOutputStream output, String effectiveTime) throws IOException {
+        byte[][] termBytes = new byte[terms.length][];
+        long termByteCount = 0;
+        for (int d = 0; d < terms.length; d++) {
+            termBytes[d] = SnapshotImage.encode(terms[d]);
+            termByteCount += termBytes[d].length;
+        }
+        SnapshotImage.writeHeader(output, effectiveTime, conceptIds.length, terms.length, termByteCount,
+                conceptRefsetIds.length, refsetIds.length, memberOrdinals.length, isAConcepts.length);
+
+        writeLongs(output, conceptIds);
+        writeLongs(output, conceptRefsetIds);
+        writeLongs(output, refsetIds);
+        writeInts(output, descriptionOffsets);
+        for (int c = 0; c < conceptIds.length; c++) {
+            output.writeInt(preferredDescriptions[c]);
+        }
+        int termOffset = 0;
+        for (int d = 0; d < terms.length; d++) {
+            output.writeInt(termOffset);
+            termOffset += termBytes[d].length;
+        }
+        output.writeInt(termOffset);
+        writeInts(output, refsetOffsets);
+        writeInts(output, memberOffsets);
+        writeInts(output, memberOrdinals);
+        writeInts(output, isAConcepts);
+        writeInts(output, isAParents);
+        output.write(acceptabilities);
+        for (byte[] term : termBytes) {
+            output.write(term);
+        }
+    }
+
+    private static void writeLongs(DataOutputStream output, long[] values) throws IOException {
+        for (long value : values) {
+            output.writeLong(value);
+        }
+    }
+
+    private static void writeInts(DataOutputStream output, int[] values) throws IOException {
+        for (int value : values) {
+            output.writeInt(value);
+        }
+    }
+
+    private void addDescriptions(Concept concept, int ordinal) {
+        for (int d = descriptionOffsets[ordinal]; d < descriptionOffsets[ordinal + 1]; d++) {
+            concept.addDescription(terms[d], ACCEPTABILITIES[acceptabilities[d]].getSctId());
+        }
+        concept.setPreferredTerm(preferredTerm(ordinal));
+    }
+
+    private void addRefsetMemberships(Concept concept, int ordinal) {
+        for (int r = refsetOffsets[ordinal]; r < refsetOffsets[ordinal + 1]; r++) {
+            if (r == refsetOffsets[ordinal] || conceptRefsetIds[r] != conceptRefsetIds[r - 1]) {
+                concept.addRefsetMembership(conceptRefsetIds[r]);
+            }
+        }
+    }
+
+    /**
+     * The active descriptions of active concepts parsed from one chunk of a description file.
+     */
+    static class DescriptionChunk {
+        final LongList ids = new LongList();
+        final IntList concepts = new IntList();
+        final LongList types = new LongList();
+        final List<String> terms = new ArrayList<String>();
+    }
+
+    /**
+     * The active memberships of active concepts parsed from one chunk of a reference set file.
+     */
+    static class MembershipChunk {
+        final LongList refsets = new LongList();
+        final IntList concepts = new IntList();
+    }
+}
@@ -0,0 +1,302 @@
+package au.gov.digitalhealth.rf2;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import au.gov.digitalhealth.db.DataSource;
+
+/**
+ * A compact binary image of the terminology held by the {@link Rf2SnapshotBackend}, written once and then
+ * memory-mapped read-only by each process that serves queries from it, see {@link SnapshotImageBackend}. Opening an
+ * image only reads its header, the operating system pages the rest in as it is used and shares it between processes.
+ * <p/>
+ *
+ * The image is laid out as a header followed by the arrays of the {@link Rf2SnapshotBackend}, longs first, then
+ * ints, then bytes, so each is aligned to its size. All numbers are big-endian.<ul>
+ * <li>header - the magic bytes <code>SCTAUIMG</code>, the {@link #FORMAT_VERSION}, the effective time of the release
+ * as 8 ASCII digits (yyyyMMdd), then the number of concepts, descriptions, term bytes, reference set memberships,
+ * reference sets, reference set members and is-a relationships, padded to {@link #HEADER_SIZE} bytes
+ * <li>concept SCT IDs (long), sorted, the index of a concept being its ordinal
+ * <li>reference set SCT IDs of each membership (long), grouped by concept ordinal and sorted
+ * <li>reference set SCT IDs (long), sorted
+ * <li>description offsets (int), the descriptions of concept <code>c</code> being from <code>c</code> up to
+ * (excluding) <code>c + 1</code>
+ * <li>preferred description of each concept (int), -1 if it has no descriptions
+ * <li>term offsets (int), the UTF-8 bytes of description <code>d</code> being from <code>d</code> up to
+ * (excluding) <code>d + 1</code> in the term bytes
+ * <li>membership offsets (int) into the reference set SCT IDs of each membership, by concept ordinal
+ * <li>member offsets (int) into the member ordinals, by reference set index
+ * <li>member ordinals (int), the concept ordinals of the members of each reference set, sorted
+ * <li>is-a concept ordinals (int), then the ordinals of their parents (int), an is-a relationship per position
+ * <li>{@link au.gov.digitalhealth.model.Metadata.LanguageAcceptability} ordinal of each description (byte)
+ * <li>term bytes, UTF-8
+ * </ul>
+ * An image can only be opened by the same {@link #FORMAT_VERSION} that wrote it. An image is at most 2GB, far more
+ * than an SCT-AU release needs.
+ */
+public class SnapshotImage {
+
+    /** Changed whenever the layout changes, so an image is never read with the wrong layout */
+    public static final int FORMAT_VERSION = 2;
+
+    static final int HEADER_SIZE = 48;
+
+    private static final byte[] MAGIC = {'S', 'C', 'T', 'A', 'U', 'I', 'M', 'G'};
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final String effectiveTime;
+
+    final LongBuffer conceptIds;
+    final LongBuffer conceptRefsetIds;
+    final LongBuffer refsetIds;
+    final IntBuffer descriptionOffsets;
+    final IntBuffer preferredDescriptions;
+    final IntBuffer termOffsets;
+    final IntBuffer refsetOffsets;
+    final IntBuffer memberOffsets;
+    final IntBuffer memberOrdinals;
+    final IntBuffer isAConcepts;
+    final IntBuffer isAParents;
+    final ByteBuffer acceptabilities;
+    private final ByteBuffer termBytes;
+
+    private SnapshotImage(MappedByteBuffer image, File file) {
+        byte[] magic = new byte[MAGIC.length];
+        image.get(magic);
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (magic[i] != MAGIC[i]) {
+                throw new RuntimeException("Not a terminology image: " + file.getAbsolutePath());
+            }
+        }
+        int formatVersion = image.getInt();
+        if (formatVersion != FORMAT_VERSION) {
+            throw new RuntimeException("Terminology image " + file.getAbsolutePath() + " has format version "
+                    + formatVersion + ", expected " + FORMAT_VERSION + ". Rebuild it with the ant image target.");
+        }
+        byte[] effectiveTimeBytes = new byte[8];
+        image.get(effectiveTimeBytes);
+        effectiveTime = new String(effectiveTimeBytes, UTF_8);
+
+        int conceptCount = image.getInt();
+        int descriptionCount = image.getInt();
+        int termByteCount = image.getInt();
+        int membershipCount = image.getInt();
+        int refsetCount = image.getInt();
+        int memberCount = image.getInt();
+        int isACount = image.getInt();
+
+        image.position(HEADER_SIZE);
+        conceptIds = section(image, conceptCount * 8).asLongBuffer();
+        conceptRefsetIds = section(image, membershipCount * 8).asLongBuffer();
+        refsetIds = section(image, refsetCount * 8).asLongBuffer();
+        descriptionOffsets = section(image, (conceptCount + 1) * 4).asIntBuffer();
+        preferredDescriptions = section(image, conceptCount * 4).asIntBuffer();
+        termOffsets = section(image, (descriptionCount + 1) * 4).asIntBuffer();
+        refsetOffsets = section(image, (conceptCount + 1) * 4).asIntBuffer();
+        memberOffsets = section(image, (refsetCount + 1) * 4).asIntBuffer();
+        memberOrdinals = section(image, memberCount * 4).asIntBuffer();
+        isAConcepts = section(image, isACount * 4).asIntBuffer();
+        isAParents = section(image, isACount * 4).asIntBuffer();
+        acceptabilities = section(image, descriptionCount);
+        termBytes = section(image, termByteCount);
+    }
+
+    private static ByteBuffer section(ByteBuffer image, int length) {
+        ByteBuffer section = image.slice();
+        section.limit(length);
+        image.position(image.position() + length);
+        return section;
+    }
+
+    /**
+     * Map the image read-only.
+     *
+     * @param file File written by {@link #write(File, String, Rf2SnapshotBackend)}
+     * @return SnapshotImage
+     * @throws RuntimeException IOException file errors, or if the file is not an image of this
+     *             {@link #FORMAT_VERSION}.
+     */
+    public static SnapshotImage open(File file) throws RuntimeException {
+        try {
+            RandomAccessFile input = new RandomAccessFile(file, "r");
+            try {
+                // The mapping stays valid once the file is closed
+                MappedByteBuffer image = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, input.length());
+                return new SnapshotImage(image, file);
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to open terminology image " + file.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Write the terminology held by the <code>backend</code> as an image. It is written to a temporary file first
+     * and then renamed, so a process never maps a partly written image.
+     *
+     * @param file File to write
+     * @param effectiveTime String effective time of the release, yyyyMMdd
+     * @param backend Rf2SnapshotBackend
+     * @throws RuntimeException IOException file errors.
+     */
+    public static void write(File file, String effectiveTime, Rf2SnapshotBackend backend) throws RuntimeException {
+        if (!effectiveTime.matches("\\d{8}")) {
+            throw new IllegalArgumentException("Effective time must be yyyyMMdd, was " + effectiveTime);
+        }
+        File temporary = new File(file.getPath() + ".tmp");
+        try {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary),
+                    1 << 16));
+            try {
+                backend.writeImage(output, effectiveTime);
+            } finally {
+                output.close();
+            }
+            if (file.exists() && !file.delete()) {
+                throw new IOException("Unable to replace " + file.getAbsolutePath());
+            }
+            if (!temporary.renameTo(file)) {
+                throw new IOException("Unable to rename " + temporary.getAbsolutePath());
+            }
+        } catch (IOException e) {
+            temporary.delete();
+            throw new RuntimeException("Unable to write terminology image " + file.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Write the header, see the class description.
+     */
+    static void writeHeader(DataOutputStream output, String effectiveTime, int conceptCount, int descriptionCount,
+            long termByteCount, int membershipCount, int refsetCount, int memberCount, int isACount)
+            throws IOException {
+        long size = HEADER_SIZE + (conceptCount + membershipCount + refsetCount) * 8L
+                + (conceptCount * 3L + descriptionCount + refsetCount + memberCount + isACount * 2L + 4) * 4L
+                + descriptionCount
+                + termByteCount;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Terminology image of " + size + " bytes is larger than 2GB");
+        }
+        output.write(MAGIC);
+        output.writeInt(FORMAT_VERSION);
+        output.write(effectiveTime.getBytes(UTF_8));
+        output.writeInt(conceptCount);
+        output.writeInt(descriptionCount);
+        output.writeInt((int) termByteCount);
+        output.writeInt(membershipCount);
+        output.writeInt(refsetCount);
+        output.writeInt(memberCount);
+        output.writeInt(isACount);
+        for (int i = output.size(); i < HEADER_SIZE; i++) {
+            output.write(0);
+        }
+    }
+
+    static byte[] encode(String term) {
+        return term.getBytes(UTF_8);
+    }
+
+    /**
+     * @return String effective time of the release the image was written from, yyyyMMdd
+     */
+    public String getEffectiveTime() {
+        return effectiveTime;
+    }
+
+    /**
+     * @return int number of concepts
+     */
+    public int getConceptCount() {
+        return conceptIds.limit();
+    }
+
+    /**
+     * @return int number of descriptions
+     */
+    public int getDescriptionCount() {
+        return acceptabilities.limit();
+    }
+
+    /**
+     * Decode the term of description <code>d</code>. Safe to call from multiple threads.
+     */
+    String term(int d) {
+        int start = termOffsets.get(d);
+        byte[] bytes = new byte[termOffsets.get(d + 1) - start];
+        ByteBuffer term = termBytes.duplicate();
+        term.position(start);
+        term.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * @return int ordinal of the concept <code>conceptSctid</code>, or <code>-(insertion point) - 1</code> if there
+     *         is no such active concept, as {@link java.util.Arrays#binarySearch(long[], long)}
+     */
+    int ordinal(long conceptSctid) {
+        return binarySearch(conceptIds, 0, conceptIds.limit(), conceptSctid);
+    }
+
+    /**
+     * @return int index of the reference set <code>refsetSctId</code>, negative if it has no members
+     */
+    int refsetIndex(long refsetSctId) {
+        return binarySearch(refsetIds, 0, refsetIds.limit(), refsetSctId);
+    }
+
+    private static int binarySearch(LongBuffer values, int from, int to, long key) {
+        int low = from;
+        int high = to - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long value = values.get(middle);
+            if (value < key) {
+                low = middle + 1;
+            } else if (value > key) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    @Override
+    public String toString() {
+        return "SnapshotImage[release=" + effectiveTime + ", concepts=" + getConceptCount() + ", descriptions="
+                + getDescriptionCount() + "]";
+    }
+
+    /**
+     * Write an image of the RF2 snapshot in <i>rf2.source.dir</i> to the file named by the first argument, or by
+     * <i>image.file</i> if there is none.
+     */
+    public static void main(String... args) {
+        DataSource dataSource = new DataSource();
+        File sourceDir = new File(dataSource.getRf2SourceDir());
+        File file = new File(args.length > 0 ? args[0] : dataSource.getImageFile());
+
+        System.out.println("Loading RF2 snapshot from " + sourceDir.getAbsolutePath());
+        long start = System.currentTimeMillis();
+        Rf2Files files = Rf2Files.locate(sourceDir);
+        Rf2SnapshotBackend backend = new Rf2SnapshotBackend(files);
+        System.out.println("Loaded RF2 snapshot in " + (System.currentTimeMillis() - start) + "ms");
+
+        start = System.currentTimeMillis();
+        write(file, files.getEffectiveTime(), backend);
+        System.out.println("Wrote " + open(file) + " to " + file.getAbsolutePath() + " (" + file.length()
+                + " bytes) in " + (System.currentTimeMillis() - start) + "ms");
+    }
+}
@@ -0,0 +1,305 @@
+package au.gov.digitalhealth.rf2;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import au.gov.digitalhealth.db.FetchPlan;
+import au.gov.digitalhealth.db.MemberDescriptionHandler;
+import au.gov.digitalhealth.db.TerminologyBackend;
+import au.gov.digitalhealth.index.PrefixIndex;
+import au.gov.digitalhealth.index.RefsetMembershipIndex;
+import au.gov.digitalhealth.index.SubsumptionIndex;
+import au.gov.digitalhealth.index.Suggestions;
+import au.gov.digitalhealth.index.TrigramIndex;
+import au.gov.digitalhealth.model.Concept;
+import au.gov.digitalhealth.model.ConceptLoader;
+import au.gov.digitalhealth.model.Metadata.LanguageAcceptability;
+
+/**
+ * A {@link TerminologyBackend} that answers straight from a memory-mapped {@link SnapshotImage}, so it is ready as
+ * soon as the image header has been read, without parsing the RF2 files or querying the database.<p/>
+ *
+ * Concepts are found by binary search of the image's sorted SCT IDs and their terms decoded as they are hydrated.
+ * Only {@link #findByTerm(String, int, FetchPlan)} and {@link #suggest(String, Suggestions)} need every term, so the
+ * {@link TrigramIndex} and {@link PrefixIndex} are built from the image on the first of those, which takes as long as
+ * it does for the {@link Rf2SnapshotBackend}. The image is read-only so the backend is safe to use from multiple
+ * threads.
+ */
+public class SnapshotImageBackend implements TerminologyBackend {
+
+    private static final LanguageAcceptability[] ACCEPTABILITIES = LanguageAcceptability.values();
+
+    private final SnapshotImage image;
+
+    /** Substring and word prefix indexes over the terms, built on first use */
+    private volatile TermIndexes termIndexes;
+
+    /**
+     * Adds the descriptions and reference sets of a concept created without them.
+     */
+    private final ConceptLoader conceptLoader = new ConceptLoader() {
+        public void loadDescriptions(Concept concept) {
+            addDescriptions(concept, image.ordinal(concept.getSctId()));
+        }
+
+        public void loadRefsetMemberships(Concept concept) {
+            addRefsetMemberships(concept, image.ordinal(concept.getSctId()));
+        }
+    };
+
+    private static class TermIndexes {
+        final TrigramIndex termIndex;
+        final PrefixIndex prefixIndex;
+
+        TermIndexes(TrigramIndex termIndex, PrefixIndex prefixIndex) {
+            this.termIndex = termIndex;
+            this.prefixIndex = prefixIndex;
+        }
+    }
+
+    /**
+     * @param image SnapshotImage
+     */
+    public SnapshotImageBackend(SnapshotImage image) {
+        this.image = image;
+    }
+
+    public Concept findById(long conceptSctid, FetchPlan fetchPlan) {
+        int ordinal = image.ordinal(conceptSctid);
+        return ordinal < 0 ? null : toConcept(ordinal, fetchPlan);
+    }
+
+    public Map<Long, Concept> findByIds(Collection<Long> conceptSctids, FetchPlan fetchPlan) {
+        Map<Long, Concept> concepts = new HashMap<Long, Concept>();
+
+        for (Long conceptSctid : conceptSctids) {
+            int ordinal = image.ordinal(conceptSctid);
+            if (ordinal >= 0 && !concepts.containsKey(conceptSctid)) {
+                concepts.put(conceptSctid, toConcept(ordinal, fetchPlan));
+            }
+        }
+
+        return concepts;
+    }
+
+    public Map<Long, String> findPreferredTerms(Collection<Long> conceptSctids) {
+        Map<Long, String> preferredTerms = new HashMap<Long, String>();
+
+        for (Long conceptSctid : conceptSctids) {
+            int ordinal = image.ordinal(conceptSctid);
+            if (ordinal >= 0 && !preferredTerms.containsKey(conceptSctid)) {
+                String preferredTerm = preferredTerm(ordinal);
+                if (preferredTerm != null) {
+                    preferredTerms.put(conceptSctid, preferredTerm);
+                }
+            }
+        }
+
+        return preferredTerms;
+    }
+
+    public Collection<Concept> findByTerm(String term, int maxRows, FetchPlan fetchPlan) {
+        Collection<Concept> concepts = new ArrayList<Concept>();
+
+        for (int ordinal : getTermIndexes().termIndex.search(term, maxRows)) {
+            concepts.add(toConcept(ordinal, fetchPlan));
+        }
+
+        return concepts;
+    }
+
+    public List<Concept> findByTermRanked(String term, int maxRows, FetchPlan fetchPlan) {
+        List<Concept> concepts = new ArrayList<Concept>();
+
+        for (int ordinal : getTermIndexes().termIndex.searchRanked(term, maxRows)) {
+            concepts.add(toConcept(ordinal, fetchPlan));
+        }
+
+        return concepts;
+    }
+
+    public void suggest(String prefix, Suggestions suggestions) {
+        getTermIndexes().prefixIndex.search(prefix, suggestions);
+    }
+
+    public List<Concept> findRefsetMembers(long refsetSctId, long afterConceptSctid, int maxRows,
+            FetchPlan fetchPlan) {
+        List<Concept> concepts = new ArrayList<Concept>();
+
+        int refset = image.refsetIndex(refsetSctId);
+        if (refset >= 0) {
+            // Ordinals are in SCTID order, so the page starts at the first member ordinal past the last one returned
+            int firstOrdinal = image.ordinal(afterConceptSctid);
+            firstOrdinal = firstOrdinal < 0 ? -firstOrdinal - 1 : firstOrdinal + 1;
+            int end = image.memberOffsets.get(refset + 1);
+            int start = firstMember(image.memberOffsets.get(refset), end, firstOrdinal);
+
+            int previous = -1;
+            for (int m = start; m < end && concepts.size() < maxRows; m++) {
+                int ordinal = image.memberOrdinals.get(m);
+                if (ordinal != previous) {
+                    previous = ordinal;
+                    concepts.add(toConcept(ordinal, fetchPlan));
+                }
+            }
+        }
+
+        return concepts;
+    }
+
+    /**
+     * @return int the first of the member ordinals from <code>from</code> up to <code>to</code> that is at least
+     *         <code>ordinal</code>, <code>to</code> if there is none
+     */
+    private int firstMember(int from, int to, int ordinal) {
+        int low = from;
+        int high = to;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (image.memberOrdinals.get(middle) < ordinal) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    public void exportRefsetMembers(long refsetSctId, MemberDescriptionHandler handler) {
+        int refset = image.refsetIndex(refsetSctId);
+        if (refset >= 0) {
+            int previous = -1;
+            for (int m = image.memberOffsets.get(refset); m < image.memberOffsets.get(refset + 1); m++) {
+                int ordinal = image.memberOrdinals.get(m);
+                if (ordinal != previous) {
+                    previous = ordinal;
+                    long conceptId = image.conceptIds.get(ordinal);
+                    for (int d = image.descriptionOffsets.get(ordinal); d < image.descriptionOffsets.get(ordinal + 1);
+                            d++) {
+                        handler.processDescription(conceptId, image.term(d),
+                                ACCEPTABILITIES[image.acceptabilities.get(d)]);
+                    }
+                }
+            }
+        }
+    }
+
+    public SubsumptionIndex buildSubsumptionIndex() {
+        SubsumptionIndex.Builder builder = new SubsumptionIndex.Builder();
+        for (int i = 0; i < image.isAConcepts.limit(); i++) {
+            builder.add(image.conceptIds.get(image.isAConcepts.get(i)), image.conceptIds.get(image.isAParents.get(i)));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Does nothing, as the image is only mapped when the backend is created: a new image needs a restart.
+     */
+    public void reload() {
+    }
+
+    public RefsetMembershipIndex buildRefsetMembershipIndex() {
+        RefsetMembershipIndex.Builder builder = new RefsetMembershipIndex.Builder();
+        for (int c = 0; c < image.getConceptCount(); c++) {
+            long conceptId = image.conceptIds.get(c);
+            for (int r = image.refsetOffsets.get(c); r < image.refsetOffsets.get(c + 1); r++) {
+                builder.add(image.conceptRefsetIds.get(r), conceptId);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return SnapshotImage the image answered from
+     */
+    public SnapshotImage getImage() {
+        return image;
+    }
+
+    /**
+     * Get the term indexes, building them from every term in the image on first use.
+     */
+    private TermIndexes getTermIndexes() {
+        TermIndexes indexes = termIndexes;
+        if (indexes == null) {
+            synchronized (this) {
+                indexes = termIndexes;
+                if (indexes == null) {
+                    System.out.println("Building description term index from " + image);
+                    long start = System.currentTimeMillis();
+                    int conceptCount = image.getConceptCount();
+                    int descriptionCount = image.getDescriptionCount();
+                    String[] terms = new String[descriptionCount];
+                    String[] searchTerms = new String[descriptionCount];
+                    byte[] acceptabilities = new byte[descriptionCount];
+                    for (int d = 0; d < descriptionCount; d++) {
+                        terms[d] = image.term(d);
+                        searchTerms[d] = TrigramIndex.normalise(terms[d]);
+                        acceptabilities[d] = image.acceptabilities.get(d);
+                    }
+                    int[] offsets = new int[conceptCount + 1];
+                    long[] conceptIds = new long[conceptCount];
+                    for (int c = 0; c < conceptCount; c++) {
+                        offsets[c] = image.descriptionOffsets.get(c);
+                        conceptIds[c] = image.conceptIds.get(c);
+                    }
+                    offsets[conceptCount] = image.descriptionOffsets.get(conceptCount);
+                    indexes = new TermIndexes(new TrigramIndex(searchTerms, offsets, acceptabilities),
+                            new PrefixIndex(searchTerms, offsets, acceptabilities, conceptIds,
+                                    PrefixIndex.preferredTerms(terms, offsets, acceptabilities)));
+                    System.out.println("Indexed " + descriptionCount + " terms in "
+                            + (System.currentTimeMillis() - start) + "ms");
+                    termIndexes = indexes;
+                }
+            }
+        }
+        return indexes;
+    }
+
+    /**
+     * Creates a {@link Concept} object for the concept <code>ordinal</code> with the parts in the
+     * <code>fetchPlan</code>, leaving the rest to the {@link #conceptLoader}
+     */
+    private Concept toConcept(int ordinal, FetchPlan fetchPlan) {
+        Concept concept = new Concept();
+        concept.setSctId(image.conceptIds.get(ordinal));
+
+        if (fetchPlan == FetchPlan.FULL) {
+            addDescriptions(concept, ordinal);
+            addRefsetMemberships(concept, ordinal);
+        } else {
+            if (fetchPlan == FetchPlan.PREFERRED_TERM) {
+                concept.setPreferredTerm(preferredTerm(ordinal));
+            }
+            concept.setLoader(conceptLoader);
+        }
+
+        return concept;
+    }
+
+    private String preferredTerm(int ordinal) {
+        int d = image.preferredDescriptions.get(ordinal);
+        return d < 0 ? null : image.term(d);
+    }
+
+    private void addDescriptions(Concept concept, int ordinal) {
+        for (int d = image.descriptionOffsets.get(ordinal); d < image.descriptionOffsets.get(ordinal + 1); d++) {
+            concept.addDescription(image.term(d), ACCEPTABILITIES[image.acceptabilities.get(d)].getSctId());
+        }
+        concept.setPreferredTerm(preferredTerm(ordinal));
+    }
+
+    private void addRefsetMemberships(Concept concept, int ordinal) {
+        long previous = 0;
+        for (int r = image.refsetOffsets.get(ordinal); r < image.refsetOffsets.get(ordinal + 1); r++) {
+            long refsetId = image.conceptRefsetIds.get(r);
+            if (r == image.refsetOffsets.get(ordinal) || refsetId != previous) {
+                concept.addRefsetMembership(refsetId);
+            }
+            previous = refsetId;
+        }
+    }
+}
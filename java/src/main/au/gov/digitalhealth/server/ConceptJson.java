@@ -0,0 +1,122 @@
+package au.gov.digitalhealth.server;
+
+import java.util.Collection;
+import java.util.Locale;
+
+import au.gov.digitalhealth.db.ConceptFinder;
+import au.gov.digitalhealth.model.Concept;
+
+/**
+ * Writes the JSON documents returned by the {@link LookupServer}.<p/>
+ *
+ * SCT IDs are written as strings as they can exceed the largest integer a JavaScript number holds exactly. A concept
+ * is written as:
+ * <pre>
+ * {"sctId":"...","preferredTerm":"...",
+ *  "descriptions":[{"term":"...","acceptability":"PREFERRED"}, ...],
+ *  "refsets":[{"sctId":"...","preferredTerm":"..."}, ...]}
+ * </pre>
+ * The {@link au.gov.digitalhealth.batch.RefsetExporter} writes its NDJSON with the same conventions.
+ */
+public class ConceptJson {
+
+    private ConceptJson() {
+    }
+
+    static void appendConcept(StringBuilder out, Concept concept) {
+        out.append("{\"sctId\":");
+        appendId(out, concept.getSctId());
+        out.append(",\"preferredTerm\":");
+        appendString(out, concept.getPreferredTerm());
+
+        out.append(",\"descriptions\":[");
+        for (int i = 0; i < concept.getDescriptionCount(); i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            out.append("{\"term\":");
+            appendString(out, concept.getTerm(i));
+            out.append(",\"acceptability\":");
+            appendString(out, concept.getAcceptability(i).name());
+            out.append('}');
+        }
+
+        out.append("],\"refsets\":[");
+        long[] refsetIds = concept.getRefsetIds();
+        for (int i = 0; i < refsetIds.length; i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            // The reference set concept may have gone with a reload of the release, leaving only its SCT ID
+            Concept refsetConcept = ConceptFinder.findRefsetConcept(refsetIds[i]);
+            out.append("{\"sctId\":");
+            appendId(out, refsetIds[i]);
+            out.append(",\"preferredTerm\":");
+            appendString(out, refsetConcept == null ? null : refsetConcept.getPreferredTerm());
+            out.append('}');
+        }
+        out.append("]}");
+    }
+
+    static void appendConcepts(StringBuilder out, Collection<Concept> concepts) {
+        out.append('[');
+        boolean first = true;
+        for (Concept concept : concepts) {
+            if (!first) {
+                out.append(',');
+            }
+            first = false;
+            appendConcept(out, concept);
+        }
+        out.append(']');
+    }
+
+    public static void appendId(StringBuilder out, long sctId) {
+        out.append('"').append(sctId).append('"');
+    }
+
+    static void appendMillis(StringBuilder out, double millis) {
+        out.append(String.format(Locale.ROOT, "%.3f", millis));
+    }
+
+    public static void appendString(StringBuilder out, String value) {
+        if (value == null) {
+            out.append("null");
+            return;
+        }
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' :
+                    out.append("\\\"");
+                    break;
+                case '\\' :
+                    out.append("\\\\");
+                    break;
+                case '\n' :
+                    out.append("\\n");
+                    break;
+                case '\r' :
+                    out.append("\\r");
+                    break;
+                case '\t' :
+                    out.append("\\t");
+                    break;
+                default :
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        out.append('"');
+    }
+
+    static String error(String message) {
+        StringBuilder out = new StringBuilder("{\"error\":");
+        appendString(out, message);
+        return out.append('}').toString();
+    }
+}
@@ -0,0 +1,404 @@
+package au.gov.digitalhealth.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import au.gov.digitalhealth.db.ConceptFinder;
+import au.gov.digitalhealth.db.DataSource;
+import au.gov.digitalhealth.db.LatencyHistogram;
+import au.gov.digitalhealth.index.RefsetExpression;
+import au.gov.digitalhealth.model.Concept;
+
+/**
+ * Serves the {@link ConceptFinder} find operations as JSON over HTTP, using the HTTP server built into the JDK.<p/>
+ *
+ * The endpoints are:<ul>
+ * <li><code>GET /concepts/{sctId}</code> - the active concept, 404 if there is none
+ * <li><code>GET /concepts?term={term}</code> - the active concepts with a description matching the partial term.
+ * Add <code>&ranked=true</code> for the best matches, best first, see {@link ConceptFinder#findByTermRanked(String)}
+ * <li><code>GET /refsets/{sctId}/members?after={sctId}&limit={n}</code> - a page of the reference set members in SCT
+ * ID order, with <code>next</code> set to the <code>after</code> of the next page when there may be more
+ * <li><code>GET /refsets/members?expression={expression}&after={sctId}&limit={n}</code> - likewise a page of the
+ * concepts satisfying a set expression over reference sets, eg. <code>A &amp; B - C</code>, see
+ * {@link au.gov.digitalhealth.index.RefsetExpression#parse(String)}
+ * <li><code>GET /metrics</code> - request counts and latency percentiles of each endpoint
+ * </ul>
+ * Requests are answered by a fixed pool of <i>http.threads</i> threads. At most <i>http.max.concurrent</i> requests
+ * are accepted at once, running or waiting for a thread; any more are answered with 503 Service Unavailable by the
+ * server's dispatcher thread, without waiting behind the accepted requests, so the wait for a thread is bounded and
+ * a client can back off and retry. With the jdbc backend the
+ * number of queries actually running at once is also bounded by <i>db.pool.max.size</i>, see {@link DataSource}.<p/>
+ *
+ * Latencies are measured from when a request is accepted, so include any wait for a thread, to when its response has
+ * been written. The percentiles are accurate to within a factor of two, see {@link LatencyHistogram}.
+ */
+public class LookupServer {
+
+    /** Largest page of reference set members returned by one request */
+    static final int MAX_PAGE_SIZE = 1000;
+
+    private final HttpServer server;
+    private final ExecutorService workers;
+    private final int maxConcurrent;
+
+    /** Requests accepted and not yet answered, never counting those rejected */
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final ThreadLocal<Admission> admission = new ThreadLocal<Admission>();
+    private final Map<String, LatencyHistogram> latencies = new LinkedHashMap<String, LatencyHistogram>();
+
+    /**
+     * Whether a request was accepted and when, decided as it is handed to the workers.
+     */
+    private static class Admission {
+        final long startNanos;
+        final boolean accepted;
+
+        Admission(long startNanos, boolean accepted) {
+            this.startNanos = startNanos;
+            this.accepted = accepted;
+        }
+    }
+
+    /**
+     * @param port int to listen on, 0 for any free port
+     * @param threads int answering requests
+     * @param maxConcurrent int requests accepted at once before answering 503
+     * @throws IOException if the port cannot be bound
+     */
+    public LookupServer(int port, int threads, int maxConcurrent) throws IOException {
+        this.maxConcurrent = maxConcurrent;
+        server = HttpServer.create(new InetSocketAddress(port), maxConcurrent);
+        workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "lookup-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        // Admit each request as the server hands it over. Those over the limit are answered on the dispatcher thread,
+        // so they never queue for the workers and at most maxConcurrent requests wait for a thread
+        server.setExecutor(new Executor() {
+            public void execute(final Runnable exchange) {
+                long startNanos = System.nanoTime();
+                if (inFlight.incrementAndGet() > LookupServer.this.maxConcurrent) {
+                    inFlight.decrementAndGet();
+                    admission.set(new Admission(startNanos, false));
+                    try {
+                        exchange.run();
+                    } finally {
+                        admission.remove();
+                    }
+                    return;
+                }
+                final Admission current = new Admission(startNanos, true);
+                workers.execute(new Runnable() {
+                    public void run() {
+                        admission.set(current);
+                        try {
+                            exchange.run();
+                        } finally {
+                            admission.remove();
+                            inFlight.decrementAndGet();
+                        }
+                    }
+                });
+            }
+        });
+
+        server.createContext("/concepts/", new Endpoint("findById") {
+            boolean respond(String path, Map<String, String> query, StringBuilder out) {
+                long sctId = parseId(path.substring("/concepts/".length()));
+                Concept concept = ConceptFinder.findById(sctId);
+                if (concept == null) {
+                    out.append(ConceptJson.error("No active concept with SCT ID " + sctId));
+                    return false;
+                }
+                ConceptJson.appendConcept(out, concept);
+                return true;
+            }
+        });
+
+        server.createContext("/concepts", new Endpoint("findByTerm") {
+            boolean respond(String path, Map<String, String> query, StringBuilder out) {
+                String term = query.get("term");
+                if (term == null || term.length() == 0 || !"/concepts".equals(path)) {
+                    throw new IllegalArgumentException("Expected /concepts?term={term}");
+                }
+                ConceptJson.appendConcepts(out, "true".equals(query.get("ranked"))
+                        ? ConceptFinder.findByTermRanked(term) : ConceptFinder.findByTerm(term));
+                return true;
+            }
+        });
+
+        server.createContext("/refsets/", new Endpoint("findRefsetMembers") {
+            boolean respond(String path, Map<String, String> query, StringBuilder out) {
+                String[] parts = path.split("/");
+                String expression = query.get("expression");
+                boolean byExpression = parts.length == 3 && "members".equals(parts[2]) && expression != null;
+                if (!byExpression && (parts.length != 4 || !"members".equals(parts[3]))) {
+                    throw new IllegalArgumentException(
+                            "Expected /refsets/{sctId}/members or /refsets/members?expression={expression}");
+                }
+                // The whole request is validated before the ConceptFinder is used, which connects to the database
+                RefsetExpression refsetExpression = byExpression ? RefsetExpression.parse(expression) : null;
+                long refsetSctId = byExpression ? 0 : parseId(parts[2]);
+                long after = query.containsKey("after") ? parseId(query.get("after")) : 0;
+                int limit = query.containsKey("limit") ? Integer.parseInt(query.get("limit")) : 1;
+                if (limit < 1 || limit > MAX_PAGE_SIZE) {
+                    throw new IllegalArgumentException("limit must be from 1 to " + MAX_PAGE_SIZE);
+                }
+                if (!query.containsKey("limit")) {
+                    limit = ConceptFinder.getResultLimit();
+                }
+
+                List<Concept> members = byExpression
+                        ? ConceptFinder.findRefsetMembers(refsetExpression, after, limit)
+                        : ConceptFinder.findRefsetMembers(refsetSctId, after, limit);
+                out.append("{\"members\":");
+                ConceptJson.appendConcepts(out, members);
+                out.append(",\"next\":");
+                if (members.size() == limit) {
+                    ConceptJson.appendId(out, members.get(members.size() - 1).getSctId());
+                } else {
+                    out.append("null");
+                }
+                out.append('}');
+                return true;
+            }
+        });
+
+        server.createContext("/metrics", new Endpoint(null) {
+            boolean respond(String path, Map<String, String> query, StringBuilder out) {
+                appendMetrics(out);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * A GET endpoint answering with JSON, timed under its operation name.
+     */
+    private abstract class Endpoint implements HttpHandler {
+
+        private final LatencyHistogram latency;
+
+        Endpoint(String operation) {
+            if (operation == null) {
+                latency = null;
+            } else {
+                latency = new LatencyHistogram();
+                latencies.put(operation, latency);
+            }
+        }
+
+        /**
+         * Write the response body for a request.
+         *
+         * @return <code>false</code> if nothing was found, in which case <code>out</code> holds the error to return
+         * @throws IllegalArgumentException if the request is malformed
+         */
+        abstract boolean respond(String path, Map<String, String> query, StringBuilder out);
+
+        public void handle(HttpExchange exchange) throws IOException {
+            Admission current = admission.get();
+            try {
+                if (current != null && !current.accepted) {
+                    rejectedCount.incrementAndGet();
+                    exchange.getResponseHeaders().set("Retry-After", "1");
+                    send(exchange, 503, ConceptJson.error("Too many concurrent requests, retry shortly"));
+                    return;
+                }
+                if (!"GET".equals(exchange.getRequestMethod())) {
+                    exchange.getResponseHeaders().set("Allow", "GET");
+                    send(exchange, 405, ConceptJson.error("Only GET is supported"));
+                    return;
+                }
+
+                StringBuilder out = new StringBuilder();
+                int status;
+                try {
+                    String path = exchange.getRequestURI().getPath();
+                    status = respond(path, parseQuery(exchange.getRequestURI().getRawQuery()), out) ? 200 : 404;
+                } catch (IllegalArgumentException e) {
+                    // Includes NumberFormatException for a malformed SCT ID
+                    out.setLength(0);
+                    out.append(ConceptJson.error("Bad request: " + e.getMessage()));
+                    status = 400;
+                } catch (RuntimeException e) {
+                    System.err.println("Failed to answer " + exchange.getRequestURI() + ": " + e);
+                    out.setLength(0);
+                    out.append(ConceptJson.error(e.getMessage()));
+                    status = 500;
+                } catch (Throwable e) {
+                    // Last resort, eg. the ConceptFinder failing to initialise, so the client is still answered
+                    System.err.println("Failed to answer " + exchange.getRequestURI() + ": " + e);
+                    out.setLength(0);
+                    out.append(ConceptJson.error("Internal error: " + e));
+                    status = 500;
+                }
+                send(exchange, status, out.toString());
+            } finally {
+                exchange.close();
+                if (latency != null && current != null && current.accepted) {
+                    latency.record(System.nanoTime() - current.startNanos);
+                }
+            }
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+
+    static long parseId(String value) {
+        long sctId = Long.parseLong(value);
+        if (sctId <= 0) {
+            throw new IllegalArgumentException("Invalid SCT ID " + value);
+        }
+        return sctId;
+    }
+
+    static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<String, String>();
+        if (rawQuery == null) {
+            return query;
+        }
+        try {
+            for (String parameter : rawQuery.split("&")) {
+                int equals = parameter.indexOf('=');
+                if (equals > 0) {
+                    query.put(URLDecoder.decode(parameter.substring(0, equals), "UTF-8"),
+                            URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+                }
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+        return query;
+    }
+
+    private void appendMetrics(StringBuilder out) {
+        out.append("{\"inFlight\":").append(inFlight.get());
+        out.append(",\"maxConcurrent\":").append(maxConcurrent);
+        out.append(",\"rejected\":").append(rejectedCount.get());
+        out.append(",\"endpoints\":{");
+        boolean first = true;
+        for (Map.Entry<String, LatencyHistogram> entry : latencies.entrySet()) {
+            if (!first) {
+                out.append(',');
+            }
+            first = false;
+            LatencyHistogram latency = entry.getValue();
+            ConceptJson.appendString(out, entry.getKey());
+            out.append(":{\"count\":").append(latency.getCount());
+            out.append(",\"meanMillis\":");
+            ConceptJson.appendMillis(out, latency.getMeanMillis());
+            out.append(",\"p50Millis\":");
+            ConceptJson.appendMillis(out, latency.getPercentileMillis(0.5));
+            out.append(",\"p99Millis\":");
+            ConceptJson.appendMillis(out, latency.getPercentileMillis(0.99));
+            out.append(",\"maxMillis\":");
+            ConceptJson.appendMillis(out, latency.getMaxMillis());
+            out.append('}');
+        }
+        out.append("}}");
+    }
+
+    /**
+     * @return A line per endpoint with its request count and p50/p99 latency
+     */
+    public String getLatencyReport() {
+        StringBuilder report = new StringBuilder();
+        for (Map.Entry<String, LatencyHistogram> entry : latencies.entrySet()) {
+            LatencyHistogram latency = entry.getValue();
+            report.append(String.format("%-20s %10d requests  p50 %8.3fms  p99 %8.3fms  max %8.3fms%n",
+                    entry.getKey(), latency.getCount(), latency.getPercentileMillis(0.5),
+                    latency.getPercentileMillis(0.99), latency.getMaxMillis()));
+        }
+        report.append(rejectedCount.get()).append(" requests rejected over ").append(maxConcurrent)
+                .append(" concurrent");
+        return report.toString();
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stop accepting requests, giving those in progress up to <code>delaySeconds</code> to complete.
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        workers.shutdown();
+        try {
+            workers.awaitTermination(delaySeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return int the requests accepted and not yet answered
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return int the port listened on, eg. when constructed with port 0
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public static void main(String... args) throws IOException {
+        DataSource dataSource = new DataSource();
+
+        // Without TCP_NODELAY each small response waits out the client's delayed acknowledgement, around 40ms
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        final LookupServer lookupServer = new LookupServer(dataSource.getHttpPort(), dataSource.getHttpThreads(),
+                dataSource.getHttpMaxConcurrent());
+
+        // Load the release before listening, so the first requests are not held up by it
+        ConceptFinder.getResultLimit();
+
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            public void run() {
+                lookupServer.stop(1);
+                System.out.println(lookupServer.getLatencyReport());
+            }
+        });
+        lookupServer.start();
+        System.out.println("Lookup server listening on port " + lookupServer.getPort()
+                + ", see http://localhost:" + lookupServer.getPort() + "/metrics");
+    }
+}
@@ -0,0 +1,98 @@
+package au.gov.digitalhealth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Test;
+
+import au.gov.digitalhealth.db.AsyncConceptFinder;
+import au.gov.digitalhealth.db.LookupFuture;
+import au.gov.digitalhealth.model.Concept;
+
+/**
+ * Test looking up concepts asynchronously, with lookups combined into batches
+ */
+public class AsyncConceptFinderTest {
+
+    /** Concept: 'Access instrument' */
+    private static final long KNOWN_INACTIVE_CONCEPT_ID = 370127007L;
+
+    /** Concept: 'Fifth metatarsal structure' */
+    private static final long KNOWN_ACTIVE_CONCEPT_ID = 301000L;
+
+    private ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    @After
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void testLookupsBatchedAndCoalesced() throws Exception {
+        // A long window so all the lookups below fall within it
+        AsyncConceptFinder finder = new AsyncConceptFinder(executor, 200, 100);
+        try {
+            LookupFuture<Concept> active = finder.findById(KNOWN_ACTIVE_CONCEPT_ID);
+            LookupFuture<Concept> inactive = finder.findById(KNOWN_INACTIVE_CONCEPT_ID);
+            LookupFuture<Concept> again = finder.findById(KNOWN_ACTIVE_CONCEPT_ID);
+
+            assertSame("Lookup for the same SCTID shared", active, again);
+            assertEqualsPreferredTerm(active.get(5, TimeUnit.SECONDS));
+            assertNull("Inactive concept not expected", inactive.get(5, TimeUnit.SECONDS));
+            assertEquals("Distinct SCTIDs looked up", 2, finder.getLookupCount());
+            assertEquals(1, finder.getCoalescedCount());
+            assertEquals("Looked up together", 1, finder.getBatchCount());
+        } finally {
+            finder.shutdown();
+        }
+    }
+
+    @Test
+    public void testFullBatchNotDelayed() throws Exception {
+        // The window would outlast the test, so the lookups are only answered by filling the batch
+        AsyncConceptFinder finder = new AsyncConceptFinder(executor, 60000, 2);
+        try {
+            LookupFuture<Concept> active = finder.findById(KNOWN_ACTIVE_CONCEPT_ID);
+            finder.findById(KNOWN_INACTIVE_CONCEPT_ID);
+            assertEqualsPreferredTerm(active.get(5, TimeUnit.SECONDS));
+        } finally {
+            finder.shutdown();
+        }
+    }
+
+    @Test
+    public void testCallback() throws Exception {
+        AsyncConceptFinder finder = new AsyncConceptFinder(executor, 0, 100);
+        final CountDownLatch called = new CountDownLatch(1);
+        final AtomicReference<Concept> result = new AtomicReference<Concept>();
+
+        finder.findById(KNOWN_ACTIVE_CONCEPT_ID).addCallback(new LookupFuture.Callback<Concept>() {
+            public void completed(Concept concept) {
+                result.set(concept);
+                called.countDown();
+            }
+
+            public void failed(Throwable cause) {
+                called.countDown();
+            }
+        });
+
+        assertTrue("Callback not called", called.await(5, TimeUnit.SECONDS));
+        assertEqualsPreferredTerm(result.get());
+        assertTrue("Term search completed", finder.findByTerm("metatarsal").get(5, TimeUnit.SECONDS).size() > 0);
+    }
+
+    private void assertEqualsPreferredTerm(Concept concept) {
+        assertEquals("Incorrect concept id", KNOWN_ACTIVE_CONCEPT_ID, concept.getSctId());
+        assertEquals("Incorrect en-AU preferred term", "Fifth metatarsal structure", concept.getPreferredTerm());
+    }
+}
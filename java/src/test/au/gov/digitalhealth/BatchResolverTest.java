@@ -0,0 +1,66 @@
+package au.gov.digitalhealth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Test;
+
+import au.gov.digitalhealth.batch.BatchResolver;
+import au.gov.digitalhealth.db.ConceptFinder;
+import au.gov.digitalhealth.model.Concept;
+
+/**
+ * Test resolving a file of SCTIDs in bulk
+ */
+public class BatchResolverTest {
+
+    /** Concept: 'Access instrument' */
+    private static final long KNOWN_INACTIVE_CONCEPT_ID = 370127007L;
+
+    /** Concept: 'Fifth metatarsal structure' */
+    private static final long KNOWN_ACTIVE_CONCEPT_ID = 301000L;
+
+    @Test
+    public void testFindByIds() {
+        Map<Long, Concept> concepts = ConceptFinder.findByIds(
+                Arrays.asList(KNOWN_ACTIVE_CONCEPT_ID, KNOWN_INACTIVE_CONCEPT_ID, KNOWN_ACTIVE_CONCEPT_ID));
+        assertEquals("Only the active concept expected, once", 1, concepts.size());
+        assertEquals("Incorrect en-AU preferred term", "Fifth metatarsal structure",
+                concepts.get(KNOWN_ACTIVE_CONCEPT_ID).getPreferredTerm());
+    }
+
+    @Test
+    public void testResolveInInputOrder() throws Exception {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 5; i++) {
+            input.append(KNOWN_ACTIVE_CONCEPT_ID).append('\n');
+            input.append(KNOWN_INACTIVE_CONCEPT_ID).append("\n\n");
+            input.append("not an id\n");
+        }
+
+        // Small chunks on several threads, so chunks complete out of order
+        BatchResolver resolver = new BatchResolver(3, 2);
+        StringWriter output = new StringWriter();
+        resolver.resolve(new BufferedReader(new StringReader(input.toString())), output);
+
+        String[] lines = output.toString().split("\n");
+        assertEquals("Header and a line per SCTID, blank lines skipped", 16, lines.length);
+        assertTrue(lines[0].startsWith("sctId\tstatus"));
+        for (int i = 0; i < 5; i++) {
+            assertTrue(lines[i * 3 + 1], lines[i * 3 + 1].startsWith(
+                    KNOWN_ACTIVE_CONCEPT_ID + "\tfound\tFifth metatarsal structure\t"));
+            assertEquals(KNOWN_INACTIVE_CONCEPT_ID + "\tnot_found\t\t", lines[i * 3 + 2]);
+            assertEquals("not an id\tinvalid\t\t", lines[i * 3 + 3]);
+        }
+        assertEquals(15, resolver.getLineCount());
+        assertEquals(5, resolver.getFoundCount());
+        assertEquals(5, resolver.getNotFoundCount());
+        assertEquals(5, resolver.getInvalidCount());
+    }
+}
@@ -0,0 +1,67 @@
+package au.gov.digitalhealth;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Test;
+
+import au.gov.digitalhealth.model.Concept;
+import au.gov.digitalhealth.model.Metadata.LanguageAcceptability;
+
+/**
+ * Test the compact description storage of a concept. Does not require the database.
+ */
+public class ConceptTest {
+
+    private static final long PREFERRED = LanguageAcceptability.PREFERRED.getSctId();
+    private static final long ACCEPTABLE = LanguageAcceptability.ACCEPTABLE.getSctId();
+
+    @Test
+    public void testDescriptionsInOrderAdded() {
+        Concept concept = new Concept();
+        concept.addDescription("Fifth metatarsal structure (body structure)", PREFERRED);
+        concept.addDescription("Fifth metatarsal structure", PREFERRED);
+        concept.addDescription("Fifth metatarsal", ACCEPTABLE);
+
+        assertEquals(3, concept.getDescriptionCount());
+        assertEquals("Fifth metatarsal", concept.getTerm(2));
+        assertEquals(LanguageAcceptability.ACCEPTABLE, concept.getAcceptability(2));
+        assertEquals("First preferred term", "Fifth metatarsal structure (body structure)",
+                concept.getPreferredTerm());
+
+        Map<String, LanguageAcceptability> descriptions = concept.getDescriptions();
+        assertEquals(Arrays.asList("Fifth metatarsal structure (body structure)", "Fifth metatarsal structure",
+                "Fifth metatarsal"), Arrays.asList(descriptions.keySet().toArray()));
+    }
+
+    @Test
+    public void testRepeatedTermReplacesAcceptability() {
+        Concept concept = new Concept();
+        concept.addDescription("Punch drunk", PREFERRED);
+        concept.addDescription("Punch drunk syndrome", ACCEPTABLE);
+        concept.addDescription("Punch drunk", ACCEPTABLE);
+        concept.addDescription("Punch drunk syndrome", PREFERRED);
+
+        assertEquals(2, concept.getDescriptionCount());
+        assertEquals(LanguageAcceptability.ACCEPTABLE, concept.getAcceptability(0));
+        assertEquals("Punch drunk syndrome", concept.getPreferredTerm());
+    }
+
+    @Test
+    public void testFirstTermWithoutPreferred() {
+        Concept concept = new Concept();
+        concept.addDescription("Punch drunk", ACCEPTABLE);
+        concept.addDescription("Punch drunk syndrome", 0);
+
+        assertEquals("Punch drunk", concept.getPreferredTerm());
+        assertEquals(LanguageAcceptability.NONE, concept.getAcceptability(1));
+        assertEquals(0, concept.getRefsetIds().length);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testTermOutOfRange() {
+        new Concept().getTerm(0);
+    }
+}
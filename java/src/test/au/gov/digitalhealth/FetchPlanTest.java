@@ -0,0 +1,66 @@
+package au.gov.digitalhealth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collection;
+
+import org.junit.Test;
+
+import au.gov.digitalhealth.db.ConceptFinder;
+import au.gov.digitalhealth.db.FetchPlan;
+import au.gov.digitalhealth.model.Concept;
+import au.gov.digitalhealth.model.RefsetMember;
+
+/**
+ * Test fetching only part of each concept, with the rest loaded on first access
+ */
+public class FetchPlanTest {
+
+    /** Concept: 'Fifth metatarsal structure' */
+    private static final long KNOWN_ACTIVE_CONCEPT_ID = 301000L;
+
+    /** A reference set with members */
+    private static final long KNOWN_REFSET_ID = 32570331000036102L;
+
+    @Test
+    public void testSamePreferredTermForEveryPlan() {
+        for (FetchPlan fetchPlan : FetchPlan.values()) {
+            Concept concept = ConceptFinder.findById(KNOWN_ACTIVE_CONCEPT_ID, fetchPlan);
+            assertEquals("Incorrect concept id", KNOWN_ACTIVE_CONCEPT_ID, concept.getSctId());
+            assertEquals("Incorrect en-AU preferred term for " + fetchPlan, "Fifth metatarsal structure",
+                    concept.getPreferredTerm());
+        }
+    }
+
+    @Test
+    public void testLoadedOnFirstAccess() {
+        Concept full = ConceptFinder.findById(KNOWN_ACTIVE_CONCEPT_ID);
+        assertTrue("Full concept fetched whole", full.isLoaded());
+
+        Concept lazy = ConceptFinder.findById(KNOWN_ACTIVE_CONCEPT_ID, FetchPlan.ID);
+        assertFalse("Only the id fetched", lazy.isLoaded());
+        assertEquals("Descriptions loaded on access", full.getDescriptions(), lazy.getDescriptions());
+        assertEquals("Refset memberships loaded on access", full.getRefsetMemberships().size(),
+                lazy.getRefsetMemberships().size());
+        assertTrue(lazy.isLoaded());
+        assertEquals(full.toString(), lazy.toString());
+    }
+
+    @Test
+    public void testRefsetMembersPreferredTermOnly() {
+        Collection<Concept> members = ConceptFinder.findRefsetMembers(KNOWN_REFSET_ID, 0, 5, FetchPlan.PREFERRED_TERM);
+        assertFalse("Refset members expected", members.isEmpty());
+        for (Concept member : members) {
+            assertFalse("Only the preferred term fetched", member.isLoaded());
+            assertTrue(member.getPreferredTerm().length() > 0);
+
+            boolean isMember = false;
+            for (RefsetMember membership : member.getRefsetMemberships()) {
+                isMember |= membership.getRefsetConcept().getSctId() == KNOWN_REFSET_ID;
+            }
+            assertTrue("Membership of the refset loaded on access", isMember);
+        }
+    }
+}
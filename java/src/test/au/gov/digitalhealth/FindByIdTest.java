@@ -4,6 +4,13 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import org.junit.Test;
 
 import au.gov.digitalhealth.db.ConceptFinder;
@@ -44,5 +51,27 @@ public class FindByIdTest {
         Concept concept = ConceptFinder.findById(KNOWN_INACTIVE_CONCEPT_ID);
         assertNull("Inactive concept not expected", concept);
     }
-    
+
+    @Test
+    public void testConcurrentLookups() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Concept>> results = new ArrayList<Future<Concept>>();
+            for (int i = 0; i < 20; i++) {
+                results.add(executor.submit(new Callable<Concept>() {
+                    public Concept call() {
+                        return ConceptFinder.findById(KNOWN_ACTIVE_CONCEPT_ID);
+                    }
+                }));
+            }
+            for (Future<Concept> result : results) {
+                Concept concept = result.get();
+                assertNotNull("Known concept not found by concurrent lookup", concept);
+                assertTrue("Incorrect concept id", concept.getSctId() == KNOWN_ACTIVE_CONCEPT_ID);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
 }
@@ -1,11 +1,13 @@
 package au.gov.digitalhealth;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 
 import org.junit.Test;
 
@@ -68,6 +70,28 @@ public class FindByTermTest {
         }
     }
     
+    @Test
+    public void testRankedSearch() {
+        List<Concept> results = ConceptFinder.findByTermRanked("punch drunk");
+
+        assertEquals("Only the active concept expected", 1, results.size());
+        assertEquals(KNOWN_ACTIVE_CONCEPT_ID, results.get(0).getSctId());
+        assertTrue("Expected no concepts for known invalid term", ConceptFinder.findByTermRanked("wakawaka").isEmpty());
+    }
+
+    /**
+     * Invalidating the caches reloads the backend, eg. rebuilding the jdbc backend's term index, and searches
+     * carry on finding the same concepts.
+     */
+    @Test
+    public void testSearchAfterInvalidateCaches() {
+        ConceptFinder.invalidateCaches();
+        List<Concept> results = ConceptFinder.findByTermRanked("punch drunk");
+
+        assertEquals("Only the active concept expected", 1, results.size());
+        assertEquals(KNOWN_ACTIVE_CONCEPT_ID, results.get(0).getSctId());
+    }
+
     @Test
     public void testMaxRows() {
         int resultLimit = ConceptFinder.getResultLimit();
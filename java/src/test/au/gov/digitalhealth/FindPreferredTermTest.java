@@ -0,0 +1,53 @@
+package au.gov.digitalhealth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Test;
+
+import au.gov.digitalhealth.db.ConceptFinder;
+import au.gov.digitalhealth.db.FetchPlan;
+
+/**
+ * Test finding the preferred terms stored on loading, without hydrating the concepts
+ */
+public class FindPreferredTermTest {
+
+    private static final long INVALID_CONCEPT_ID = 123L;
+
+    /** Concept: 'Access instrument' */
+    private static final long KNOWN_INACTIVE_CONCEPT_ID = 370127007L;
+
+    /** Concept: 'Fifth metatarsal structure' */
+    private static final long KNOWN_ACTIVE_CONCEPT_ID = 301000L;
+
+    /** Concept: 'Punch drunk' */
+    private static final long OTHER_ACTIVE_CONCEPT_ID = 230283005L;
+
+    @Test
+    public void testKnownId() {
+        assertEquals("Fifth metatarsal structure", ConceptFinder.findPreferredTerm(KNOWN_ACTIVE_CONCEPT_ID));
+    }
+
+    @Test
+    public void testUnknownAndInactive() {
+        assertNull("Unexpected term for invalid id", ConceptFinder.findPreferredTerm(INVALID_CONCEPT_ID));
+        assertNull("Inactive concept not expected", ConceptFinder.findPreferredTerm(KNOWN_INACTIVE_CONCEPT_ID));
+    }
+
+    @Test
+    public void testMatchesHydratedConcept() {
+        Map<Long, String> preferredTerms = ConceptFinder.findPreferredTerms(Arrays.asList(KNOWN_ACTIVE_CONCEPT_ID,
+                OTHER_ACTIVE_CONCEPT_ID, KNOWN_ACTIVE_CONCEPT_ID, INVALID_CONCEPT_ID));
+        assertEquals("Only the active concepts, once each", 2, preferredTerms.size());
+        for (long conceptId : new long[] {KNOWN_ACTIVE_CONCEPT_ID, OTHER_ACTIVE_CONCEPT_ID}) {
+            assertEquals("Stored preferred term should be that of the hydrated concept",
+                    ConceptFinder.findById(conceptId).getPreferredTerm(), preferredTerms.get(conceptId));
+            assertEquals("Preferred term plan should use the stored preferred term", preferredTerms.get(conceptId),
+                    ConceptFinder.findById(conceptId, FetchPlan.PREFERRED_TERM).getPreferredTerm());
+        }
+    }
+}
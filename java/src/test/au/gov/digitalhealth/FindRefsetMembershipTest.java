@@ -1,7 +1,9 @@
 package au.gov.digitalhealth;
 
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.util.Collection;
@@ -10,6 +12,7 @@ import java.util.HashSet;
 import org.junit.Test;
 
 import au.gov.digitalhealth.db.ConceptFinder;
+import au.gov.digitalhealth.db.RefsetConceptCache;
 import au.gov.digitalhealth.model.Concept;
 import au.gov.digitalhealth.model.RefsetMember;
 
@@ -21,6 +24,9 @@ public class FindRefsetMembershipTest {
     /** Concept: 'Fifth metatarsal structure' */
     private static final long KNOWN_ACTIVE_CONCEPT_ID = 301000L;
 
+    /** Not a concept of the release */
+    private static final long UNKNOWN_REFSET_ID = 123L;
+
     @Test
     public void testRefsetMembership() {
         Concept concept = ConceptFinder.findById(KNOWN_ACTIVE_CONCEPT_ID);
@@ -46,5 +52,52 @@ public class FindRefsetMembershipTest {
         }
         
     }
-    
+
+    /**
+     * A membership whose refset concept is no longer found, as after a reload, has no RefsetMember with a null
+     * refset concept.
+     */
+    @Test
+    public void testMissingRefsetConceptSkipped() {
+        RefsetConceptCache cache = ConceptFinder.getRefsetConceptCache();
+        Concept missingRefset = new Concept();
+        missingRefset.setSctId(UNKNOWN_REFSET_ID);
+        cache.put(missingRefset);
+
+        Concept concept = new Concept();
+        concept.setSctId(KNOWN_ACTIVE_CONCEPT_ID);
+        concept.addRefsetMembership(UNKNOWN_REFSET_ID);
+        cache.invalidate();
+
+        assertEquals(1, concept.getRefsetIds().length);
+        assertTrue("Expecting no membership without a refset concept", concept.getRefsetMemberships().isEmpty());
+    }
+
+    @Test
+    public void testRefsetConceptsCached() {
+        RefsetConceptCache cache = ConceptFinder.getRefsetConceptCache();
+        ConceptFinder.findById(KNOWN_ACTIVE_CONCEPT_ID);
+        long misses = cache.getMissCount();
+        long hits = cache.getHitCount();
+
+        Concept concept = ConceptFinder.findById(KNOWN_ACTIVE_CONCEPT_ID);
+        assertEquals("Refset concepts should not be fetched again", misses, cache.getMissCount());
+        assertEquals("Each refset membership should be served from the cache",
+                hits + concept.getRefsetIds().length, cache.getHitCount());
+    }
+
+    @Test
+    public void testMembershipIndex() {
+        Concept concept = ConceptFinder.findById(KNOWN_ACTIVE_CONCEPT_ID);
+        long[] refsetIds = ConceptFinder.refsetsOf(KNOWN_ACTIVE_CONCEPT_ID);
+        assertEquals("Index should agree with the hydrated concept",
+                concept.getRefsetMemberships().size(), refsetIds.length);
+        for (RefsetMember membership : concept.getRefsetMemberships()) {
+            assertTrue("Membership should be in the index",
+                    ConceptFinder.isMember(KNOWN_ACTIVE_CONCEPT_ID, membership.getRefsetConcept().getSctId()));
+        }
+        assertFalse("Not a member of an unknown refset",
+                ConceptFinder.isMember(KNOWN_ACTIVE_CONCEPT_ID, 32570031000036104L));
+    }
+
 }
@@ -1,14 +1,20 @@
 package au.gov.digitalhealth;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 import org.junit.Test;
 
 import au.gov.digitalhealth.db.ConceptFinder;
+import au.gov.digitalhealth.db.FetchPlan;
+import au.gov.digitalhealth.db.RefsetMemberIterator;
+import au.gov.digitalhealth.index.RefsetExpression;
 import au.gov.digitalhealth.model.Concept;
 
 /**
@@ -29,6 +35,81 @@ public class ListRefsetMembersTest {
         assertNotNull("Expected an empty collection, not null reference", members);
         assertTrue("No members should be returned for invalid refset", members.size() == 0);
     }
+
+    @Test
+    public void testPagedIteration() {
+        List<Concept> firstPage = ConceptFinder.findRefsetMembers(32570331000036102L, 0, 5);
+        assertFalse("Refset should contain members", firstPage.isEmpty());
+
+        // Walking the refset in small pages returns the same members, in ascending SCT ID order, without repeats
+        RefsetMemberIterator members = ConceptFinder.iterateRefsetMembers(32570331000036102L, 0, 2);
+        long previous = 0;
+        int count = 0;
+        while (members.hasNext()) {
+            Concept member = members.next();
+            assertTrue("Members should be in ascending SCT ID order", member.getSctId() > previous);
+            if (count < firstPage.size()) {
+                assertEquals("Same member as unpaged", firstPage.get(count).getSctId(), member.getSctId());
+            }
+            previous = member.getSctId();
+            count++;
+        }
+        assertEquals("Resume token is the last member", previous, members.getAfterConceptSctid());
+        assertTrue("Every member of the first page should be walked", count >= firstPage.size());
+
+        RefsetMemberIterator resumed = ConceptFinder.iterateRefsetMembers(32570331000036102L,
+                firstPage.get(0).getSctId(), 2);
+        if (firstPage.size() > 1) {
+            assertEquals("Resumes after the token", firstPage.get(1).getSctId(), resumed.next().getSctId());
+        }
+    }
+
+    @Test
+    public void testRefsetExpression() {
+        List<Concept> members = ConceptFinder.findRefsetMembers(32570331000036102L, 0, 5);
+        RefsetExpression refset = RefsetExpression.refset(32570331000036102L);
+
+        List<Concept> intersection = ConceptFinder.findRefsetMembers(refset.and(refset), 0, 5);
+        assertEquals("Same members as the refset", members.size(), intersection.size());
+        for (int i = 0; i < members.size(); i++) {
+            assertEquals(members.get(i).getSctId(), intersection.get(i).getSctId());
+        }
+        assertEquals("Members less the invalid refset",
+                ConceptFinder.countRefsetMembers(refset),
+                ConceptFinder.countRefsetMembers(refset.andNot(RefsetExpression.refset(32570031000036104L))));
+        assertTrue("No members expected", ConceptFinder.findRefsetMembers(refset.andNot(refset), 0, 5).isEmpty());
+    }
+
+    /**
+     * Every member of a reference set, found page by page through the refset query, is found by the expression of
+     * that refset alone, which is evaluated on the membership index.
+     */
+    @Test
+    public void testRefsetExpressionMatchesEveryPage() {
+        long refsetSctId = 32570331000036102L;
+        List<Long> members = new ArrayList<Long>();
+        List<Long> expressionMembers = new ArrayList<Long>();
+        long after = 0;
+        List<Concept> page;
+        do {
+            page = ConceptFinder.findRefsetMembers(refsetSctId, after, 50, FetchPlan.ID);
+            for (Concept concept : page) {
+                members.add(concept.getSctId());
+                after = concept.getSctId();
+            }
+        } while (page.size() == 50);
+        after = 0;
+        do {
+            page = ConceptFinder.findRefsetMembers(RefsetExpression.refset(refsetSctId), after, 50, FetchPlan.ID);
+            for (Concept concept : page) {
+                expressionMembers.add(concept.getSctId());
+                after = concept.getSctId();
+            }
+        } while (page.size() == 50);
+
+        assertEquals(members, expressionMembers);
+        assertEquals(members.size(), ConceptFinder.countRefsetMembers(RefsetExpression.refset(refsetSctId)));
+    }
     
     
 }
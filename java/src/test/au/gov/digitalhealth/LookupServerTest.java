@@ -0,0 +1,129 @@
+package au.gov.digitalhealth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.util.Scanner;
+
+import org.junit.After;
+import org.junit.Test;
+
+import au.gov.digitalhealth.server.LookupServer;
+
+/**
+ * Test the request handling of the lookup server, with requests rejected before any query is made. Does not require
+ * the database.
+ */
+public class LookupServerTest {
+
+    private LookupServer server;
+
+    @After
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testBadRequests() throws IOException {
+        server = new LookupServer(0, 2, 4);
+        server.start();
+
+        assertEquals("Malformed SCT ID", 400, status("GET", "/concepts/abc"));
+        assertEquals("Missing term", 400, status("GET", "/concepts"));
+        assertEquals("Unknown refset path", 400, status("GET", "/refsets/32570331000036102/concepts"));
+        assertEquals("Page too large", 400, status("GET", "/refsets/32570331000036102/members?limit=100000"));
+        assertEquals("Malformed expression", 400, status("GET", "/refsets/members?expression=32570331000036102%26"));
+        assertEquals(405, status("POST", "/concepts/301000"));
+
+        assertEquals(200, status("GET", "/metrics"));
+        String metrics = body("/metrics");
+        assertTrue(metrics, metrics.contains("\"findById\":{\"count\":2,"));
+        assertTrue(metrics, metrics.contains("\"rejected\":0"));
+    }
+
+    @Test
+    public void testOverConcurrencyLimit() throws IOException {
+        server = new LookupServer(0, 2, 0);
+        server.start();
+
+        assertEquals("Every request is over a limit of 0", 503, status("GET", "/concepts/301000"));
+        assertEquals(503, status("GET", "/metrics"));
+        assertTrue(server.getLatencyReport(), server.getLatencyReport().contains("2 requests rejected"));
+    }
+
+    /**
+     * With the only worker held by a client that never finishes its request, a request over the limit is answered
+     * 503 without waiting for the worker.
+     */
+    @Test
+    public void testRejectedWithoutWaitingForWorkers() throws IOException {
+        server = new LookupServer(0, 1, 1);
+        server.start();
+
+        Socket slowClient = new Socket("localhost", server.getPort());
+        try {
+            slowClient.getOutputStream().write("GET /metrics HTTP/1.1\r\n".getBytes("UTF-8"));
+            slowClient.getOutputStream().flush();
+            waitForInFlight(1);
+
+            HttpURLConnection connection = open("GET", "/metrics");
+            connection.setReadTimeout(5000);
+            try {
+                assertEquals("Over the limit while the worker is held", 503, connection.getResponseCode());
+            } finally {
+                connection.disconnect();
+            }
+            assertTrue(server.getLatencyReport(), server.getLatencyReport().contains("1 requests rejected"));
+        } finally {
+            slowClient.close();
+        }
+    }
+
+    /**
+     * Wait for the server to accept <code>count</code> requests.
+     */
+    private void waitForInFlight(int count) {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.getInFlight() != count) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Expected " + count + " requests in flight, was " + server.getInFlight());
+            }
+            Thread.yield();
+        }
+    }
+
+    private HttpURLConnection open(String method, String path) throws IOException {
+        HttpURLConnection connection =
+                (HttpURLConnection) new URL("http://localhost:" + server.getPort() + path).openConnection();
+        connection.setRequestMethod(method);
+        return connection;
+    }
+
+    private int status(String method, String path) throws IOException {
+        HttpURLConnection connection = open(method, path);
+        try {
+            return connection.getResponseCode();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private String body(String path) throws IOException {
+        HttpURLConnection connection = open("GET", path);
+        InputStream in = connection.getInputStream();
+        try {
+            return new Scanner(in, "UTF-8").useDelimiter("\\A").next();
+        } finally {
+            in.close();
+            connection.disconnect();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package au.gov.digitalhealth;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import au.gov.digitalhealth.index.PrefixIndex;
+import au.gov.digitalhealth.index.Suggestions;
+import au.gov.digitalhealth.index.TrigramIndex;
+import au.gov.digitalhealth.model.Metadata.LanguageAcceptability;
+
+/**
+ * Test the word prefix index used to suggest concepts as a term is typed. Does not require the database.
+ */
+public class PrefixIndexTest {
+
+    private static final byte PREFERRED = (byte) LanguageAcceptability.PREFERRED.ordinal();
+    private static final byte ACCEPTABLE = (byte) LanguageAcceptability.ACCEPTABLE.ordinal();
+    private static final byte NONE = (byte) LanguageAcceptability.NONE.ordinal();
+
+    /** Terms grouped by concept: 100 has two terms, 200 two, 300 one, 400 two */
+    private static final String[] TERMS = {
+        "Heart attack", "Myocardial infarction",
+        "Heart structure", "Cardiac structure",
+        "Structure of heart valve",
+        "Cardiac arrest", "Heartbeat stopped"
+    };
+
+    private static final byte[] ACCEPTABILITIES = {
+        ACCEPTABLE, PREFERRED,
+        NONE, PREFERRED,
+        PREFERRED,
+        PREFERRED, ACCEPTABLE
+    };
+
+    private static final int[] OWNER_OFFSETS = {0, 2, 4, 5, 7};
+
+    private static final long[] CONCEPT_IDS = {100L, 200L, 300L, 400L};
+
+    private PrefixIndex createIndex() {
+        String[] searchTerms = new String[TERMS.length];
+        for (int i = 0; i < TERMS.length; i++) {
+            searchTerms[i] = TrigramIndex.normalise(TERMS[i]);
+        }
+        return new PrefixIndex(searchTerms, OWNER_OFFSETS, ACCEPTABILITIES, CONCEPT_IDS,
+                PrefixIndex.preferredTerms(TERMS, OWNER_OFFSETS, ACCEPTABILITIES));
+    }
+
+    private void assertSuggestions(String message, long[] expected, Suggestions suggestions) {
+        assertEquals(message + " count", expected.length, suggestions.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(message + " suggestion " + i, expected[i], suggestions.getConceptId(i));
+        }
+    }
+
+    @Test
+    public void testPreferredTerms() {
+        String[] preferredTerms = PrefixIndex.preferredTerms(TERMS, OWNER_OFFSETS, ACCEPTABILITIES);
+        assertEquals("Myocardial infarction", preferredTerms[0]);
+        assertEquals("Cardiac structure", preferredTerms[1]);
+        assertEquals("Structure of heart valve", preferredTerms[2]);
+        assertEquals("Cardiac arrest", preferredTerms[3]);
+    }
+
+    @Test
+    public void testRanking() {
+        PrefixIndex index = createIndex();
+        Suggestions suggestions = new Suggestions(10);
+
+        // Only 300 matches on a preferred term, then 100 and 400 on a first word of an acceptable term
+        // (the shorter first), then 200 on a term with no acceptability
+        index.search("HEA", suggestions);
+        assertSuggestions("heart", new long[] {300L, 100L, 400L, 200L}, suggestions);
+        assertEquals("Structure of heart valve", suggestions.getPreferredTerm(0));
+        assertEquals("Myocardial infarction", suggestions.getPreferredTerm(1));
+
+        index.search("card", suggestions);
+        assertSuggestions("First word, shorter term first", new long[] {400L, 200L}, suggestions);
+    }
+
+    @Test
+    public void testWordStartsOnly() {
+        PrefixIndex index = createIndex();
+        Suggestions suggestions = new Suggestions(10);
+
+        index.search("art", suggestions);
+        assertEquals("Not the start of a word", 0, suggestions.size());
+
+        index.search("heart v", suggestions);
+        assertSuggestions("Prefix spanning words", new long[] {300L}, suggestions);
+
+        index.search("", suggestions);
+        assertEquals("Empty prefix", 0, suggestions.size());
+    }
+
+    @Test
+    public void testLimit() {
+        PrefixIndex index = createIndex();
+        Suggestions suggestions = new Suggestions(2);
+
+        index.search("s", suggestions);
+        assertSuggestions("Best two of three", new long[] {300L, 200L}, suggestions);
+    }
+}
@@ -0,0 +1,80 @@
+package au.gov.digitalhealth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import au.gov.digitalhealth.db.LatencyHistogram;
+import au.gov.digitalhealth.db.QueryMetrics;
+
+/**
+ * Test recording query metrics and detecting operations over the statement budget. Does not require the database.
+ */
+public class QueryMetricsTest {
+
+    @Test
+    public void testNestedOperationsCountedOnce() {
+        QueryMetrics metrics = new QueryMetrics(3);
+
+        // A findByTerm that hydrates a reference set concept through a nested findById
+        metrics.begin("findByTerm");
+        metrics.recordStatement("findByTerm", 1000000, 20);
+        metrics.begin("findById");
+        metrics.recordStatement("findById", 500000, 1);
+        metrics.recordStatement("findConceptDescriptions", 500000, 3);
+        metrics.end();
+        metrics.end();
+
+        assertEquals("Only the outermost operation is counted", 1, metrics.getOperationCount());
+        assertEquals(1, metrics.getOperationCount("findByTerm"));
+        assertEquals(0, metrics.getOperationCount("findById"));
+        assertEquals("Nested statements count towards the outer operation", 3, metrics.getMaxStatements("findByTerm"));
+        assertEquals(3, metrics.getStatementCount());
+        assertEquals(24, metrics.getRowCount());
+        assertEquals("At the budget is not over it", 0, metrics.getOverBudgetCount());
+    }
+
+    @Test
+    public void testOverBudget() {
+        QueryMetrics metrics = new QueryMetrics(3);
+
+        for (int operation = 0; operation < 2; operation++) {
+            metrics.begin("findRefsetMembers");
+            for (int i = 0; i < 4 + operation; i++) {
+                metrics.recordStatement("findById", 1000, 1);
+            }
+            metrics.end();
+        }
+        assertEquals(2, metrics.getOverBudgetCount());
+        assertEquals(5, metrics.getMaxStatements("findRefsetMembers"));
+        assertTrue("Snapshot lists the operation", metrics.getSnapshot().contains("findRefsetMembers"));
+
+        metrics.setStatementBudget(0);
+        metrics.begin("findRefsetMembers");
+        metrics.recordStatement("findById", 1000, 1);
+        metrics.recordStatement("findById", 1000, 1);
+        metrics.end();
+        assertEquals("A budget of 0 is never exceeded", 2, metrics.getOverBudgetCount());
+
+        metrics.reset();
+        assertEquals(0, metrics.getOperationCount());
+        assertEquals(0, metrics.getStatementCount());
+    }
+
+    @Test
+    public void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(100000); // 0.1ms
+        }
+        histogram.record(50000000); // 50ms
+
+        assertEquals(100, histogram.getCount());
+        assertTrue("p50 within a factor of two", histogram.getPercentileMillis(0.5) >= 0.1
+                && histogram.getPercentileMillis(0.5) <= 0.2);
+        assertTrue("p99 within a factor of two", histogram.getPercentileMillis(0.99) <= 0.2);
+        assertEquals("Max is exact", 50.0, histogram.getPercentileMillis(1.0), 0.001);
+        assertEquals(0.599, histogram.getMeanMillis(), 0.001);
+    }
+}
@@ -0,0 +1,77 @@
+package au.gov.digitalhealth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import au.gov.digitalhealth.batch.RefsetExporter;
+import au.gov.digitalhealth.db.ConceptFinder;
+import au.gov.digitalhealth.db.RefsetMemberIterator;
+import au.gov.digitalhealth.model.Concept;
+
+/**
+ * Test exporting the members of reference sets as flat files
+ */
+public class RefsetExporterTest {
+
+    private static final long REFSET_ID = 32570331000036102L;
+
+    private static final long INVALID_REFSET_ID = 32570031000036104L;
+
+    @Test
+    public void testCsvMatchesHydratedMembers() throws Exception {
+        StringWriter output = new StringWriter();
+        RefsetExporter exporter = new RefsetExporter(RefsetExporter.Format.CSV, output);
+        long members = exporter.export(REFSET_ID);
+
+        List<Concept> expected = new ArrayList<Concept>();
+        RefsetMemberIterator iterator = ConceptFinder.iterateRefsetMembers(REFSET_ID, 0, 100);
+        while (iterator.hasNext()) {
+            Concept member = iterator.next();
+            if (member.getDescriptionCount() > 0) {
+                expected.add(member);
+            }
+        }
+        assertEquals("Every member with descriptions, once", expected.size(), members);
+
+        String[] lines = output.toString().split("\n");
+        assertEquals("refsetId,conceptId,preferredTerm,term,acceptability", lines[0]);
+        int line = 1;
+        for (Concept member : expected) {
+            for (int i = 0; i < member.getDescriptionCount(); i++) {
+                assertTrue(lines[line], lines[line].startsWith(REFSET_ID + "," + member.getSctId() + ","));
+                assertTrue("Preferred term of the hydrated member expected: " + lines[line],
+                        lines[line].contains("," + csv(member.getPreferredTerm()) + ","));
+                line++;
+            }
+        }
+        assertEquals("A line per description", lines.length, line);
+        assertEquals(line - 1, exporter.getDescriptionCount());
+    }
+
+    @Test
+    public void testNdjsonLinePerMember() throws Exception {
+        StringWriter output = new StringWriter();
+        RefsetExporter exporter = new RefsetExporter(RefsetExporter.Format.NDJSON, output);
+        long members = exporter.export(REFSET_ID);
+        assertEquals("No members expected for invalid refset", 0, exporter.export(INVALID_REFSET_ID));
+
+        String[] lines = output.toString().split("\n");
+        assertEquals(members, lines.length);
+        for (String line : lines) {
+            assertTrue(line, line.startsWith("{\"refsetId\":\"" + REFSET_ID + "\",\"sctId\":\""));
+            assertTrue(line, line.endsWith("}]}"));
+        }
+        assertEquals(2, exporter.getRefsetCount());
+        assertEquals(members, exporter.getMemberCount());
+    }
+
+    private String csv(String value) {
+        return value.matches(".*[,\"\r\n].*") ? '"' + value.replace("\"", "\"\"") + '"' : value;
+    }
+}
@@ -0,0 +1,148 @@
+package au.gov.digitalhealth;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import au.gov.digitalhealth.index.RefsetExpression;
+import au.gov.digitalhealth.index.RefsetMembershipIndex;
+
+/**
+ * Test the in-memory reference set membership index. Does not require the database.
+ */
+public class RefsetMembershipIndexTest {
+
+    private static final long SMALL_REFSET = 32570331000036102L;
+    private static final long LARGE_REFSET = 32570071000036102L;
+    private static final long UNKNOWN_REFSET = 32570031000036104L;
+
+    @Test
+    public void testSmallRefsets() {
+        RefsetMembershipIndex index = new RefsetMembershipIndex.Builder()
+                .add(SMALL_REFSET, 301000L)
+                .add(SMALL_REFSET, 230283005L)
+                .add(LARGE_REFSET, 301000L)
+                .add(SMALL_REFSET, 301000L)
+                .build();
+
+        assertTrue(index.isMember(301000L, SMALL_REFSET));
+        assertTrue(index.isMember(301000L, LARGE_REFSET));
+        assertTrue(index.isMember(230283005L, SMALL_REFSET));
+        assertFalse("Member of another refset only", index.isMember(230283005L, LARGE_REFSET));
+        assertFalse("Unknown concept", index.isMember(51996004L, SMALL_REFSET));
+        assertFalse("Unknown refset", index.isMember(301000L, UNKNOWN_REFSET));
+
+        assertArrayEquals("Sorted refset ids", new long[] {LARGE_REFSET, SMALL_REFSET}, index.refsetsOf(301000L));
+        assertEquals("Not a member of any refset", 0, index.refsetsOf(51996004L).length);
+        assertEquals("Duplicate membership counted once", 2, index.getMemberCount(SMALL_REFSET));
+        assertEquals(2, index.getRefsetCount());
+    }
+
+    @Test
+    public void testLargeRefsets() {
+        // Enough concepts to span several 65536 ordinal chunks, with every third concept in the large refset so its
+        // chunks are held as bitmaps, and every thousandth in the small refset so its chunks are held as arrays
+        int conceptCount = 200000;
+        RefsetMembershipIndex.Builder builder = new RefsetMembershipIndex.Builder();
+        for (int i = 0; i < conceptCount; i++) {
+            long conceptId = 100000000L + i * 10L;
+            builder.add(UNKNOWN_REFSET, conceptId);
+            if (i % 3 == 0) {
+                builder.add(LARGE_REFSET, conceptId);
+            }
+            if (i % 1000 == 0) {
+                builder.add(SMALL_REFSET, conceptId);
+            }
+        }
+        RefsetMembershipIndex index = builder.build();
+
+        for (int i = 0; i < conceptCount; i++) {
+            long conceptId = 100000000L + i * 10L;
+            assertEquals("Large refset member " + i, i % 3 == 0, index.isMember(conceptId, LARGE_REFSET));
+            assertEquals("Small refset member " + i, i % 1000 == 0, index.isMember(conceptId, SMALL_REFSET));
+        }
+        assertEquals((conceptCount + 2) / 3, index.getMemberCount(LARGE_REFSET));
+        assertEquals(conceptCount / 1000, index.getMemberCount(SMALL_REFSET));
+        assertTrue("Bitmaps should be smaller than the concept ids",
+                index.getBitmapSizeInBytes() < conceptCount * 8L);
+    }
+
+    @Test
+    public void testExpressions() {
+        // Concepts spanning several ordinal chunks, in refsets dense enough to be held as bitmaps and sparse enough to
+        // be held as arrays, so every combination of chunks is combined
+        int conceptCount = 200000;
+        long refsetA = 1000001L;
+        long refsetB = 1000002L;
+        long refsetC = 1000003L;
+        RefsetMembershipIndex.Builder builder = new RefsetMembershipIndex.Builder();
+        for (int i = 0; i < conceptCount; i++) {
+            long conceptId = 100000000L + i * 10L;
+            if (i % 2 == 0) {
+                builder.add(refsetA, conceptId);
+            }
+            if (i % 3 == 0 || i > 150000) {
+                builder.add(refsetB, conceptId);
+            }
+            if (i % 700 == 0) {
+                builder.add(refsetC, conceptId);
+            }
+        }
+        RefsetMembershipIndex index = builder.build();
+
+        RefsetExpression expression = RefsetExpression.parse("1000001 & 1000002 - 1000003");
+        assertEquals("& binds more tightly", "((1000001 & 1000002) - 1000003)", expression.toString());
+        RefsetExpression union = RefsetExpression.parse("(1000003 | 1000001) & 1000002");
+        List<Long> expected = new ArrayList<Long>();
+        List<Long> expectedUnion = new ArrayList<Long>();
+        for (int i = 0; i < conceptCount; i++) {
+            boolean a = i % 2 == 0;
+            boolean b = i % 3 == 0 || i > 150000;
+            boolean c = i % 700 == 0;
+            if (a && b && !c) {
+                expected.add(100000000L + i * 10L);
+            }
+            if ((c || a) && b) {
+                expectedUnion.add(100000000L + i * 10L);
+            }
+        }
+        assertEquals(expected.size(), index.getMemberCount(expression));
+        assertEquals(expectedUnion.size(), index.getMemberCount(union));
+        assertEquals(expected, page(index.findMembers(expression, 0, conceptCount)));
+        assertEquals(expectedUnion, page(index.findMembers(union, 0, conceptCount)));
+
+        // Paging resumes after the last concept of the previous page, which need not be a concept in the index
+        assertEquals(expected.subList(0, 10), page(index.findMembers(expression, 0, 10)));
+        assertEquals(expected.subList(10, 15), page(index.findMembers(expression, expected.get(9), 5)));
+        assertEquals(expected.subList(10, 15), page(index.findMembers(expression, expected.get(9) + 1, 5)));
+
+        assertEquals("Unknown refset has no members", 0,
+                index.findMembers(RefsetExpression.refset(refsetA).and(RefsetExpression.refset(UNKNOWN_REFSET)), 0,
+                        10).length);
+        assertEquals(index.getMemberCount(refsetA),
+                index.getMemberCount(RefsetExpression.refset(refsetA).andNot(RefsetExpression.refset(UNKNOWN_REFSET))));
+        for (String malformed : new String[] {"", "1000001 &", "(1000001", "1000001 1000002", "a", "1000001 + 2"}) {
+            try {
+                RefsetExpression.parse(malformed);
+                fail("Expected malformed: " + malformed);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    private List<Long> page(long[] members) {
+        List<Long> page = new ArrayList<Long>();
+        for (long member : members) {
+            page.add(member);
+        }
+        return page;
+    }
+}
@@ -0,0 +1,80 @@
+package au.gov.digitalhealth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import au.gov.digitalhealth.rf2.Rf2Files;
+
+/**
+ * Test locating the snapshot and delta files in a terminology bundle. Does not require the database.
+ */
+public class Rf2FilesTest {
+
+    private File bundle;
+
+    @Before
+    public void createBundle() throws IOException {
+        bundle = File.createTempFile("rf2", "");
+        bundle.delete();
+        for (String type : new String[] {"Snapshot", "Delta"}) {
+            createFile(type + "/Terminology/sct2_Concept_" + type + "_AU1000036_20240131.txt");
+            createFile(type + "/Terminology/sct2_Description_" + type + "-en-AU_AU1000036_20240131.txt");
+            createFile(type + "/Terminology/sct2_Relationship_" + type + "_AU1000036_20240131.txt");
+            createFile(type + "/Terminology/sct2_RelationshipConcreteValues_" + type + "_AU1000036_20240131.txt");
+            createFile(type + "/Terminology/sct2_StatedRelationship_" + type + "_AU1000036_20240131.txt");
+            createFile(type + "/Refset/Language/der2_cRefset_Language" + type + "-en-AU_AU1000036_20240131.txt");
+        }
+        createFile("Snapshot/Refset/Content/der2_Refset_SimpleSnapshot_AU1000036_20240131.txt");
+    }
+
+    @After
+    public void deleteBundle() {
+        delete(bundle);
+    }
+
+    @Test
+    public void testSnapshot() {
+        Rf2Files files = Rf2Files.locate(bundle);
+        assertEquals(Rf2Files.SNAPSHOT, files.getReleaseType());
+        assertEquals(1, files.getConceptFiles().size());
+        assertEquals(1, files.getDescriptionFiles().size());
+        assertEquals("Only inferred relationships", 1, files.getRelationshipFiles().size());
+        assertTrue(files.getRelationshipFiles().get(0).getName().startsWith("sct2_Relationship_Snapshot"));
+        assertEquals(1, files.getLanguageRefsetFiles().size());
+        assertEquals(1, files.getRefsetFiles().size());
+        assertEquals("20240131", files.getEffectiveTime());
+    }
+
+    @Test
+    public void testDelta() {
+        Rf2Files files = Rf2Files.locateDelta(bundle);
+        assertEquals(Rf2Files.DELTA, files.getReleaseType());
+        assertTrue(files.getConceptFiles().get(0).getName().startsWith("sct2_Concept_Delta"));
+        assertEquals(1, files.getRelationshipFiles().size());
+        assertTrue(files.getLanguageRefsetFiles().get(0).getName().startsWith("der2_cRefset_LanguageDelta-en-AU"));
+        assertEquals("No reference set changes in this delta", 0, files.getRefsetFiles().size());
+    }
+
+    private void createFile(String path) throws IOException {
+        File file = new File(bundle, path);
+        file.getParentFile().mkdirs();
+        file.createNewFile();
+    }
+
+    private void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,80 @@
+package au.gov.digitalhealth;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import au.gov.digitalhealth.rf2.Rf2Parser;
+import au.gov.digitalhealth.rf2.Rf2Row;
+
+/**
+ * Test parsing RF2 files in line aligned chunks. Does not require the database.
+ */
+public class Rf2ParserTest {
+
+    private static final String HEADER = "id\teffectiveTime\tactive\tmoduleId\tconceptId\tlanguageCode\ttypeId\tterm\n";
+
+    /**
+     * Collects the id, active flag and term of every row, checking rows are handed back in file order.
+     */
+    private static class Collector implements Rf2Parser.ChunkHandler<List<String>> {
+        final List<String> rows = new ArrayList<String>();
+
+        public List<String> newChunk() {
+            return new ArrayList<String>();
+        }
+
+        public void processRow(List<String> chunk, Rf2Row row) {
+            chunk.add(row.getLong(0) + ":" + row.isActive() + ":" + row.getString(7));
+        }
+
+        public void chunkComplete(List<String> chunk) {
+            rows.addAll(chunk);
+        }
+    }
+
+    @Test
+    public void testChunkedParseKeepsFileOrder() throws IOException {
+        File first = writeFile(1, 2000, "\r\n");
+        File second = writeFile(2001, 3000, "\n");
+
+        List<File> files = new ArrayList<File>();
+        files.add(first);
+        files.add(second);
+
+        // A tiny chunk size forces many chunk boundaries, including ones falling mid line
+        Collector collector = new Collector();
+        new Rf2Parser(4, 100).parse(files, collector);
+
+        assertEquals("Every row, excluding headers, should be parsed", 3000, collector.rows.size());
+        for (int i = 0; i < 3000; i++) {
+            long id = i + 1;
+            String expected = id + ":" + (id % 3 != 0) + ":Term " + id + " caf\u00e9";
+            assertEquals("Unexpected row " + i, expected, collector.rows.get(i));
+        }
+    }
+
+    private File writeFile(int firstId, int lastId, String lineEnding) throws IOException {
+        File file = File.createTempFile("sct2_Description_Snapshot", ".txt");
+        file.deleteOnExit();
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(HEADER.replace("\n", lineEnding));
+            for (int id = firstId; id <= lastId; id++) {
+                writer.write(id + "\t20100131\t" + (id % 3 == 0 ? "0" : "1") + "\t1\t2\ten\t3\tTerm " + id + " caf\u00e9"
+                        + lineEnding);
+            }
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,291 @@
+package au.gov.digitalhealth;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import au.gov.digitalhealth.db.FetchPlan;
+import au.gov.digitalhealth.db.TerminologyBackend;
+import au.gov.digitalhealth.index.RefsetMembershipIndex;
+import au.gov.digitalhealth.index.SubsumptionIndex;
+import au.gov.digitalhealth.model.Concept;
+import au.gov.digitalhealth.rf2.Rf2Files;
+import au.gov.digitalhealth.rf2.Rf2SnapshotBackend;
+import au.gov.digitalhealth.rf2.SnapshotImage;
+import au.gov.digitalhealth.rf2.SnapshotImageBackend;
+
+/**
+ * Test writing a terminology image and answering from it as the RF2 snapshot it was written from would. Does not
+ * require the database.
+ */
+public class SnapshotImageTest {
+
+    private static final long REFSET_ID = 32570331000036102L;
+    private static final long PREFERRED = 900000000000548007L;
+    private static final long ACCEPTABLE = 900000000000549004L;
+    private static final long IS_A = 116680003L;
+    private static final long SYNONYM = 900000000000013009L;
+    private static final long FSN = 900000000000003001L;
+
+    private File bundle;
+    private File imageFile;
+    private Rf2SnapshotBackend rf2Backend;
+    private SnapshotImageBackend imageBackend;
+
+    @Before
+    public void writeImage() throws IOException {
+        bundle = File.createTempFile("rf2", "");
+        bundle.delete();
+        write("Terminology/sct2_Concept_Snapshot_AU1000036_20240131.txt",
+                "id\teffectiveTime\tactive\tmoduleId\tdefinitionStatusId",
+                "301000\t20240131\t1\t1\t1",
+                "230283005\t20240131\t1\t1\t1",
+                "51996004\t20240131\t0\t1\t1",
+                "410000\t20240131\t1\t1\t1");
+        write("Terminology/sct2_Description_Snapshot-en-AU_AU1000036_20240131.txt",
+                "id\teffectiveTime\tactive\tmoduleId\tconceptId\tlanguageCode\ttypeId\tterm\tcaseSignificanceId",
+                "11\t20240131\t1\t1\t301000\ten\t" + SYNONYM + "\tFifth metatarsal structure\t1",
+                "12\t20240131\t1\t1\t301000\ten\t" + SYNONYM + "\tFifth metatarsal\t1",
+                "13\t20240131\t1\t1\t301000\ten\t" + FSN + "\tFifth metatarsal bone (body structure)\t1",
+                "21\t20240131\t1\t1\t230283005\ten\t" + SYNONYM + "\tPunch drunk\t1",
+                "22\t20240131\t1\t1\t230283005\ten\t" + SYNONYM + "\tDementia pugilistica \u00e9t\u00e9\t1",
+                "23\t20240131\t1\t1\t230283005\ten\t" + SYNONYM + "\tboxer's dementia\t1",
+                "31\t20240131\t1\t1\t51996004\ten\t" + SYNONYM + "\tInactive concept\t1",
+                "42\t20240131\t1\t1\t410000\ten\t" + SYNONYM + "\tTissue structure\t1",
+                "41\t20240131\t1\t1\t410000\ten\t" + SYNONYM + "\tStructure\t1");
+        write("Refset/Language/der2_cRefset_LanguageSnapshot-en-AU_AU1000036_20240131.txt",
+                "id\teffectiveTime\tactive\tmoduleId\trefsetId\treferencedComponentId\tacceptabilityId",
+                "a\t20240131\t1\t1\t32570271000036106\t11\t" + PREFERRED,
+                "b\t20240131\t1\t1\t32570271000036106\t12\t" + ACCEPTABLE,
+                "c\t20240131\t1\t1\t32570271000036106\t22\t" + PREFERRED,
+                "d\t20240131\t1\t1\t32570271000036106\t13\t" + PREFERRED,
+                "e\t20240131\t1\t1\t32570271000036106\t23\t" + PREFERRED);
+        write("Terminology/sct2_Relationship_Snapshot_AU1000036_20240131.txt",
+                "id\teffectiveTime\tactive\tmoduleId\tsourceId\tdestinationId\trelationshipGroup\ttypeId"
+                        + "\tcharacteristicTypeId\tmodifierId",
+                "r1\t20240131\t1\t1\t230283005\t410000\t0\t" + IS_A + "\t1\t1",
+                "r2\t20240131\t1\t1\t301000\t230283005\t0\t" + IS_A + "\t1\t1",
+                "r3\t20240131\t0\t1\t410000\t301000\t0\t" + IS_A + "\t1\t1",
+                "r4\t20240131\t1\t1\t51996004\t410000\t0\t" + IS_A + "\t1\t1",
+                "r5\t20240131\t1\t1\t301000\t410000\t0\t363698007\t1\t1");
+        write("Refset/Content/der2_Refset_SimpleSnapshot_AU1000036_20240131.txt",
+                "id\teffectiveTime\tactive\tmoduleId\trefsetId\treferencedComponentId",
+                "m1\t20240131\t1\t1\t" + REFSET_ID + "\t301000",
+                "m2\t20240131\t1\t1\t" + REFSET_ID + "\t230283005",
+                "m3\t20240131\t1\t1\t" + REFSET_ID + "\t51996004",
+                "m4\t20240131\t0\t1\t" + REFSET_ID + "\t410000");
+
+        Rf2Files files = Rf2Files.locate(bundle);
+        rf2Backend = new Rf2SnapshotBackend(files);
+        imageFile = new File(bundle, "terminology.img");
+        SnapshotImage.write(imageFile, files.getEffectiveTime(), rf2Backend);
+        imageBackend = new SnapshotImageBackend(SnapshotImage.open(imageFile));
+    }
+
+    @After
+    public void deleteBundle() {
+        delete(bundle);
+    }
+
+    @Test
+    public void testHeader() {
+        SnapshotImage image = imageBackend.getImage();
+        assertEquals("20240131", image.getEffectiveTime());
+        assertEquals("Only active concepts", 3, image.getConceptCount());
+        assertEquals(8, image.getDescriptionCount());
+    }
+
+    @Test
+    public void testSameConceptsAsRf2() {
+        for (long conceptId : new long[] {301000L, 230283005L, 410000L}) {
+            Concept expected = rf2Backend.findById(conceptId, FetchPlan.ID);
+            Concept actual = imageBackend.findById(conceptId, FetchPlan.ID);
+            assertEquals(expected.getDescriptions(), actual.getDescriptions());
+        }
+        for (long conceptId : new long[] {301000L, 230283005L}) {
+            assertEquals(rf2Backend.findById(conceptId, FetchPlan.PREFERRED_TERM).getPreferredTerm(),
+                    imageBackend.findById(conceptId, FetchPlan.PREFERRED_TERM).getPreferredTerm());
+        }
+        assertEquals("Dementia pugilistica \u00e9t\u00e9",
+                imageBackend.findById(230283005L, FetchPlan.PREFERRED_TERM).getPreferredTerm());
+        assertNull("Inactive concept not expected", imageBackend.findById(51996004L, FetchPlan.ID));
+        assertNull("Unknown concept not expected", imageBackend.findById(123L, FetchPlan.ID));
+    }
+
+    /**
+     * A concept without a preferred description is given its smallest term by every backend, as the <i>ant db</i>
+     * target stores in concept_preferred_term, not the first in file order.
+     */
+    @Test
+    public void testPreferredTermWithoutPreferredDescription() {
+        for (TerminologyBackend backend : new TerminologyBackend[] {rf2Backend, imageBackend}) {
+            assertEquals("Structure", backend.findById(410000L, FetchPlan.PREFERRED_TERM).getPreferredTerm());
+            assertEquals("Structure", backend.findPreferredTerms(listOf(410000L)).get(410000L));
+        }
+    }
+
+    /**
+     * A preferred fully specified name is not the preferred term while the concept has a preferred synonym, even when
+     * it sorts first.
+     */
+    @Test
+    public void testPreferredTermIsSynonym() {
+        for (TerminologyBackend backend : new TerminologyBackend[] {rf2Backend, imageBackend}) {
+            assertEquals("Fifth metatarsal structure",
+                    backend.findById(301000L, FetchPlan.PREFERRED_TERM).getPreferredTerm());
+            assertEquals("Fifth metatarsal structure", backend.findById(301000L, FetchPlan.FULL).getPreferredTerm());
+            assertEquals("Fifth metatarsal structure", backend.findPreferredTerms(listOf(301000L)).get(301000L));
+        }
+    }
+
+    /**
+     * Preferred terms are compared with String.compareTo, upper case before lower case, not by a case insensitive
+     * collation which would choose "boxer's dementia".
+     */
+    @Test
+    public void testPreferredTermCaseSensitive() {
+        for (TerminologyBackend backend : new TerminologyBackend[] {rf2Backend, imageBackend}) {
+            assertEquals("Dementia pugilistica \u00e9t\u00e9",
+                    backend.findById(230283005L, FetchPlan.PREFERRED_TERM).getPreferredTerm());
+            assertEquals("Dementia pugilistica \u00e9t\u00e9",
+                    backend.findById(230283005L, FetchPlan.FULL).getPreferredTerm());
+        }
+    }
+
+    @Test
+    public void testRefsetMembers() {
+        assertEquals(ids(rf2Backend, 0), ids(imageBackend, 0));
+        assertEquals(ids(rf2Backend, 301000L), ids(imageBackend, 301000L));
+        assertEquals("Next page starts after the last member returned", 1, ids(imageBackend, 301000L).size());
+        assertEquals(0, imageBackend.findRefsetMembers(123L, 0, 10, FetchPlan.ID).size());
+        assertArrayEquals(new long[] {REFSET_ID}, imageBackend.buildRefsetMembershipIndex().refsetsOf(301000L));
+    }
+
+    /**
+     * An inactive member row, or a member row of an inactive concept, is not a membership by any path.
+     */
+    @Test
+    public void testInactiveMembershipsExcluded() {
+        for (TerminologyBackend backend : new TerminologyBackend[] {rf2Backend, imageBackend}) {
+            assertEquals(listOf(301000L, 230283005L), ids(backend, 0));
+            RefsetMembershipIndex index = backend.buildRefsetMembershipIndex();
+            assertFalse("Inactive member row", index.isMember(410000L, REFSET_ID));
+            assertFalse("Inactive concept", index.isMember(51996004L, REFSET_ID));
+            assertEquals(2, index.getMemberCount(REFSET_ID));
+            assertEquals(0, backend.findById(410000L, FetchPlan.FULL).getRefsetIds().length);
+        }
+    }
+
+    @Test
+    public void testFindByTerm() {
+        assertEquals(1, imageBackend.findByTerm("pugilist", 10, FetchPlan.ID).size());
+        assertEquals(1, imageBackend.findByTerm("metatarsal", 10, FetchPlan.ID).size());
+    }
+
+    @Test
+    public void testFindByTermRanked() {
+        for (TerminologyBackend backend : new TerminologyBackend[] {rf2Backend, imageBackend}) {
+            assertEquals("Unranked search is in SCT ID order", listOf(301000L, 410000L),
+                    idsOf(backend.findByTerm("structure", 10, FetchPlan.ID)));
+            assertEquals("Whole term before a word start", listOf(410000L, 301000L),
+                    idsOf(backend.findByTermRanked("Structure", 10, FetchPlan.ID)));
+            assertEquals("Only the best kept", listOf(410000L),
+                    idsOf(backend.findByTermRanked("structure", 1, FetchPlan.ID)));
+            assertEquals("Start of a term before a word start", listOf(410000L, 301000L),
+                    idsOf(backend.findByTermRanked("struct", 10, FetchPlan.ID)));
+            assertEquals("A word start (metatarsal) before elsewhere (dementia)", listOf(301000L, 230283005L),
+                    idsOf(backend.findByTermRanked("me", 10, FetchPlan.ID)));
+            assertTrue(backend.findByTermRanked("wakawaka", 10, FetchPlan.ID).isEmpty());
+        }
+    }
+
+    @Test
+    public void testSubsumption() {
+        for (TerminologyBackend backend : new TerminologyBackend[] {rf2Backend, imageBackend}) {
+            SubsumptionIndex index = backend.buildSubsumptionIndex();
+            assertTrue(index.isDescendant(301000L, 410000L));
+            assertFalse("Inactive relationship", index.isDescendant(410000L, 301000L));
+            assertArrayEquals("Inactive concept and other relationship types excluded",
+                    new long[] {301000L, 230283005L}, index.descendantsOf(410000L));
+        }
+    }
+
+    @Test
+    public void testOtherFormatVersionRejected() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(imageFile, "rw");
+        try {
+            file.seek(8);
+            file.writeInt(SnapshotImage.FORMAT_VERSION + 1);
+        } finally {
+            file.close();
+        }
+        try {
+            SnapshotImage.open(imageFile);
+            fail("Image of another format version should not be opened");
+        } catch (RuntimeException e) {
+            // expected
+        }
+    }
+
+    private List<Long> ids(TerminologyBackend backend, long afterConceptSctid) {
+        List<Long> ids = new ArrayList<Long>();
+        for (Concept concept : backend.findRefsetMembers(REFSET_ID, afterConceptSctid, 10, FetchPlan.ID)) {
+            ids.add(concept.getSctId());
+        }
+        return ids;
+    }
+
+    private List<Long> idsOf(Collection<Concept> concepts) {
+        List<Long> ids = new ArrayList<Long>();
+        for (Concept concept : concepts) {
+            ids.add(concept.getSctId());
+        }
+        return ids;
+    }
+
+    private List<Long> listOf(Long... ids) {
+        return Arrays.asList(ids);
+    }
+
+    private void write(String path, String... lines) throws IOException {
+        File file = new File(bundle, "Snapshot/" + path);
+        file.getParentFile().mkdirs();
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            for (String line : lines) {
+                writer.write(line);
+                writer.write("\r\n");
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
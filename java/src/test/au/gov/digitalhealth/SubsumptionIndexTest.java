@@ -0,0 +1,125 @@
+package au.gov.digitalhealth;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import au.gov.digitalhealth.index.SubsumptionIndex;
+
+/**
+ * Test the in-memory transitive closure of the is-a relationships. Does not require the database.
+ */
+public class SubsumptionIndexTest {
+
+    private static final long ROOT = 138875005L;
+    private static final long CLINICAL_FINDING = 404684003L;
+    private static final long DISORDER = 64572001L;
+    private static final long BODY_STRUCTURE = 123037004L;
+    private static final long LUNG_DISORDER = 19829001L;
+    private static final long LUNG_STRUCTURE = 39607008L;
+    private static final long PNEUMONIA = 233604007L;
+
+    @Test
+    public void testPolyhierarchy() {
+        // Pneumonia is reached both through lung disorder and directly from disorder, with a duplicate relationship
+        SubsumptionIndex index = new SubsumptionIndex.Builder()
+                .add(CLINICAL_FINDING, ROOT)
+                .add(BODY_STRUCTURE, ROOT)
+                .add(DISORDER, CLINICAL_FINDING)
+                .add(LUNG_DISORDER, DISORDER)
+                .add(PNEUMONIA, LUNG_DISORDER)
+                .add(PNEUMONIA, DISORDER)
+                .add(LUNG_STRUCTURE, BODY_STRUCTURE)
+                .add(PNEUMONIA, DISORDER)
+                .build();
+
+        assertTrue(index.isDescendant(PNEUMONIA, ROOT));
+        assertTrue(index.isDescendant(PNEUMONIA, CLINICAL_FINDING));
+        assertTrue(index.isDescendant(PNEUMONIA, LUNG_DISORDER));
+        assertFalse("Not its own descendant", index.isDescendant(PNEUMONIA, PNEUMONIA));
+        assertFalse("Ancestor is not a descendant", index.isDescendant(DISORDER, PNEUMONIA));
+        assertFalse("Other branch", index.isDescendant(PNEUMONIA, BODY_STRUCTURE));
+        assertFalse("Unknown concept", index.isDescendant(301000L, ROOT));
+
+        assertArrayEquals(new long[] {LUNG_DISORDER, PNEUMONIA}, index.descendantsOf(DISORDER));
+        assertArrayEquals(new long[] {LUNG_STRUCTURE}, index.descendantsOf(BODY_STRUCTURE));
+        assertEquals("Each descendant once", 6, index.descendantsOf(ROOT).length);
+        assertEquals(6, index.getDescendantCount(ROOT));
+        assertEquals(0, index.descendantsOf(PNEUMONIA).length);
+        assertEquals(0, index.descendantsOf(301000L).length);
+        assertEquals(7, index.getConceptCount());
+    }
+
+    @Test
+    public void testCycleIgnored() {
+        SubsumptionIndex index = new SubsumptionIndex.Builder()
+                .add(2L, 1L)
+                .add(3L, 2L)
+                .add(1L, 3L)
+                .add(4L, 3L)
+                .build();
+
+        assertTrue(index.isDescendant(4L, 1L));
+        assertTrue(index.isDescendant(3L, 2L));
+        assertArrayEquals(new long[] {4L}, index.descendantsOf(3L));
+    }
+
+    @Test
+    public void testMatchesWalkingTheHierarchy() {
+        // A random hierarchy where later concepts have one to three parents among the earlier ones, so that many
+        // concepts are reached through more than one path
+        Random random = new Random(42);
+        int conceptCount = 2000;
+        List<List<Integer>> parents = new ArrayList<List<Integer>>();
+        SubsumptionIndex.Builder builder = new SubsumptionIndex.Builder();
+        for (int c = 0; c < conceptCount; c++) {
+            List<Integer> conceptParents = new ArrayList<Integer>();
+            for (int i = 0; c > 0 && i < 1 + random.nextInt(3); i++) {
+                int parent = random.nextInt(c);
+                conceptParents.add(parent);
+                builder.add(id(c), id(parent));
+            }
+            parents.add(conceptParents);
+        }
+        SubsumptionIndex index = builder.build();
+
+        // Ancestors by walking up from each concept, in concept order so the parents are done first
+        BitSet[] ancestors = new BitSet[conceptCount];
+        for (int c = 0; c < conceptCount; c++) {
+            ancestors[c] = new BitSet(conceptCount);
+            for (int parent : parents.get(c)) {
+                ancestors[c].set(parent);
+                ancestors[c].or(ancestors[parent]);
+            }
+        }
+
+        for (int a = 0; a < conceptCount; a += 7) {
+            List<Long> expected = new ArrayList<Long>();
+            for (int c = 0; c < conceptCount; c++) {
+                assertEquals(c + " of " + a, ancestors[c].get(a), index.isDescendant(id(c), id(a)));
+                if (ancestors[c].get(a)) {
+                    expected.add(id(c));
+                }
+            }
+            long[] descendants = index.descendantsOf(id(a));
+            assertEquals(expected.size(), descendants.length);
+            for (int i = 0; i < descendants.length; i++) {
+                assertEquals(expected.get(i).longValue(), descendants[i]);
+            }
+        }
+        assertEquals("Every other concept descends from the first", conceptCount - 1,
+                index.getDescendantCount(id(0)));
+    }
+
+    private static long id(int concept) {
+        return 100000000L + concept * 10L;
+    }
+}
@@ -0,0 +1,94 @@
+package au.gov.digitalhealth;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import au.gov.digitalhealth.index.TrigramIndex;
+import au.gov.digitalhealth.model.Metadata.LanguageAcceptability;
+
+/**
+ * Test the trigram substring index used to search description terms. Does not require the database.
+ */
+public class TrigramIndexTest {
+
+    /** Terms grouped by owner: owner 0 has two terms, owner 1 one, owner 2 none, owner 3 two, owner 4 two */
+    private static final String[] TERMS = {
+        "Punch drunk", "Dementia pugilistica",
+        "Drunkenness",
+        "Heart structure", "Cardiac structure",
+        "Entire heart", "Banana allergy"
+    };
+
+    private static final int[] OWNER_OFFSETS = {0, 2, 3, 3, 5, 7};
+
+    private TrigramIndex createIndex() {
+        String[] searchTerms = new String[TERMS.length];
+        for (int i = 0; i < TERMS.length; i++) {
+            searchTerms[i] = TrigramIndex.normalise(TERMS[i]);
+        }
+        return new TrigramIndex(searchTerms, OWNER_OFFSETS);
+    }
+
+    @Test
+    public void testSubstringMatch() {
+        TrigramIndex index = createIndex();
+        assertArrayEquals("Case insensitive substring match", new int[] {0, 1}, index.search("DRUNK", 20));
+        assertArrayEquals("Owner with two matching terms returned once", new int[] {3, 4}, index.search("heart", 20));
+        assertArrayEquals("Match spanning words", new int[] {0}, index.search("ch dru", 20));
+    }
+
+    @Test
+    public void testNoMatch() {
+        TrigramIndex index = createIndex();
+        assertEquals("Unknown trigram", 0, index.search("wakawaka", 20).length);
+        // "ana" and "nan" both appear in "banana" but "ananan" does not
+        assertEquals("Trigrams present but not in sequence", 0, index.search("ananan", 20).length);
+    }
+
+    @Test
+    public void testShortTermFallsBackToScan() {
+        TrigramIndex index = createIndex();
+        assertArrayEquals(new int[] {0, 1, 3}, index.search("u", 20));
+    }
+
+    @Test
+    public void testMaxResults() {
+        TrigramIndex index = createIndex();
+        int[] owners = index.search("structure", 1);
+        assertEquals("Results should stop at the maximum", 1, owners.length);
+        assertEquals("Lowest owner should be returned first", "[3]", Arrays.toString(owners));
+    }
+
+    @Test
+    public void testRankedSearch() {
+        String[] terms = {
+            "structure of heart valve", "heart valve structure",
+            "heart",
+            "entire heart",
+            "heartburn", "pyrosis",
+            "heart structure",
+            "sweetheart"
+        };
+        int[] ownerOffsets = {0, 2, 3, 4, 6, 7, 8};
+        byte[] acceptabilities = new byte[terms.length];
+        acceptabilities[0] = (byte) LanguageAcceptability.PREFERRED.ordinal();
+        acceptabilities[1] = (byte) LanguageAcceptability.ACCEPTABLE.ordinal();
+        acceptabilities[2] = (byte) LanguageAcceptability.ACCEPTABLE.ordinal();
+        acceptabilities[3] = (byte) LanguageAcceptability.PREFERRED.ordinal();
+        acceptabilities[6] = (byte) LanguageAcceptability.PREFERRED.ordinal();
+        TrigramIndex index = new TrigramIndex(terms, ownerOffsets, acceptabilities);
+
+        // The whole term, then the start of a term (preferred, then acceptable, then neither, each owner ranked by its
+        // best term), then a word start, then elsewhere in a term
+        assertArrayEquals(new int[] {1, 4, 0, 3, 2, 5}, index.searchRanked("Heart", 20));
+        assertArrayEquals("Only the best kept", new int[] {1, 4}, index.searchRanked("heart", 2));
+        assertArrayEquals("Unranked search is in owner order", new int[] {0, 1}, index.search("heart", 2));
+        assertArrayEquals(new int[] {0}, index.searchRanked("valve", 20));
+        assertEquals(0, index.searchRanked("wakawaka", 20).length);
+        assertArrayEquals("Short term scan", new int[] {3}, index.searchRanked("bu", 20));
+    }
+}